@@ -0,0 +1,464 @@
+package com.turtle;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Records a turtle's drawing as an animation while a script runs headless: an animated GIF, an
+// animated PNG, or a numbered sequence of PNG files.
+//
+// The turtle reports each primitive it runs and the area it drew on (see HeadlessTurtle.setAnimation).
+// Every N commands, or every N drawn segments, a frame is captured. Only the area drawn on since the
+// last frame is read back, and compared with the last frame to find the rectangle that really
+// changed; a frame where nothing changed (a turn, a pen-up move) just holds the frame before it
+// on screen for longer. GIF and APNG frames store only the changed rectangle, GIF frames also
+// leave its unchanged pixels transparent. Encoding the frames runs on a pool of background threads
+// while the script carries on drawing; encoded frames are written in order, and at most a few per
+// thread are waiting at any time, so a slow encoder holds the drawing back rather than filling memory.
+public class AnimationExporter {
+    public static final int GIF = 0;
+    public static final int APNG = 1;
+    public static final int PNG_SEQUENCE = 2;
+    public static final String[] FORMAT_NAMES = { "gif", "apng", "png" };
+
+    public static final int DEFAULT_DELAY_MILLIS = 40; // 25 frames a second
+    public static final int MIN_DELAY_MILLIS = 20;     // Browsers slow faster GIFs down to 10 a second
+
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int MAX_PENDING = THREADS * 4; // Frames captured but not yet written
+    private static final int ACTL_OFFSET = 8 + 12 + 13; // After the signature and the IHDR chunk
+
+    private static final AtomicInteger THREAD_NUMBERS = new AtomicInteger();
+    private static final ExecutorService ENCODERS = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread thread = new Thread(r, "turtle-animation-" + THREAD_NUMBERS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // What a finished export wrote and how long it took
+    public static final class Result {
+        public final File file;
+        public final int frames;
+        public final long bytes;
+        public final long millis;
+
+        Result(File file, int frames, long bytes, long millis) {
+            this.file = file;
+            this.frames = frames;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + ": " + frames + " frames, " + bytes + " bytes in " + millis + " ms";
+        }
+    }
+
+    // A captured frame, being encoded
+    private static final class Frame {
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final CompletableFuture<Object> encoded; // GifEncoder.Frame, or the bytes of fdAT data or a PNG file
+        int shown = 1; // Frame times it stays on screen, grows while later captures change nothing
+
+        Frame(int x, int y, int width, int height, CompletableFuture<Object> encoded) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.encoded = encoded;
+        }
+    }
+
+    private final File file;
+    private final int format;
+    private final UndoHistory.Target turtle;
+    private final int every;
+    private final boolean segments;
+    private final int delayMillis;
+    private final PngEncoder pngEncoder;
+    private final long start = System.nanoTime();
+
+    private final int width;
+    private final int height;
+    private final int[] shown; // Pixels of the last frame captured, 0xRRGGBB
+    private int[] row = new int[0];
+    private int counted; // Commands or segments since the last frame
+    // Area drawn on since the last frame, empty when dirtyMinX > dirtyMaxX
+    private int dirtyMinX = Integer.MAX_VALUE;
+    private int dirtyMinY = Integer.MAX_VALUE;
+    private int dirtyMaxX = Integer.MIN_VALUE;
+    private int dirtyMaxY = Integer.MIN_VALUE;
+
+    private final ArrayDeque<Frame> pending = new ArrayDeque<>();
+    private Frame last; // Newest frame captured
+    private FileChannel channel; // GIF and APNG output
+    private OutputStream out;
+    private int frames; // Frames written
+    private int sequence; // Next APNG sequence number
+    private long bytes;
+    private IOException error; // First write that failed, nothing is captured after it
+
+    // Start recording turtle to file, a frame every N commands or every N segments drawn.
+    // For PNG_SEQUENCE, frame n is written next to file with -nnnnn added to its name.
+    public AnimationExporter(File file, int format, UndoHistory.Target turtle, int every, boolean segments,
+                             int delayMillis, PngEncoder pngEncoder) throws IOException {
+        if (format < GIF || format > PNG_SEQUENCE) {
+            throw new IllegalArgumentException("Unknown animation format " + format);
+        }
+        if (every < 1) {
+            throw new IllegalArgumentException("Frames must be at least 1 command apart");
+        }
+        if (delayMillis < MIN_DELAY_MILLIS) {
+            throw new IllegalArgumentException("Frame delay must be at least " + MIN_DELAY_MILLIS + " ms");
+        }
+        this.file = file;
+        this.format = format;
+        this.turtle = turtle;
+        this.every = every;
+        this.segments = segments;
+        this.delayMillis = delayMillis;
+        this.pngEncoder = pngEncoder;
+        BufferedImage canvas = turtle.getBufferedImage();
+        width = canvas.getWidth();
+        height = canvas.getHeight();
+        shown = new int[width * height];
+
+        if (format != PNG_SEQUENCE) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            try {
+                writeHeader();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        // The first frame is the whole canvas as it is now
+        changedAll();
+        capture(true);
+    }
+
+    // FORMAT constant for a name in FORMAT_NAMES, or -1
+    public static int formatNamed(String name) {
+        for (int i = 0; i < FORMAT_NAMES.length; i++) {
+            if (FORMAT_NAMES[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    // Extension of the files written in format, with the dot
+    public static String extension(int format) {
+        return format == GIF ? ".gif" : format == APNG ? ".apng" : ".png";
+    }
+
+    // ========== FROM THE TURTLE ==========
+
+    // The turtle drew inside x0, y0 to x1, y1 (inclusive, any order)
+    public void changed(int x0, int y0, int x1, int y1) {
+        dirtyMinX = Math.min(dirtyMinX, Math.min(x0, x1));
+        dirtyMinY = Math.min(dirtyMinY, Math.min(y0, y1));
+        dirtyMaxX = Math.max(dirtyMaxX, Math.max(x0, x1));
+        dirtyMaxY = Math.max(dirtyMaxY, Math.max(y0, y1));
+    }
+
+    // The whole canvas may have changed, e.g. cleared or replaced
+    public void changedAll() {
+        changed(0, 0, width - 1, height - 1);
+    }
+
+    // The turtle ran a command, which drew a segment or not. Captures a frame when enough have run.
+    public void command(boolean segment) {
+        if (segments && !segment) return;
+        if (++counted >= every) {
+            capture(false);
+        }
+    }
+
+    // ========== CAPTURING ==========
+
+    private void capture(boolean first) {
+        counted = 0;
+        if (error != null) return;
+        int minX = Math.max(dirtyMinX, 0);
+        int minY = Math.max(dirtyMinY, 0);
+        int maxX = Math.min(dirtyMaxX, width - 1);
+        int maxY = Math.min(dirtyMaxY, height - 1);
+        dirtyMinX = dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = dirtyMaxY = Integer.MIN_VALUE;
+
+        // Read the dirty area into shown, keeping the rows before it for GIF transparency,
+        // and shrink it to the pixels that really changed
+        BufferedImage canvas = turtle.getBufferedImage();
+        maxX = Math.min(maxX, canvas.getWidth() - 1);
+        maxY = Math.min(maxY, canvas.getHeight() - 1);
+        int changedMinX = Integer.MAX_VALUE, changedMinY = Integer.MAX_VALUE;
+        int changedMaxX = Integer.MIN_VALUE, changedMaxY = Integer.MIN_VALUE;
+        int[] before = null;
+        if (minX <= maxX && minY <= maxY) {
+            int areaWidth = maxX - minX + 1;
+            if (format == GIF) {
+                before = new int[areaWidth * (maxY - minY + 1)];
+            }
+            if (row.length < areaWidth) {
+                row = new int[areaWidth];
+            }
+            for (int y = minY; y <= maxY; y++) {
+                readRow(canvas, minX, y, areaWidth, row);
+                int offset = y * width + minX;
+                if (before != null) {
+                    System.arraycopy(shown, offset, before, (y - minY) * areaWidth, areaWidth);
+                }
+                for (int i = 0; i < areaWidth; i++) {
+                    int rgb = row[i] & 0xFFFFFF;
+                    if (rgb != shown[offset + i] || first) {
+                        shown[offset + i] = rgb;
+                        int x = minX + i;
+                        if (x < changedMinX) changedMinX = x;
+                        if (x > changedMaxX) changedMaxX = x;
+                        if (y < changedMinY) changedMinY = y;
+                        changedMaxY = y;
+                    }
+                }
+            }
+        }
+
+        boolean unchanged = changedMinX > changedMaxX;
+        if (unchanged && format != PNG_SEQUENCE) {
+            last.shown++; // Hold the last frame for longer
+            return;
+        }
+        Frame frame;
+        if (format == PNG_SEQUENCE) {
+            // Files are whole frames. One that is the same as the last reuses its encoding.
+            CompletableFuture<Object> encoded;
+            if (unchanged) {
+                encoded = last.encoded;
+            } else {
+                BufferedImage image = image(shown, 0, 0, width, height, width);
+                encoded = CompletableFuture.supplyAsync(() -> encodePng(image), ENCODERS);
+            }
+            frame = new Frame(0, 0, width, height, encoded);
+        } else {
+            int x = changedMinX;
+            int y = changedMinY;
+            int w = changedMaxX - changedMinX + 1;
+            int h = changedMaxY - changedMinY + 1;
+            if (format == GIF) {
+                int[] pixels = new int[w * h];
+                int areaWidth = maxX - minX + 1;
+                for (int j = 0; j < h; j++) {
+                    int from = (y + j) * width + x;
+                    int old = (y + j - minY) * areaWidth + x - minX;
+                    for (int i = 0; i < w; i++) {
+                        int rgb = shown[from + i];
+                        pixels[j * w + i] = rgb == before[old + i] && !first ? GifEncoder.TRANSPARENT : rgb;
+                    }
+                }
+                frame = new Frame(x, y, w, h, CompletableFuture.supplyAsync(
+                    () -> GifEncoder.encodeFrame(pixels, x, y, w, h), ENCODERS));
+            } else {
+                BufferedImage image = image(shown, x, y, w, h, width);
+                frame = new Frame(x, y, w, h, CompletableFuture.supplyAsync(() -> pngEncoder.deflate(image), ENCODERS));
+            }
+        }
+        pending.add(frame);
+        last = frame;
+        writeFinished(false);
+    }
+
+    // Row y of the canvas from x, straight out of the raster when it is a plain int one
+    private static void readRow(BufferedImage canvas, int x, int y, int length, int[] pixels) {
+        Raster raster = canvas.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && (canvas.getType() == BufferedImage.TYPE_INT_RGB || canvas.getType() == BufferedImage.TYPE_INT_ARGB)) {
+            SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            int offset = buffer.getOffset()
+                + (y - raster.getSampleModelTranslateY()) * model.getScanlineStride()
+                + x - raster.getSampleModelTranslateX();
+            System.arraycopy(buffer.getData(), offset, pixels, 0, length);
+        } else {
+            canvas.getRGB(x, y, length, 1, pixels, 0, length);
+        }
+    }
+
+    // A TYPE_INT_RGB copy of a rectangle of pixels with rows stride apart
+    private static BufferedImage image(int[] pixels, int x, int y, int w, int h, int stride) {
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int j = 0; j < h; j++) {
+            System.arraycopy(pixels, (y + j) * stride + x, data, j * w, w);
+        }
+        return image;
+    }
+
+    private byte[] encodePng(BufferedImage image) {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try {
+            pngEncoder.encode(image, png);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory cannot fail", e);
+        }
+        return png.toByteArray();
+    }
+
+    // ========== WRITING ==========
+
+    // Write frames that have been encoded, in order. Waits for the oldest while too many are pending.
+    // The newest frame is only written at the end: later captures may still hold it for longer.
+    private void writeFinished(boolean all) {
+        while (error == null && !pending.isEmpty() && (all || pending.size() > 1)) {
+            Frame frame = pending.peek();
+            if (!all && pending.size() <= MAX_PENDING && !frame.encoded.isDone()) {
+                break;
+            }
+            pending.poll();
+            try {
+                writeFrame(frame, frame.encoded.join());
+            } catch (IOException e) {
+                error = e;
+            } catch (CompletionException e) {
+                error = new IOException("Could not encode frame " + frames + ": " + e.getCause(), e.getCause());
+            }
+        }
+        if (error != null) {
+            pending.clear();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        long[] written = new long[1];
+        if (format == GIF) {
+            GifEncoder.writeHeader(out, width, height, 0);
+            written[0] = 6 + 7 + 19;
+        } else {
+            out.write(PngEncoder.SIGNATURE);
+            written[0] = PngEncoder.SIGNATURE.length;
+            byte[] header = new byte[13];
+            PngEncoder.putInt(header, 0, width);
+            PngEncoder.putInt(header, 4, height);
+            header[8] = 8; // Bit depth
+            header[9] = 2; // Colour type: RGB
+            PngEncoder.writeChunk(out, "IHDR", header, 0, header.length, written);
+            // The number of frames is not known yet, finish() writes it over this
+            PngEncoder.writeChunk(out, "acTL", new byte[8], 0, 8, written);
+        }
+        bytes = written[0];
+    }
+
+    private void writeFrame(Frame frame, Object encoded) throws IOException {
+        long[] written = new long[1];
+        long millis = (long) frame.shown * delayMillis;
+        if (format == GIF) {
+            GifEncoder.Frame gif = (GifEncoder.Frame) encoded;
+            GifEncoder.writeFrame(out, gif, (int) ((millis + 5) / 10));
+            written[0] = 8 + gif.data.length;
+        } else if (format == APNG) {
+            byte[] control = new byte[26];
+            PngEncoder.putInt(control, 0, sequence++);
+            PngEncoder.putInt(control, 4, frame.width);
+            PngEncoder.putInt(control, 8, frame.height);
+            PngEncoder.putInt(control, 12, frame.x);
+            PngEncoder.putInt(control, 16, frame.y);
+            int numerator = (int) millis;
+            int denominator = 1000;
+            if (millis > 0xFFFF) {
+                numerator = (int) Math.min(millis / 100, 0xFFFF); // Held for over a minute, in tenths
+                denominator = 10;
+            }
+            control[20] = (byte) (numerator >> 8);
+            control[21] = (byte) numerator;
+            control[22] = (byte) (denominator >> 8);
+            control[23] = (byte) denominator;
+            control[24] = 0; // Dispose: leave it
+            control[25] = 0; // Blend: replace the rectangle
+            PngEncoder.writeChunk(out, "fcTL", control, 0, control.length, written);
+            byte[] data = (byte[]) encoded;
+            if (frames == 0) {
+                PngEncoder.writeChunk(out, "IDAT", data, 0, data.length, written); // The default image
+            } else {
+                byte[] chunk = new byte[data.length + 4];
+                PngEncoder.putInt(chunk, 0, sequence++);
+                System.arraycopy(data, 0, chunk, 4, data.length);
+                PngEncoder.writeChunk(out, "fdAT", chunk, 0, chunk.length, written);
+            }
+        } else {
+            byte[] png = (byte[]) encoded;
+            Files.write(sequenceFile(frames).toPath(), png);
+            written[0] = png.length;
+        }
+        frames++;
+        bytes += written[0];
+    }
+
+    // File frame n of a PNG sequence is written to
+    public File sequenceFile(int n) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : ".png";
+        return new File(file.getAbsoluteFile().getParentFile(), String.format("%s-%05d%s", base, n, extension));
+    }
+
+    // Capture the drawing as it ends, write every frame and finish the file.
+    // Throws the first write that failed, if any did.
+    public Result finish() throws IOException {
+        if (counted > 0 || dirtyMinX <= dirtyMaxX) {
+            capture(false);
+        }
+        writeFinished(true);
+        try {
+            if (error == null && format == GIF) {
+                GifEncoder.writeTrailer(out);
+                bytes++;
+            } else if (error == null && format == APNG) {
+                long[] written = new long[1];
+                PngEncoder.writeChunk(out, "IEND", new byte[0], 0, 0, written);
+                bytes += written[0];
+                out.flush();
+                ByteArrayOutputStream control = new ByteArrayOutputStream(20);
+                byte[] counts = new byte[8];
+                PngEncoder.putInt(counts, 0, frames);
+                PngEncoder.putInt(counts, 4, 0); // Loop for ever
+                PngEncoder.writeChunk(control, "acTL", counts, 0, 8, written);
+                channel.write(ByteBuffer.wrap(control.toByteArray()), ACTL_OFFSET);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    if (error == null) error = e;
+                }
+            }
+        }
+        if (error != null) throw error;
+        File written = format == PNG_SEQUENCE ? sequenceFile(0) : file;
+        return new Result(written, frames, bytes, (System.nanoTime() - start) / 1_000_000);
+    }
+}
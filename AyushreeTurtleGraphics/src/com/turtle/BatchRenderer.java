@@ -0,0 +1,350 @@
+package com.turtle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+// Command line entry point that renders command scripts to PNG files without a window.
+//
+// Usage: BatchRenderer [--size WxH] [--scale N] [--compression 0-9] [--filter NAME] [--canvas heap|direct|mapped]
+//                      [--out DIR] [--cache DIR|off] [--stats FILE] [--antialias] [--verbose]
+//                      [--animate gif|apng|png] [--every N] [--segments] [--delay MS]
+//                      <script|directory|-> ...
+//   A directory renders every .txt file in it, "-" reads script paths from stdin.
+//   Each script.txt is written to DIR/script.png (default: next to the script).
+//   --scale re-renders the drawing N times larger on parallel tiles, e.g. for posters.
+//   --compression and --filter set the PNG deflate level and row filter (see PngEncoder).
+//   --canvas keeps the canvas pixels off the Java heap for very large sizes (see OffHeapCanvas).
+//   Only --antialias strokes draw on them at full speed.
+//   --cache keeps finished renders in DIR (or -Dturtle.cache.dir, see RenderCache), so a script
+//   already rendered on the same size canvas is written from the cache instead of being run again.
+//   Without either, every script is run and nothing is cached.
+//   --antialias draws lines and circles smoothed at sub-pixel positions (see StrokeRasterizer).
+//   --stats writes parse, draw and per-opcode timings to FILE when the batch ends (see RenderStats).
+//   --animate writes the drawing as it happens instead: script.gif, script.apng, or script-00000.png
+//   onwards, a frame every N commands (--every, default 1) or every N segments drawn (--segments),
+//   each shown for --delay ms (default 40). See AnimationExporter.
+public class BatchRenderer {
+    static final String USAGE = "Usage: BatchRenderer [--size WxH] [--scale N] [--compression 0-9] [--filter NAME]"
+        + " [--canvas heap|direct|mapped] [--out DIR] [--cache DIR|off] [--stats FILE] [--antialias] [--verbose]"
+        + " [--animate gif|apng|png] [--every N] [--segments] [--delay MS] <script|directory|-> ...";
+    // Options without a value, every other option takes one
+    static final List<String> FLAGS = Arrays.asList("--antialias", "--verbose", "--segments");
+
+    private final HeadlessTurtle turtle;
+    private final File outputDir;
+    private final boolean verbose;
+    private double scale = 1;
+    private final StreamingScriptLoader loader = new StreamingScriptLoader(ScriptPipeline.CHUNK_COMMANDS);
+    private RenderCache cache = RenderCache.fromProperties();
+    private int animation = -1; // AnimationExporter format, -1 to write still PNGs
+    private int frameEvery = 1;
+    private boolean frameSegments;
+    private int frameDelay = AnimationExporter.DEFAULT_DELAY_MILLIS;
+
+    private int rendered;
+    private int failed;
+    private String lastError; // Why the last render failed
+
+    public BatchRenderer(int width, int height, File outputDir, boolean verbose) {
+        this(new HeadlessTurtle(width, height), outputDir, verbose);
+    }
+
+    // Render with the canvas pixels kept by an OffHeapCanvas backend
+    public BatchRenderer(int width, int height, int backend, File outputDir, boolean verbose) throws IOException {
+        this(new HeadlessTurtle(OffHeapCanvas.create(backend, width, height)), outputDir, verbose);
+    }
+
+    private BatchRenderer(HeadlessTurtle turtle, File outputDir, boolean verbose) {
+        this.turtle = turtle;
+        this.outputDir = outputDir;
+        this.verbose = verbose;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Must be set before any AWT class is touched
+        System.setProperty("java.awt.headless", "true");
+
+        List<String> inputs = new ArrayList<>();
+        BatchRenderer renderer = fromArgs(args, inputs);
+        if (inputs.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        for (String input : inputs) {
+            renderer.renderInput(input);
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        RenderStats.get().runFinished();
+        System.out.println("Rendered " + renderer.rendered + " scripts (" + renderer.failed + " failed) in " + millis + " ms");
+        if (renderer.verbose && renderer.cache != null) {
+            System.err.println(renderer.cache);
+        }
+        if (renderer.failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    // A renderer set up by the options in args, which adds every other argument to inputs.
+    // Exits on a bad option value, as main does.
+    static BatchRenderer fromArgs(String[] args, List<String> inputs) throws IOException {
+        int width = HeadlessTurtle.DEFAULT_WIDTH;
+        int height = HeadlessTurtle.DEFAULT_HEIGHT;
+        File outputDir = null;
+        boolean verbose = false;
+        int scale = 1;
+        int compression = Deflater.DEFAULT_COMPRESSION;
+        int filter = PngEncoder.FILTER_NONE;
+        int backend = OffHeapCanvas.HEAP;
+        String cacheDir = null;
+        boolean antialias = false;
+        int animation = -1;
+        int frameEvery = 1;
+        boolean frameSegments = false;
+        int frameDelay = AnimationExporter.DEFAULT_DELAY_MILLIS;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--size":
+                    String[] size = args[++i].toLowerCase().split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                    break;
+                case "--scale":
+                    scale = Integer.parseInt(args[++i]);
+                    break;
+                case "--compression":
+                    compression = Integer.parseInt(args[++i]);
+                    break;
+                case "--filter":
+                    filter = PngEncoder.filterNamed(args[++i]);
+                    if (filter < 0) {
+                        System.err.println("--filter must be one of " + String.join(", ", PngEncoder.FILTER_NAMES));
+                        System.exit(2);
+                    }
+                    break;
+                case "--canvas":
+                    backend = OffHeapCanvas.backendNamed(args[++i]);
+                    if (backend < 0) {
+                        System.err.println("--canvas must be one of " + String.join(", ", OffHeapCanvas.BACKEND_NAMES));
+                        System.exit(2);
+                    }
+                    break;
+                case "--out":
+                    outputDir = new File(args[++i]);
+                    outputDir.mkdirs();
+                    break;
+                case "--cache":
+                    cacheDir = args[++i];
+                    break;
+                case "--stats":
+                    RenderStats.get().setDumpFile(args[++i]);
+                    break;
+                case "--antialias":
+                    antialias = true;
+                    break;
+                case "--verbose":
+                    verbose = true;
+                    break;
+                case "--animate":
+                    animation = AnimationExporter.formatNamed(args[++i]);
+                    if (animation < 0) {
+                        System.err.println("--animate must be one of " + String.join(", ", AnimationExporter.FORMAT_NAMES));
+                        System.exit(2);
+                    }
+                    break;
+                case "--every":
+                    frameEvery = Integer.parseInt(args[++i]);
+                    break;
+                case "--segments":
+                    frameSegments = true;
+                    break;
+                case "--delay":
+                    frameDelay = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    inputs.add(args[i]);
+            }
+        }
+        BatchRenderer renderer = new BatchRenderer(width, height, backend, outputDir, verbose);
+        renderer.setScale(scale);
+        if (antialias) {
+            renderer.turtle.setAntialias(true);
+        }
+        if (animation >= 0) {
+            if (frameEvery < 1 || frameDelay < AnimationExporter.MIN_DELAY_MILLIS) {
+                System.err.println("--every must be at least 1 and --delay at least " + AnimationExporter.MIN_DELAY_MILLIS);
+                System.exit(2);
+            }
+            renderer.setAnimation(animation, frameEvery, frameSegments, frameDelay);
+        }
+        if (cacheDir != null) {
+            renderer.setCache(cacheDir.equalsIgnoreCase("off") ? null : new RenderCache(new File(cacheDir),
+                RenderCache.DEFAULT_MEMORY_BYTES, RenderCache.DEFAULT_DISK_BYTES));
+        }
+        renderer.turtle.setPngEncoder(new PngEncoder(compression, filter));
+        return renderer;
+    }
+
+    // Render a script, every script in a directory, or the paths listed on stdin
+    public void renderInput(String input) throws IOException {
+        findScripts(input, this::render);
+    }
+
+    // Pass on the script, the .txt files in a directory in name order, or those of the paths listed
+    // on stdin. RenderCoordinator finds its jobs here too.
+    static void findScripts(String input, Consumer<File> scripts) throws IOException {
+        if (input.equals("-")) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    findScripts(line.trim(), scripts);
+                }
+            }
+            return;
+        }
+
+        File file = new File(input);
+        if (file.isDirectory()) {
+            File[] found = file.listFiles((dir, name) -> name.endsWith(".txt"));
+            if (found != null) {
+                Arrays.sort(found);
+                for (File script : found) {
+                    scripts.accept(script);
+                }
+            }
+        } else {
+            scripts.accept(file);
+        }
+    }
+
+    // Run one script on a fresh canvas and write it out as PNG, or as an animation.
+    // The script is streamed, each chunk runs as soon as it is compiled. A script the cache has
+    // seen is not run at all, its display list comes back with it for scaled output. Animations
+    // always run.
+    public boolean render(File script) {
+        lastError = null;
+        turtle.clear();
+        turtle.restoreDefaults();
+
+        String name = script.getName();
+        if (verbose) {
+            turtle.setMessageSink(message -> System.err.println(name + ": " + message));
+        }
+        String base = name.endsWith(".txt") ? name.substring(0, name.length() - 4) : name;
+        File dir = outputDir != null ? outputDir : script.getAbsoluteFile().getParentFile();
+        try {
+            if (animation >= 0) {
+                return animate(script, new File(dir, base + AnimationExporter.extension(animation)));
+            }
+            String key = cache != null ? RenderCache.key(script.toPath(), turtle) : null;
+            if (key != null && cache.restore(key, turtle)) {
+                if (verbose) {
+                    System.err.println(name + ": from cache");
+                }
+            } else {
+                boolean[] cacheable = { key != null };
+                run(script, chunk -> cacheable[0] &= !chunk.usesFiles());
+                if (cacheable[0]) {
+                    cache.put(key, turtle);
+                }
+            }
+
+            PngEncoder.Result result = turtle.writePng(new File(dir, base + ".png"), scale);
+            if (verbose) {
+                System.err.println(name + ": wrote " + result);
+            }
+            rendered++;
+            return true;
+        } catch (IOException e) {
+            System.err.println(name + ": " + e.getMessage());
+            lastError = e.getMessage();
+            failed++;
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lastError = "interrupted";
+            failed++;
+            return false;
+        } catch (RuntimeException e) {
+            // A bug hit by one script must not stop the rest of the batch
+            System.err.println(name + ": " + e);
+            lastError = e.toString();
+            failed++;
+            return false;
+        }
+    }
+
+    // Stream a script through the turtle, showing each compiled chunk to before first
+    private void run(File script, Consumer<CompiledScript> before) throws IOException, InterruptedException {
+        String name = script.getName();
+        loader.load(script.toPath(), 0, 0, (chunk, endOffset, endLine) -> {
+            if (verbose) {
+                for (String error : chunk.getErrors()) {
+                    System.err.println(name + ": " + error);
+                }
+            }
+            before.accept(chunk);
+            ScriptInterpreter.execute(chunk, turtle);
+        });
+    }
+
+    // Run a script with its frames captured into file
+    private boolean animate(File script, File file) throws IOException, InterruptedException {
+        AnimationExporter exporter = new AnimationExporter(file, animation, turtle, frameEvery, frameSegments,
+            frameDelay, turtle.getPngEncoder());
+        AnimationExporter.Result result;
+        turtle.setAnimation(exporter);
+        try {
+            run(script, chunk -> { });
+        } finally {
+            turtle.setAnimation(null);
+            result = exporter.finish();
+        }
+        if (verbose) {
+            System.err.println(script.getName() + ": wrote " + result);
+        }
+        rendered++;
+        return true;
+    }
+
+    // Write scripts as animations in an AnimationExporter format, a frame every N commands or segments
+    public void setAnimation(int format, int every, boolean segments, int delayMillis) {
+        animation = format;
+        frameEvery = every;
+        frameSegments = segments;
+        frameDelay = delayMillis;
+    }
+
+    // Output size as a multiple of the canvas size
+    public void setScale(double scale) {
+        this.scale = scale;
+    }
+
+    // Cache of finished renders, null to run every script
+    public void setCache(RenderCache cache) {
+        this.cache = cache;
+    }
+
+    public int getRendered() {
+        return rendered;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    // Why the last render returned false, null after one that succeeded
+    public String getLastError() {
+        return lastError;
+    }
+}
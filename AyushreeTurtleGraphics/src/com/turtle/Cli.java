@@ -0,0 +1,56 @@
+package com.turtle;
+
+import java.util.Arrays;
+
+// Command line entry point that works without LBUGraphics, so the headless build can run it.
+//
+// Usage: Cli --batch [BatchRenderer options] scripts...
+//        Cli --server [RenderServer options]
+//        Cli --coordinator [RenderCoordinator options] scripts...
+//        Cli --worker --port N [BatchRenderer options]
+//        Cli [--turbo]                                   opens the window, if it was built
+//
+// MainClass hands its arguments here first and only opens the window when none of the modes
+// above was asked for.
+public class Cli {
+    private static final String WINDOW_CLASS = "com.turtle.MainClass";
+
+    public static void main(String[] args) throws Exception {
+        if (run(args)) return;
+        try {
+            Class.forName(WINDOW_CLASS).getMethod("main", String[].class).invoke(null, (Object) args);
+        } catch (ClassNotFoundException | NoClassDefFoundError e) {
+            // Headless build, TurtleGraphics and LBUGraphics are not there
+            System.err.println("No window in this build, use --batch, --server, --coordinator or --worker");
+            System.exit(2);
+        }
+    }
+
+    // Run the headless mode named by args[0] and return true, or return false if there is none
+    public static boolean run(String[] args) throws Exception {
+        // Command, opcode and phase timings over JMX (see RenderStats)
+        RenderStats.register();
+        String mode = args.length > 0 ? args[0] : "";
+        String[] rest = args.length > 0 ? Arrays.copyOfRange(args, 1, args.length) : args;
+        switch (mode) {
+            // Render scripts without a window
+            case "--batch":
+                BatchRenderer.main(rest);
+                return true;
+            // Run many headless sessions from stdin or a local port
+            case "--server":
+                RenderServer.main(rest);
+                return true;
+            // Render scripts on several worker processes
+            case "--coordinator":
+                RenderCoordinator.main(rest);
+                return true;
+            // One of those workers
+            case "--worker":
+                RenderWorker.main(rest);
+                return true;
+            default:
+                return false;
+        }
+    }
+}
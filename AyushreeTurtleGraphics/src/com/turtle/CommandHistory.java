@@ -0,0 +1,121 @@
+package com.turtle;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+// Bounded store for command history and messages.
+//
+// The newest entries are kept in a fixed size ring buffer. When it is full the oldest entry
+// is either dropped or, if a spill file is set, appended to that file so the full history can
+// still be saved. Appends are synchronized, so any thread can record history without the EDT.
+public class CommandHistory {
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private final String[] entries;
+    private int head; // Index of the oldest entry in memory
+    private int size;
+    private long total; // Entries ever appended, including spilled and dropped ones
+
+    private final File spillFile;
+    private BufferedWriter spillWriter;
+    private long spilled;
+
+    public CommandHistory(int capacity) {
+        this(capacity, null);
+    }
+
+    // spillFile may be null to simply drop entries that fall out of the buffer
+    public CommandHistory(int capacity, File spillFile) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive");
+        }
+        this.entries = new String[capacity];
+        this.spillFile = spillFile;
+    }
+
+    public synchronized void append(String entry) {
+        if (size == entries.length) {
+            spill(entries[head]);
+            entries[head] = entry;
+            head = (head + 1) % entries.length;
+        } else {
+            entries[(head + size) % entries.length] = entry;
+            size++;
+        }
+        total++;
+    }
+
+    // Number of entries held in memory
+    public synchronized int size() {
+        return size;
+    }
+
+    // Entry i of those in memory, 0 being the oldest
+    public synchronized String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("History index " + index + " of " + size);
+        }
+        return entries[(head + index) % entries.length];
+    }
+
+    // Number of entries appended since the history was created
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    // Write the whole history, one entry per line: spilled entries first, then those in memory
+    public void writeTo(Writer out) throws IOException {
+        String[] snapshot;
+        synchronized (this) {
+            if (spillWriter != null) {
+                spillWriter.flush();
+            }
+            if (spilled > 0) {
+                try (Reader spill = Files.newBufferedReader(spillFile.toPath(), StandardCharsets.UTF_8)) {
+                    spill.transferTo(out);
+                }
+            }
+            snapshot = new String[size];
+            for (int i = 0; i < size; i++) {
+                snapshot[i] = entries[(head + i) % entries.length];
+            }
+        }
+        for (String entry : snapshot) {
+            out.write(entry);
+            out.write(System.lineSeparator());
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (spillWriter != null) {
+            spillWriter.close();
+            spillWriter = null;
+        }
+    }
+
+    private void spill(String entry) {
+        if (spillFile == null) {
+            return;
+        }
+        try {
+            if (spillWriter == null) {
+                spillWriter = Files.newBufferedWriter(spillFile.toPath(), StandardCharsets.UTF_8);
+            }
+            spillWriter.write(entry);
+            spillWriter.write(System.lineSeparator());
+            spilled++;
+        } catch (IOException e) {
+            // History is best effort, keep running without the spill file
+            System.err.println("Command history spill failed: " + e.getMessage());
+        }
+    }
+}
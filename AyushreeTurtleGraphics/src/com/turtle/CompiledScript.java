@@ -0,0 +1,193 @@
+package com.turtle;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// A command script compiled by ScriptCompiler into flat primitive arrays.
+//
+// Each instruction is an opcode in code[] followed by ARITY[opcode] operands (CALL is followed by
+// its argument count and that many operands). File names are indexes into strings[].
+// A numeric operand is an index into constants[] when it is 0 or more, and otherwise ~operand is
+// the start of an expression in exprs[], evaluated when the instruction runs.
+// Jumps are relative, a pc offset followed by an instruction offset, so a script can be cut and
+// moved without patching. lines[i] is the source line of the i-th instruction, for error messages.
+//
+// Procedures are compiled to scripts of their own. A script keeps the procedures known when it
+// was built, and its Workspace holds the global variables shared by every chunk of one source.
+public final class CompiledScript {
+    // Opcodes
+    public static final int FORWARD = 0;
+    public static final int BACKWARD = 1;
+    public static final int LEFT = 2;
+    public static final int RIGHT = 3;
+    public static final int PEN_UP = 4;
+    public static final int PEN_DOWN = 5;
+    public static final int PEN_WIDTH = 6;
+    public static final int PEN_COLOUR = 7; // operand is a packed 0xRRGGBB value
+    public static final int CLEAR = 8;
+    public static final int RESET = 9;
+    public static final int CIRCLE = 10;
+    public static final int SQUARE = 11;
+    public static final int TRIANGLE = 12;
+    public static final int TRIANGLE3 = 13;
+    public static final int SAVE = 14;
+    public static final int LOAD = 15;
+    public static final int OLYMPICS = 16;
+    public static final int NAME = 17;
+    public static final int SPEED = 18;
+    public static final int SAVE_SVG = 19;
+    public static final int SAVE_SCALED = 20; // operands are a file name and a scale
+    public static final int REPEAT = 21;      // count, jump past the loop if the count is below 1
+    public static final int LOOP = 22;        // jump back to the start of the loop body if it goes round again
+    public static final int IF = 23;          // condition, jump past the block if it is 0
+    public static final int CALL = 24;        // procedure, argument count, arguments
+    public static final int RETURN = 25;
+    public static final int MAKE = 26;        // global variable, value
+    public static final int PEN_RGB = 27;     // red, green and blue operands, for values only known at run time
+    public static final int TURTLE_CREATE = 28; // turtle name, see TurtleSwarm
+    public static final int TURTLE_REMOVE = 29; // turtle name
+    public static final int ASK = 30;         // turtle name, jump past the command if there is no such turtle
+    public static final int ASK_END = 31;     // back to the turtle that was drawing before the ASK
+    public static final int OPCODE_COUNT = 32; // One past the last opcode, ARITY and NAMES have an entry for each
+
+    // Expression opcodes, in exprs[]. Values are doubles, comparisons give 1 or 0.
+    static final int E_END = 0;
+    static final int E_CONSTANT = 1; // constant slot
+    static final int E_GLOBAL = 2;   // global variable
+    static final int E_LOCAL = 3;    // procedure parameter
+    static final int E_REPCOUNT = 4; // iteration of the innermost repeat, from 1
+    static final int E_NEGATE = 5;
+    static final int E_ADD = 6, E_SUBTRACT = 7, E_MULTIPLY = 8, E_DIVIDE = 9, E_REMAINDER = 10;
+    static final int E_LESS = 11, E_GREATER = 12, E_LESS_EQUAL = 13, E_GREATER_EQUAL = 14, E_EQUAL = 15,
+        E_NOT_EQUAL = 16;
+
+    // Number of operands following each opcode, CALL's arguments not counted
+    static final int[] ARITY = {
+        1, 1, 1, 1, 0, 0, 1, 1, 0, 0, 1, 1, 1, 3, 1, 1, 0, 0, 1, 1, 2, 3, 2, 3, 2, 0, 2, 3, 1, 1, 3, 0
+    };
+
+    // Command names, indexed by opcode, used when printing or re-emitting scripts
+    static final String[] NAMES = {
+        "forward", "backward", "left", "right", "penup", "pendown", "penwidth", "pencolour",
+        "clear", "reset", "circle", "square", "triangle", "triangle", "save", "load",
+        "olympics", "name", "setspeed", "svg", "save", "repeat", "]", "if", "call", "stop", "make",
+        "pencolour", "turtle create", "turtle remove", "ask", "ask end"
+    };
+
+    static {
+        if (ARITY.length != OPCODE_COUNT || NAMES.length != OPCODE_COUNT) {
+            throw new AssertionError("ARITY and NAMES need one entry for each of the " + OPCODE_COUNT + " opcodes");
+        }
+    }
+
+    final int[] code;
+    final int codeLength;
+    final double[] constants;
+    final String[] strings;
+    final int[] lines;
+    final int instructionCount;
+    final String[] errors;
+    final int[] exprs;
+    final Procedure[] procedures;
+    final Workspace workspace;
+    final int globalCount; // Globals known when the script was built
+
+    CompiledScript(int[] code, int codeLength, double[] constants, String[] strings,
+                   int[] lines, int instructionCount, String[] errors) {
+        this(code, codeLength, constants, strings, lines, instructionCount, errors,
+            new int[0], new Procedure[0], null, 0);
+    }
+
+    CompiledScript(int[] code, int codeLength, double[] constants, String[] strings,
+                   int[] lines, int instructionCount, String[] errors,
+                   int[] exprs, Procedure[] procedures, Workspace workspace, int globalCount) {
+        this.code = code;
+        this.codeLength = codeLength;
+        this.constants = constants;
+        this.strings = strings;
+        this.lines = lines;
+        this.instructionCount = instructionCount;
+        this.errors = errors;
+        this.exprs = exprs;
+        this.procedures = procedures;
+        this.workspace = workspace;
+        this.globalCount = globalCount;
+    }
+
+    // Number of compiled commands
+    public int size() {
+        return instructionCount;
+    }
+
+    // Lines rejected by the compiler, as "line N: message"
+    public String[] getErrors() {
+        return errors.clone();
+    }
+
+    // Whether any command saves or loads a file, here or in a procedure it calls. Undo does not
+    // replay those, they could have changed, and the render cache does not keep them.
+    boolean usesFiles() {
+        return uses(opcode -> opcode == SAVE || opcode == LOAD || opcode == SAVE_SVG || opcode == SAVE_SCALED);
+    }
+
+    // Whether any command creates, removes or talks to a named turtle, here or in a procedure it
+    // calls. Undo does not replay those, it restores the canvas but not the named turtles.
+    boolean usesTurtles() {
+        return uses(opcode -> opcode == TURTLE_CREATE || opcode == TURTLE_REMOVE || opcode == ASK);
+    }
+
+    // Whether an instruction matches, in this script or the body of any procedure it calls, directly
+    // or through other procedures. Calls index the procedures of this script, as when it runs.
+    private boolean uses(IntPredicate matches) {
+        boolean[] visited = new boolean[procedures.length];
+        ArrayDeque<CompiledScript> scripts = new ArrayDeque<>();
+        scripts.push(this);
+        while (!scripts.isEmpty()) {
+            CompiledScript script = scripts.pop();
+            for (int pc = 0; pc < script.codeLength; pc += width(script.code, pc)) {
+                int opcode = script.code[pc];
+                if (matches.test(opcode)) return true;
+                if (opcode == CALL) {
+                    int index = script.code[pc + 1];
+                    if (index < procedures.length && !visited[index] && procedures[index].body != null) {
+                        visited[index] = true;
+                        scripts.push(procedures[index].body);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Length of the instruction at pc, opcode included
+    static int width(int[] code, int pc) {
+        int opcode = code[pc];
+        return opcode == CALL ? 3 + code[pc + 2] : 1 + ARITY[opcode];
+    }
+
+    // A procedure defined with to ... end
+    static final class Procedure {
+        final String name;
+        final int parameters;
+        CompiledScript body; // Set once its end has been compiled
+
+        Procedure(String name, int parameters) {
+            this.name = name;
+            this.parameters = parameters;
+        }
+    }
+
+    // Global variable values, shared by the chunks compiled by one ScriptCompiler.
+    // Only the thread executing the chunks reads or writes them.
+    static final class Workspace {
+        double[] values = new double[16];
+
+        double[] values(int count) {
+            if (values.length < count) {
+                values = Arrays.copyOf(values, Math.max(count, values.length * 2));
+            }
+            return values;
+        }
+    }
+}
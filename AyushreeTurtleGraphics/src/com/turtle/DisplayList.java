@@ -0,0 +1,479 @@
+package com.turtle;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+// Vector record of everything the turtle has drawn since the last clear.
+//
+// Primitives are kept in parallel primitive arrays: a kind, four coordinates and a pen style.
+// A line segment is (x1, y1, x2, y2), a circle is (cx, cy, r, 0). Pen changes append to a small
+// style table, so each primitive only stores a style index. The list also collects the dirty
+// rectangle touched since the last takeDirty(), so the window can repaint just that area.
+// Primitives are also added to a SegmentIndex as they are recorded, so painting a viewport and
+// hit-testing with pick only look at primitives near the area asked for.
+// All methods are synchronized: drawing happens on the render thread, painting on the EDT.
+public class DisplayList {
+    public static final int SEGMENT = 0;
+    public static final int CIRCLE = 1;
+
+    private static final double CIRCLE_FLATNESS = 0.05; // Pixels a flattened circle may stray from the curve
+
+    private int[] kinds = new int[256];
+    private float[] coords = new float[256 * 4];
+    private int[] styles = new int[256];
+    private int size;
+
+    private int[] styleRgb = new int[16];
+    private float[] styleWidth = new float[16];
+    private int styleCount;
+    private int currentRgb = 0xFF0000;
+    private float currentWidth = 1;
+    private int currentStyle = -1; // Style used by the next primitive, -1 until one is needed
+
+    private BufferedImage baseImage; // Image loaded underneath the primitives, may be null
+
+    private final SegmentIndex index = new SegmentIndex();
+    private float maxWidth = 1; // Widest pen used, how far a stroke can reach outside its cells
+    private long changes; // Bumped by every primitive, clear and restore, so callers can spot changes
+
+    // Dirty area since the last takeDirty()
+    private int dirtyMinX = Integer.MAX_VALUE;
+    private int dirtyMinY = Integer.MAX_VALUE;
+    private int dirtyMaxX = Integer.MIN_VALUE;
+    private int dirtyMaxY = Integer.MIN_VALUE;
+
+    // ========== RECORDING ==========
+
+    // Record a pen colour or width change, used by the following primitives
+    public synchronized void setPen(int rgb, float width) {
+        if ((rgb & 0xFFFFFF) != currentRgb || width != currentWidth) {
+            currentRgb = rgb & 0xFFFFFF;
+            currentWidth = width;
+            currentStyle = -1;
+        }
+    }
+
+    public synchronized void addSegment(float x1, float y1, float x2, float y2) {
+        add(SEGMENT, x1, y1, x2, y2);
+        markDirty(Math.min(x1, x2) - currentWidth, Math.min(y1, y2) - currentWidth,
+                  Math.max(x1, x2) + currentWidth, Math.max(y1, y2) + currentWidth);
+    }
+
+    public synchronized void addCircle(float cx, float cy, float radius) {
+        add(CIRCLE, cx, cy, radius, 0);
+        float reach = radius + currentWidth;
+        markDirty(cx - reach, cy - reach, cx + reach, cy + reach);
+    }
+
+    // Forget all primitives, the whole canvas becomes dirty
+    public synchronized void clear(int width, int height) {
+        changes++;
+        size = 0;
+        styleCount = 0;
+        currentStyle = -1;
+        baseImage = null;
+        index.clear();
+        maxWidth = 1;
+        markDirty(0, 0, width, height);
+    }
+
+    // Start again on top of a loaded image
+    public synchronized void setBaseImage(BufferedImage image) {
+        clear(image.getWidth(), image.getHeight());
+        baseImage = image;
+    }
+
+    public synchronized BufferedImage getBaseImage() {
+        return baseImage;
+    }
+
+    // Add an area that needs repainting, e.g. where the turtle sprite moved
+    public synchronized void markDirty(float minX, float minY, float maxX, float maxY) {
+        dirtyMinX = Math.min(dirtyMinX, (int) Math.floor(minX) - 1);
+        dirtyMinY = Math.min(dirtyMinY, (int) Math.floor(minY) - 1);
+        dirtyMaxX = Math.max(dirtyMaxX, (int) Math.ceil(maxX) + 1);
+        dirtyMaxY = Math.max(dirtyMaxY, (int) Math.ceil(maxY) + 1);
+    }
+
+    // Area touched since the last call, or null if nothing changed
+    public synchronized Rectangle takeDirty() {
+        if (dirtyMaxX < dirtyMinX) {
+            return null;
+        }
+        Rectangle dirty = new Rectangle(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY);
+        dirtyMinX = dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = dirtyMaxY = Integer.MIN_VALUE;
+        return dirty;
+    }
+
+    private void add(int kind, float a, float b, float c, float d) {
+        if (currentStyle < 0) {
+            if (styleCount == styleRgb.length) {
+                styleRgb = Arrays.copyOf(styleRgb, styleCount * 2);
+                styleWidth = Arrays.copyOf(styleWidth, styleCount * 2);
+            }
+            styleRgb[styleCount] = currentRgb;
+            styleWidth[styleCount] = currentWidth;
+            currentStyle = styleCount++;
+        }
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            styles = Arrays.copyOf(styles, size * 2);
+            coords = Arrays.copyOf(coords, size * 8);
+        }
+        kinds[size] = kind;
+        styles[size] = currentStyle;
+        int c4 = size * 4;
+        coords[c4] = a;
+        coords[c4 + 1] = b;
+        coords[c4 + 2] = c;
+        coords[c4 + 3] = d;
+        if (kind == SEGMENT) {
+            index.addSegment(size, a, b, c, d);
+        } else {
+            index.addCircle(size, a, b, c);
+        }
+        maxWidth = Math.max(maxWidth, currentWidth);
+        size++;
+        changes++;
+    }
+
+    // ========== ACCESS ==========
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Count of changes so far, equal counts mean nothing was recorded or cleared in between
+    public synchronized long getChanges() {
+        return changes;
+    }
+
+    public synchronized int kind(int i) {
+        return kinds[i];
+    }
+
+    // Coordinate j (0-3) of primitive i
+    public synchronized float coord(int i, int j) {
+        return coords[i * 4 + j];
+    }
+
+    public synchronized int rgb(int i) {
+        return styleRgb[styles[i]];
+    }
+
+    public synchronized float width(int i) {
+        return styleWidth[styles[i]];
+    }
+
+    // ========== RENDERING ==========
+
+    // Draw every primitive, scaled, onto g. The caller sets any clip.
+    public synchronized void render(Graphics2D g, double scale) {
+        renderRange(g, scale, 0, size);
+    }
+
+    // Draw primitives [from, to) onto g
+    public synchronized void renderRange(Graphics2D g, double scale, int from, int to) {
+        Path2D.Float path = new Path2D.Float();
+        int style = -1;
+        float s = (float) scale;
+        for (int i = from; i < to; i++) {
+            if (styles[i] != style) {
+                style = styles[i];
+                g.setColor(new Color(styleRgb[style]));
+                g.setStroke(new BasicStroke(styleWidth[style] * s));
+            }
+            drawPrimitive(g, path, kinds[i], coords, i * 4, s);
+        }
+    }
+
+    // Stroke one primitive, scaled by s, with g's current stroke. Both kinds go through a general
+    // path of straight lines: Java2D's shortcut for wide Line2D strokes and its curve subdivision
+    // change with the clip, which would leave seams between tiles and viewports.
+    static void drawPrimitive(Graphics2D g, Path2D.Float path, int kind, float[] coords, int c4, float s) {
+        path.reset();
+        if (kind == SEGMENT) {
+            path.moveTo(coords[c4] * s, coords[c4 + 1] * s);
+            path.lineTo(coords[c4 + 2] * s, coords[c4 + 3] * s);
+        } else {
+            float r = coords[c4 + 2];
+            Ellipse2D.Float oval = new Ellipse2D.Float((coords[c4] - r) * s, (coords[c4 + 1] - r) * s, 2 * r * s, 2 * r * s);
+            path.append(oval.getPathIterator(null, CIRCLE_FLATNESS), false);
+        }
+        g.draw(path);
+    }
+
+    // Draw only the primitives that can touch viewport (in drawing coordinates), scaled onto g.
+    // Used when just part of a large drawing is on screen, the caller clips g to the viewport.
+    public synchronized void renderVisible(Graphics2D g, double scale, Rectangle viewport) {
+        float reach = maxWidth / 2 + 1;
+        int found = index.query(viewport.x - reach, viewport.y - reach,
+            viewport.x + viewport.width + reach, viewport.y + viewport.height + reach, size);
+        int[] ids = index.results();
+        // Consecutive ids are drawn as one range to keep style changes cheap
+        int start = 0;
+        while (start < found) {
+            int end = start + 1;
+            while (end < found && ids[end] == ids[end - 1] + 1) end++;
+            renderRange(g, scale, ids[start], ids[end - 1] + 1);
+            start = end;
+        }
+    }
+
+    // Render the part of the drawing inside viewport (drawing coordinates) at the given scale
+    public synchronized BufferedImage renderViewport(Rectangle viewport, double scale, Color background) {
+        int width = (int) Math.ceil(viewport.width * scale);
+        int height = (int) Math.ceil(viewport.height * scale);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+        g.scale(scale, scale);
+        g.translate(-viewport.x, -viewport.y);
+        if (baseImage != null) {
+            g.drawImage(baseImage, 0, 0, null);
+        }
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.clip(viewport);
+        renderVisible(g, 1, viewport);
+        g.dispose();
+        return image;
+    }
+
+    // Topmost primitive within tolerance pixels of (x, y) plus half its pen width, or -1
+    public synchronized int pick(float x, float y, float tolerance) {
+        float reach = tolerance + maxWidth / 2;
+        int found = index.query(x - reach, y - reach, x + reach, y + reach, size);
+        int[] ids = index.results();
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int k = 0; k < found; k++) {
+            int i = ids[k];
+            int c4 = i * 4;
+            double distance;
+            if (kinds[i] == SEGMENT) {
+                distance = Line2D.ptSegDist(coords[c4], coords[c4 + 1], coords[c4 + 2], coords[c4 + 3], x, y);
+            } else {
+                distance = Math.abs(Math.hypot(x - coords[c4], y - coords[c4 + 1]) - coords[c4 + 2]);
+            }
+            distance -= styleWidth[styles[i]] / 2;
+            // Ids come in drawing order, so <= prefers the one drawn last
+            if (distance <= tolerance && distance <= bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    // Human readable description of primitive i, used by the pick command
+    public synchronized String describe(int i) {
+        int c4 = i * 4;
+        String what = kinds[i] == SEGMENT
+            ? "Line #" + i + " from (" + coords[c4] + ", " + coords[c4 + 1] + ") to ("
+                + coords[c4 + 2] + ", " + coords[c4 + 3] + ")"
+            : "Circle #" + i + " at (" + coords[c4] + ", " + coords[c4 + 1] + ") radius " + coords[c4 + 2];
+        return what + ", colour " + hex(styleRgb[styles[i]]) + ", width " + styleWidth[styles[i]];
+    }
+
+    // Re-render the drawing at another size, e.g. for zooming or high resolution export
+    public synchronized BufferedImage renderImage(int width, int height, double scale, Color background) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+        if (baseImage != null) {
+            g.drawImage(baseImage, 0, 0, (int) (baseImage.getWidth() * scale),
+                (int) (baseImage.getHeight() * scale), null);
+        }
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        render(g, scale);
+        g.dispose();
+        return image;
+    }
+
+    // Same as renderImage, but tiles are rasterized in parallel on pool. Meant for large exports.
+    // Not synchronized: the primitives are copied under the lock, then rendered without it.
+    public BufferedImage renderTiled(int width, int height, double scale, Color background, ForkJoinPool pool) {
+        TileRasterizer rasterizer;
+        synchronized (this) {
+            rasterizer = new TileRasterizer(Arrays.copyOf(kinds, size), Arrays.copyOf(coords, size * 4),
+                Arrays.copyOf(styles, size), Arrays.copyOf(styleRgb, styleCount),
+                Arrays.copyOf(styleWidth, styleCount), size, baseImage, TileRasterizer.DEFAULT_TILE_SIZE);
+        }
+        return rasterizer.render(width, height, scale, background, pool);
+    }
+
+    // ========== UNDO ==========
+
+    // Copy of the primitives and pen, to go back to later with restore
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(Arrays.copyOf(kinds, size), Arrays.copyOf(coords, size * 4), Arrays.copyOf(styles, size),
+            Arrays.copyOf(styleRgb, styleCount), Arrays.copyOf(styleWidth, styleCount),
+            currentRgb, currentWidth, currentStyle, baseImage != null);
+    }
+
+    // Replace the primitives with a snapshot. baseImage is the image underneath them (null for
+    // none), width and height the canvas size, which all becomes dirty.
+    public synchronized void restore(Snapshot snapshot, BufferedImage baseImage, int width, int height) {
+        int count = snapshot.kinds.length;
+        kinds = Arrays.copyOf(snapshot.kinds, Math.max(count, 256));
+        coords = Arrays.copyOf(snapshot.coords, Math.max(count, 256) * 4);
+        styles = Arrays.copyOf(snapshot.styles, Math.max(count, 256));
+        size = count;
+        styleCount = snapshot.styleRgb.length;
+        styleRgb = Arrays.copyOf(snapshot.styleRgb, Math.max(styleCount, 16));
+        styleWidth = Arrays.copyOf(snapshot.styleWidth, Math.max(styleCount, 16));
+        currentRgb = snapshot.currentRgb;
+        currentWidth = snapshot.currentWidth;
+        currentStyle = snapshot.currentStyle;
+        this.baseImage = baseImage;
+        index.clear();
+        maxWidth = 1;
+        for (int i = 0; i < count; i++) {
+            int c4 = i * 4;
+            if (kinds[i] == SEGMENT) {
+                index.addSegment(i, coords[c4], coords[c4 + 1], coords[c4 + 2], coords[c4 + 3]);
+            } else {
+                index.addCircle(i, coords[c4], coords[c4 + 1], coords[c4 + 2]);
+            }
+            maxWidth = Math.max(maxWidth, styleWidth[styles[i]]);
+        }
+        changes++;
+        markDirty(0, 0, width, height);
+    }
+
+    // Primitives and pen styles at one moment, see snapshot
+    public static final class Snapshot {
+        private final int[] kinds;
+        private final float[] coords;
+        private final int[] styles;
+        private final int[] styleRgb;
+        private final float[] styleWidth;
+        private final int currentRgb;
+        private final float currentWidth;
+        private final int currentStyle;
+        final boolean hasBaseImage; // Whether a loaded image was underneath the primitives
+
+        private Snapshot(int[] kinds, float[] coords, int[] styles, int[] styleRgb, float[] styleWidth,
+                         int currentRgb, float currentWidth, int currentStyle, boolean hasBaseImage) {
+            this.kinds = kinds;
+            this.coords = coords;
+            this.styles = styles;
+            this.styleRgb = styleRgb;
+            this.styleWidth = styleWidth;
+            this.currentRgb = currentRgb;
+            this.currentWidth = currentWidth;
+            this.currentStyle = currentStyle;
+            this.hasBaseImage = hasBaseImage;
+        }
+
+        // Approximate heap size of the copied arrays
+        public long bytes() {
+            return kinds.length * 4L + coords.length * 4L + styles.length * 4L
+                + styleRgb.length * 4L + styleWidth.length * 4L + 64;
+        }
+
+        // Write the snapshot for read, e.g. next to a cached render
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(kinds.length);
+            out.writeInt(styleRgb.length);
+            for (int i = 0; i < kinds.length; i++) {
+                out.writeByte(kinds[i]);
+                out.writeInt(styles[i]);
+                for (int j = i * 4; j < i * 4 + 4; j++) {
+                    out.writeFloat(coords[j]);
+                }
+            }
+            for (int i = 0; i < styleRgb.length; i++) {
+                out.writeInt(styleRgb[i]);
+                out.writeFloat(styleWidth[i]);
+            }
+            out.writeInt(currentRgb);
+            out.writeFloat(currentWidth);
+            out.writeInt(currentStyle);
+            out.writeBoolean(hasBaseImage);
+        }
+
+        // A snapshot written by write. Throws IOException if it is cut short or out of range.
+        public static Snapshot read(DataInput in) throws IOException {
+            int count = in.readInt();
+            int styleCount = in.readInt();
+            if (count < 0 || styleCount < 0 || count > Integer.MAX_VALUE / 4) {
+                throw new IOException("corrupt display list");
+            }
+            int[] kinds = new int[count];
+            int[] styles = new int[count];
+            float[] coords = new float[count * 4];
+            for (int i = 0; i < count; i++) {
+                kinds[i] = in.readByte();
+                styles[i] = in.readInt();
+                for (int j = i * 4; j < i * 4 + 4; j++) {
+                    coords[j] = in.readFloat();
+                }
+                if ((kinds[i] != SEGMENT && kinds[i] != CIRCLE) || styles[i] < 0 || styles[i] >= styleCount) {
+                    throw new IOException("corrupt display list");
+                }
+            }
+            int[] styleRgb = new int[styleCount];
+            float[] styleWidth = new float[styleCount];
+            for (int i = 0; i < styleCount; i++) {
+                styleRgb[i] = in.readInt();
+                styleWidth[i] = in.readFloat();
+            }
+            int currentRgb = in.readInt();
+            float currentWidth = in.readFloat();
+            int currentStyle = in.readInt();
+            if (currentStyle < -1 || currentStyle >= styleCount) {
+                throw new IOException("corrupt display list");
+            }
+            return new Snapshot(kinds, coords, styles, styleRgb, styleWidth, currentRgb, currentWidth, currentStyle,
+                in.readBoolean());
+        }
+    }
+
+    // ========== SVG ==========
+
+    // Write the primitives as an SVG document. A loaded base image is not included.
+    public synchronized void writeSvg(Writer out, int width, int height, Color background) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height
+            + "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+        out.write("<rect width=\"100%\" height=\"100%\" fill=\"" + hex(background.getRGB()) + "\"/>\n");
+        out.write("<g fill=\"none\" stroke-linecap=\"square\">\n");
+        StringBuilder element = new StringBuilder(96);
+        for (int i = 0; i < size; i++) {
+            element.setLength(0);
+            int c4 = i * 4;
+            if (kinds[i] == SEGMENT) {
+                element.append("<line x1=\"").append(coords[c4]).append("\" y1=\"").append(coords[c4 + 1])
+                    .append("\" x2=\"").append(coords[c4 + 2]).append("\" y2=\"").append(coords[c4 + 3]);
+            } else {
+                element.append("<circle cx=\"").append(coords[c4]).append("\" cy=\"").append(coords[c4 + 1])
+                    .append("\" r=\"").append(coords[c4 + 2]);
+            }
+            element.append("\" stroke=\"").append(hex(styleRgb[styles[i]]))
+                .append("\" stroke-width=\"").append(styleWidth[styles[i]]).append("\"/>\n");
+            out.append(element);
+        }
+        out.write("</g>\n</svg>\n");
+    }
+
+    private static String hex(int rgb) {
+        return String.format("#%06x", rgb & 0xFFFFFF);
+    }
+}
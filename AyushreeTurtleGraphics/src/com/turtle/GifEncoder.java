@@ -0,0 +1,273 @@
+package com.turtle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Animated GIF writer for AnimationExporter.
+//
+// Frames are encoded on their own, so any number can be encoded in parallel and written in order
+// afterwards: each has a local colour table of the colours it uses and its own LZW data. Turtle
+// drawings use a handful of colours, so the table is exact. A frame with more than 255 colours
+// (a loaded photo) is mapped onto a 6x6x6 colour cube instead. Pixels set to TRANSPARENT are left
+// showing the frame before, which is how an update only stores what changed in its rectangle.
+public class GifEncoder {
+    public static final int TRANSPARENT = -1; // Pixel value for "unchanged", every other value is 0xRRGGBB
+
+    private static final int MAX_CODE_BITS = 12;
+    private static final int HASH_SIZE = 5003; // Prime above 4096 codes, as in compress(1)
+
+    // One encoded frame, without its delay
+    public static final class Frame {
+        final byte[] data;     // Image descriptor, colour table and LZW data
+        final int transparent; // Colour table index left transparent, -1 for none
+
+        Frame(byte[] data, int transparent) {
+            this.data = data;
+            this.transparent = transparent;
+        }
+    }
+
+    private GifEncoder() {
+    }
+
+    // ========== FILE ==========
+
+    // Header and logical screen, and a loop count (0 for ever) for players that honour it
+    public static void writeHeader(OutputStream out, int width, int height, int loops) throws IOException {
+        out.write("GIF89a".getBytes(StandardCharsets.US_ASCII));
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(0); // No global colour table, every frame has its own
+        out.write(0); // Background colour
+        out.write(0); // Square pixels
+        out.write(new byte[] { 0x21, (byte) 0xFF, 11 });
+        out.write("NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[] { 3, 1 });
+        writeShort(out, loops);
+        out.write(0);
+    }
+
+    // A frame shown for delay hundredths of a second, drawn over the frames before it
+    public static void writeFrame(OutputStream out, Frame frame, int delay) throws IOException {
+        out.write(new byte[] { 0x21, (byte) 0xF9, 4 });
+        out.write(1 << 2 | (frame.transparent >= 0 ? 1 : 0)); // Do not dispose, transparency flag
+        writeShort(out, Math.min(delay, 0xFFFF));
+        out.write(Math.max(frame.transparent, 0));
+        out.write(0);
+        out.write(frame.data);
+    }
+
+    public static void writeTrailer(OutputStream out) throws IOException {
+        out.write(0x3B);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+
+    // ========== FRAMES ==========
+
+    // Encode width x height pixels placed at x, y on the logical screen
+    public static Frame encodeFrame(int[] pixels, int x, int y, int width, int height) {
+        int count = width * height;
+        byte[] indices = new byte[count];
+        int[] palette = new int[256];
+        int colours = exactPalette(pixels, count, indices, palette);
+        int transparent = -1;
+        if (colours < 0) {
+            colours = cubePalette(pixels, count, indices, palette);
+        }
+        for (int i = 0; i < count; i++) {
+            if (pixels[i] == TRANSPARENT) {
+                transparent = colours; // Both palettes leave the last index free for this
+                colours++;
+                break;
+            }
+        }
+        if (transparent >= 0) {
+            for (int i = 0; i < count; i++) {
+                if (pixels[i] == TRANSPARENT) indices[i] = (byte) transparent;
+            }
+        }
+        int tableBits = 1;
+        while (1 << tableBits < colours) tableBits++;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count / 4 + 64);
+        out.write(0x2C);
+        out.write(x & 0xFF);
+        out.write(x >> 8);
+        out.write(y & 0xFF);
+        out.write(y >> 8);
+        out.write(width & 0xFF);
+        out.write(width >> 8);
+        out.write(height & 0xFF);
+        out.write(height >> 8);
+        out.write(0x80 | (tableBits - 1)); // Local colour table, not interlaced
+        for (int i = 0; i < 1 << tableBits; i++) {
+            int rgb = palette[i];
+            out.write(rgb >> 16);
+            out.write(rgb >> 8);
+            out.write(rgb);
+        }
+        int minCodeSize = Math.max(2, tableBits);
+        out.write(minCodeSize);
+        new Lzw(out, minCodeSize).compress(indices);
+        out.write(0); // Block terminator
+        return new Frame(out.toByteArray(), transparent);
+    }
+
+    // Index every pixel in a table of the colours used. Returns how many, or -1 if over 255.
+    private static int exactPalette(int[] pixels, int count, byte[] indices, int[] palette) {
+        int[] keys = new int[1024]; // Open addressing, colour + 1 so 0 means empty
+        byte[] values = new byte[1024];
+        int colours = 0;
+        int last = TRANSPARENT;
+        byte lastIndex = 0;
+        for (int i = 0; i < count; i++) {
+            int rgb = pixels[i];
+            if (rgb == TRANSPARENT) continue;
+            if (rgb == last) {
+                indices[i] = lastIndex; // Runs of one colour are the common case
+                continue;
+            }
+            int slot = (rgb * 0x9E3779B1) >>> 22;
+            while (keys[slot] != 0 && keys[slot] != rgb + 1) {
+                slot = (slot + 1) & 1023;
+            }
+            if (keys[slot] == 0) {
+                if (colours == 255) return -1;
+                keys[slot] = rgb + 1;
+                values[slot] = (byte) colours;
+                palette[colours++] = rgb;
+            }
+            last = rgb;
+            lastIndex = values[slot];
+            indices[i] = lastIndex;
+        }
+        return Math.max(colours, 1);
+    }
+
+    // Index every pixel in a 6x6x6 colour cube. Returns the 216 colours used for the table.
+    private static int cubePalette(int[] pixels, int count, byte[] indices, int[] palette) {
+        for (int i = 0; i < 216; i++) {
+            palette[i] = (i / 36 * 51) << 16 | (i / 6 % 6 * 51) << 8 | i % 6 * 51;
+        }
+        for (int i = 0; i < count; i++) {
+            int rgb = pixels[i];
+            if (rgb == TRANSPARENT) continue;
+            int r = ((rgb >> 16 & 0xFF) + 25) / 51;
+            int g = ((rgb >> 8 & 0xFF) + 25) / 51;
+            int b = ((rgb & 0xFF) + 25) / 51;
+            indices[i] = (byte) (r * 36 + g * 6 + b);
+        }
+        return 216;
+    }
+
+    // ========== LZW ==========
+
+    // Variable code length LZW as GIF wants it, written in data sub-blocks of up to 255 bytes.
+    // The code table is a hash of (prefix code, next index) pairs, cleared when it reaches 4096 codes.
+    private static final class Lzw {
+        private final ByteArrayOutputStream out;
+        private final int initBits;
+        private final int clearCode;
+        private final int endCode;
+        private final int[] hashKeys = new int[HASH_SIZE];
+        private final short[] hashCodes = new short[HASH_SIZE];
+        private int bits;
+        private int maxCode;
+        private int nextCode;
+        private boolean clearing;
+        private int accumulator;
+        private int accumulated;
+        private final byte[] block = new byte[256];
+        private int blockLength;
+
+        Lzw(ByteArrayOutputStream out, int minCodeSize) {
+            this.out = out;
+            initBits = minCodeSize + 1;
+            clearCode = 1 << minCodeSize;
+            endCode = clearCode + 1;
+        }
+
+        void compress(byte[] indices) {
+            bits = initBits;
+            maxCode = (1 << bits) - 1;
+            nextCode = clearCode + 2;
+            Arrays.fill(hashKeys, -1);
+            output(clearCode);
+            int prefix = indices[0] & 0xFF;
+            for (int i = 1; i < indices.length; i++) {
+                int c = indices[i] & 0xFF;
+                int key = c << MAX_CODE_BITS | prefix;
+                int slot = (c << 4) ^ prefix;
+                int step = slot == 0 ? 1 : HASH_SIZE - slot;
+                while (hashKeys[slot] >= 0 && hashKeys[slot] != key) {
+                    slot -= step;
+                    if (slot < 0) slot += HASH_SIZE;
+                }
+                if (hashKeys[slot] == key) {
+                    prefix = hashCodes[slot];
+                    continue;
+                }
+                output(prefix);
+                prefix = c;
+                if (nextCode < 1 << MAX_CODE_BITS) {
+                    hashKeys[slot] = key;
+                    hashCodes[slot] = (short) nextCode++;
+                } else {
+                    // Table full, start again
+                    Arrays.fill(hashKeys, -1);
+                    nextCode = clearCode + 2;
+                    clearing = true;
+                    output(clearCode);
+                }
+            }
+            output(prefix);
+            output(endCode);
+            if (accumulated > 0) {
+                byteOut(accumulator);
+            }
+            if (blockLength > 0) {
+                flushBlock();
+            }
+        }
+
+        // Write a code, then widen the codes once the decoder's table will have grown past them
+        private void output(int code) {
+            accumulator |= code << accumulated;
+            accumulated += bits;
+            while (accumulated >= 8) {
+                byteOut(accumulator);
+                accumulator >>>= 8;
+                accumulated -= 8;
+            }
+            if (nextCode > maxCode || clearing) {
+                if (clearing) {
+                    bits = initBits;
+                    clearing = false;
+                } else {
+                    bits++;
+                }
+                maxCode = bits == MAX_CODE_BITS ? 1 << MAX_CODE_BITS : (1 << bits) - 1;
+            }
+        }
+
+        private void byteOut(int b) {
+            block[blockLength++] = (byte) b;
+            if (blockLength == 255) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() {
+            out.write(blockLength);
+            out.write(block, 0, blockLength);
+            blockLength = 0;
+        }
+    }
+}
@@ -0,0 +1,952 @@
+package com.turtle;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+// Turtle engine that draws straight into an off-screen BufferedImage.
+// Runs the same command set as TurtleGraphics without creating any AWT windows,
+// so it can be used on machines with no display.
+public class HeadlessTurtle implements TurtleSwarm.Host {
+    public static final int DEFAULT_WIDTH = 800;
+    public static final int DEFAULT_HEIGHT = 400;
+
+    private BufferedImage canvas; // Image the turtle draws on
+    private Graphics2D graphics;  // Graphics of the canvas, kept open between commands
+    private boolean canvasShared; // A snapshot refers to canvas, copy it before drawing again
+    private int canvasBackend = OffHeapCanvas.HEAP; // Where new canvases keep their pixels
+    private Color background = Color.BLACK;
+
+    // Turtle state
+    private final Pose pose = new Pose();
+    private boolean penDown;
+    private Color penColour;
+    private int stroke;
+
+    private Consumer<String> messageSink = message -> { }; // Where displayMessage output goes
+    private final DisplayList displayList = new DisplayList(); // Vector record of the drawing
+    private PngEncoder pngEncoder = new PngEncoder();
+    private CompletableFuture<?> lastExport = CompletableFuture.completedFuture(null); // Latest background save
+    private UndoHistory undoHistory; // Undo for processCommand, null until enableUndo
+    private final ScriptCompiler program = new ScriptCompiler(); // Procedures and variables typed so far
+    private int programLines;
+    private SessionWriter recorder; // Every primitive is written here while recording, see startRecording
+    private AnimationExporter animation; // Told what each primitive drew while exporting an animation
+    private boolean antialias = Boolean.getBoolean("turtle.antialias"); // Draw strokes with StrokeRasterizer
+    private StrokeRasterizer rasterizer; // Draws on canvas, null until needed or if canvas has no int pixels
+    private final TurtleSwarm swarm = new TurtleSwarm(this); // Named turtles drawing on canvas
+
+    public HeadlessTurtle() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    public HeadlessTurtle(int width, int height) {
+        this(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    }
+
+    // Draw on canvas, e.g. an off-heap one from OffHeapCanvas.create
+    public HeadlessTurtle(BufferedImage canvas) {
+        canvasBackend = OffHeapCanvas.backendOf(canvas);
+        setBufferedImage(canvas);
+        clear();
+        restoreDefaults();
+    }
+
+    // Put the turtle back into the state TurtleGraphics starts in
+    public void restoreDefaults() {
+        swarm.removeAll();
+        reset();
+        setPenColour(Color.red);
+        setStroke(2);
+        setPenState(true);
+    }
+
+    public void setMessageSink(Consumer<String> messageSink) {
+        this.messageSink = messageSink;
+    }
+
+    @Override
+    public void displayMessage(String message) {
+        messageSink.accept(message);
+    }
+
+    // ========== CANVAS ==========
+
+    public BufferedImage getBufferedImage() {
+        return canvas;
+    }
+
+    public void setBufferedImage(BufferedImage image) {
+        if (recorder != null) {
+            recorder.keyframe(image, this);
+        }
+        if (graphics != null) {
+            graphics.dispose();
+        }
+        canvas = image;
+        canvasShared = false;
+        graphics = image.createGraphics();
+        displayList.setBaseImage(image);
+        if (penColour != null) {
+            graphics.setColor(penColour);
+            graphics.setStroke(new BasicStroke(stroke));
+        }
+        if (animation != null) {
+            animation.changedAll();
+            animation.command(false);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return canvas.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return canvas.getHeight();
+    }
+
+    public void setBackground(Color background) {
+        this.background = background;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    public DisplayList getDisplayList() {
+        return displayList;
+    }
+
+    // Keep the canvas pixels on the heap, in a direct buffer or in a mapped file (see OffHeapCanvas).
+    // The current drawing is copied across.
+    public void setCanvasBackend(int backend) throws IOException {
+        awaitExports();
+        setBufferedImage(OffHeapCanvas.copy(canvas, backend));
+        canvasBackend = backend;
+    }
+
+    public int getCanvasBackend() {
+        return canvasBackend;
+    }
+
+    // The canvas as it is now, and stays: the next drawing command draws on a copy (copy-on-write).
+    // Off-heap canvases are copied straight away instead, so the turtle keeps its mapped pixels.
+    public BufferedImage snapshot() throws IOException {
+        if (OffHeapCanvas.isOffHeap(canvas)) {
+            return OffHeapCanvas.copy(canvas, OffHeapCanvas.DIRECT);
+        }
+        canvasShared = true;
+        return canvas;
+    }
+
+    // Graphics to draw on, first copying the canvas if a snapshot still refers to it
+    private Graphics2D draw() {
+        if (canvasShared) {
+            BufferedImage copy = new BufferedImage(canvas.getColorModel(), canvas.copyData(null),
+                canvas.isAlphaPremultiplied(), null);
+            graphics.dispose();
+            canvas = copy;
+            graphics = copy.createGraphics();
+            if (penColour != null) {
+                graphics.setColor(penColour);
+                graphics.setStroke(new BasicStroke(stroke));
+            }
+            canvasShared = false;
+        }
+        return graphics;
+    }
+
+    // Rasterizer for the canvas as draw() leaves it, or null if StrokeRasterizer cannot draw on it
+    private StrokeRasterizer rasterizer() {
+        draw();
+        if (rasterizer == null || !rasterizer.drawsOn(canvas)) {
+            rasterizer = StrokeRasterizer.forImage(canvas);
+        }
+        return rasterizer;
+    }
+
+    // Draw lines and circles anti-aliased at sub-pixel positions, or as Graphics2D does at whole pixels
+    @Override
+    public void setAntialias(boolean antialias) {
+        this.antialias = antialias;
+    }
+
+    @Override
+    public boolean isAntialiased() {
+        return antialias;
+    }
+
+    // Compression settings for PNG files
+    public void setPngEncoder(PngEncoder pngEncoder) {
+        this.pngEncoder = pngEncoder;
+    }
+
+    public PngEncoder getPngEncoder() {
+        return pngEncoder;
+    }
+
+    // Wait until every save started by saveDrawing has been written
+    public void awaitExports() {
+        try {
+            lastExport.join();
+        } catch (RuntimeException e) {
+            // Already reported by the export itself
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (recorder != null) {
+            recorder.clear();
+        }
+        Graphics2D graphics = draw();
+        if (!OffHeapCanvas.fill(canvas, background.getRGB())) {
+            graphics.setColor(background);
+            graphics.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            graphics.setColor(penColour);
+        }
+        displayList.clear(canvas.getWidth(), canvas.getHeight());
+        if (animation != null) {
+            animation.changedAll();
+            animation.command(false);
+        }
+    }
+
+    // Write the canvas to a PNG file on this thread
+    public PngEncoder.Result writePng(File file) throws IOException {
+        return writePng(file, 1);
+    }
+
+    // Write the drawing re-rendered at scale times the canvas size, rasterized in parallel tiles
+    public PngEncoder.Result writePng(File file, double scale) throws IOException {
+        awaitExports();
+        return pngEncoder.write(scale == 1 ? canvas : renderScaled(scale), file);
+    }
+
+    private BufferedImage renderScaled(double scale) {
+        return displayList.renderTiled((int) Math.ceil(canvas.getWidth() * scale),
+            (int) Math.ceil(canvas.getHeight() * scale), scale, background, ForkJoinPool.commonPool());
+    }
+
+    //Save current drawing to filename.png
+    @Override
+    public void saveDrawing(String filename) {
+        save(filename);
+    }
+
+    //Save the drawing at scale times the canvas size to filename.png
+    @Override
+    public void saveDrawing(String filename, double scale) {
+        save(filename, scale);
+    }
+
+    //Load drawing from file
+    @Override
+    public void loadDrawing(String filename) {
+        load(filename);
+    }
+
+    //Save the recorded drawing as filename.svg
+    @Override
+    public void saveSvg(String filename) {
+        try (Writer writer = Files.newBufferedWriter(new File(filename + ".svg").toPath(), StandardCharsets.UTF_8)) {
+            displayList.writeSvg(writer, getWidth(), getHeight(), background);
+        } catch (IOException e) {
+            fail("Error saving SVG: " + e.getMessage());
+        }
+    }
+
+    private boolean save(String filename) {
+        return save(filename, 1);
+    }
+
+    // Encode in the background so the script carries on drawing, on a copy-on-write snapshot.
+    // A name ending in .raw is written as it is through a mapped file instead.
+    private boolean save(String filename, double scale) {
+        if (filename.endsWith(OffHeapCanvas.RAW_EXTENSION)) {
+            return saveRaw(new File(filename), scale);
+        }
+        BufferedImage image;
+        try {
+            image = scale == 1 ? snapshot() : renderScaled(scale);
+        } catch (IOException e) {
+            return fail("Error saving: " + e.getMessage());
+        } catch (OutOfMemoryError e) {
+            return fail("Error saving: not enough memory for scale " + scale);
+        }
+        lastExport = pngEncoder.writeAsync(image, new File(filename + ".png")).whenComplete((result, error) -> {
+            if (error != null) {
+                fail("Error saving: " + error.getMessage());
+            } else {
+                displayMessage("Saved " + result);
+            }
+        });
+        return true;
+    }
+
+    private boolean saveRaw(File file, double scale) {
+        try {
+            OffHeapCanvas.writeRaw(scale == 1 ? canvas : renderScaled(scale), file);
+            displayMessage("Saved " + file.getName());
+            return true;
+        } catch (IOException e) {
+            return fail("Error saving: " + e.getMessage());
+        } catch (OutOfMemoryError e) {
+            return fail("Error saving: not enough memory for scale " + scale);
+        }
+    }
+
+    private boolean load(String filename) {
+        awaitExports(); // The file may be a save still being written
+        try {
+            if (filename.endsWith(OffHeapCanvas.RAW_EXTENSION)) {
+                // The mapped file becomes the canvas, nothing is decoded or copied
+                setBufferedImage(OffHeapCanvas.mapRaw(new File(filename)));
+                return true;
+            }
+            BufferedImage image = ImageLoader.read(new File(filename)); // Already in the canvas layout
+            if (image == null) return fail("Error loading: unsupported image " + filename);
+            setBufferedImage(canvasBackend == OffHeapCanvas.HEAP ? image : OffHeapCanvas.copy(image, canvasBackend));
+            return true;
+        } catch (IOException e) {
+            return fail("Error loading: " + e.getMessage());
+        }
+    }
+
+    // ========== UNDO ==========
+
+    // Let processCommand undo and redo its commands, see UndoHistory
+    public void enableUndo(int interval, long budget) {
+        undoHistory = new UndoHistory(this, interval, budget);
+    }
+
+    public UndoHistory getUndoHistory() {
+        return undoHistory;
+    }
+
+    @Override
+    public void restoreCanvas(BufferedImage image) {
+        if (image.getWidth() != canvas.getWidth() || image.getHeight() != canvas.getHeight()) {
+            setBufferedImage(image);
+            return;
+        }
+        if (recorder != null) {
+            recorder.keyframe(image, this);
+        }
+        Graphics2D graphics = draw();
+        Composite composite = graphics.getComposite();
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.drawImage(image, 0, 0, null);
+        graphics.setComposite(composite);
+        if (animation != null) {
+            animation.changedAll();
+            animation.command(false);
+        }
+    }
+
+    @Override
+    public void restoreTurtle(double x, double y, double heading) {
+        if (recorder != null) {
+            recorder.pose(x, y, heading);
+        }
+        pose.set(x, y, heading);
+    }
+
+    @Override
+    public void replay(CompiledScript step) {
+        ScriptInterpreter.execute(step, this);
+    }
+
+    // undo [count] / redo [count]
+    private boolean undoOrRedo(String[] parts, boolean undo) {
+        if (undoHistory == null) return fail("Undo is not enabled");
+        if (parts.length > 2) return fail("Syntax: " + parts[0] + " [count]");
+        int count = parts.length == 2 ? Integer.parseInt(parts[1]) : 1;
+        if (count < 1) return fail("Count must be at least 1");
+        int moved = undo ? undoHistory.undo(count) : undoHistory.redo(count);
+        if (moved == 0) return fail(undo ? "Nothing to undo" : "Nothing to redo");
+        displayMessage((undo ? "Undid " : "Redid ") + moved + (moved == 1 ? " step" : " steps"));
+        return true;
+    }
+
+    // ========== TURTLE PRIMITIVES ==========
+
+    @Override
+    public void reset() {
+        if (recorder != null) {
+            recorder.reset();
+        }
+        pose.set(canvas.getWidth() / 2, canvas.getHeight() / 2, 180); // Pointing down, same as LBUGraphics
+        if (animation != null) {
+            animation.command(false);
+        }
+    }
+
+    @Override
+    public void forward(int distance) {
+        advance(distance);
+    }
+
+    @Override
+    public void advance(double distance) {
+        if (recorder != null) {
+            recorder.forward(distance);
+        }
+        double x = pose.getX();
+        double y = pose.getY();
+        int fromX = pose.pixelX();
+        int fromY = pose.pixelY();
+        pose.forward(distance);
+        if (penDown) {
+            StrokeRasterizer stroker = antialias ? rasterizer() : null;
+            if (stroker != null) {
+                stroker.line(x, y, pose.getX(), pose.getY(), penColour.getRGB(), stroke);
+            } else {
+                draw().drawLine(fromX, fromY, pose.pixelX(), pose.pixelY());
+            }
+            displayList.addSegment((float) x, (float) y, (float) pose.getX(), (float) pose.getY());
+        }
+        if (animation != null) {
+            if (penDown) {
+                int pad = stroke + 1; // Square caps reach half the width past each end
+                animation.changed(Math.min(fromX, pose.pixelX()) - pad, Math.min(fromY, pose.pixelY()) - pad,
+                    Math.max(fromX, pose.pixelX()) + pad, Math.max(fromY, pose.pixelY()) + pad);
+            }
+            animation.command(penDown);
+        }
+    }
+
+    @Override
+    public void left(int angle) {
+        rotate(-angle);
+    }
+
+    @Override
+    public void right(int angle) {
+        rotate(angle);
+    }
+
+    @Override
+    public void rotate(double degrees) {
+        if (recorder != null) {
+            recorder.turn(degrees);
+        }
+        pose.rotate(degrees);
+        if (animation != null) {
+            animation.command(false);
+        }
+    }
+
+    @Override
+    public void circle(int radius) {
+        if (recorder != null) {
+            recorder.circle(radius);
+        }
+        if (penDown) {
+            int x = pose.pixelX();
+            int y = pose.pixelY();
+            StrokeRasterizer stroker = antialias ? rasterizer() : null;
+            if (stroker != null) {
+                stroker.circle(pose.getX(), pose.getY(), radius, penColour.getRGB(), stroke);
+            } else {
+                draw().drawOval(x - radius, y - radius, radius * 2, radius * 2);
+            }
+            displayList.addCircle((float) pose.getX(), (float) pose.getY(), radius);
+        }
+        if (animation != null) {
+            if (penDown) {
+                int pad = radius + stroke + 1;
+                animation.changed(pose.pixelX() - pad, pose.pixelY() - pad, pose.pixelX() + pad, pose.pixelY() + pad);
+            }
+            animation.command(penDown);
+        }
+    }
+
+    @Override
+    public void setPenState(boolean penDown) {
+        if (recorder != null) {
+            recorder.penState(penDown);
+        }
+        this.penDown = penDown;
+    }
+
+    public boolean getPenState() {
+        return penDown;
+    }
+
+    @Override
+    public void setPenColour(Color colour) {
+        if (recorder != null) {
+            recorder.penColour(colour.getRGB());
+        }
+        penColour = colour;
+        graphics.setColor(colour);
+        displayList.setPen(colour.getRGB(), stroke);
+    }
+
+    public Color getPenColour() {
+        return penColour;
+    }
+
+    @Override
+    public void setStroke(int width) {
+        if (recorder != null) {
+            recorder.penWidth(width);
+        }
+        stroke = width;
+        graphics.setStroke(new BasicStroke(width));
+        if (penColour != null) {
+            displayList.setPen(penColour.getRGB(), width);
+        }
+    }
+
+    public int getStroke() {
+        return stroke;
+    }
+
+    @Override
+    public void setTurtleSpeed(int speed) {
+        // Nothing is animated off screen
+    }
+
+    @Override
+    public int getxPos() {
+        return pose.pixelX();
+    }
+
+    @Override
+    public int getyPos() {
+        return pose.pixelY();
+    }
+
+    @Override
+    public int getDirection() {
+        return pose.direction();
+    }
+
+    @Override
+    public Pose getPose() {
+        return pose;
+    }
+
+    // ========== COMMANDS ==========
+
+    //Check if a position is within canvas bounds
+    private boolean isPositionValid(int x, int y) {
+        return x >= 0 && x <= getWidth() && y >= 0 && y <= getHeight();
+    }
+
+    private boolean isDistanceValid(int distance) {
+        return Math.abs(distance) <= 1000;
+    }
+
+    private boolean isAngleValid(int angle) {
+        return angle >= -360 && angle <= 360;
+    }
+
+    private boolean isSizeValid(int size) {
+        return size > 0 && size <= 500;
+    }
+
+    // Process one command with the same syntax and limits as TurtleGraphics.processCommand.
+    // Returns false if the command was rejected.
+    public boolean processCommand(String command) {
+        long start = System.nanoTime();
+        String[] parts = command.trim().split("\\s+");
+        if (parts.length == 0 || parts[0].isEmpty()) return true;
+        String cmd = parts[0].toLowerCase();
+        if (undoHistory == null || cmd.equals("undo") || cmd.equals("redo") || cmd.equals("stats")
+                || cmd.equals("record")) {
+            return finishCommand(runCommand(command, parts, cmd, start));
+        }
+        undoHistory.begin(command);
+        try {
+            return finishCommand(runCommand(command, parts, cmd, start));
+        } finally {
+            undoHistory.commit();
+        }
+    }
+
+    // A recording gets each command's primitives on disk as soon as the command has run
+    private boolean finishCommand(boolean result) {
+        if (recorder != null) {
+            recorder.flush();
+        }
+        return result;
+    }
+
+    // start is when processCommand was called, everything before the command runs counts as parsing
+    private boolean runCommand(String command, String[] parts, String cmd, long start) {
+        if (program.isProgramLine(command)) {
+            return runProgram(command, start);
+        }
+        RenderStats stats = RenderStats.get();
+        long parsed = System.nanoTime();
+        stats.recordPhase(RenderStats.PARSE, parsed - start);
+        boolean known = true;
+        try {
+            switch (cmd) {
+                case "forward":
+                case "move":
+                    return move(parts, 1);
+
+                case "backward":
+                case "reverse":
+                    return move(parts, -1);
+
+                case "right":
+                case "left":
+                    int angle = 90; // Default 90 degree turn
+                    if (parts.length == 2) {
+                        angle = Integer.parseInt(parts[1]);
+                        if (!isAngleValid(angle)) {
+                            return fail("Angle must be between -360 and 360 degrees");
+                        }
+                    }
+                    if (cmd.equals("right")) {
+                        right(angle);
+                    } else {
+                        left(angle);
+                    }
+                    return true;
+
+                case "penwidth":
+                    if (parts.length != 2) return fail("Syntax: penwidth <size>");
+                    int width = Integer.parseInt(parts[1]);
+                    if (width < 1) return fail("Invalid width - must be integer");
+                    setStroke(width);
+                    return true;
+
+                case "penup":
+                case "pu":
+                    setPenState(false);
+                    return true;
+
+                case "pendown":
+                case "pd":
+                    setPenState(true);
+                    return true;
+
+                case "pencolour":
+                    if (parts.length == 2) {
+                        Color colour = namedColour(parts[1]);
+                        if (colour == null) {
+                            return fail("Available colors: red, green, blue, black, yellow, cyan, magenta, white, gray");
+                        }
+                        setPenColour(colour);
+                        return true;
+                    } else if (parts.length == 4) {
+                        try {
+                            setPenColour(new Color(Integer.parseInt(parts[1]),
+                                Integer.parseInt(parts[2]), Integer.parseInt(parts[3])));
+                            return true;
+                        } catch (IllegalArgumentException e) {
+                            return fail("Need 3 numbers (0-255)");
+                        }
+                    }
+                    return fail("Syntax: pencolour <colorName> OR pencolour <r> <g> <b>");
+
+                case "clear":
+                    clear();
+                    return true;
+
+                case "reset":
+                    reset();
+                    return true;
+
+                case "circle":
+                    if (parts.length != 2) return fail("Syntax: circle <radius>");
+                    int radius = Integer.parseInt(parts[1]);
+                    if (!isSizeValid(radius)) return fail("Radius must be between 1 and 500 pixels");
+                    circle(radius);
+                    return true;
+
+                case "square":
+                    if (parts.length != 2) return fail("Syntax: square <size>");
+                    int size = Integer.parseInt(parts[1]);
+                    if (!isSizeValid(size)) return fail("Size must be between 1 and 500 pixels");
+                    Shapes.square(this, size);
+                    return true;
+
+                case "triangle":
+                    if (parts.length == 2) {
+                        int side = Integer.parseInt(parts[1]);
+                        if (!isSizeValid(side)) return fail("Size must be between 1 and 500 pixels");
+                        Shapes.equilateralTriangle(this, side);
+                        return true;
+                    } else if (parts.length == 4) {
+                        int a = Integer.parseInt(parts[1]);
+                        int b = Integer.parseInt(parts[2]);
+                        int c = Integer.parseInt(parts[3]);
+                        if (!isSizeValid(a) || !isSizeValid(b) || !isSizeValid(c)) {
+                            return fail("Sides must be between 1 and 500 pixels");
+                        }
+                        if (!Shapes.isValidTriangle(a, b, c)) {
+                            return fail("Invalid triangle - sum of any two sides must be greater than the third");
+                        }
+                        Shapes.triangle(this, a, b, c);
+                        return true;
+                    }
+                    return fail("Syntax: triangle <size> OR triangle <side1> <side2> <side3>");
+
+                case "save":
+                    if (parts.length == 3) {
+                        int scale = Integer.parseInt(parts[2]);
+                        if (scale < 1 || scale > TileRasterizer.MAX_SCALE) {
+                            return fail("Scale must be between 1 and " + TileRasterizer.MAX_SCALE);
+                        }
+                        return save(parts[1], scale);
+                    }
+                    if (parts.length != 2) return fail("Syntax: save <filename> [scale]");
+                    return save(parts[1]);
+
+                case "load":
+                    if (parts.length != 2) return fail("Syntax: load <filename>");
+                    return load(parts[1]);
+
+                case "pick":
+                    if (parts.length != 3) return fail("Syntax: pick <x> <y>");
+                    int hit = displayList.pick(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), 3);
+                    displayMessage(hit < 0 ? "Nothing drawn at (" + parts[1] + ", " + parts[2] + ")"
+                        : displayList.describe(hit));
+                    return true;
+
+                case "pngoptions": {
+                    if (parts.length != 2 && parts.length != 3) return fail("Syntax: pngoptions <0-9> [filter]");
+                    int level = Integer.parseInt(parts[1]);
+                    int filter = parts.length == 3 ? PngEncoder.filterNamed(parts[2]) : pngEncoder.getFilter();
+                    if (level < 0 || level > 9) return fail("Compression level must be between 0 and 9");
+                    if (filter < 0) return fail("Filter must be one of " + String.join(", ", PngEncoder.FILTER_NAMES));
+                    pngEncoder = new PngEncoder(level, filter);
+                    return true;
+                }
+
+                case "undo":
+                    return undoOrRedo(parts, true);
+
+                case "redo":
+                    return undoOrRedo(parts, false);
+
+                case "svg":
+                    if (parts.length != 2) return fail("Syntax: svg <filename>");
+                    saveSvg(parts[1]);
+                    return true;
+
+                case "olympics":
+                    Shapes.olympics(this);
+                    return true;
+
+                case "name":
+                    Shapes.name(this);
+                    return true;
+
+                case "setspeed":
+                    if (parts.length != 2) return fail("Syntax: setspeed <0-10>");
+                    setTurtleSpeed(Integer.parseInt(parts[1]));
+                    return true;
+
+                case "stats":
+                    return stats(parts);
+
+                case "antialias":
+                    if (parts.length == 1) {
+                        displayMessage("Anti-aliasing is " + (antialias ? "on" : "off"));
+                        return true;
+                    }
+                    if (parts.length != 2 || !parts[1].equalsIgnoreCase("on") && !parts[1].equalsIgnoreCase("off")) {
+                        return fail("Syntax: antialias [on|off]");
+                    }
+                    setAntialias(parts[1].equalsIgnoreCase("on"));
+                    return true;
+
+                case "record":
+                    return record(parts);
+
+                case "play":
+                    return play(parts);
+
+                case "about":
+                case "help":
+                    // Dialogs and animations only make sense in the window
+                    return true;
+
+                default:
+                    known = false;
+                    return fail("Invalid Command: " + cmd);
+            }
+        } catch (NumberFormatException e) {
+            return fail("Please enter a valid number");
+        } finally {
+            long nanos = System.nanoTime() - parsed;
+            stats.recordPhase(RenderStats.DRAW, nanos);
+            if (known) {
+                stats.recordCommand(cmd, nanos);
+            }
+        }
+    }
+
+    // stats [reset | profile on|off | save <file> | dump <file>|off], the report is one line per message
+    private boolean stats(String[] parts) {
+        try {
+            String result = RenderStats.get().command(parts);
+            if (result == null) return fail(RenderStats.SYNTAX);
+            for (String line : result.split("\\R")) {
+                displayMessage(line);
+            }
+            return true;
+        } catch (IOException e) {
+            return fail("Could not write stats: " + e.getMessage());
+        }
+    }
+
+    // ========== NAMED TURTLES ==========
+
+    @Override
+    public TurtleSwarm getSwarm() {
+        return swarm;
+    }
+
+    @Override
+    public BufferedImage canvasForSwarm() {
+        draw();
+        return canvas;
+    }
+
+    @Override
+    public void swarmDrew(int x0, int y0, int x1, int y1) {
+        if (animation != null) {
+            animation.changed(x0, y0, x1, y1);
+            animation.command(true);
+        }
+    }
+
+    @Override
+    public SessionWriter getRecorder() {
+        return recorder;
+    }
+
+    // ========== ANIMATION ==========
+
+    // Report every primitive to animation while it records the drawing, null to stop
+    public void setAnimation(AnimationExporter animation) {
+        this.animation = animation;
+    }
+
+    public AnimationExporter getAnimation() {
+        return animation;
+    }
+
+    // ========== SESSION RECORDING ==========
+
+    // Write every primitive from now on to a session file, see SessionWriter. Stops any recording first.
+    public void startRecording(File file) throws IOException {
+        stopRecording();
+        recorder = SessionWriter.start(file, this);
+    }
+
+    // Finish the recording. Returns the commands recorded, -1 if there was no recording.
+    public long stopRecording() throws IOException {
+        if (recorder == null) return -1;
+        SessionWriter writer = recorder;
+        recorder = null;
+        writer.close();
+        return writer.getCommands();
+    }
+
+    // record <file>|off
+    private boolean record(String[] parts) {
+        if (parts.length != 2) return fail("Syntax: record <file>|off");
+        try {
+            if (parts[1].equalsIgnoreCase("off")) {
+                File file = recorder == null ? null : recorder.getFile();
+                long commands = stopRecording();
+                if (commands < 0) return fail("Not recording");
+                displayMessage("Recorded " + commands + " commands to " + file.getName());
+                return true;
+            }
+            startRecording(new File(parts[1]));
+            displayMessage("Recording to " + parts[1]);
+            return true;
+        } catch (IOException e) {
+            return fail("Error recording: " + e.getMessage());
+        }
+    }
+
+    // play <file> [first] [count]: run the commands of a recording, from the first one by default.
+    // Starting later, the canvas, turtle and pen are first put as the recording had them there.
+    private boolean play(String[] parts) {
+        if (parts.length < 2 || parts.length > 4) return fail("Syntax: play <file> [first] [count]");
+        try (SessionReader reader = new SessionReader(new File(parts[1]))) {
+            long first = parts.length > 2 ? Long.parseLong(parts[2]) : 0;
+            long count = parts.length > 3 ? Long.parseLong(parts[3]) : Long.MAX_VALUE;
+            if (first < 0 || first > reader.getCommandCount() || count < 0) {
+                return fail("The recording has commands 0 to " + (reader.getCommandCount() - 1));
+            }
+            reader.seek(this, first);
+            long played = reader.play(this, count);
+            displayMessage("Played " + played + " of " + reader.getCommandCount() + " commands from " + parts[1]);
+            return true;
+        } catch (IOException e) {
+            return fail("Error playing: " + e.getMessage());
+        }
+    }
+
+    // A line using repeat, procedures or variables. Definitions carry over to later lines.
+    private boolean runProgram(String command, long start) {
+        program.addLine(command, ++programLines);
+        CompiledScript script = program.build();
+        RenderStats.get().recordPhase(RenderStats.PARSE, System.nanoTime() - start);
+        for (String error : script.getErrors()) {
+            displayMessage(error);
+        }
+        return ScriptInterpreter.execute(script, this) == 0 && script.getErrors().length == 0;
+    }
+
+    // forward/backward with the distance and off-screen checks from TurtleGraphics
+    private boolean move(String[] parts, int sign) {
+        if (parts.length != 2) return fail("Missing Parameter!");
+        int distance = Integer.parseInt(parts[1]);
+        if (!isDistanceValid(distance)) return fail("Distance too large (max 1000 pixels)");
+
+        int newX = Pose.pixel(pose.targetX(sign * distance));
+        int newY = Pose.pixel(pose.targetY(sign * distance));
+        if (!isPositionValid(newX, newY)) return fail("Cannot move turtle off screen");
+
+        forward(sign * distance);
+        return true;
+    }
+
+    private boolean fail(String message) {
+        displayMessage(message);
+        return false;
+    }
+
+    // Colour names accepted by pencolour
+    static Color namedColour(String name) {
+        switch (name.toLowerCase()) {
+            case "red":     return Color.RED;
+            case "green":   return Color.GREEN;
+            case "blue":    return Color.BLUE;
+            case "black":   return Color.BLACK;
+            case "yellow":  return Color.YELLOW;
+            case "cyan":    return Color.CYAN;
+            case "magenta": return Color.MAGENTA;
+            case "white":   return Color.WHITE;
+            case "gray":    return Color.GRAY;
+            default:        return null;
+        }
+    }
+}
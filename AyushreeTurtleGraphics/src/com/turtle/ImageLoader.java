@@ -0,0 +1,179 @@
+package com.turtle;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+// Loads images as canvases.
+//
+// ImageIO.read hands back whatever layout the file decodes to: TYPE_3BYTE_BGR for most PNGs and
+// JPEGs, TYPE_BYTE_INDEXED for GIFs, often TYPE_CUSTOM. Java2D draws on those through its generic
+// loops, every stroke converting pixels one at a time, and StrokeRasterizer and the PNG encoder's
+// int path cannot use them at all. So a loaded image is converted once, with a loop per row over
+// the raw bytes, into TYPE_INT_RGB (TYPE_INT_ARGB if it has alpha), the same layout a new canvas
+// has. Drawing on it is then as fast as drawing on a fresh canvas.
+//
+// The decoded image only lives until it is converted, so it is decoded into a pooled buffer of the
+// same size and layout from an earlier load when there is one. Loading the same drawing again, or
+// a series of frames of one size, allocates nothing but the canvas itself.
+public final class ImageLoader {
+    private static final int POOL_SIZE = 2;
+    private static final long POOL_BYTES = 64L * 1024 * 1024; // Larger decode buffers are not kept
+
+    private static final ArrayDeque<BufferedImage> pool = new ArrayDeque<>();
+
+    private ImageLoader() {
+    }
+
+    // Decode file into a new canvas, or null if no reader understands it
+    public static BufferedImage read(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) throw new IOException("Can't read " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                ImageTypeSpecifier type = types.hasNext() ? types.next() : null;
+                BufferedImage buffer = type == null ? null : borrow(type, width, height);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (buffer != null) {
+                    param.setDestination(buffer);
+                }
+                BufferedImage decoded = reader.read(0, param);
+                BufferedImage canvas = toCanvas(decoded);
+                if (canvas != decoded) {
+                    giveBack(decoded);
+                }
+                return canvas;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // ========== CONVERSION ==========
+
+    // image itself if it already has the canvas layout, otherwise a converted copy
+    public static BufferedImage toCanvas(BufferedImage image) {
+        boolean alpha = image.getColorModel().hasAlpha();
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        if (image.getType() == type && intPixels(image) != null) return image;
+        BufferedImage canvas = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        convert(image, intPixels(canvas), alpha);
+        return canvas;
+    }
+
+    // Write every pixel of image into target as 0xAARRGGBB (or 0xRRGGBB), a row at a time.
+    // Interleaved bytes, which nearly every decoder produces, are packed straight from the raster;
+    // anything else goes through getRGB, still a whole row per call.
+    private static void convert(BufferedImage image, int[] target, boolean alpha) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferByte && raster.getSampleModel() instanceof PixelInterleavedSampleModel
+                && raster.getParent() == null && image.getColorModel().getColorSpace().isCS_sRGB()
+                && bytesPacked(image, raster)) {
+            PixelInterleavedSampleModel model = (PixelInterleavedSampleModel) raster.getSampleModel();
+            byte[] bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int[] offsets = model.getBandOffsets();
+            int stride = model.getScanlineStride();
+            int step = model.getPixelStride();
+            int base = ((DataBufferByte) raster.getDataBuffer()).getOffset();
+            int r = offsets[0];
+            int g = offsets[1];
+            int b = offsets[2];
+            int a = alpha ? offsets[3] : -1;
+            for (int y = 0; y < height; y++) {
+                int i = base + y * stride;
+                int o = y * width;
+                for (int x = 0; x < width; x++, i += step, o++) {
+                    int rgb = (bytes[i + r] & 0xFF) << 16 | (bytes[i + g] & 0xFF) << 8 | (bytes[i + b] & 0xFF);
+                    target[o] = a < 0 ? rgb : (bytes[i + a] & 0xFF) << 24 | rgb;
+                }
+            }
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, target, y * width, width);
+        }
+        if (!alpha) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] &= 0xFFFFFF; // TYPE_INT_RGB ignores the top byte, keep it clear all the same
+            }
+        }
+    }
+
+    // Whether image is 8 bit RGB or RGBA, not premultiplied, so its bytes are the colours as they are
+    private static boolean bytesPacked(BufferedImage image, Raster raster) {
+        int bands = raster.getNumBands();
+        int expected = image.getColorModel().hasAlpha() ? 4 : 3;
+        if (bands != expected || image.isAlphaPremultiplied()) return false;
+        for (int size : raster.getSampleModel().getSampleSize()) {
+            if (size != 8) return false;
+        }
+        return raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+    }
+
+    // The pixel array of an int image whose rows are packed one after another, or null
+    private static int[] intPixels(BufferedImage image) {
+        Raster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        if (!(buffer instanceof DataBufferInt) || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                || raster.getParent() != null || buffer.getOffset() != 0
+                || ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() != image.getWidth()) {
+            return null;
+        }
+        return ((DataBufferInt) buffer).getData();
+    }
+
+    // ========== POOL ==========
+
+    // A decode buffer of this type and size from an earlier load, or null to let the reader make one.
+    // Indexed and custom layouts carry a palette or sample model of their own and are never pooled.
+    private static synchronized BufferedImage borrow(ImageTypeSpecifier type, int width, int height) {
+        int imageType = type.getBufferedImageType();
+        if (!poolable(imageType)) return null;
+        for (Iterator<BufferedImage> it = pool.iterator(); it.hasNext(); ) {
+            BufferedImage image = it.next();
+            if (image.getType() == imageType && image.getWidth() == width && image.getHeight() == height) {
+                it.remove();
+                return image;
+            }
+        }
+        return null;
+    }
+
+    private static synchronized void giveBack(BufferedImage image) {
+        if (!poolable(image.getType())) return;
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        long bytes = (long) buffer.getSize() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        if (bytes > POOL_BYTES) return;
+        if (pool.size() == POOL_SIZE) {
+            pool.removeLast();
+        }
+        pool.addFirst(image);
+    }
+
+    private static boolean poolable(int imageType) {
+        return imageType == BufferedImage.TYPE_3BYTE_BGR || imageType == BufferedImage.TYPE_4BYTE_ABGR
+            || imageType == BufferedImage.TYPE_INT_RGB || imageType == BufferedImage.TYPE_INT_ARGB
+            || imageType == BufferedImage.TYPE_BYTE_GRAY;
+    }
+}
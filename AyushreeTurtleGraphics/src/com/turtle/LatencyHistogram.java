@@ -0,0 +1,87 @@
+package com.turtle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram of latencies in nanoseconds that any number of threads can record into without locks.
+//
+// Buckets are log-linear like HdrHistogram's: exact below 32 ns, then 16 buckets per power of two,
+// so every recorded value is within 1/16 (about 6%) of the bucket it lands in, from nanoseconds up
+// to centuries, in under 1000 counters. Recording is one atomic increment plus the sum and max.
+// Reads are not a consistent snapshot while other threads record, which is fine for reports.
+public final class LatencyHistogram {
+    private static final int EXACT = 32;      // Values below this have a bucket each
+    private static final int SUB_BUCKETS = 16; // Buckets per power of two above that
+    private static final int BUCKETS = EXACT + (63 - 5) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long seen = max.get();
+        while (nanos > seen && !max.compareAndSet(seen, nanos)) {
+            seen = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return sum.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    // Smallest bucket bound at or above the given fraction (0-1) of the recorded values, 0 if empty
+    public long getPercentileNanos(double fraction) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < EXACT) return (int) nanos;
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - 4; // nanos >>> shift is in [16, 32)
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    // Largest value that lands in bucket i
+    static long highest(int i) {
+        if (i < EXACT) return i;
+        int shift = (i - EXACT) / SUB_BUCKETS + 1;
+        long sub = (i - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1; // Wraps to Long.MAX_VALUE for the last bucket
+    }
+}
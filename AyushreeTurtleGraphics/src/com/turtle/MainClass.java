@@ -1,21 +1,31 @@
-package com.turtle;
-
-import java.awt.FlowLayout;
-import javax.swing.JFrame;
-import uk.ac.leedsbeckett.oop.LBUGraphics;
-
-public class MainClass 
-{
-	public static void main(String[] args) {
-        // Create application instance
-		new MainClass();
-        TurtleGraphics app = new TurtleGraphics();
-        app.superAbout();
-	}
-        
-
-     
-
-
-     
+package com.turtle;
+
+import java.awt.FlowLayout;
+import java.util.Arrays;
+import javax.swing.JFrame;
+import uk.ac.leedsbeckett.oop.LBUGraphics;
+
+public class MainClass 
+{
+	public static void main(String[] args) throws Exception {
+        // --batch, --server, --coordinator and --worker run without a window (see Cli)
+        if (Cli.run(args)) {
+            return;
+        }
+
+        // Create application instance
+		new MainClass();
+        TurtleGraphics app = new TurtleGraphics();
+        // --turbo starts with animation switched off
+        if (Arrays.asList(args).contains("--turbo")) {
+            app.setTurbo(true);
+        }
+        app.superAbout();
+	}
+        
+
+     
+
+
+     
 }
\ No newline at end of file
@@ -0,0 +1,267 @@
+package com.turtle;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Canvases whose pixels live outside the Java heap, in a direct buffer or a memory-mapped file.
+//
+// The images are ordinary TYPE_CUSTOM BufferedImages (0xRRGGBB ints, like TYPE_INT_RGB) whose
+// DataBuffer reads and writes an IntBuffer, so Graphics2D draws straight into the off-heap pixels.
+// Huge canvases then cost the heap only a few objects and never have to be copied by the GC.
+// Graphics2D has no fast loops for such images and draws on them a pixel at a time, so anti-aliased
+// strokes, which StrokeRasterizer writes through the IntBuffer, are the fast way to draw here.
+//
+// Raw files are a 16 byte header ("TRAW", width, height, 0) followed by the pixels, all little
+// endian. They are written and read through mapped buffers: a loaded raw file becomes the canvas
+// itself, mapped copy-on-write so drawing on it never changes the file.
+public final class OffHeapCanvas {
+    public static final int HEAP = 0;   // Plain TYPE_INT_RGB image
+    public static final int DIRECT = 1; // Pixels in a direct ByteBuffer
+    public static final int MAPPED = 2; // Pixels in a temporary memory-mapped file, paged by the OS
+    public static final String[] BACKEND_NAMES = { "heap", "direct", "mapped" };
+
+    public static final String RAW_EXTENSION = ".raw";
+
+    private static final int RAW_MAGIC = 'T' | 'R' << 8 | 'A' << 16 | 'W' << 24; // "TRAW" read little endian
+    private static final int RAW_HEADER = 16;
+    private static final long MAX_PIXELS = (Integer.MAX_VALUE - RAW_HEADER) / 4; // One mapping is at most 2 GB
+
+    private OffHeapCanvas() {
+    }
+
+    // BACKEND_ constant for a name in BACKEND_NAMES, or -1
+    public static int backendNamed(String name) {
+        for (int i = 0; i < BACKEND_NAMES.length; i++) {
+            if (BACKEND_NAMES[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    // A black width x height canvas kept by backend
+    public static BufferedImage create(int backend, int width, int height) throws IOException {
+        checkSize(width, height);
+        switch (backend) {
+            case HEAP:
+                return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            case DIRECT:
+                return wrap(ByteBuffer.allocateDirect(width * height * 4), width, height, DIRECT);
+            case MAPPED: {
+                Path file = Files.createTempFile("turtle-canvas", RAW_EXTENSION);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) width * height * 4);
+                    return wrap(buffer, width, height, MAPPED);
+                } finally {
+                    // The mapping outlives the file name, except on Windows which refuses to delete it
+                    if (!file.toFile().delete()) {
+                        file.toFile().deleteOnExit();
+                    }
+                }
+            }
+            default:
+                throw new IllegalArgumentException("Unknown canvas backend " + backend);
+        }
+    }
+
+    // Backend of image, HEAP for any image not made here
+    public static int backendOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        if (buffer instanceof IntBufferData) {
+            return ((IntBufferData) buffer).backend;
+        }
+        return HEAP;
+    }
+
+    public static boolean isOffHeap(BufferedImage image) {
+        return image.getRaster().getDataBuffer() instanceof IntBufferData;
+    }
+
+    // A copy of image kept by backend, with one bulk copy when both sides are int pixels
+    public static BufferedImage copy(BufferedImage image, int backend) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage copy = create(backend, width, height);
+        int[] row = new int[width];
+        IntBuffer source = pixels(image);
+        IntBuffer target = pixels(copy);
+        if (source != null && target != null) {
+            target.put(source);
+        } else {
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                copy.setRGB(0, y, width, 1, row, 0, width);
+            }
+        }
+        return copy;
+    }
+
+    // Fill the whole image with rgb without going through Graphics2D, false if it is not off-heap
+    public static boolean fill(BufferedImage image, int rgb) {
+        if (!isOffHeap(image)) return false;
+        IntBuffer pixels = pixels(image);
+        if (pixels == null) return false;
+        int[] row = new int[Math.min(pixels.remaining(), 64 * 1024)];
+        Arrays.fill(row, rgb & 0xFFFFFF);
+        while (pixels.hasRemaining()) {
+            pixels.put(row, 0, Math.min(row.length, pixels.remaining()));
+        }
+        return true;
+    }
+
+    // The IntBuffer an off-heap canvas keeps its pixels in, indexed as its DataBuffer is, or null
+    // for other images. StrokeRasterizer draws through it.
+    static IntBuffer pixelBuffer(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return buffer instanceof IntBufferData ? ((IntBufferData) buffer).pixels : null;
+    }
+
+    // Copy row y of image into pixels as 0xRRGGBB, false if image is not an off-heap canvas
+    static boolean readRow(BufferedImage image, int y, int[] pixels) {
+        Raster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof IntBufferData)) return false;
+        IntBufferData data = (IntBufferData) raster.getDataBuffer();
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int offset = (y - raster.getSampleModelTranslateY()) * model.getScanlineStride()
+            - raster.getSampleModelTranslateX();
+        data.pixels.get(offset, pixels, 0, pixels.length);
+        return true;
+    }
+
+    // ========== RAW FILES ==========
+
+    // Write image as a raw file through a mapped buffer
+    public static void writeRaw(BufferedImage image, File file) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        checkSize(width, height);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                RAW_HEADER + (long) width * height * 4);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(RAW_MAGIC).putInt(width).putInt(height).putInt(0);
+            IntBuffer target = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            IntBuffer source = pixels(image);
+            if (source != null) {
+                target.put(source);
+            } else {
+                int[] row = new int[width];
+                for (int y = 0; y < height; y++) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    for (int x = 0; x < width; x++) {
+                        row[x] &= 0xFFFFFF;
+                    }
+                    target.put(row);
+                }
+            }
+            buffer.force();
+        }
+    }
+
+    // Map a raw file as a canvas. The mapping is private, drawing on it leaves the file alone.
+    // A file we may not write to is mapped read-only and copied into a direct buffer.
+    public static BufferedImage mapRaw(File file) throws IOException {
+        boolean writable = file.canWrite();
+        try (FileChannel channel = writable
+                ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RAW_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < RAW_HEADER) throw new IOException(file.getName() + " is not a raw canvas");
+            int magic = header.getInt();
+            int width = header.getInt();
+            int height = header.getInt();
+            if (magic != RAW_MAGIC || width < 1 || height < 1
+                    || (long) width * height > MAX_PIXELS
+                    || channel.size() < RAW_HEADER + (long) width * height * 4) {
+                throw new IOException(file.getName() + " is not a raw canvas");
+            }
+            long length = (long) width * height * 4;
+            if (writable) {
+                return wrap(channel.map(FileChannel.MapMode.PRIVATE, RAW_HEADER, length), width, height, MAPPED);
+            }
+            BufferedImage image = create(DIRECT, width, height);
+            pixels(image).put(channel.map(FileChannel.MapMode.READ_ONLY, RAW_HEADER, length)
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+            return image;
+        }
+    }
+
+    // ========== HELPERS ==========
+
+    private static void checkSize(int width, int height) throws IOException {
+        if (width < 1 || height < 1 || (long) width * height > MAX_PIXELS) {
+            throw new IOException("Canvas " + width + "x" + height + " is too large for one buffer");
+        }
+    }
+
+    // An RGB image over the first width * height ints of bytes
+    private static BufferedImage wrap(ByteBuffer bytes, int width, int height, int backend) {
+        IntBuffer pixels = bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        DirectColorModel colours = new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF);
+        SinglePixelPackedSampleModel model = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT,
+            width, height, colours.getMasks());
+        WritableRaster raster = Raster.createWritableRaster(model, new IntBufferData(pixels, width * height, backend), null);
+        return new BufferedImage(colours, raster, false, null);
+    }
+
+    // All pixels of image as 0xRRGGBB ints from the start, or null if they are not stored that way
+    private static IntBuffer pixels(BufferedImage image) {
+        Raster raster = image.getRaster();
+        if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0
+                || raster.getSampleModelTranslateY() != 0) {
+            return null; // A sub-image, its rows are not contiguous
+        }
+        DataBuffer buffer = raster.getDataBuffer();
+        if (buffer instanceof IntBufferData) {
+            IntBuffer pixels = ((IntBufferData) buffer).pixels.duplicate();
+            pixels.clear();
+            return pixels.limit(image.getWidth() * image.getHeight());
+        }
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return IntBuffer.wrap(((DataBufferInt) buffer).getData(), 0,
+                image.getWidth() * image.getHeight());
+        }
+        return null;
+    }
+
+    // Int pixels kept in an IntBuffer instead of an int[]
+    private static final class IntBufferData extends DataBuffer {
+        private final IntBuffer pixels;
+        private final int backend; // DIRECT or MAPPED
+
+        IntBufferData(IntBuffer pixels, int size, int backend) {
+            super(TYPE_INT, size);
+            this.pixels = pixels;
+            this.backend = backend;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return pixels.get(i);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int value) {
+            pixels.put(i, value);
+        }
+    }
+}
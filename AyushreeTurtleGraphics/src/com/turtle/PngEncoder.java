@@ -0,0 +1,457 @@
+package com.turtle;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// PNG writer that compresses row bands in parallel.
+//
+// The image is cut into bands of rows. Each band is filtered and deflated on its own, as raw
+// deflate data ending in a SYNC_FLUSH so the bands can simply be concatenated into one zlib
+// stream; the last band finishes the stream. The zlib Adler-32 is combined from the per band
+// checksums. Bands are written out in order as soon as they are ready, so encoding and writing
+// overlap. Output is 8-bit RGB, which is all the canvas holds.
+//
+// writeAsync encodes on a background thread, for callers that must not block (the EDT). The
+// image passed in must not change while it is encoded, so pass a snapshot.
+public class PngEncoder {
+    // Row filter strategies, the first five are the PNG filter types
+    public static final int FILTER_NONE = 0;
+    public static final int FILTER_SUB = 1;
+    public static final int FILTER_UP = 2;
+    public static final int FILTER_AVERAGE = 3;
+    public static final int FILTER_PAETH = 4;
+    public static final int FILTER_ADAPTIVE = 5; // Per row, the filter with the smallest sum of absolute values
+
+    public static final String[] FILTER_NAMES = { "none", "sub", "up", "average", "paeth", "adaptive" };
+
+    static final byte[] SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int MAX_CHUNK = 1 << 16; // Largest IDAT chunk written
+
+    // Encodes for writeAsync, one at a time so saves land in the order they were asked for
+    private static final ExecutorService EXPORT_THREAD = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "turtle-png-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int level;
+    private final int filter;
+    private final ForkJoinPool pool;
+
+    // Turtle drawings are flat colour lines on a plain background, where unfiltered rows
+    // compress smaller and faster than any PNG filter
+    public PngEncoder() {
+        this(Deflater.DEFAULT_COMPRESSION, FILTER_NONE);
+    }
+
+    // level is a Deflater level (0-9, or -1 for the default), filter one of the FILTER_ constants
+    public PngEncoder(int level, int filter) {
+        this(level, filter, ForkJoinPool.commonPool());
+    }
+
+    public PngEncoder(int level, int filter, ForkJoinPool pool) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+        if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+            throw new IllegalArgumentException("Unknown filter " + filter);
+        }
+        this.level = level;
+        this.filter = filter;
+        this.pool = pool;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getFilter() {
+        return filter;
+    }
+
+    // FILTER_ constant for a name in FILTER_NAMES, or -1
+    public static int filterNamed(String name) {
+        for (int i = 0; i < FILTER_NAMES.length; i++) {
+            if (FILTER_NAMES[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    // What a finished export wrote and how long it took
+    public static final class Result {
+        public final File file;
+        public final long bytes;
+        public final long millis;
+
+        Result(File file, long bytes, long millis) {
+            this.file = file;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + ": " + bytes + " bytes in " + millis + " ms";
+        }
+    }
+
+    // ========== WRITING ==========
+
+    // Encode image to file on the calling thread
+    public Result write(BufferedImage image, File file) throws IOException {
+        return write(image, file, null, null);
+    }
+
+    // Encode image to file with a tEXt chunk holding text under keyword, see readText
+    public Result write(BufferedImage image, File file, String keyword, String text) throws IOException {
+        long start = System.nanoTime();
+        long bytes;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), MAX_CHUNK + 12)) {
+            bytes = encode(image, out, keyword, text);
+        }
+        return new Result(file, bytes, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Encode image to file on the export thread. image must not be drawn on until this completes.
+    public CompletableFuture<Result> writeAsync(BufferedImage image, File file) {
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        EXPORT_THREAD.execute(() -> {
+            try {
+                result.complete(write(image, file));
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    // Write image as a PNG stream to out, returns the number of bytes written
+    public long encode(BufferedImage image, OutputStream out) throws IOException {
+        return encode(image, out, null, null);
+    }
+
+    // As encode, with a tEXt chunk after the header if keyword is not null
+    public long encode(BufferedImage image, OutputStream out, String keyword, String text) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] written = new long[1];
+
+        out.write(SIGNATURE);
+        written[0] += SIGNATURE.length;
+
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // Bit depth
+        header[9] = 2; // Colour type: RGB
+        writeChunk(out, "IHDR", header, 0, header.length, written);
+        if (keyword != null) {
+            byte[] chunk = (keyword + '\0' + text).getBytes(StandardCharsets.ISO_8859_1);
+            writeChunk(out, "tEXt", chunk, 0, chunk.length, written);
+        }
+
+        // Start every band, then write them in order as they finish
+        int bandRows = Math.max(MIN_BAND_ROWS, (height + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+        List<CompletableFuture<Band>> bands = new ArrayList<>();
+        for (int y = 0; y < height; y += bandRows) {
+            int from = y;
+            int to = Math.min(height, y + bandRows);
+            bands.add(CompletableFuture.supplyAsync(() -> encodeBand(image, from, to), pool));
+        }
+
+        byte[] zlibHeader = { 0x78, zlibLevelFlags() };
+        writeChunk(out, "IDAT", zlibHeader, 0, 2, written);
+        long adler = 1;
+        for (CompletableFuture<Band> future : bands) {
+            Band band = future.join();
+            for (int offset = 0; offset < band.length; offset += MAX_CHUNK) {
+                writeChunk(out, "IDAT", band.data, offset, Math.min(MAX_CHUNK, band.length - offset), written);
+            }
+            adler = combineAdler32(adler, band.adler, band.rawLength);
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(out, "IDAT", trailer, 0, 4, written);
+        writeChunk(out, "IEND", new byte[0], 0, 0, written);
+        return written[0];
+    }
+
+    // The image as one zlib stream of filtered rows, the data of IDAT or of an APNG fdAT chunk.
+    // Deflated in a single band on the calling thread, for small images or callers already in parallel.
+    byte[] deflate(BufferedImage image) {
+        Band band = encodeBand(image, 0, image.getHeight());
+        byte[] zlib = new byte[band.length + 6];
+        zlib[0] = 0x78;
+        zlib[1] = zlibLevelFlags();
+        System.arraycopy(band.data, 0, zlib, 2, band.length);
+        putInt(zlib, band.length + 2, (int) band.adler);
+        return zlib;
+    }
+
+    // ========== BANDS ==========
+
+    // Deflated rows [from, to) and the checksum of their filtered bytes
+    private static final class Band {
+        final byte[] data;
+        final int length;
+        final long adler;
+        final long rawLength;
+
+        Band(byte[] data, int length, long adler, long rawLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private Band encodeBand(BufferedImage image, int from, int to) {
+        int width = image.getWidth();
+        boolean last = to == image.getHeight();
+        Deflater deflater = new Deflater(level, true);
+        Adler32 adler = new Adler32();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream((to - from) * width);
+        byte[] buffer = new byte[1 << 16];
+
+        int[] pixels = new int[width];
+        byte[] previous = new byte[width * 3];
+        byte[] current = new byte[width * 3];
+        byte[] filtered = new byte[width * 3 + 1];
+        byte[][] candidates = filter == FILTER_ADAPTIVE ? new byte[5][width * 3 + 1] : null;
+        if (from > 0) {
+            rgbRow(image, from - 1, pixels, previous); // UP, AVERAGE and PAETH look at the row above
+        }
+
+        try {
+            for (int y = from; y < to; y++) {
+                rgbRow(image, y, pixels, current);
+                byte[] row = filterRow(current, previous, filtered, candidates);
+                adler.update(row, 0, row.length);
+                deflater.setInput(row, 0, row.length);
+                while (!deflater.needsInput()) {
+                    int n = deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH);
+                    compressed.write(buffer, 0, n);
+                }
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                // Byte align so the next band's deflate data can follow directly
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        long rawLength = (long) (to - from) * (width * 3 + 1);
+        return new Band(compressed.toByteArray(), compressed.size(), adler.getValue(), rawLength);
+    }
+
+    // Row y as packed RGB bytes
+    private static void rgbRow(BufferedImage image, int y, int[] pixels, byte[] rgb) {
+        int width = pixels.length;
+        Raster raster = image.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+            // Read the pixels straight out of the raster, no colour model conversion
+            SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            int offset = buffer.getOffset()
+                + (y - raster.getSampleModelTranslateY()) * model.getScanlineStride()
+                - raster.getSampleModelTranslateX();
+            System.arraycopy(buffer.getData(), offset, pixels, 0, width);
+        } else if (!OffHeapCanvas.readRow(image, y, pixels)) {
+            image.getRGB(0, y, width, 1, pixels, 0, width);
+        }
+        for (int x = 0, i = 0; x < width; x++, i += 3) {
+            int p = pixels[x];
+            rgb[i] = (byte) (p >> 16);
+            rgb[i + 1] = (byte) (p >> 8);
+            rgb[i + 2] = (byte) p;
+        }
+    }
+
+    // ========== FILTERS ==========
+
+    // Filter one row, returning the filter type byte followed by the filtered bytes
+    private byte[] filterRow(byte[] current, byte[] previous, byte[] out, byte[][] candidates) {
+        if (candidates == null) {
+            applyFilter(filter, current, previous, out);
+            return out;
+        }
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = FILTER_NONE; type <= FILTER_PAETH; type++) {
+            byte[] candidate = candidates[type];
+            applyFilter(type, current, previous, candidate);
+            long sum = 0;
+            for (int i = 1; i < candidate.length && sum < bestSum; i++) {
+                sum += Math.abs(candidate[i]); // Bytes read as signed, the usual heuristic
+            }
+            if (sum < bestSum) {
+                best = candidate;
+                bestSum = sum;
+            }
+        }
+        return best;
+    }
+
+    private static void applyFilter(int type, byte[] cur, byte[] prev, byte[] out) {
+        out[0] = (byte) type;
+        int n = cur.length;
+        switch (type) {
+            case FILTER_NONE:
+                System.arraycopy(cur, 0, out, 1, n);
+                break;
+            case FILTER_SUB:
+                for (int i = 0; i < n; i++) {
+                    int a = i >= 3 ? cur[i - 3] & 0xFF : 0;
+                    out[i + 1] = (byte) (cur[i] - a);
+                }
+                break;
+            case FILTER_UP:
+                for (int i = 0; i < n; i++) {
+                    out[i + 1] = (byte) (cur[i] - prev[i]);
+                }
+                break;
+            case FILTER_AVERAGE:
+                for (int i = 0; i < n; i++) {
+                    int a = i >= 3 ? cur[i - 3] & 0xFF : 0;
+                    out[i + 1] = (byte) (cur[i] - ((a + (prev[i] & 0xFF)) >> 1));
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    int a = i >= 3 ? cur[i - 3] & 0xFF : 0;
+                    int b = prev[i] & 0xFF;
+                    int c = i >= 3 ? prev[i - 3] & 0xFF : 0;
+                    out[i + 1] = (byte) (cur[i] - paeth(a, b, c));
+                }
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    // ========== ZLIB AND CHUNKS ==========
+
+    // Second zlib header byte: the compression level hint, with the check bits set
+    private byte zlibLevelFlags() {
+        int hint = level == Deflater.DEFAULT_COMPRESSION ? 2 : level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+        int flags = hint << 6;
+        flags += (31 - ((0x78 << 8) + flags) % 31) % 31;
+        return (byte) flags;
+    }
+
+    // Adler-32 of two blocks joined, from their checksums and the second block's length (as zlib's adler32_combine)
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return (sum2 << 16) | sum1;
+    }
+
+    // ========== READING ==========
+
+    // Text of the first tEXt chunk with keyword in a PNG file, null if there is none.
+    // Only the chunks before the image data are read.
+    public static String readText(File file, String keyword) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            byte[] signature = new byte[SIGNATURE.length];
+            in.readFully(signature);
+            if (!Arrays.equals(signature, SIGNATURE)) {
+                throw new IOException(file.getName() + " is not a PNG file");
+            }
+            while (true) {
+                int length = in.readInt();
+                byte[] type = new byte[4];
+                in.readFully(type);
+                String name = new String(type, StandardCharsets.US_ASCII);
+                if (length < 0 || name.equals("IDAT") || name.equals("IEND")) {
+                    return null;
+                }
+                if (!name.equals("tEXt")) {
+                    in.skipNBytes(length + 4L);
+                    continue;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                in.readInt(); // CRC
+                String chunk = new String(data, StandardCharsets.ISO_8859_1);
+                int separator = chunk.indexOf('\0');
+                if (separator >= 0 && chunk.substring(0, separator).equals(keyword)) {
+                    return chunk.substring(separator + 1);
+                }
+            }
+        }
+    }
+
+    static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length,
+                           long[] written) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] word = new byte[4];
+        putInt(word, 0, length);
+        out.write(word);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        putInt(word, 0, (int) crc.getValue());
+        out.write(word);
+        written[0] += 12 + length;
+    }
+
+    static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
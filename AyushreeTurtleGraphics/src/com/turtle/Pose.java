@@ -0,0 +1,118 @@
+package com.turtle;
+
+// Position and heading of a turtle, kept in doubles so that long scripts do not drift.
+//
+// Headings are degrees clockwise from straight up, as in LBUGraphics (180 points down the canvas).
+// The sine and cosine of the heading are cached and only recomputed when it turns. Whole degree
+// headings, which nearly every script uses, come from a table that is exact at multiples of 30
+// and 90 degrees, so e.g. a square closes on exactly the pixel it started from.
+// The int position and direction the rest of the code works with are these values rounded.
+public final class Pose {
+    private static final double[] SIN = new double[360];
+
+    static {
+        for (int degrees = 0; degrees < 360; degrees++) {
+            SIN[degrees] = Math.sin(Math.toRadians(degrees));
+        }
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            SIN[degrees] = degrees == 90 ? 1 : degrees == 270 ? -1 : 0;
+        }
+        SIN[30] = SIN[150] = 0.5;
+        SIN[210] = SIN[330] = -0.5;
+    }
+
+    private double x;
+    private double y;
+    private double heading; // Degrees in [0, 360)
+    private double sin;
+    private double cos = 1;
+
+    // Sine of an angle in degrees, from the table when the angle is whole
+    public static double sin(double degrees) {
+        if (degrees == Math.rint(degrees) && Math.abs(degrees) < 1e15) {
+            return SIN[(int) Math.floorMod((long) degrees, 360L)];
+        }
+        return Math.sin(Math.toRadians(degrees));
+    }
+
+    public static double cos(double degrees) {
+        return sin(degrees + 90);
+    }
+
+    public void set(double x, double y, double heading) {
+        this.x = x;
+        this.y = y;
+        setHeading(heading);
+    }
+
+    public void moveTo(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public void setHeading(double degrees) {
+        double normalised = degrees % 360;
+        if (normalised < 0) {
+            normalised += 360;
+        }
+        if (normalised >= 360) {
+            normalised = 0; // A tiny negative angle rounded up to 360
+        }
+        if (normalised != heading) {
+            heading = normalised;
+            sin = sin(normalised);
+            cos = cos(normalised);
+        }
+    }
+
+    // Turn clockwise by degrees, anticlockwise if negative
+    public void rotate(double degrees) {
+        if (degrees != 0) {
+            setHeading(heading + degrees);
+        }
+    }
+
+    // Where moving distance along the heading would end up
+    public double targetX(double distance) {
+        return x + distance * sin;
+    }
+
+    public double targetY(double distance) {
+        return y - distance * cos;
+    }
+
+    public void forward(double distance) {
+        x += distance * sin;
+        y -= distance * cos;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getHeading() {
+        return heading;
+    }
+
+    // Nearest pixel and whole degree
+    public int pixelX() {
+        return pixel(x);
+    }
+
+    public int pixelY() {
+        return pixel(y);
+    }
+
+    public int direction() {
+        int degrees = (int) Math.round(heading);
+        return degrees == 360 ? 0 : degrees;
+    }
+
+    public static int pixel(double coordinate) {
+        return (int) Math.floor(coordinate + 0.5);
+    }
+}
@@ -0,0 +1,384 @@
+package com.turtle;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Results of running whole script files, so a script rendered before is shown again without
+// executing it.
+//
+// The key is a SHA-256 of the script with blank lines dropped and whitespace collapsed, plus the
+// canvas size and background, the turtle's position, heading and pen when it starts, and whether
+// it draws anti-aliased. Scripts only run from a blank canvas can be cached, anything already
+// drawn is not part of the key.
+// An entry is the finished canvas, the display list of what was drawn on it and the turtle state
+// it ended in, so SVG export, pick and scaled re-renders work on a cached drawing as on a run one.
+// Entries are kept in an LRU map in memory and as PNG files on disk, the end state in a tEXt chunk
+// and the display list in a compressed file next to it, each tier within a byte budget. Scripts
+// that save or load files are never cached: skipping them would skip the saves, and what they load
+// can change.
+public class RenderCache {
+    public static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_DISK_BYTES = 256L * 1024 * 1024;
+
+    private static final String FORMAT = "turtle-cache 4"; // Change to invalidate every entry
+    private static final String STATE_KEYWORD = "turtle-state";
+    private static final String EXTENSION = ".png";
+    private static final String VECTOR_EXTENSION = ".vec";
+
+    // Finished canvas, its primitives and the turtle as the script left it
+    public static final class Entry {
+        final BufferedImage image; // TYPE_INT_RGB, never drawn on
+        final DisplayList.Snapshot vectors;
+        final double x;
+        final double y;
+        final double heading;
+        final boolean penDown;
+        final int rgb;
+        final int stroke;
+
+        Entry(BufferedImage image, DisplayList.Snapshot vectors, double x, double y, double heading, boolean penDown,
+              int rgb, int stroke) {
+            this.image = image;
+            this.vectors = vectors;
+            this.x = x;
+            this.y = y;
+            this.heading = heading;
+            this.penDown = penDown;
+            this.rgb = rgb;
+            this.stroke = stroke;
+        }
+
+        long bytes() {
+            return (long) image.getWidth() * image.getHeight() * 4 + vectors.bytes() + 64;
+        }
+
+        String state() {
+            return x + " " + y + " " + heading + " " + penDown + " " + rgb + " " + stroke;
+        }
+
+        static Entry parse(BufferedImage image, DisplayList.Snapshot vectors, String state) {
+            String[] parts = state.split(" ");
+            return new Entry(image, vectors, Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                Double.parseDouble(parts[2]), Boolean.parseBoolean(parts[3]), Integer.parseInt(parts[4]),
+                Integer.parseInt(parts[5]));
+        }
+    }
+
+    private final File directory; // Disk tier, null for memory only
+    private final long memoryBudget;
+    private final long diskBudget;
+    private final PngEncoder encoder = new PngEncoder();
+    // Least recently used first. Guarded by this, as are the counters.
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long hits;
+    private long misses;
+
+    public RenderCache(File directory, long memoryBudget, long diskBudget) {
+        this.directory = directory;
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+    }
+
+    // The cache set up by -Dturtle.cache.dir, -Dturtle.cache.memory and -Dturtle.cache.disk (bytes).
+    // Null, so nothing is cached or written, unless -Dturtle.cache.dir is set.
+    public static RenderCache fromProperties() {
+        String dir = System.getProperty("turtle.cache.dir");
+        if (dir == null || dir.isEmpty()) return null;
+        return new RenderCache(new File(dir), Long.getLong("turtle.cache.memory", DEFAULT_MEMORY_BYTES),
+            Long.getLong("turtle.cache.disk", DEFAULT_DISK_BYTES));
+    }
+
+    // ========== KEYS ==========
+
+    // Key for running script on target as it is now, or null if its canvas is not blank
+    public static String key(Path script, UndoHistory.Target target) throws IOException {
+        byte[] start = startState(target);
+        return start == null ? null : key(script, start);
+    }
+
+    // The canvas and turtle a script starts from, as they go into its key, or null if the canvas
+    // is not blank. Cheap, so it can be taken on the thread that owns the turtle before a run.
+    public static byte[] startState(UndoHistory.Target target) {
+        BufferedImage canvas = target.getBufferedImage();
+        DisplayList displayList = target.getDisplayList();
+        if (displayList.size() > 0 || displayList.getBaseImage() != null) {
+            return null;
+        }
+        Pose pose = target.getPose();
+        Color colour = target.getPenColour();
+        ByteBuffer state = ByteBuffer.allocate(64);
+        state.putInt(canvas.getWidth()).putInt(canvas.getHeight()).putInt(canvas.getRGB(0, 0));
+        state.putDouble(pose.getX()).putDouble(pose.getY()).putDouble(pose.getHeading());
+        state.put((byte) (target.getPenState() ? 1 : 0)).putInt(colour == null ? 0 : colour.getRGB());
+        state.putInt(target.getStroke()).put((byte) (target.isAntialiased() ? 1 : 0));
+        return Arrays.copyOf(state.array(), state.position());
+    }
+
+    // Key for running script from startState. Reads the whole file, so call it off the EDT.
+    // The bytes are digested as they are read: leading and trailing whitespace of each line is
+    // dropped, runs of whitespace inside it become one space and blank lines are skipped.
+    public static String key(Path script, byte[] startState) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(FORMAT.getBytes(StandardCharsets.US_ASCII));
+        digest.update(startState);
+        byte[] in = new byte[1 << 16];
+        byte[] out = new byte[in.length + 2]; // A byte can add a space and itself
+        int length = 0;
+        boolean inLine = false; // Something other than whitespace was seen on this line
+        boolean space = false; // Whitespace seen since then
+        try (InputStream input = Files.newInputStream(script)) {
+            int read;
+            while ((read = input.read(in)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    int c = in[i] & 0xFF;
+                    if (c == '\n' || c == '\r') {
+                        if (inLine) {
+                            out[length++] = '\n';
+                        }
+                        inLine = false;
+                        space = false;
+                    } else if (c <= ' ') {
+                        space = inLine;
+                    } else {
+                        if (space) {
+                            out[length++] = ' ';
+                            space = false;
+                        }
+                        out[length++] = (byte) c;
+                        inLine = true;
+                    }
+                    if (length >= in.length) {
+                        digest.update(out, 0, length);
+                        length = 0;
+                    }
+                }
+            }
+        }
+        if (inLine) {
+            out[length++] = '\n';
+        }
+        digest.update(out, 0, length);
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    // Whether a script compiled into these chunks can be cached
+    public static boolean isCacheable(List<CompiledScript> chunks) {
+        for (CompiledScript chunk : chunks) {
+            if (chunk.usesFiles()) return false;
+        }
+        return true;
+    }
+
+    // ========== LOOKUP ==========
+
+    // Put the cached result for key on target and return true, or return false if there is none
+    public boolean restore(String key, UndoHistory.Target target) {
+        Entry entry = get(key);
+        if (entry == null) return false;
+        apply(entry, target);
+        return true;
+    }
+
+    // Put a cached result on target, as if the script had just run there
+    public static void apply(Entry entry, UndoHistory.Target target) {
+        target.restoreCanvas(entry.image);
+        target.getDisplayList().restore(entry.vectors, null, entry.image.getWidth(), entry.image.getHeight());
+        target.restoreTurtle(entry.x, entry.y, entry.heading);
+        target.setPenState(entry.penDown);
+        target.setPenColour(new Color(entry.rgb));
+        target.setStroke(entry.stroke);
+    }
+
+    public Entry get(String key) {
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+        }
+        Entry entry = readDisk(key);
+        synchronized (this) {
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            putMemory(key, entry);
+            return entry;
+        }
+    }
+
+    private Entry readDisk(String key) {
+        if (directory == null) return null;
+        File file = new File(directory, key + EXTENSION);
+        File vectorFile = new File(directory, key + VECTOR_EXTENSION);
+        if (!file.isFile()) return null;
+        try {
+            String state = PngEncoder.readText(file, STATE_KEYWORD);
+            DisplayList.Snapshot vectors = readVectors(vectorFile);
+            BufferedImage image = ImageLoader.read(file);
+            if (state == null || image == null) throw new IOException("incomplete entry " + key);
+            file.setLastModified(System.currentTimeMillis()); // Recently used, evicted last
+            return Entry.parse(image.getType() == BufferedImage.TYPE_INT_RGB ? image : intRgb(image), vectors, state);
+        } catch (IOException | RuntimeException e) {
+            file.delete(); // Unreadable, it will be rendered and written again
+            vectorFile.delete();
+            return null;
+        }
+    }
+
+    // ========== STORING ==========
+
+    // Keep what running the script keyed by key left on target
+    public void put(String key, UndoHistory.Target target) throws IOException {
+        Pose pose = target.getPose();
+        Color colour = target.getPenColour();
+        Entry entry = new Entry(intRgb(target.getBufferedImage()), target.getDisplayList().snapshot(), pose.getX(),
+            pose.getY(), pose.getHeading(), target.getPenState(), colour == null ? 0 : colour.getRGB(),
+            target.getStroke());
+        synchronized (this) {
+            putMemory(key, entry);
+        }
+        writeDisk(key, entry);
+    }
+
+    private void putMemory(String key, Entry entry) {
+        Entry replaced = memory.put(key, entry);
+        if (replaced != null) {
+            memoryBytes -= replaced.bytes();
+        }
+        memoryBytes += entry.bytes();
+        Iterator<Entry> oldest = memory.values().iterator();
+        while (memoryBytes > memoryBudget && oldest.hasNext()) {
+            memoryBytes -= oldest.next().bytes();
+            oldest.remove();
+        }
+    }
+
+    // Write through temporary files, so a reader never sees half an entry. The display list goes
+    // first, an entry only counts once its PNG is there.
+    private void writeDisk(String key, Entry entry) throws IOException {
+        if (directory == null || entry.bytes() > diskBudget) return;
+        Files.createDirectories(directory.toPath());
+        File temporary = File.createTempFile(key, ".tmp", directory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(new FileOutputStream(temporary)), 1 << 16))) {
+                entry.vectors.write(out);
+            }
+            Files.move(temporary.toPath(), new File(directory, key + VECTOR_EXTENSION).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            encoder.write(entry.image, temporary, STATE_KEYWORD, entry.state());
+            Files.move(temporary.toPath(), new File(directory, key + EXTENSION).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporary.delete();
+        }
+        evictDisk();
+    }
+
+    private static DisplayList.Snapshot readVectors(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new FileInputStream(file)), 1 << 16))) {
+            return DisplayList.Snapshot.read(in);
+        }
+    }
+
+    // Delete the least recently used entries until the directory is within budget
+    private void evictDisk() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length() + vectorFile(file).length();
+        }
+        if (total <= diskBudget) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= diskBudget) break;
+            File vectors = vectorFile(file);
+            long length = file.length() + vectors.length();
+            if (file.delete()) {
+                vectors.delete();
+                total -= length;
+            }
+        }
+    }
+
+    // The display list file next to a cached PNG
+    private static File vectorFile(File png) {
+        String name = png.getName();
+        return new File(png.getParentFile(), name.substring(0, name.length() - EXTENSION.length()) + VECTOR_EXTENSION);
+    }
+
+    // A TYPE_INT_RGB copy, which restoreCanvas and the PNG encoder handle fastest
+    private static BufferedImage intRgb(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    // ========== STATISTICS ==========
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getMemoryEntries() {
+        return memory.size();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "render cache: " + hits + " hits, " + misses + " misses, " + memory.size() + " images ("
+            + memoryBytes / 1024 + " KB) in memory" + (directory != null ? ", PNGs in " + directory : "");
+    }
+}
@@ -0,0 +1,413 @@
+package com.turtle;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Renders a large set of scripts on several worker processes, for runs one JVM cannot keep up with.
+//
+// Usage: RenderCoordinator [--port N] [--spawn N] [--window N] [--retries N] [--timeout MS]
+//                          [--report FILE] [BatchRenderer options] <script|directory|-> ...
+//   Scripts are found as BatchRenderer finds them and each one becomes a job. Workers connect to
+//   the local port (default: any free one, printed at start) and are sent jobs, see RenderWorker.
+//   --spawn starts N workers itself with this JVM's class path, passing the BatchRenderer options
+//   on, and starts another whenever one that was working dies. Without it, start workers by hand:
+//   RenderWorker --port N [options].
+//   --window is how many jobs a worker may have queued at once (default 2): a job is only sent
+//   when the worker has reported one back, so a slow worker is never handed more than that.
+//   --retries is how many more times a job is queued again after it fails or its worker dies
+//   (default 2). A worker that says nothing for --timeout ms (default 60000) is dropped, and
+//   killed if it was spawned, and its jobs are queued again. Workers send a heartbeat every
+//   RenderWorker.HEARTBEAT_MILLIS while they render, so a long render is not mistaken for a hung
+//   worker; the timeout only has to be longer than that.
+//   --report writes a tab separated line per script: status, attempts, worker and render ms.
+//
+// The queue lives in this process. Each worker connection has a thread that hands out jobs from
+// it and takes the replies, so workers pull work as fast as they render and a failed job goes to
+// whichever worker asks next.
+public class RenderCoordinator {
+    public static final int DEFAULT_WINDOW = 2;
+    public static final int DEFAULT_RETRIES = 2;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60_000;
+
+    private static final String USAGE = "Usage: RenderCoordinator [--port N] [--spawn N] [--window N] [--retries N]"
+        + " [--timeout MS] [--report FILE] [BatchRenderer options] <script|directory|-> ...";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Must be set before any AWT class is touched
+        System.setProperty("java.awt.headless", "true");
+
+        int port = 0;
+        int spawn = 0;
+        int window = DEFAULT_WINDOW;
+        int retries = DEFAULT_RETRIES;
+        long timeout = DEFAULT_TIMEOUT_MILLIS;
+        File report = null;
+        List<String> rendererArgs = new ArrayList<>();
+        List<String> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--spawn":
+                        spawn = Integer.parseInt(args[++i]);
+                        break;
+                    case "--window":
+                        window = Integer.parseInt(args[++i]);
+                        break;
+                    case "--retries":
+                        retries = Integer.parseInt(args[++i]);
+                        break;
+                    case "--timeout":
+                        timeout = Long.parseLong(args[++i]);
+                        break;
+                    case "--report":
+                        report = new File(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            // Everything else is for the workers' BatchRenderer
+                            rendererArgs.add(args[i]);
+                            if (!BatchRenderer.FLAGS.contains(args[i])) {
+                                rendererArgs.add(args[++i]);
+                            }
+                        } else {
+                            inputs.add(args[i]);
+                        }
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            inputs.clear();
+        }
+        if (inputs.isEmpty() || spawn < 0 || window < 1 || retries < 0 || timeout < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (timeout <= RenderWorker.HEARTBEAT_MILLIS) {
+            System.err.println("--timeout must be over the workers' heartbeat of " + RenderWorker.HEARTBEAT_MILLIS + " ms");
+            System.exit(2);
+        }
+
+        List<File> scripts = new ArrayList<>();
+        for (String input : inputs) {
+            BatchRenderer.findScripts(input, scripts::add);
+        }
+        RenderCoordinator coordinator = new RenderCoordinator(scripts, window, retries, timeout, rendererArgs);
+        boolean ok = coordinator.run(port, spawn);
+        if (report != null) {
+            coordinator.writeReport(report);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    // One script, and what became of it. Guarded by the coordinator.
+    private static final class Job {
+        final int id;
+        final File script;
+        int attempts;
+        boolean finished;
+        String error; // Why it last failed, null once rendered
+        String worker;
+        long millis;
+
+        Job(int id, File script) {
+            this.id = id;
+            this.script = script;
+        }
+    }
+
+    private final List<Job> jobs = new ArrayList<>();
+    private final int window;
+    private final int retries;
+    private final long timeoutMillis;
+    private final List<String> rendererArgs;
+
+    // Guarded by this
+    private final ArrayDeque<Job> pending = new ArrayDeque<>();
+    private int finished;
+    private int failed;
+    private int retried;
+    private final Map<String, long[]> workerTotals = new TreeMap<>(); // Worker to {jobs, render ms}
+
+    private final Set<Long> spawned = ConcurrentHashMap.newKeySet();   // Pids of the workers started here
+    private final Set<Long> connected = ConcurrentHashMap.newKeySet(); // Pids that have said hello
+
+    public RenderCoordinator(List<File> scripts, int window, int retries, long timeoutMillis, List<String> rendererArgs) {
+        for (File script : scripts) {
+            Job job = new Job(jobs.size(), script.getAbsoluteFile());
+            jobs.add(job);
+            pending.add(job);
+        }
+        this.window = window;
+        this.retries = retries;
+        this.timeoutMillis = timeoutMillis;
+        this.rendererArgs = rendererArgs;
+    }
+
+    // Serve workers on port (0 for any) until every job has finished, spawning that many of them.
+    // Returns whether every job rendered.
+    public boolean run(int port, int spawn) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            int localPort = server.getLocalPort();
+            System.err.println("Coordinator: " + jobs.size() + " jobs, listening on " + server.getLocalSocketAddress()
+                + (spawn == 0 ? ", start workers with RenderWorker --port " + localPort : ""));
+            RenderServer.startThread(() -> accept(server), "turtle-coordinator-accept");
+
+            List<Process> processes = new ArrayList<>();
+            for (int i = 0; i < spawn; i++) {
+                processes.add(spawn(localPort));
+            }
+            while (!awaitDone(500)) {
+                if (spawn > 0) {
+                    superviseWorkers(processes, localPort);
+                }
+            }
+            for (Process process : processes) {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        synchronized (this) {
+            System.out.println("Rendered " + (jobs.size() - failed) + " scripts (" + failed + " failed, " + retried
+                + " retried) in " + millis + " ms on " + workerTotals.size() + " workers");
+            for (Map.Entry<String, long[]> worker : workerTotals.entrySet()) {
+                System.err.println("  " + worker.getKey() + ": " + worker.getValue()[0] + " jobs, "
+                    + worker.getValue()[1] + " ms rendering");
+            }
+            return failed == 0;
+        }
+    }
+
+    private void accept(ServerSocket server) {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                RenderServer.startThread(() -> serveWorker(socket), "turtle-coordinator-" + socket.getPort());
+            }
+        } catch (IOException e) {
+            // Closed once every job has finished
+        }
+    }
+
+    // ========== WORKER PROCESSES ==========
+
+    // Start a worker on this JVM's class path, with its heap size and turtle.* properties
+    private Process spawn(int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+            .orElse(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java"));
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-Xmx") || argument.startsWith("-Dturtle.")) {
+                command.add(argument);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RenderWorker.class.getName());
+        command.add("--port");
+        command.add(String.valueOf(port));
+        command.addAll(rendererArgs);
+        Process process = new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        process.getOutputStream().close();
+        spawned.add(process.pid());
+        return process;
+    }
+
+    // Replace workers that died while working. One that exits before it ever connects cannot start
+    // at all, so it is not tried again; once none are left the remaining jobs fail.
+    private void superviseWorkers(List<Process> processes, int port) throws IOException {
+        List<Process> replacements = new ArrayList<>();
+        for (Iterator<Process> it = processes.iterator(); it.hasNext(); ) {
+            Process process = it.next();
+            if (process.isAlive()) continue;
+            it.remove();
+            if (connected.contains(process.pid())) {
+                System.err.println("Coordinator: worker " + process.pid() + " exited with " + process.exitValue()
+                    + ", starting another");
+                replacements.add(spawn(port));
+            } else {
+                System.err.println("Coordinator: worker " + process.pid() + " exited with " + process.exitValue()
+                    + " before connecting");
+            }
+        }
+        processes.addAll(replacements);
+        if (processes.isEmpty()) {
+            abandon("no workers left");
+        }
+    }
+
+    // ========== WORKER CONNECTIONS ==========
+
+    // Keep the worker's window full until there is nothing left to do, then tell it to quit.
+    // Whatever it still holds when the connection ends is failed, and so queued again.
+    private void serveWorker(Socket socket) {
+        String worker = "worker " + socket.getPort();
+        long pid = -1;
+        String lost = "worker disconnected";
+        Map<String, Job> assigned = new LinkedHashMap<>();
+        try (Socket s = socket) {
+            s.setSoTimeout((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true);
+            String hello = in.readLine();
+            if (hello == null || !hello.startsWith("hello ")) return;
+            pid = Long.parseLong(hello.substring(6).trim());
+            worker = "worker " + pid;
+            connected.add(pid);
+
+            while (true) {
+                Job job;
+                while (assigned.size() < window && (job = poll()) != null) {
+                    assigned.put(String.valueOf(job.id), job);
+                    out.println("job " + job.id + " " + job.script.getPath());
+                }
+                if (assigned.isEmpty()) {
+                    if (!awaitWork()) {
+                        out.println("quit");
+                        return;
+                    }
+                    continue;
+                }
+                String line = in.readLine();
+                if (line == null) throw new EOFException(lost);
+                if (line.startsWith("busy ")) continue; // Heartbeat, it is still rendering
+                String[] parts = line.split(" ", 4);
+                job = parts.length >= 3 ? assigned.remove(parts[1]) : null;
+                if (job == null) {
+                    System.err.println("Coordinator: unexpected reply from " + worker + ": " + line);
+                    continue;
+                }
+                long millis = Long.parseLong(parts[2]);
+                if (parts[0].equals("done")) {
+                    succeeded(job, worker, millis);
+                } else {
+                    failed(job, worker, millis, parts.length > 3 ? parts[3] : "failed");
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            lost = "no reply from " + worker + " in " + timeoutMillis + " ms";
+            if (spawned.contains(pid)) {
+                ProcessHandle.of(pid).ifPresent(ProcessHandle::destroyForcibly);
+            }
+        } catch (IOException | RuntimeException e) {
+            lost = worker + ": " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Job job : assigned.values()) {
+                failed(job, worker, 0, lost);
+            }
+        }
+    }
+
+    // ========== QUEUE ==========
+
+    private synchronized Job poll() {
+        return pending.poll();
+    }
+
+    // Wait while nothing is pending but jobs are still out, as one of them may fail and come back.
+    // False once every job has finished.
+    private synchronized boolean awaitWork() throws InterruptedException {
+        while (pending.isEmpty() && finished < jobs.size()) {
+            wait();
+        }
+        return !pending.isEmpty();
+    }
+
+    private synchronized boolean awaitDone(long millis) throws InterruptedException {
+        if (finished < jobs.size()) {
+            wait(millis);
+        }
+        return finished == jobs.size();
+    }
+
+    private synchronized void succeeded(Job job, String worker, long millis) {
+        job.attempts++;
+        job.error = null;
+        finish(job, worker, millis);
+    }
+
+    private synchronized void failed(Job job, String worker, long millis, String reason) {
+        job.attempts++;
+        job.error = reason;
+        if (job.attempts <= retries) {
+            System.err.println("Coordinator: " + job.script.getName() + " failed on " + worker + ": " + reason + ", retrying");
+            retried++;
+            pending.add(job);
+            notifyAll();
+            return;
+        }
+        System.err.println("Coordinator: " + job.script.getName() + " failed on " + worker + ": " + reason);
+        failed++;
+        finish(job, worker, millis);
+    }
+
+    private void finish(Job job, String worker, long millis) {
+        job.finished = true;
+        job.worker = worker;
+        job.millis = millis;
+        long[] totals = workerTotals.computeIfAbsent(worker, name -> new long[2]);
+        totals[0]++;
+        totals[1] += millis;
+        finished++;
+        notifyAll();
+    }
+
+    // Fail every job still pending
+    private synchronized void abandon(String reason) {
+        System.err.println("Coordinator: " + reason + ", " + pending.size() + " jobs not rendered");
+        for (Job job : pending) {
+            job.error = reason;
+            job.finished = true;
+            failed++;
+            finished++;
+        }
+        pending.clear();
+        notifyAll();
+    }
+
+    // ========== REPORT ==========
+
+    // A line per script: path, ok or failed, attempts, worker, render ms and the last error
+    public synchronized void writeReport(File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("script\tstatus\tattempts\tworker\tms\terror\n");
+            for (Job job : jobs) {
+                writer.write(job.script.getPath() + "\t" + (job.finished && job.error == null ? "ok" : "failed")
+                    + "\t" + job.attempts + "\t" + (job.worker == null ? "" : job.worker) + "\t" + job.millis
+                    + "\t" + (job.error == null ? "" : job.error) + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.turtle;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Runs many independent turtle sessions in one JVM, driven by a line protocol on stdin/stdout
+// or on a local TCP port (one client per connection, each with its own sessions).
+//
+// Usage: RenderServer [--port N] [--canvas heap|direct|mapped]
+//
+// Protocol, one request per line:
+//   open <id> [WxH]     start a session with a fresh canvas (default 800x400)
+//   <id> <command>      queue a turtle command, e.g. "s1 forward 50" or "s1 save out/s1"
+//   close <id>          end the session once what is queued has run, "closed <id>" says when
+//   sessions            list the open sessions
+//   stats [...]         timings of every session together, as the stats command (see RenderStats)
+//   quit                stop every session, cutting short whatever is still running, and disconnect
+// Replies are lines of the form "<id>: <message>" for session output and "server: <message>"
+// for the protocol itself. At the end of the input every session finishes its queue first.
+//
+// Each session owns a HeadlessTurtle and a thread that compiles the queued lines in batches
+// and runs them, so sessions never share drawing state. Sessions run on virtual threads when the
+// JVM has them and on small-stack platform threads otherwise. The thread reading requests never
+// waits on a session: a full queue refuses the line, and a session that ends or fails goes away
+// by itself.
+public class RenderServer {
+    public static final int QUEUE_CAPACITY = 1024; // Lines queued per session, more are refused until it catches up
+
+    private static final String END_OF_SESSION = new String("end of session"); // Compared by identity
+    private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    public static void main(String[] args) throws IOException {
+        // Must be set before any AWT class is touched
+        System.setProperty("java.awt.headless", "true");
+        RenderStats.register();
+
+        int port = -1;
+        int backend = OffHeapCanvas.HEAP;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--canvas") && i + 1 < args.length
+                    && OffHeapCanvas.backendNamed(args[i + 1]) >= 0) {
+                backend = OffHeapCanvas.backendNamed(args[++i]);
+            } else {
+                System.err.println("Usage: RenderServer [--port N] [--canvas heap|direct|mapped]");
+                System.exit(2);
+            }
+        }
+
+        if (port < 0) {
+            new RenderServer(backend).serve(System.in, System.out);
+            return;
+        }
+        int canvasBackend = backend;
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Render server listening on " + server.getLocalSocketAddress()
+                + (OF_VIRTUAL != null ? " (virtual threads)" : " (platform threads)"));
+            while (true) {
+                Socket client = server.accept();
+                startThread(() -> serveClient(client, canvasBackend), "turtle-client-" + client.getPort());
+            }
+        }
+    }
+
+    private static void serveClient(Socket client, int backend) {
+        try (Socket socket = client) {
+            new RenderServer(backend).serve(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException e) {
+            System.err.println("Client " + client.getRemoteSocketAddress() + ": " + e.getMessage());
+        }
+    }
+
+    private final Map<String, Session> sessions = Collections.synchronizedMap(new LinkedHashMap<>()); // Open or closing
+    private final int canvasBackend; // OffHeapCanvas backend for session canvases
+    private PrintWriter out;
+
+    public RenderServer() {
+        this(OffHeapCanvas.HEAP);
+    }
+
+    public RenderServer(int canvasBackend) {
+        this.canvasBackend = canvasBackend;
+    }
+
+    // Read requests until quit or end of input, then wait for every session to end
+    public void serve(InputStream input, OutputStream output) throws IOException {
+        out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), true);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        boolean quit = false;
+        try {
+            String line;
+            while (!quit && (line = reader.readLine()) != null) {
+                quit = !handle(line.trim());
+            }
+        } finally {
+            closeAll(quit);
+            reply("server", "bye");
+        }
+    }
+
+    // Wait for every session to end: after running its queue, or straight away if stop is set.
+    // An interrupt of this thread stops them too.
+    private void closeAll(boolean stop) {
+        List<Session> open;
+        synchronized (sessions) {
+            open = new ArrayList<>(sessions.values());
+        }
+        for (Session session : open) {
+            if (stop) {
+                session.stop();
+            } else {
+                close(session);
+            }
+        }
+        for (Session session : open) {
+            try {
+                session.thread.join();
+            } catch (InterruptedException e) {
+                for (Session other : open) {
+                    other.stop();
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Handle one request line, false on quit
+    private boolean handle(String line) {
+        if (line.isEmpty() || line.startsWith("//")) return true;
+        String[] parts = line.split("\\s+", 2);
+        String word = parts[0];
+        switch (word) {
+            case "quit":
+                return false;
+            case "sessions":
+                synchronized (sessions) {
+                    reply("server", sessions.isEmpty() ? "no sessions" : String.join(" ", sessions.keySet()));
+                }
+                return true;
+            case "stats":
+                stats(line.split("\\s+"));
+                return true;
+            case "open":
+                open(parts.length > 1 ? parts[1].split("\\s+") : new String[0]);
+                return true;
+            case "close": {
+                Session session = parts.length > 1 ? sessions.get(parts[1]) : null;
+                if (session == null) {
+                    reply("server", "Syntax: close <session>");
+                } else {
+                    close(session);
+                }
+                return true;
+            }
+            default: {
+                Session session = sessions.get(word);
+                if (session == null) {
+                    reply("server", "Unknown session " + word + " - open it first");
+                } else if (session.ending) {
+                    reply("server", "Session " + word + " is closing");
+                } else if (parts.length > 1 && !session.queue.offer(parts[1])) {
+                    reply(word, "Queue full (" + QUEUE_CAPACITY + " lines), dropped: " + parts[1]);
+                }
+                return true;
+            }
+        }
+    }
+
+    private void open(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            reply("server", "Syntax: open <session> [WxH]");
+            return;
+        }
+        String id = args[0];
+        if (sessions.containsKey(id) || id.equals("server")) {
+            reply("server", "Session " + id + " is already open");
+            return;
+        }
+        int width = HeadlessTurtle.DEFAULT_WIDTH;
+        int height = HeadlessTurtle.DEFAULT_HEIGHT;
+        if (args.length == 2) {
+            String[] size = args[1].toLowerCase().split("x");
+            try {
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                reply("server", "Size must be WxH, e.g. 800x400");
+                return;
+            }
+            if (width < 1 || height < 1 || (long) width * height > 1L << 28) {
+                reply("server", "Size out of range");
+                return;
+            }
+        }
+        Session session;
+        try {
+            session = new Session(id, OffHeapCanvas.create(canvasBackend, width, height));
+        } catch (IOException | OutOfMemoryError e) {
+            reply("server", "Cannot create canvas: " + e.getMessage());
+            return;
+        }
+        sessions.put(id, session);
+        session.thread = startThread(session::run, "turtle-session-" + id);
+        reply("server", "opened " + id + " " + width + "x" + height);
+    }
+
+    // Let the session finish its queue and end. Its thread replies and forgets it when it has.
+    private void close(Session session) {
+        session.ending = true;
+        session.queue.offer(END_OF_SESSION); // If the queue is full the thread sees ending once it is empty
+    }
+
+    private void stats(String[] parts) {
+        try {
+            String result = RenderStats.get().command(parts);
+            for (String line : (result == null ? RenderStats.SYNTAX : result).split("\\R")) {
+                reply("server", line);
+            }
+        } catch (IOException e) {
+            reply("server", "Could not write stats: " + e.getMessage());
+        }
+    }
+
+    private void reply(String id, String message) {
+        synchronized (out) {
+            out.println(id + ": " + message);
+        }
+    }
+
+    // One turtle with its own canvas, fed by a queue of command lines
+    private final class Session {
+        final String id;
+        final HeadlessTurtle turtle;
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 1); // One more for the end
+        Thread thread;
+        volatile long commands;
+        volatile boolean ending;   // close was asked for, no more lines are taken
+        volatile boolean stopping; // quit, or the server is going away: stop running at once
+
+        Session(String id, BufferedImage canvas) {
+            this.id = id;
+            this.turtle = new HeadlessTurtle(canvas);
+            turtle.setMessageSink(message -> reply(id, message));
+        }
+
+        // Stop at the next poll of the running script, dropping whatever is still queued
+        void stop() {
+            stopping = true;
+            ending = true;
+            thread.interrupt();
+        }
+
+        // Session thread: compile whatever is queued as one chunk and run it
+        void run() {
+            ScriptCompiler compiler = new ScriptCompiler();
+            List<String> batch = new ArrayList<>();
+            int lineNumber = 0;
+            String failure = null;
+            try {
+                boolean open = true;
+                while (open && !stopping && !(ending && queue.isEmpty())) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    long parseStart = System.nanoTime();
+                    for (String line : batch) {
+                        if (line == END_OF_SESSION) {
+                            open = false;
+                            break;
+                        }
+                        compiler.addLine(line, ++lineNumber);
+                    }
+                    batch.clear();
+                    CompiledScript chunk = compiler.build();
+                    RenderStats.get().recordPhase(RenderStats.PARSE, System.nanoTime() - parseStart);
+                    for (String error : chunk.getErrors()) {
+                        reply(id, error);
+                    }
+                    ScriptInterpreter.execute(chunk, turtle, () -> stopping || Thread.currentThread().isInterrupted());
+                    commands += chunk.size();
+                }
+            } catch (InterruptedException e) {
+                // Stopped while waiting for lines
+            } catch (RuntimeException e) {
+                // Keep the server alive if one session fails
+                failure = e.toString();
+            } finally {
+                turtle.awaitExports();
+                sessions.remove(id);
+                RenderStats.get().runFinished();
+                if (failure != null) {
+                    reply(id, "Session failed: " + failure);
+                }
+                reply("server", "closed " + id + " after " + commands + " commands"
+                    + (stopping ? " (stopped)" : ""));
+            }
+        }
+    }
+
+    // ========== THREADS ==========
+
+    // Thread.ofVirtual() when running on a JVM that has it (Java 21+), otherwise null
+    private static Method findOfVirtual() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    // Start task on a virtual thread if possible, else on a daemon platform thread with a small stack
+    static Thread startThread(Runnable task, String name) {
+        if (OF_VIRTUAL != null) {
+            try {
+                // Go through the public Thread.Builder interface, the builder class itself is internal
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = builderType.getMethod("name", String.class).invoke(builder, name);
+                return (Thread) builderType.getMethod("start", Runnable.class).invoke(builder, task);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Fall back to a platform thread below
+            }
+        }
+        Thread thread = new Thread(null, task, name, PLATFORM_STACK_SIZE);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,324 @@
+package com.turtle;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Where the time goes while commands and scripts run, for the whole process.
+//
+// ScriptInterpreter counts every instruction by opcode and, when profiling is on, times a sample
+// of them. Around that, time is split into phases: parsing (compiling source), drawing (executing
+// it), repainting the window and appending to the command history. Commands typed outside the
+// compiled language are timed per command word. Everything is lock-free on the recording side, so
+// the render thread, pipeline threads and server sessions all record into the same instance.
+//
+// The numbers are shown by the stats command, exposed over JMX once register() has been called
+// (Cli does), and written to a file at the end of each run if a dump file is set, either
+// with -Dturtle.stats.file=FILE or BatchRenderer --stats FILE. Profiling is switched on with
+// stats profile on, the Profiling attribute or -Dturtle.stats.profile=true.
+public final class RenderStats implements RenderStatsMXBean {
+    public static final int PARSE = 0;
+    public static final int DRAW = 1;
+    public static final int REPAINT = 2;
+    public static final int HISTORY = 3;
+    public static final String[] PHASE_NAMES = { "parse", "draw", "repaint", "history" };
+
+    public static final String OBJECT_NAME = "com.turtle:type=RenderStats";
+    public static final String SYNTAX = "Syntax: stats [reset | profile on|off | save <file> | dump <file>|off]";
+
+    private static final int MAX_COMMANDS = 64; // Distinct command words timed, typos would grow the map
+    private static final RenderStats INSTANCE = new RenderStats();
+
+    private final AtomicLongArray opcodeCounts = new AtomicLongArray(CompiledScript.OPCODE_COUNT);
+    private final LatencyHistogram[] opcodeLatency = histograms(CompiledScript.OPCODE_COUNT);
+    private final LatencyHistogram[] phases = histograms(PHASE_NAMES.length);
+    private final ConcurrentHashMap<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+    private volatile File dumpFile;
+    private volatile boolean profiling = Boolean.getBoolean("turtle.stats.profile");
+    private boolean registered;
+
+    private RenderStats() {
+        String file = System.getProperty("turtle.stats.file");
+        if (file != null && !file.isEmpty()) {
+            dumpFile = new File(file);
+        }
+    }
+
+    public static RenderStats get() {
+        return INSTANCE;
+    }
+
+    // Register the MXBean with the platform MBean server. False if JMX is not available.
+    public static synchronized boolean register() {
+        if (INSTANCE.registered) return true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            INSTANCE.registered = true;
+        } catch (JMException | SecurityException e) {
+            return false;
+        }
+        return true;
+    }
+
+    // ========== RECORDING ==========
+
+    // Add the per-opcode counts of one run
+    public void countOpcodes(long[] counts) {
+        for (int op = 0; op < counts.length; op++) {
+            if (counts[op] != 0) {
+                opcodeCounts.addAndGet(op, counts[op]);
+            }
+        }
+    }
+
+    // Time from an instruction being profiled starting to the next one starting
+    public void recordOpcode(int opcode, long nanos) {
+        opcodeLatency[opcode].record(nanos);
+    }
+
+    public void recordPhase(int phase, long nanos) {
+        phases[phase].record(nanos);
+    }
+
+    public void recordCommand(String name, long nanos) {
+        LatencyHistogram histogram = commands.get(name);
+        if (histogram == null) {
+            if (commands.size() >= MAX_COMMANDS) return;
+            histogram = commands.computeIfAbsent(name, key -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    // Call when a script, batch or session finishes: writes the report if a dump file is set
+    public void runFinished() {
+        File file = dumpFile;
+        if (file == null) return;
+        try {
+            dump(file.getPath());
+        } catch (IOException e) {
+            System.err.println("Could not write stats to " + file + ": " + e.getMessage());
+        }
+    }
+
+    // ========== REPORTING ==========
+
+    // Run the stats command: show the report, reset it, switch instruction timing on or off, save
+    // it now, or set or clear the file it is dumped to when a run ends. Returns the text to show,
+    // null if the syntax is wrong.
+    public String command(String[] parts) throws IOException {
+        if (parts.length == 1) {
+            return getReport();
+        }
+        switch (parts[1].toLowerCase()) {
+            case "reset":
+                if (parts.length != 2) return null;
+                reset();
+                return "Stats reset";
+            case "profile":
+                if (parts.length != 3 || !parts[2].equalsIgnoreCase("on") && !parts[2].equalsIgnoreCase("off")) {
+                    return null;
+                }
+                setProfiling(parts[2].equalsIgnoreCase("on"));
+                return profiling ? "Timing a sample of instructions in each run" : "No longer timing instructions";
+            case "save":
+                if (parts.length != 3) return null;
+                dump(parts[2]);
+                return "Stats saved to " + parts[2];
+            case "dump":
+                if (parts.length != 3) return null;
+                setDumpFile(parts[2].equalsIgnoreCase("off") ? null : parts[2]);
+                return dumpFile == null ? "Stats are no longer dumped" : "Stats are dumped to " + parts[2] + " after each run";
+            default:
+                return null;
+        }
+    }
+
+    // Opcode names are not unique (triangle, save and pencolour have two forms), so add the arity
+    static String opcodeLabel(int opcode) {
+        if (opcode == CompiledScript.LOOP) return "loop"; // Printed as the ] that closes a repeat
+        String name = CompiledScript.NAMES[opcode];
+        for (int other = 0; other < CompiledScript.NAMES.length; other++) {
+            if (other != opcode && CompiledScript.NAMES[other].equals(name)) {
+                return name + "/" + CompiledScript.ARITY[opcode];
+            }
+        }
+        return name;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder out = new StringBuilder();
+        long seconds = (System.currentTimeMillis() - since) / 1000;
+        out.append("Stats since ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(since)))
+            .append(" (").append(seconds).append(" s)\n");
+        out.append(String.format("%-12s %12s %12s %10s %10s %10s%n", "phase", "count", "total ms", "p50 us", "p99 us", "max us"));
+        for (int phase = 0; phase < phases.length; phase++) {
+            LatencyHistogram h = phases[phase];
+            if (h.getCount() == 0) continue;
+            out.append(String.format("%-12s %12d %12.1f %10.1f %10.1f %10.1f%n", PHASE_NAMES[phase], h.getCount(),
+                h.getTotalNanos() / 1e6, h.getPercentileNanos(0.5) / 1e3, h.getPercentileNanos(0.99) / 1e3,
+                h.getMaxNanos() / 1e3));
+        }
+        out.append(String.format("%-12s %12s %12s %10s %10s %10s%n", "opcode", "count", "timed", "p50 ns", "p99 ns", "max ns"));
+        for (int op = 0; op < opcodeCounts.length(); op++) {
+            long count = opcodeCounts.get(op);
+            if (count == 0) continue;
+            LatencyHistogram h = opcodeLatency[op];
+            out.append(String.format("%-12s %12d %12d %10d %10d %10d%n", opcodeLabel(op), count, h.getCount(),
+                h.getPercentileNanos(0.5), h.getPercentileNanos(0.99), h.getMaxNanos()));
+        }
+        if (!commands.isEmpty()) {
+            out.append(String.format("%-12s %12s %12s %10s %10s %10s%n", "command", "count", "total ms", "p50 us", "p99 us", "max us"));
+            for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(commands).entrySet()) {
+                LatencyHistogram h = entry.getValue();
+                out.append(String.format("%-12s %12d %12.1f %10.1f %10.1f %10.1f%n", entry.getKey(), h.getCount(),
+                    h.getTotalNanos() / 1e6, h.getPercentileNanos(0.5) / 1e3, h.getPercentileNanos(0.99) / 1e3,
+                    h.getMaxNanos() / 1e3));
+            }
+        }
+        return out.toString();
+    }
+
+    @Override
+    public void dump(String file) throws IOException {
+        Files.write(new File(file).toPath(), getReport().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void reset() {
+        for (int op = 0; op < opcodeCounts.length(); op++) {
+            opcodeCounts.set(op, 0);
+            opcodeLatency[op].reset();
+        }
+        for (LatencyHistogram phase : phases) {
+            phase.reset();
+        }
+        commands.clear();
+        since = System.currentTimeMillis();
+    }
+
+    @Override
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    // Takes effect from the next run
+    @Override
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    @Override
+    public String getDumpFile() {
+        File file = dumpFile;
+        return file == null ? "" : file.getPath();
+    }
+
+    @Override
+    public void setDumpFile(String file) {
+        dumpFile = file == null || file.isEmpty() ? null : new File(file);
+    }
+
+    // ========== MXBEAN ATTRIBUTES ==========
+
+    @Override
+    public long getInstructions() {
+        long total = 0;
+        for (int op = 0; op < opcodeCounts.length(); op++) {
+            total += opcodeCounts.get(op);
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int op = 0; op < opcodeCounts.length(); op++) {
+            if (opcodeCounts.get(op) != 0) {
+                counts.put(opcodeLabel(op), opcodeCounts.get(op));
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeMedianNanos() {
+        return opcodes(h -> h.getPercentileNanos(0.5));
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeP99Nanos() {
+        return opcodes(h -> h.getPercentileNanos(0.99));
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        return phases(LatencyHistogram::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseTotalNanos() {
+        return phases(LatencyHistogram::getTotalNanos);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseP99Nanos() {
+        return phases(h -> h.getPercentileNanos(0.99));
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        return commands(LatencyHistogram::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getCommandP99Nanos() {
+        return commands(h -> h.getPercentileNanos(0.99));
+    }
+
+    private Map<String, Long> opcodes(ToLongFunction<LatencyHistogram> value) {
+        Map<String, Long> values = new TreeMap<>();
+        for (int op = 0; op < opcodeLatency.length; op++) {
+            if (opcodeLatency[op].getCount() != 0) {
+                values.put(opcodeLabel(op), value.applyAsLong(opcodeLatency[op]));
+            }
+        }
+        return values;
+    }
+
+    private Map<String, Long> phases(ToLongFunction<LatencyHistogram> value) {
+        Map<String, Long> values = new TreeMap<>();
+        for (int phase = 0; phase < phases.length; phase++) {
+            values.put(PHASE_NAMES[phase], value.applyAsLong(phases[phase]));
+        }
+        return values;
+    }
+
+    private Map<String, Long> commands(ToLongFunction<LatencyHistogram> value) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : commands.entrySet()) {
+            values.put(entry.getKey(), value.applyAsLong(entry.getValue()));
+        }
+        return values;
+    }
+
+    private static LatencyHistogram[] histograms(int count) {
+        LatencyHistogram[] histograms = new LatencyHistogram[count];
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
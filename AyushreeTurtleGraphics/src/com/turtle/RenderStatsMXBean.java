@@ -0,0 +1,44 @@
+package com.turtle;
+
+import java.io.IOException;
+import java.util.Map;
+
+// Management interface of RenderStats, registered as com.turtle:type=RenderStats.
+// Maps are keyed by opcode, phase or command name; times are in nanoseconds.
+public interface RenderStatsMXBean {
+    long getInstructions();
+
+    Map<String, Long> getOpcodeCounts();
+
+    // Of the instructions timed while profiling
+    Map<String, Long> getOpcodeMedianNanos();
+
+    Map<String, Long> getOpcodeP99Nanos();
+
+    Map<String, Long> getPhaseCounts();
+
+    Map<String, Long> getPhaseTotalNanos();
+
+    Map<String, Long> getPhaseP99Nanos();
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getCommandP99Nanos();
+
+    // The text shown by the stats command
+    String getReport();
+
+    // Whether runs time a sample of their instructions
+    boolean isProfiling();
+
+    void setProfiling(boolean profiling);
+
+    // File the report is written to when a run ends, empty for none
+    String getDumpFile();
+
+    void setDumpFile(String file);
+
+    void dump(String file) throws IOException;
+
+    void reset();
+}
@@ -0,0 +1,129 @@
+package com.turtle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// A render process taking scripts from a RenderCoordinator on a local port.
+//
+// Usage: RenderWorker --port N [BatchRenderer options]
+//
+// The worker connects, says "hello <pid>", then renders each "job <id> <path>" it is sent with a
+// BatchRenderer set up by the options (the same as --batch takes, without scripts) and answers
+// "done <id> <ms>" or "failed <id> <ms> <reason>". While a job renders it also sends "busy <id>"
+// every HEARTBEAT_MILLIS, so the coordinator can tell a long render from a worker that hung or
+// went away. The coordinator never sends more jobs than its window, so at most that many wait in
+// the socket. "quit" ends the worker.
+public class RenderWorker {
+    public static final long HEARTBEAT_MILLIS = 5_000;
+    private static final long CONNECT_MILLIS = 10_000; // How long to keep trying to reach the coordinator
+
+    public static void main(String[] args) throws IOException {
+        // Must be set before any AWT class is touched
+        System.setProperty("java.awt.headless", "true");
+
+        int port = -1;
+        List<String> rendererArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                rendererArgs.add(args[i]);
+            }
+        }
+        List<String> inputs = new ArrayList<>();
+        BatchRenderer renderer = BatchRenderer.fromArgs(rendererArgs.toArray(new String[0]), inputs);
+        if (port < 0 || !inputs.isEmpty()) {
+            System.err.println("Usage: RenderWorker --port N [BatchRenderer options]");
+            System.exit(2);
+        }
+
+        try (Socket socket = connect(port)) {
+            new RenderWorker(renderer).work(socket);
+        }
+        RenderStats.get().runFinished();
+    }
+
+    // The coordinator may still be starting, so retry for a while before giving up
+    private static Socket connect(int port) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_MILLIS;
+        while (true) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private final BatchRenderer renderer;
+    private volatile String rendering; // Id of the job being rendered, null between jobs
+
+    public RenderWorker(BatchRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    // Render jobs until quit or the coordinator goes away
+    public void work(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        out.println("hello " + ProcessHandle.current().pid());
+        Thread heartbeat = RenderServer.startThread(() -> heartbeat(out), "turtle-worker-heartbeat");
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts[0].equals("quit")) break;
+                if (!parts[0].equals("job") || parts.length < 3) {
+                    System.err.println("Worker: unexpected request " + line);
+                    continue;
+                }
+                rendering = parts[1];
+                String reply = render(parts[1], new File(parts[2]));
+                rendering = null;
+                out.println(reply);
+            }
+        } finally {
+            heartbeat.interrupt();
+        }
+    }
+
+    // Heartbeat thread: say which job is still rendering until interrupted. PrintWriter keeps the
+    // lines whole.
+    private void heartbeat(PrintWriter out) {
+        try {
+            while (true) {
+                Thread.sleep(HEARTBEAT_MILLIS);
+                String id = rendering;
+                if (id != null) {
+                    out.println("busy " + id);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The worker is done
+        }
+    }
+
+    // The reply line for one job
+    private String render(String id, File script) {
+        long start = System.nanoTime();
+        String error = renderer.render(script) ? null : String.valueOf(renderer.getLastError());
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        return error == null ? "done " + id + " " + millis : "failed " + id + " " + millis + " " + error.replace('\n', ' ');
+    }
+}
@@ -0,0 +1,125 @@
+package com.turtle;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.Timer;
+
+// Coalesces repaint requests into at most one paint of the canvas per frame.
+//
+// Every forward, turn and shape step asks for a repaint, and a script or the name drawing asks
+// hundreds of times per frame. A request here only grows the dirty rectangle. A Swing timer ticking
+// at the frame rate turns whatever is dirty into one real repaint, and stops while nothing is.
+// flush() repaints straight away, so the end of a command or script shows without waiting a tick.
+// Requests can come from any thread; ticks run on the EDT.
+public class RepaintScheduler {
+    public static final int DEFAULT_FPS = 60;
+    public static final int MAX_FPS = 240;
+
+    // Does the real repaint of an area
+    public interface Target {
+        void repaintNow(int x, int y, int width, int height);
+    }
+
+    private final Target target;
+    private final Timer timer;
+    private int fps; // 0 passes every request straight through
+    // Dirty area, empty when minX > maxX. Guarded by this, as are the fields below.
+    private int minX = Integer.MAX_VALUE;
+    private int minY = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE;
+    private int maxY = Integer.MIN_VALUE;
+    private long requests;
+    private long paints;
+
+    public RepaintScheduler(Target target, int fps) {
+        this.target = target;
+        timer = new Timer(1000 / DEFAULT_FPS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                tick();
+            }
+        });
+        setFps(fps);
+    }
+
+    // Ask for an area to be repainted by the next tick
+    public void repaint(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) return;
+        synchronized (this) {
+            requests++;
+            if (fps > 0) {
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x + width);
+                maxY = Math.max(maxY, y + height);
+                if (!timer.isRunning()) {
+                    timer.start(); // The first tick is a frame away, so a burst starting now is coalesced
+                }
+                return;
+            }
+            paints++;
+        }
+        target.repaintNow(x, y, width, height);
+    }
+
+    // Repaint whatever is dirty now. Call when a batch of drawing ends. Returns false if nothing was.
+    public boolean flush() {
+        int x, y, width, height;
+        synchronized (this) {
+            if (minX > maxX) return false;
+            x = minX;
+            y = minY;
+            width = maxX - minX;
+            height = maxY - minY;
+            minX = minY = Integer.MAX_VALUE;
+            maxX = maxY = Integer.MIN_VALUE;
+            paints++;
+        }
+        target.repaintNow(x, y, width, height);
+        return true;
+    }
+
+    private void tick() {
+        if (!flush()) {
+            synchronized (this) {
+                if (minX > maxX) {
+                    timer.stop(); // Idle until the next request
+                }
+            }
+        }
+    }
+
+    // Paints per second at most, 0 to repaint on every request
+    public void setFps(int fps) {
+        if (fps < 0 || fps > MAX_FPS) {
+            throw new IllegalArgumentException("Frame rate must be 0 to " + MAX_FPS);
+        }
+        synchronized (this) {
+            this.fps = fps;
+            timer.setDelay(getFrameMillis());
+            timer.setInitialDelay(getFrameMillis());
+        }
+        if (fps == 0) {
+            flush();
+        }
+    }
+
+    public synchronized int getFps() {
+        return fps;
+    }
+
+    // Time between ticks
+    public synchronized int getFrameMillis() {
+        return 1000 / (fps == 0 ? DEFAULT_FPS : fps);
+    }
+
+    // Repaints asked for so far
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    // Repaints actually done
+    public synchronized long getPaints() {
+        return paints;
+    }
+}
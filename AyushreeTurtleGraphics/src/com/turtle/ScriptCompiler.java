@@ -0,0 +1,1364 @@
+package com.turtle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Compiles command scripts into a CompiledScript once, so they can be executed
+// (and re-executed) by ScriptInterpreter without any string handling.
+//
+// Lines are scanned in place: no regex split, no substrings and no toLowerCase per line.
+// Syntax and limits are the same as TurtleGraphics.processCommand; rejected lines are
+// recorded as errors and left out of the compiled script.
+//
+// On top of the plain commands the language has loops, procedures and variables:
+//   repeat 36 [ circle 50 right 10 ]
+//   to tree :size :depth
+//     if :depth > 0 [ forward :size left 30 tree :size * 0.7 :depth - 1 right 60
+//                     tree :size * 0.7 :depth - 1 left 30 backward :size ]
+//   end
+//   make "angle 90   right :angle + repcount
+//   turtle create t2   t2 repeat 4 [ forward 50 right 90 ]
+// Lines using them go through a statement parser, everything else through the one-command
+// fast path. Loops and calls are compiled, not expanded: a procedure is compiled once however
+// often it runs, so a few lines can draw millions of segments without the compiler seeing them.
+// Arguments that are constant are folded and checked here, the rest are checked as they run.
+// A minus with a space before it and none after starts a new argument, as in Logo: "tree :n -1"
+// passes two arguments where "tree :n - 1" passes one.
+public class ScriptCompiler {
+    // Command keywords and the command each one maps to
+    private static final String[] KEYWORDS = {
+        "forward", "move", "backward", "reverse", "left", "right", "penwidth", "penup", "pu",
+        "pendown", "pd", "pencolour", "clear", "reset", "circle", "square", "triangle", "save",
+        "load", "olympics", "name", "setspeed", "about", "help", "svg", "pick", "zoom",
+        "pngoptions", "undo", "redo"
+    };
+    private static final int K_FORWARD = 0, K_BACKWARD = 1, K_LEFT = 2, K_RIGHT = 3, K_PENWIDTH = 4,
+        K_PENUP = 5, K_PENDOWN = 6, K_PENCOLOUR = 7, K_CLEAR = 8, K_RESET = 9, K_CIRCLE = 10,
+        K_SQUARE = 11, K_TRIANGLE = 12, K_SAVE = 13, K_LOAD = 14, K_OLYMPICS = 15, K_NAME = 16,
+        K_SETSPEED = 17, K_INTERACTIVE = 18, K_SVG = 19;
+    private static final int[] KEYWORD_COMMANDS = {
+        K_FORWARD, K_FORWARD, K_BACKWARD, K_BACKWARD, K_LEFT, K_RIGHT, K_PENWIDTH, K_PENUP, K_PENUP,
+        K_PENDOWN, K_PENDOWN, K_PENCOLOUR, K_CLEAR, K_RESET, K_CIRCLE, K_SQUARE, K_TRIANGLE, K_SAVE,
+        K_LOAD, K_OLYMPICS, K_NAME, K_SETSPEED, K_INTERACTIVE, K_INTERACTIVE, K_SVG,
+        K_INTERACTIVE, K_INTERACTIVE, K_INTERACTIVE, K_INTERACTIVE, K_INTERACTIVE
+    };
+    // Most tokens a line of each command has on the fast path, longer lines hold more statements
+    private static final int[] COMMAND_TOKENS = {
+        2, 2, 2, 2, 2, 1, 1, 4, 1, 1, 2, 2, 4, 3, 2, 1, 1, 2, Integer.MAX_VALUE, 2
+    };
+
+    // Words of the language itself, none of which can name a procedure
+    private static final String[] LANGUAGE_WORDS = {
+        "repeat", "if", "to", "end", "make", "stop", "repcount", "turtle"
+    };
+    private static final int L_REPEAT = 0, L_IF = 1, L_TO = 2, L_END = 3, L_MAKE = 4, L_STOP = 5, L_REPCOUNT = 6,
+        L_TURTLE = 7;
+
+    // Characters that only appear in lines using the language, plain commands go the fast path
+    private static final boolean[] PARSER_CHARACTERS = new boolean[128];
+    static {
+        for (char c : "[]():\"+*/%<>=".toCharArray()) {
+            PARSER_CHARACTERS[c] = true;
+        }
+    }
+
+    // Colour names accepted by pencolour
+    private static final String[] COLOUR_NAMES = {
+        "red", "green", "blue", "black", "yellow", "cyan", "magenta", "white", "gray"
+    };
+    private static final int[] COLOUR_VALUES = {
+        0xFF0000, 0x00FF00, 0x0000FF, 0x000000, 0xFFFF00, 0x00FFFF, 0xFF00FF, 0xFFFFFF, 0x808080
+    };
+
+    private static final int MAX_TOKENS = 8;
+    private static final long BAD_NUMBER = Long.MIN_VALUE;
+
+    // Small integers are by far the most common operands, so their constant slots are shared
+    private static final int SMALL_CONSTANT_LIMIT = 1024;
+
+    // Expressions are evaluated on a fixed size stack
+    static final int MAX_EXPRESSION_DEPTH = 64;
+    private static final int MAX_BLOCK_DEPTH = 256;
+
+    // Token boundaries of the line being compiled
+    private final int[] tokenStart = new int[MAX_TOKENS];
+    private final int[] tokenEnd = new int[MAX_TOKENS];
+    private int tokenCount;
+    private boolean parserCharacters; // Whether the line has any of PARSER_CHARACTERS
+
+    // Output being built: the top level, or the body of the procedure being defined
+    private final Output main = new Output();
+    private Output out = main;
+    private double[] constants = new double[64];
+    private int constantCount;
+    private final int[] smallConstantSlots = new int[SMALL_CONSTANT_LIMIT * 2 + 1];
+    private final List<String> strings = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private int[] exprs = new int[64];
+    private int exprLength;
+
+    // Procedures and global variables, kept across builds
+    private final List<CompiledScript.Procedure> procedures = new ArrayList<>();
+    private final Map<String, Integer> procedureIndex = new HashMap<>();
+    private final Map<String, Integer> globals = new HashMap<>();
+    private final Set<String> turtleNames = new HashSet<>(); // Named by turtle create, kept across builds
+    private final CompiledScript.Workspace workspace = new CompiledScript.Workspace();
+    private CompiledScript.Procedure defining; // Between to and end
+    private int definingIndex;
+    private List<String> parameters;
+    private int definingLine;
+
+    // Open repeat and if blocks: the instruction that starts each one and the line it is on.
+    // Blocks may span lines, the code of a top level block still open at build is held back.
+    private final int[] blockKind = new int[MAX_BLOCK_DEPTH];
+    private final int[] blockPc = new int[MAX_BLOCK_DEPTH];
+    private final int[] blockInstruction = new int[MAX_BLOCK_DEPTH];
+    private final int[] blockLine = new int[MAX_BLOCK_DEPTH];
+    // The ASK in front of each block ("t2 repeat 4 [ ... ]"), -1 if none, and its instruction
+    private final int[] blockAsk = new int[MAX_BLOCK_DEPTH];
+    private final int[] blockAskInstruction = new int[MAX_BLOCK_DEPTH];
+    private int blockDepth;
+
+    // Statement parser state for the current line
+    private CharSequence text;
+    private int position;
+    private int tokenType;
+    private int start;
+    private int end;
+    private int lineNumber;
+
+    public ScriptCompiler() {
+        Arrays.fill(smallConstantSlots, -1);
+    }
+
+    // Compile a whole script
+    public static CompiledScript compile(Reader source) throws IOException {
+        ScriptCompiler compiler = new ScriptCompiler();
+        BufferedReader reader = source instanceof BufferedReader
+            ? (BufferedReader) source : new BufferedReader(source, 1 << 16);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            compiler.addLine(line, ++lineNumber);
+        }
+        compiler.finish();
+        return compiler.build();
+    }
+
+    public static CompiledScript compile(String script) {
+        try {
+            return compile(new StringReader(script));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringReader does not throw
+        }
+    }
+
+    // Number of commands compiled since the last build, 0 while a block or procedure is still open
+    // so that a chunk never ends inside one
+    public int pendingCommands() {
+        return blockDepth > 0 || defining != null ? 0 : main.instructionCount;
+    }
+
+    // Return everything compiled so far and start a new, empty script.
+    // Callers feeding a long script can build in chunks and execute each chunk in order.
+    // Procedures and variables carry over to the next chunk. A block or procedure that is still
+    // open stays with the compiler, to be finished by the lines added next.
+    public CompiledScript build() {
+        int heldPc = main.codeLength;
+        int heldInstruction = main.instructionCount;
+        if (blockDepth > 0 && defining == null) {
+            heldPc = blockAsk[0] >= 0 ? blockAsk[0] : blockPc[0];
+            heldInstruction = blockAsk[0] >= 0 ? blockAskInstruction[0] : blockInstruction[0];
+        }
+        CompiledScript script = new CompiledScript(
+            Arrays.copyOf(main.code, heldPc), heldPc,
+            Arrays.copyOf(constants, constantCount),
+            strings.toArray(new String[0]),
+            Arrays.copyOf(main.lines, heldInstruction), heldInstruction,
+            errors.toArray(new String[0]),
+            Arrays.copyOf(exprs, exprLength),
+            procedures.toArray(new CompiledScript.Procedure[0]), workspace, globals.size());
+        errors.clear();
+        if (blockDepth > 0 || defining != null) {
+            // Open code still refers to the constants, strings and expressions, keep them
+            main.drop(heldPc, heldInstruction);
+            for (int b = 0; b < blockDepth && defining == null; b++) {
+                blockPc[b] -= heldPc;
+                blockInstruction[b] -= heldInstruction;
+                if (blockAsk[b] >= 0) {
+                    blockAsk[b] -= heldPc;
+                    blockAskInstruction[b] -= heldInstruction;
+                }
+            }
+            return script;
+        }
+        main.codeLength = 0;
+        main.instructionCount = 0;
+        constantCount = 0;
+        Arrays.fill(smallConstantSlots, -1);
+        strings.clear();
+        exprLength = 0;
+        return script;
+    }
+
+    // Forget every line added since the last build, along with any block or procedure they left
+    // open. Procedures, variables and turtle names defined before stay known, so a cancelled script
+    // can be resumed from its last chunk with the compiler that read it.
+    public void discardPending() {
+        blockDepth = 0;
+        if (defining != null) {
+            defining = null; // Never indexed, so it can't be called, as in finish
+            parameters = null;
+            out = main;
+        }
+        main.codeLength = 0;
+        main.instructionCount = 0;
+        errors.clear();
+        constantCount = 0;
+        Arrays.fill(smallConstantSlots, -1);
+        strings.clear();
+        exprLength = 0;
+    }
+
+    // Call at the end of the source: reports and drops blocks and procedures left open
+    public void finish() {
+        for (int b = blockDepth - 1; b >= 0; b--) {
+            error(blockLine[b], "Missing ] for " + LANGUAGE_WORDS[blockKind[b]]);
+        }
+        if (blockDepth > 0) {
+            out.codeLength = blockAsk[0] >= 0 ? blockAsk[0] : blockPc[0];
+            out.instructionCount = blockAsk[0] >= 0 ? blockAskInstruction[0] : blockInstruction[0];
+            blockDepth = 0;
+        }
+        if (defining != null) {
+            error(definingLine, "Missing end for to " + defining.name);
+            defining = null;
+            out = main;
+        }
+    }
+
+    // Whether a typed line needs the language rather than a single command: it uses brackets,
+    // variables or expressions, calls a procedure, talks to a named turtle, or goes on with a
+    // block or definition
+    public boolean isProgramLine(CharSequence line) {
+        tokenize(line);
+        if (blockDepth > 0 || defining != null) return true;
+        if (tokenCount == 0) return false;
+        int command = keyword(line);
+        if (command >= 0) return needsParser(line, command);
+        if (match(line, 0, LANGUAGE_WORDS) >= 0) return true;
+        String word = line.subSequence(tokenStart[0], tokenEnd[0]).toString().toLowerCase();
+        return procedureIndex.containsKey(word) || turtleNames.contains(word);
+    }
+
+    // Compile one line of a script. Blank lines and // comments are skipped.
+    public void addLine(CharSequence line, int lineNumber) {
+        tokenize(line);
+        if (tokenCount == 0) return;
+        if (tokenEnd[0] - tokenStart[0] >= 2 && line.charAt(tokenStart[0]) == '/'
+                && line.charAt(tokenStart[0] + 1) == '/') {
+            return;
+        }
+
+        int command = keyword(line);
+        if (blockDepth > 0 || defining != null || command < 0 || needsParser(line, command)) {
+            statements(line, lineNumber);
+            return;
+        }
+        switch (command) {
+            case K_FORWARD:
+            case K_BACKWARD: {
+                if (tokenCount != 2) {
+                    error(lineNumber, "Missing Parameter!");
+                    return;
+                }
+                long distance = number(line, 1);
+                if (distance == BAD_NUMBER) {
+                    error(lineNumber, "Enter a valid Numeric Parameter!");
+                } else if (Math.abs(distance) > 1000) {
+                    error(lineNumber, "Distance too large (max 1000 pixels)");
+                } else {
+                    emit(command == K_FORWARD ? CompiledScript.FORWARD : CompiledScript.BACKWARD, lineNumber);
+                    emitConstant(distance);
+                }
+                return;
+            }
+
+            case K_LEFT:
+            case K_RIGHT: {
+                long angle = 90; // Default 90 degree turn
+                if (tokenCount == 2) {
+                    angle = number(line, 1);
+                    if (angle == BAD_NUMBER) {
+                        error(lineNumber, "Invalid angle - must be integer");
+                        return;
+                    }
+                    if (angle < -360 || angle > 360) {
+                        error(lineNumber, "Angle must be between -360 and 360 degrees");
+                        return;
+                    }
+                }
+                emit(command == K_LEFT ? CompiledScript.LEFT : CompiledScript.RIGHT, lineNumber);
+                emitConstant(angle);
+                return;
+            }
+
+            case K_PENWIDTH:
+                compileNumber(line, lineNumber, CompiledScript.PEN_WIDTH, "Syntax: penwidth <size>",
+                    1, Integer.MAX_VALUE, "Invalid width - must be integer");
+                return;
+
+            case K_SETSPEED:
+                compileNumber(line, lineNumber, CompiledScript.SPEED, "Syntax: setspeed <0-10>",
+                    Integer.MIN_VALUE, Integer.MAX_VALUE, null);
+                return;
+
+            case K_CIRCLE:
+                compileNumber(line, lineNumber, CompiledScript.CIRCLE, "Syntax: circle <radius>",
+                    1, 500, "Radius must be between 1 and 500 pixels");
+                return;
+
+            case K_SQUARE:
+                compileNumber(line, lineNumber, CompiledScript.SQUARE, "Syntax: square <size>",
+                    1, 500, "Size must be between 1 and 500 pixels");
+                return;
+
+            case K_TRIANGLE:
+                if (tokenCount == 2) {
+                    compileNumber(line, lineNumber, CompiledScript.TRIANGLE, null,
+                        1, 500, "Size must be between 1 and 500 pixels");
+                } else if (tokenCount == 4) {
+                    long a = number(line, 1), b = number(line, 2), c = number(line, 3);
+                    if (a == BAD_NUMBER || b == BAD_NUMBER || c == BAD_NUMBER) {
+                        error(lineNumber, "Invalid size - must be integer");
+                    } else if (a < 1 || a > 500 || b < 1 || b > 500 || c < 1 || c > 500) {
+                        error(lineNumber, "Sides must be between 1 and 500 pixels");
+                    } else if (!Shapes.isValidTriangle((int) a, (int) b, (int) c)) {
+                        error(lineNumber, "Invalid triangle - sum of any two sides must be greater than the third");
+                    } else {
+                        emit(CompiledScript.TRIANGLE3, lineNumber);
+                        emitConstant(a);
+                        emitConstant(b);
+                        emitConstant(c);
+                    }
+                } else {
+                    error(lineNumber, "Syntax: triangle <size> OR triangle <side1> <side2> <side3>");
+                }
+                return;
+
+            case K_PENCOLOUR:
+                compileColour(line, lineNumber);
+                return;
+
+            case K_PENUP:     emit(CompiledScript.PEN_UP, lineNumber); return;
+            case K_PENDOWN:   emit(CompiledScript.PEN_DOWN, lineNumber); return;
+            case K_CLEAR:     emit(CompiledScript.CLEAR, lineNumber); return;
+            case K_RESET:     emit(CompiledScript.RESET, lineNumber); return;
+            case K_OLYMPICS:  emit(CompiledScript.OLYMPICS, lineNumber); return;
+            case K_NAME:      emit(CompiledScript.NAME, lineNumber); return;
+
+            case K_SAVE:
+                if (tokenCount == 3) {
+                    long scale = number(line, 2);
+                    if (scale == BAD_NUMBER) {
+                        error(lineNumber, "Please enter a valid number");
+                    } else if (scale < 1 || scale > TileRasterizer.MAX_SCALE) {
+                        error(lineNumber, "Scale must be between 1 and " + TileRasterizer.MAX_SCALE);
+                    } else {
+                        emit(CompiledScript.SAVE_SCALED, lineNumber);
+                        code(strings.size());
+                        strings.add(line.subSequence(tokenStart[1], tokenEnd[1]).toString());
+                        emitConstant(scale);
+                    }
+                    return;
+                }
+                fileCommand(line, lineNumber, command); // Just a file name compiles like load and svg
+                return;
+            case K_LOAD:
+            case K_SVG:
+                fileCommand(line, lineNumber, command);
+                return;
+
+            case K_INTERACTIVE:
+                // about, help, pick and zoom show things to the user, pngoptions is a window
+                // setting and undo/redo work on typed commands, they do nothing in a script
+                return;
+
+            default:
+                error(lineNumber, "Invalid Command: " + line.subSequence(tokenStart[0], tokenEnd[0]));
+        }
+    }
+
+    // save, load or svg with a file name
+    private void fileCommand(CharSequence line, int lineNumber, int command) {
+        if (tokenCount != 2) {
+            error(lineNumber, command == K_SAVE ? "Syntax: save <filename> [scale]"
+                : command == K_LOAD ? "Syntax: load <filename>" : "Syntax: svg <filename>");
+            return;
+        }
+        emit(command == K_SAVE ? CompiledScript.SAVE
+            : command == K_LOAD ? CompiledScript.LOAD : CompiledScript.SAVE_SVG, lineNumber);
+        code(strings.size());
+        strings.add(line.subSequence(tokenStart[1], tokenEnd[1]).toString());
+    }
+
+    // ========== STATEMENTS ==========
+
+    // Token types of the statement parser
+    private static final int T_END = 0, T_WORD = 1, T_NUMBER = 2, T_VARIABLE = 3, T_QUOTED = 4,
+        T_OPEN = 5, T_CLOSE = 6, T_LEFT_PAREN = 7, T_RIGHT_PAREN = 8, T_OPERATOR = 9;
+    private static final String DELIMITERS = "[]()+-*/%<>=:\"";
+    private static final int MAX_EXPRESSION_NODES = 1024;
+
+    private int nodeCount;
+    private int nesting;
+
+    // Whether a line starting with a command keyword uses anything the fast path does not know
+    private boolean needsParser(CharSequence line, int command) {
+        if (tokenCount > COMMAND_TOKENS[command]) return true;
+        if (command == K_SAVE || command == K_LOAD || command == K_SVG) {
+            return false; // File names may contain anything
+        }
+        return parserCharacters;
+    }
+
+    // Compile every statement on the line. A line with an error is left out as a whole.
+    private void statements(CharSequence line, int lineNumber) {
+        text = line;
+        position = 0;
+        this.lineNumber = lineNumber;
+        int codeMark = out.codeLength;
+        int instructionMark = out.instructionCount;
+        int exprMark = exprLength;
+        int depthMark = blockDepth;
+        int[] kinds = Arrays.copyOf(blockKind, depthMark);
+        int[] pcs = Arrays.copyOf(blockPc, depthMark);
+        int[] instructions = Arrays.copyOf(blockInstruction, depthMark);
+        int[] blockLines = Arrays.copyOf(blockLine, depthMark);
+        int[] asks = Arrays.copyOf(blockAsk, depthMark);
+        int[] askInstructions = Arrays.copyOf(blockAskInstruction, depthMark);
+        try {
+            while (peek() != T_END) {
+                statement();
+            }
+        } catch (SyntaxError e) {
+            out.codeLength = codeMark;
+            out.instructionCount = instructionMark;
+            exprLength = exprMark;
+            blockDepth = depthMark;
+            System.arraycopy(kinds, 0, blockKind, 0, depthMark);
+            System.arraycopy(pcs, 0, blockPc, 0, depthMark);
+            System.arraycopy(instructions, 0, blockInstruction, 0, depthMark);
+            System.arraycopy(blockLines, 0, blockLine, 0, depthMark);
+            System.arraycopy(asks, 0, blockAsk, 0, depthMark);
+            System.arraycopy(askInstructions, 0, blockAskInstruction, 0, depthMark);
+            error(lineNumber, e.getMessage());
+        } finally {
+            text = null;
+        }
+    }
+
+    private void statement() {
+        int type = peek();
+        if (type == T_CLOSE) {
+            advance();
+            closeBlock();
+            return;
+        }
+        if (type != T_WORD) {
+            throw new SyntaxError("Expected a command but found " + tokenText());
+        }
+        switch (match(text, start, end, LANGUAGE_WORDS)) {
+            case L_REPEAT:
+                advance();
+                openBlock(L_REPEAT, CompiledScript.REPEAT, operand(value("Syntax: repeat <count> [ commands ]")));
+                return;
+            case L_IF:
+                advance();
+                openBlock(L_IF, CompiledScript.IF, operand(value("Syntax: if <condition> [ commands ]")));
+                return;
+            case L_TO:
+                defineProcedure();
+                return;
+            case L_END:
+                endProcedure();
+                return;
+            case L_MAKE:
+                make();
+                return;
+            case L_STOP:
+                if (defining == null) throw new SyntaxError("stop can only be used in a procedure");
+                advance();
+                emit(CompiledScript.RETURN, lineNumber);
+                return;
+            case L_TURTLE:
+                turtle();
+                return;
+            default:
+                break;
+        }
+        int keyword = match(text, start, end, KEYWORDS);
+        if (keyword >= 0) {
+            advance();
+            command(KEYWORD_COMMANDS[keyword]);
+        } else if (turtleNames.contains(tokenText().toLowerCase())) {
+            ask();
+        } else {
+            call();
+        }
+    }
+
+    // turtle create name, turtle remove name
+    private void turtle() {
+        String syntax = "Syntax: turtle create|remove <name>";
+        advance();
+        if (peek() != T_WORD) throw new SyntaxError(syntax);
+        String action = tokenText().toLowerCase();
+        boolean create = action.equals("create");
+        if (!create && !action.equals("remove")) throw new SyntaxError(syntax);
+        advance();
+        if (peek() != T_WORD) throw new SyntaxError(syntax);
+        String name = tokenText().toLowerCase();
+        if (match(text, start, end, KEYWORDS) >= 0 || match(text, start, end, LANGUAGE_WORDS) >= 0
+                || procedureIndex.containsKey(name) || defining != null && name.equals(defining.name)) {
+            throw new SyntaxError(tokenText() + " is already a command");
+        }
+        advance();
+        if (create) {
+            turtleNames.add(name);
+        }
+        emit(create ? CompiledScript.TURTLE_CREATE : CompiledScript.TURTLE_REMOVE, lineNumber);
+        code(strings.size());
+        strings.add(name);
+    }
+
+    // name command: the command, or the block it opens, runs as the named turtle
+    private void ask() {
+        String name = tokenText().toLowerCase();
+        advance();
+        int type = peek();
+        if (type == T_WORD) {
+            int word = match(text, start, end, LANGUAGE_WORDS);
+            if (word == L_TO || word == L_END || turtleNames.contains(tokenText().toLowerCase())) {
+                throw new SyntaxError(tokenText() + " can't be given to turtle " + name);
+            }
+        } else {
+            throw new SyntaxError("Expected a command for turtle " + name);
+        }
+        int pc = out.codeLength;
+        int instruction = out.instructionCount;
+        emit(CompiledScript.ASK, lineNumber);
+        code(strings.size());
+        strings.add(name);
+        code(0); // Jump past the ASK_END if there is no such turtle, patched once it is emitted
+        code(0);
+        int depth = blockDepth;
+        statement();
+        if (blockDepth > depth) {
+            // The command opened a block, the turtle goes back when it closes
+            blockAsk[depth] = pc;
+            blockAskInstruction[depth] = instruction;
+        } else {
+            endAsk(pc, instruction);
+        }
+    }
+
+    private void endAsk(int pc, int instruction) {
+        emit(CompiledScript.ASK_END, lineNumber);
+        out.code[pc + 2] = out.codeLength - pc;
+        out.code[pc + 3] = out.instructionCount - instruction;
+    }
+
+    // A built in command with its arguments
+    private void command(int command) {
+        switch (command) {
+            case K_FORWARD:
+            case K_BACKWARD: {
+                int distance = measure(-1000, 1000, "Distance too large (max 1000 pixels)", "Missing Parameter!");
+                emit(command == K_FORWARD ? CompiledScript.FORWARD : CompiledScript.BACKWARD, lineNumber);
+                code(distance);
+                return;
+            }
+            case K_LEFT:
+            case K_RIGHT: {
+                int angle = startsValue()
+                    ? measure(-360, 360, "Angle must be between -360 and 360 degrees", null)
+                    : constantSlot(90);
+                emit(command == K_LEFT ? CompiledScript.LEFT : CompiledScript.RIGHT, lineNumber);
+                code(angle);
+                return;
+            }
+            case K_PENWIDTH:
+                emitArgument(CompiledScript.PEN_WIDTH, 1, Integer.MAX_VALUE, "Invalid width - must be integer",
+                    "Syntax: penwidth <size>");
+                return;
+            case K_SETSPEED:
+                emitArgument(CompiledScript.SPEED, Integer.MIN_VALUE, Integer.MAX_VALUE, null, "Syntax: setspeed <0-10>");
+                return;
+            case K_CIRCLE:
+                emitArgument(CompiledScript.CIRCLE, 1, 500, "Radius must be between 1 and 500 pixels", "Syntax: circle <radius>");
+                return;
+            case K_SQUARE:
+                emitArgument(CompiledScript.SQUARE, 1, 500, "Size must be between 1 and 500 pixels", "Syntax: square <size>");
+                return;
+            case K_TRIANGLE: {
+                String syntax = "Syntax: triangle <size> OR triangle <side1> <side2> <side3>";
+                int a = argument(1, 500, "Size must be between 1 and 500 pixels", syntax);
+                if (!startsValue()) {
+                    emit(CompiledScript.TRIANGLE, lineNumber);
+                    code(a);
+                    return;
+                }
+                int b = argument(1, 500, "Sides must be between 1 and 500 pixels", syntax);
+                int c = argument(1, 500, "Sides must be between 1 and 500 pixels", syntax);
+                if (a >= 0 && b >= 0 && c >= 0
+                        && !Shapes.isValidTriangle((int) constants[a], (int) constants[b], (int) constants[c])) {
+                    throw new SyntaxError("Invalid triangle - sum of any two sides must be greater than the third");
+                }
+                emit(CompiledScript.TRIANGLE3, lineNumber);
+                code(a);
+                code(b);
+                code(c);
+                return;
+            }
+            case K_PENCOLOUR: {
+                if (peek() == T_WORD && !startsValue()) {
+                    int colour = match(text, start, end, COLOUR_NAMES);
+                    if (colour < 0) {
+                        throw new SyntaxError("Available colors: red, green, blue, black, yellow, cyan, magenta, white, gray");
+                    }
+                    advance();
+                    emit(CompiledScript.PEN_COLOUR, lineNumber);
+                    emitConstant(COLOUR_VALUES[colour]);
+                    return;
+                }
+                String syntax = "Syntax: pencolour <colorName> OR pencolour <r> <g> <b>";
+                int r = argument(0, 255, "Need 3 numbers (0-255)", syntax);
+                int g = argument(0, 255, "Need 3 numbers (0-255)", syntax);
+                int b = argument(0, 255, "Need 3 numbers (0-255)", syntax);
+                if (r >= 0 && g >= 0 && b >= 0) {
+                    emit(CompiledScript.PEN_COLOUR, lineNumber);
+                    emitConstant((long) constants[r] << 16 | (long) constants[g] << 8 | (long) constants[b]);
+                } else {
+                    emit(CompiledScript.PEN_RGB, lineNumber);
+                    code(r);
+                    code(g);
+                    code(b);
+                }
+                return;
+            }
+            case K_PENUP:     emit(CompiledScript.PEN_UP, lineNumber); return;
+            case K_PENDOWN:   emit(CompiledScript.PEN_DOWN, lineNumber); return;
+            case K_CLEAR:     emit(CompiledScript.CLEAR, lineNumber); return;
+            case K_RESET:     emit(CompiledScript.RESET, lineNumber); return;
+            case K_OLYMPICS:  emit(CompiledScript.OLYMPICS, lineNumber); return;
+            case K_NAME:      emit(CompiledScript.NAME, lineNumber); return;
+            case K_SAVE:
+            case K_LOAD:
+            case K_SVG: {
+                String file = fileName(command == K_SAVE ? "Syntax: save <filename> [scale]"
+                    : command == K_LOAD ? "Syntax: load <filename>" : "Syntax: svg <filename>");
+                if (command == K_SAVE && startsValue()) {
+                    int scale = argument(1, TileRasterizer.MAX_SCALE,
+                        "Scale must be between 1 and " + TileRasterizer.MAX_SCALE, null);
+                    emit(CompiledScript.SAVE_SCALED, lineNumber);
+                    code(strings.size());
+                    strings.add(file);
+                    code(scale);
+                    return;
+                }
+                emit(command == K_SAVE ? CompiledScript.SAVE
+                    : command == K_LOAD ? CompiledScript.LOAD : CompiledScript.SAVE_SVG, lineNumber);
+                code(strings.size());
+                strings.add(file);
+                return;
+            }
+            default:
+                // K_INTERACTIVE: nothing to run in a script, skip whatever it was given
+                while (peek() == T_NUMBER || (tokenType == T_WORD && match(text, start, end, KEYWORDS) < 0
+                        && match(text, start, end, LANGUAGE_WORDS) < 0)) {
+                    advance();
+                }
+        }
+    }
+
+    // repeat and if: the instruction, then its block up to the matching ]
+    private void openBlock(int kind, int opcode, int operand) {
+        if (blockDepth == MAX_BLOCK_DEPTH) throw new SyntaxError("Blocks nested too deeply");
+        if (peek() != T_OPEN) throw new SyntaxError("Expected [ after " + LANGUAGE_WORDS[kind]);
+        advance();
+        blockKind[blockDepth] = kind;
+        blockPc[blockDepth] = out.codeLength;
+        blockInstruction[blockDepth] = out.instructionCount;
+        blockLine[blockDepth] = lineNumber;
+        blockAsk[blockDepth] = -1;
+        blockDepth++;
+        emit(opcode, lineNumber);
+        code(operand);
+        code(0); // Jump past the block, patched at its ]
+        code(0);
+    }
+
+    private void closeBlock() {
+        if (blockDepth == 0) throw new SyntaxError("] without repeat or if");
+        blockDepth--;
+        int pc = blockPc[blockDepth];
+        int instruction = blockInstruction[blockDepth];
+        if (blockKind[blockDepth] == L_REPEAT) {
+            int loopPc = out.codeLength;
+            int loopInstruction = out.instructionCount;
+            emit(CompiledScript.LOOP, lineNumber);
+            code(pc + 4 - loopPc);
+            code(instruction + 1 - loopInstruction);
+        }
+        out.code[pc + 2] = out.codeLength - pc;
+        out.code[pc + 3] = out.instructionCount - instruction;
+        if (blockAsk[blockDepth] >= 0) {
+            endAsk(blockAsk[blockDepth], blockAskInstruction[blockDepth]);
+        }
+    }
+
+    // to name :parameter ... starts compiling into a procedure of its own
+    private void defineProcedure() {
+        String syntax = "Syntax: to <name> [:parameter ...]";
+        if (defining != null || blockDepth > 0) throw new SyntaxError("to can only be used at the top level");
+        advance();
+        if (peek() != T_WORD) throw new SyntaxError(syntax);
+        if (match(text, start, end, KEYWORDS) >= 0 || match(text, start, end, LANGUAGE_WORDS) >= 0
+                || turtleNames.contains(tokenText().toLowerCase())) {
+            throw new SyntaxError(tokenText() + " is already a command");
+        }
+        String name = tokenText().toLowerCase();
+        advance();
+        List<String> names = new ArrayList<>();
+        while (peek() == T_VARIABLE) {
+            String parameter = text.subSequence(start + 1, end).toString().toLowerCase();
+            if (names.contains(parameter)) throw new SyntaxError("Parameter :" + parameter + " is given twice");
+            names.add(parameter);
+            advance();
+        }
+        if (peek() != T_END) throw new SyntaxError(syntax);
+
+        defining = new CompiledScript.Procedure(name, names.size());
+        definingIndex = procedures.size();
+        procedures.add(defining);
+        parameters = names;
+        definingLine = lineNumber;
+        out = new Output();
+    }
+
+    // end finishes the procedure. It can be called from then on, or replaces one of the same name.
+    private void endProcedure() {
+        if (defining == null) throw new SyntaxError("end without to");
+        if (blockDepth > 0) throw new SyntaxError("Missing ] for " + LANGUAGE_WORDS[blockKind[blockDepth - 1]]);
+        advance();
+        if (peek() != T_END) throw new SyntaxError("end must be on a line of its own");
+        emit(CompiledScript.RETURN, lineNumber);
+        defining.body = new CompiledScript(
+            Arrays.copyOf(out.code, out.codeLength), out.codeLength,
+            Arrays.copyOf(constants, constantCount),
+            strings.toArray(new String[0]),
+            Arrays.copyOf(out.lines, out.instructionCount), out.instructionCount,
+            new String[0],
+            Arrays.copyOf(exprs, exprLength),
+            procedures.toArray(new CompiledScript.Procedure[0]), workspace, globals.size());
+        procedureIndex.put(defining.name, definingIndex);
+        defining = null;
+        parameters = null;
+        out = main;
+    }
+
+    // make "name value, or make name value
+    private void make() {
+        advance();
+        int type = peek();
+        if (type != T_QUOTED && type != T_WORD) throw new SyntaxError("Syntax: make \"name <value>");
+        String name = text.subSequence(type == T_QUOTED ? start + 1 : start, end).toString().toLowerCase();
+        advance();
+        int value = operand(value("Syntax: make \"name <value>"));
+        int slot;
+        int parameter = parameters != null ? parameters.indexOf(name) : -1;
+        if (parameter >= 0) {
+            slot = ~parameter;
+        } else {
+            Integer global = globals.get(name);
+            if (global == null) {
+                global = globals.size();
+                globals.put(name, global);
+            }
+            slot = global;
+        }
+        emit(CompiledScript.MAKE, lineNumber);
+        code(slot);
+        code(value);
+    }
+
+    // A procedure call, with one value per parameter
+    private void call() {
+        String name = tokenText().toLowerCase();
+        Integer index = defining != null && name.equals(defining.name) ? (Integer) definingIndex : procedureIndex.get(name);
+        if (index == null) throw new SyntaxError("Invalid Command: " + tokenText());
+        advance();
+        int count = procedures.get(index).parameters;
+        int[] arguments = new int[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = operand(value("Not enough inputs to " + name));
+        }
+        emit(CompiledScript.CALL, lineNumber);
+        code(index);
+        code(count);
+        for (int argument : arguments) {
+            code(argument);
+        }
+    }
+
+    // Compile a command taking one number within [min, max] and emit it
+    private void emitArgument(int opcode, long min, long max, String rangeMessage, String syntax) {
+        int argument = argument(min, max, rangeMessage, syntax);
+        emit(opcode, lineNumber);
+        code(argument);
+    }
+
+    // Operand for a whole number argument. A constant is rounded and checked against [min, max]
+    // now, an expression when it runs.
+    private int argument(long min, long max, String rangeMessage, String syntax) {
+        Node node = value(syntax);
+        if (node.op != CompiledScript.E_CONSTANT) return operand(node);
+        long value = Math.round(node.value);
+        if (value < min || value > max) {
+            throw new SyntaxError(rangeMessage != null ? rangeMessage : "Please enter a valid number");
+        }
+        return constantSlot(value);
+    }
+
+    // Operand for a distance or angle. These keep their fractions, a constant is only checked.
+    private int measure(double min, double max, String rangeMessage, String syntax) {
+        Node node = value(syntax);
+        if (node.op != CompiledScript.E_CONSTANT) return operand(node);
+        if (!(node.value >= min && node.value <= max)) {
+            throw new SyntaxError(rangeMessage != null ? rangeMessage : "Please enter a valid number");
+        }
+        return constantSlot(node.value);
+    }
+
+    // The file name argument of save, load and svg: everything up to the next space or ]
+    private String fileName(String syntax) {
+        int i = position;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+        int from = i;
+        while (i < text.length() && !Character.isWhitespace(text.charAt(i)) && text.charAt(i) != ']') i++;
+        if (i == from) throw new SyntaxError(syntax);
+        position = i;
+        return text.subSequence(from, i).toString();
+    }
+
+    // ========== EXPRESSIONS ==========
+
+    // Whether the next token can start a value
+    private boolean startsValue() {
+        switch (peek()) {
+            case T_NUMBER:
+            case T_VARIABLE:
+            case T_LEFT_PAREN:
+                return true;
+            case T_OPERATOR:
+                return text.charAt(start) == '-' && end == start + 1;
+            case T_WORD:
+                return match(text, start, end, LANGUAGE_WORDS) == L_REPCOUNT;
+            default:
+                return false;
+        }
+    }
+
+    // Parse a value: comparison of sums of products, constant parts already folded
+    private Node value(String missing) {
+        if (!startsValue()) {
+            throw new SyntaxError(missing != null ? missing : "Please enter a valid number");
+        }
+        nodeCount = 0;
+        nesting = 0;
+        return comparison();
+    }
+
+    private Node comparison() {
+        Node left = sum();
+        if (peek() != T_OPERATOR) return left;
+        int op;
+        char c = text.charAt(start);
+        boolean two = end == start + 2;
+        if (c == '=') {
+            op = CompiledScript.E_EQUAL;
+        } else if (c == '<') {
+            op = !two ? CompiledScript.E_LESS
+                : text.charAt(start + 1) == '=' ? CompiledScript.E_LESS_EQUAL : CompiledScript.E_NOT_EQUAL;
+        } else if (c == '>') {
+            op = two ? CompiledScript.E_GREATER_EQUAL : CompiledScript.E_GREATER;
+        } else {
+            return left;
+        }
+        advance();
+        return node(op, left, sum());
+    }
+
+    private Node sum() {
+        Node left = product();
+        while (peek() == T_OPERATOR) {
+            char c = text.charAt(start);
+            if (c != '+' && c != '-') break;
+            if (c == '-' && start > 0 && Character.isWhitespace(text.charAt(start - 1))
+                    && end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+                break; // " -x" starts the next argument
+            }
+            advance();
+            left = node(c == '+' ? CompiledScript.E_ADD : CompiledScript.E_SUBTRACT, left, product());
+        }
+        return left;
+    }
+
+    private Node product() {
+        Node left = unary();
+        while (peek() == T_OPERATOR) {
+            char c = text.charAt(start);
+            int op = c == '*' ? CompiledScript.E_MULTIPLY : c == '/' ? CompiledScript.E_DIVIDE
+                : c == '%' ? CompiledScript.E_REMAINDER : -1;
+            if (op < 0) break;
+            advance();
+            left = node(op, left, unary());
+        }
+        return left;
+    }
+
+    private Node unary() {
+        if (peek() == T_OPERATOR && text.charAt(start) == '-' && end == start + 1) {
+            advance();
+            nest();
+            Node operand = unary();
+            nesting--;
+            return node(CompiledScript.E_NEGATE, operand, null);
+        }
+        return primary();
+    }
+
+    private Node primary() {
+        switch (peek()) {
+            case T_NUMBER: {
+                double value = number();
+                advance();
+                return node(CompiledScript.E_CONSTANT, value, 0);
+            }
+            case T_VARIABLE: {
+                String name = text.subSequence(start + 1, end).toString().toLowerCase();
+                advance();
+                return variable(name);
+            }
+            case T_LEFT_PAREN: {
+                advance();
+                nest();
+                Node inner = comparison();
+                nesting--;
+                if (peek() != T_RIGHT_PAREN) throw new SyntaxError("Missing )");
+                advance();
+                return inner;
+            }
+            case T_WORD:
+                if (match(text, start, end, LANGUAGE_WORDS) == L_REPCOUNT) {
+                    if (!inRepeat()) throw new SyntaxError("repcount can only be used inside repeat");
+                    advance();
+                    return node(CompiledScript.E_REPCOUNT, 0, 0);
+                }
+                break;
+            default:
+                break;
+        }
+        throw new SyntaxError(tokenType == T_END ? "Missing value" : "Expected a value but found " + tokenText());
+    }
+
+    // A parameter of the procedure being defined, or a global. Globals used in a procedure may be
+    // made later, before it runs, anywhere else they must have been made already.
+    private Node variable(String name) {
+        int parameter = parameters != null ? parameters.indexOf(name) : -1;
+        if (parameter >= 0) return node(CompiledScript.E_LOCAL, 0, parameter);
+        Integer global = globals.get(name);
+        if (global == null) {
+            if (defining == null) throw new SyntaxError(name + " has no value");
+            global = globals.size();
+            globals.put(name, global);
+        }
+        return node(CompiledScript.E_GLOBAL, 0, global);
+    }
+
+    private boolean inRepeat() {
+        for (int b = 0; b < blockDepth; b++) {
+            if (blockKind[b] == L_REPEAT) return true;
+        }
+        return false;
+    }
+
+    private void nest() {
+        if (++nesting > MAX_EXPRESSION_DEPTH) throw new SyntaxError("Expression too long");
+    }
+
+    // The number token as a double: digits with an optional fraction
+    private double number() {
+        boolean point = false;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && !point) {
+                point = true;
+            } else if (c >= '0' && c <= '9') {
+                digits = true;
+            } else {
+                throw new SyntaxError("Enter a valid Numeric Parameter!");
+            }
+        }
+        if (!digits) throw new SyntaxError("Enter a valid Numeric Parameter!");
+        return Double.parseDouble(tokenText());
+    }
+
+    private Node node(int op, double value, int index) {
+        if (++nodeCount > MAX_EXPRESSION_NODES) throw new SyntaxError("Expression too long");
+        return new Node(op, value, index, null, null);
+    }
+
+    // An operator node, folded to a constant when its operands are
+    private Node node(int op, Node left, Node right) {
+        if (left.op == CompiledScript.E_CONSTANT && (right == null || right.op == CompiledScript.E_CONSTANT)) {
+            return new Node(CompiledScript.E_CONSTANT,
+                ScriptInterpreter.apply(op, left.value, right == null ? 0 : right.value), 0, null, null);
+        }
+        if (++nodeCount > MAX_EXPRESSION_NODES) throw new SyntaxError("Expression too long");
+        return new Node(op, 0, 0, left, right);
+    }
+
+    // Operand for a value: a constant slot, or ~start of its expression in exprs
+    private int operand(Node node) {
+        if (node.op == CompiledScript.E_CONSTANT) return constantSlot(node.value);
+        int begin = exprLength;
+        if (emitExpression(node) > MAX_EXPRESSION_DEPTH) throw new SyntaxError("Expression too long");
+        expr(CompiledScript.E_END);
+        return ~begin;
+    }
+
+    // Append the expression in postfix order. Returns the evaluation stack depth it needs.
+    private int emitExpression(Node node) {
+        switch (node.op) {
+            case CompiledScript.E_CONSTANT:
+                expr(CompiledScript.E_CONSTANT);
+                expr(constantSlot(node.value));
+                return 1;
+            case CompiledScript.E_GLOBAL:
+            case CompiledScript.E_LOCAL:
+                expr(node.op);
+                expr(node.index);
+                return 1;
+            case CompiledScript.E_REPCOUNT:
+                expr(node.op);
+                return 1;
+            case CompiledScript.E_NEGATE: {
+                int depth = emitExpression(node.left);
+                expr(node.op);
+                return depth;
+            }
+            default: {
+                int left = emitExpression(node.left);
+                int right = emitExpression(node.right);
+                expr(node.op);
+                return Math.max(left, right + 1);
+            }
+        }
+    }
+
+    private void expr(int value) {
+        if (exprLength == exprs.length) {
+            exprs = Arrays.copyOf(exprs, exprs.length * 2);
+        }
+        exprs[exprLength++] = value;
+    }
+
+    // ========== TOKENS ==========
+
+    // Type of the next token, which is left in [start, end) without being consumed
+    private int peek() {
+        CharSequence line = text;
+        int length = line.length();
+        int i = position;
+        while (i < length && Character.isWhitespace(line.charAt(i))) i++;
+        start = i;
+        end = i + 1;
+        if (i == length) {
+            end = length;
+            return tokenType = T_END;
+        }
+        char c = line.charAt(i);
+        switch (c) {
+            case '[': return tokenType = T_OPEN;
+            case ']': return tokenType = T_CLOSE;
+            case '(': return tokenType = T_LEFT_PAREN;
+            case ')': return tokenType = T_RIGHT_PAREN;
+            case '/':
+                if (i + 1 < length && line.charAt(i + 1) == '/') {
+                    start = length; // A comment runs to the end of the line
+                    end = length;
+                    return tokenType = T_END;
+                }
+                return tokenType = T_OPERATOR;
+            case '<':
+            case '>':
+                if (i + 1 < length && (line.charAt(i + 1) == '=' || c == '<' && line.charAt(i + 1) == '>')) {
+                    end++;
+                }
+                return tokenType = T_OPERATOR;
+            case '+':
+            case '-':
+            case '*':
+            case '%':
+            case '=':
+                return tokenType = T_OPERATOR;
+            case ':':
+            case '"':
+                end = wordEnd(i + 1);
+                if (end == i + 1) throw new SyntaxError("Missing name after " + c);
+                return tokenType = c == ':' ? T_VARIABLE : T_QUOTED;
+            default:
+                end = wordEnd(i);
+                return tokenType = c >= '0' && c <= '9' || c == '.' ? T_NUMBER : T_WORD;
+        }
+    }
+
+    private int wordEnd(int i) {
+        while (i < text.length() && !Character.isWhitespace(text.charAt(i)) && DELIMITERS.indexOf(text.charAt(i)) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+    // Consume the token found by peek
+    private void advance() {
+        position = end;
+    }
+
+    private String tokenText() {
+        return text.subSequence(start, end).toString();
+    }
+
+    // ========== HELPERS ==========
+
+    // Compile a command taking one integer within [min, max]
+    private void compileNumber(CharSequence line, int lineNumber, int opcode, String syntax,
+                               long min, long max, String rangeMessage) {
+        if (tokenCount != 2) {
+            error(lineNumber, syntax);
+            return;
+        }
+        long value = number(line, 1);
+        if (value == BAD_NUMBER) {
+            error(lineNumber, "Please enter a valid number");
+        } else if (value < min || value > max) {
+            error(lineNumber, rangeMessage);
+        } else {
+            emit(opcode, lineNumber);
+            emitConstant(value);
+        }
+    }
+
+    private void compileColour(CharSequence line, int lineNumber) {
+        int rgb;
+        if (tokenCount == 2) {
+            int colour = match(line, 1, COLOUR_NAMES);
+            if (colour < 0) {
+                error(lineNumber, "Available colors: red, green, blue, black, yellow, cyan, magenta, white, gray");
+                return;
+            }
+            rgb = COLOUR_VALUES[colour];
+        } else if (tokenCount == 4) {
+            long r = number(line, 1), g = number(line, 2), b = number(line, 3);
+            if (r < 0 || r > 255 || g < 0 || g > 255 || b < 0 || b > 255) {
+                error(lineNumber, "Need 3 numbers (0-255)");
+                return;
+            }
+            rgb = (int) (r << 16 | g << 8 | b);
+        } else {
+            error(lineNumber, "Syntax: pencolour <colorName> OR pencolour <r> <g> <b>");
+            return;
+        }
+        emit(CompiledScript.PEN_COLOUR, lineNumber);
+        emitConstant(rgb);
+    }
+
+    // Split the line on whitespace, recording token boundaries only
+    private void tokenize(CharSequence line) {
+        tokenCount = 0;
+        boolean special = false;
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) i++;
+            if (i == length) break;
+            int start = i;
+            char c;
+            while (i < length && !Character.isWhitespace(c = line.charAt(i))) {
+                special |= c < 128 && PARSER_CHARACTERS[c];
+                i++;
+            }
+            if (tokenCount < MAX_TOKENS) {
+                tokenStart[tokenCount] = start;
+                tokenEnd[tokenCount] = i;
+            }
+            tokenCount++;
+        }
+        parserCharacters = special;
+    }
+
+    // Command id of the first token, or -1 if it is not a keyword
+    private int keyword(CharSequence line) {
+        int index = match(line, 0, KEYWORDS);
+        return index < 0 ? -1 : KEYWORD_COMMANDS[index];
+    }
+
+    // Index of the word equal (ignoring case) to the given token, or -1
+    private int match(CharSequence line, int token, String[] words) {
+        return match(line, tokenStart[token], tokenEnd[token], words);
+    }
+
+    private static int match(CharSequence line, int start, int end, String[] words) {
+        int length = end - start;
+        for (int w = 0; w < words.length; w++) {
+            String word = words[w];
+            if (word.length() != length) continue;
+            int i = 0;
+            while (i < length && Character.toLowerCase(line.charAt(start + i)) == word.charAt(i)) i++;
+            if (i == length) return w;
+        }
+        return -1;
+    }
+
+    // Parse a token as an int the way Integer.parseInt does, BAD_NUMBER if it is not one
+    private long number(CharSequence line, int token) {
+        int i = tokenStart[token];
+        int end = tokenEnd[token];
+        boolean negative = false;
+        char first = line.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        if (i == end) return BAD_NUMBER;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return BAD_NUMBER;
+            value = value * 10 + digit;
+            if (value > 1L + Integer.MAX_VALUE) return BAD_NUMBER;
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? BAD_NUMBER : value;
+    }
+
+    private void emit(int opcode, int lineNumber) {
+        Output out = this.out;
+        if (out.instructionCount == out.lines.length) {
+            out.lines = Arrays.copyOf(out.lines, out.lines.length * 2);
+        }
+        out.lines[out.instructionCount++] = lineNumber;
+        code(opcode);
+    }
+
+    private void code(int value) {
+        Output out = this.out;
+        if (out.codeLength == out.code.length) {
+            out.code = Arrays.copyOf(out.code, out.code.length * 2);
+        }
+        out.code[out.codeLength++] = value;
+    }
+
+    private void emitConstant(long value) {
+        if (value >= -SMALL_CONSTANT_LIMIT && value <= SMALL_CONSTANT_LIMIT) {
+            int slot = smallConstantSlots[(int) value + SMALL_CONSTANT_LIMIT];
+            if (slot < 0) {
+                slot = addConstant(value);
+                smallConstantSlots[(int) value + SMALL_CONSTANT_LIMIT] = slot;
+            }
+            code(slot);
+        } else {
+            code(addConstant(value));
+        }
+    }
+
+    // Slot of a constant value, sharing the slots of small integers
+    private int constantSlot(double value) {
+        if (value >= -SMALL_CONSTANT_LIMIT && value <= SMALL_CONSTANT_LIMIT && value == (int) value
+                && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0)) {
+            int slot = smallConstantSlots[(int) value + SMALL_CONSTANT_LIMIT];
+            if (slot < 0) {
+                slot = addConstant(value);
+                smallConstantSlots[(int) value + SMALL_CONSTANT_LIMIT] = slot;
+            }
+            return slot;
+        }
+        return addConstant(value);
+    }
+
+    private int addConstant(double value) {
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constants.length * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    private void error(int lineNumber, String message) {
+        errors.add("line " + lineNumber + ": " + message);
+    }
+
+    // Instructions and their source lines, for the top level or one procedure
+    private static final class Output {
+        int[] code = new int[256];
+        int codeLength;
+        int[] lines = new int[64];
+        int instructionCount;
+
+        // Remove the first pc code values and instructions instructions, keeping the rest
+        void drop(int pc, int instructions) {
+            System.arraycopy(code, pc, code, 0, codeLength - pc);
+            codeLength -= pc;
+            System.arraycopy(lines, instructions, lines, 0, instructionCount - instructions);
+            instructionCount -= instructions;
+        }
+    }
+
+    // Expression tree, only kept while one value is parsed
+    private static final class Node {
+        final int op;
+        final double value; // E_CONSTANT
+        final int index;    // E_GLOBAL and E_LOCAL
+        final Node left;
+        final Node right;
+
+        Node(int op, double value, int index, Node left, Node right) {
+            this.op = op;
+            this.value = value;
+            this.index = index;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    // Thrown by the statement parser, the line is rejected with its message
+    private static final class SyntaxError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxError(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
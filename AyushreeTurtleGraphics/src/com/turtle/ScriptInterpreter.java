@@ -0,0 +1,567 @@
+package com.turtle;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+// Executes a CompiledScript against a turtle.
+// The loop only reads the script's arrays, so running or replaying a script allocates nothing per
+// command apart from a Color when the pen colour actually changes.
+//
+// Loops and procedure calls run on explicit stacks rather than Java recursion: a repeat keeps its
+// count and iteration, a call its return point and parameters. Deep recursion in a script is
+// limited by MAX_CALL_DEPTH, not by the thread's stack.
+//
+// Named turtles run on the same thread, in script order: "t2 forward 50" just points the commands
+// at t2 until its ASK_END, with a stack of them so procedures can talk to turtles too. Their strokes
+// are buffered and drawn by TurtleSwarm, which is told to catch up before the script's own turtle
+// draws on or reads the canvas and when the run ends.
+//
+// Every instruction is counted by opcode and the counts go to RenderStats once per run. With
+// profiling switched on there, the first and every PROFILE_EVERY-th execution of each opcode in a
+// run is also timed. That is off by default: even rare timing slows the loop down noticeably.
+public final class ScriptInterpreter {
+    public static final int MAX_CALL_DEPTH = 100_000;
+
+    // How many loop iterations and calls run between checks of the stop condition
+    private static final int POLL_MASK = 4095;
+
+    // Returned by argument() for a value that was reported and must be skipped
+    private static final int REJECTED = Integer.MIN_VALUE;
+
+    // Opcode counts are a local array of this size indexed with a mask, so counting an instruction
+    // is one increment with no bounds check: the smallest power of two that holds every opcode.
+    private static final int COUNT_SLOTS = Integer.highestOneBit(CompiledScript.OPCODE_COUNT - 1) << 1;
+    private static final int PROFILE_EVERY = 1024;
+
+    // Opcodes that draw on or read the canvas, so named turtles' strokes must be drawn first
+    private static final boolean[] CANVAS_BARRIER = new boolean[COUNT_SLOTS];
+    static {
+        int[] barriers = {
+            CompiledScript.FORWARD, CompiledScript.BACKWARD, CompiledScript.CLEAR, CompiledScript.CIRCLE,
+            CompiledScript.SQUARE, CompiledScript.TRIANGLE, CompiledScript.TRIANGLE3, CompiledScript.SAVE,
+            CompiledScript.LOAD, CompiledScript.OLYMPICS, CompiledScript.NAME, CompiledScript.SAVE_SVG,
+            CompiledScript.SAVE_SCALED
+        };
+        for (int opcode : barriers) {
+            CANVAS_BARRIER[opcode] = true;
+        }
+    }
+
+    private ScriptInterpreter() {
+    }
+
+    // Run every command in the script. Returns the number of commands rejected at run time
+    // (moves that would leave the canvas), each of which is reported through displayMessage.
+    public static int execute(CompiledScript script, TurtleOps turtle) {
+        return execute(script, turtle, null);
+    }
+
+    // As above, stopping early once stop returns true. It is checked every few thousand loop
+    // iterations and calls, so even a script that never ends can be cancelled.
+    public static int execute(CompiledScript script, TurtleOps turtle, BooleanSupplier stop) {
+        RenderStats stats = RenderStats.get();
+        long start = System.nanoTime();
+        TurtleSwarm swarm = turtle.getSwarm();
+        try {
+            return run(script, turtle, swarm, stop, stats);
+        } finally {
+            if (swarm != null) {
+                swarm.flush();
+            }
+            stats.recordPhase(RenderStats.DRAW, System.nanoTime() - start);
+        }
+    }
+
+    private static int run(CompiledScript script, TurtleOps main, TurtleSwarm swarm, BooleanSupplier stop,
+                           RenderStats stats) {
+        long[] counts = new long[COUNT_SLOTS];
+        boolean profiling = stats.isProfiling();
+        int timed = -1; // Opcode being timed, if any
+        long timedStart = 0;
+        try {
+            CompiledScript root = script;
+            int[] code = script.code;
+            double[] constants = script.constants;
+            int[] arity = CompiledScript.ARITY;
+            Machine m = new Machine(root);
+            int rejected = 0;
+            int instruction = 0;
+            int polls = 0;
+            Color colour = null;
+            TurtleOps turtle = main; // The turtle commands go to, a named one inside an ASK
+
+            for (int pc = 0; ; instruction++) {
+                if (pc >= script.codeLength) {
+                    break;
+                }
+                int opcode = code[pc];
+                boolean due = (++counts[opcode & (COUNT_SLOTS - 1)] & (PROFILE_EVERY - 1)) == 1 && profiling;
+                if (due || timed >= 0) {
+                    // Stop timing the instruction before this one, start timing this one if it is due
+                    long now = System.nanoTime();
+                    if (timed >= 0) {
+                        stats.recordOpcode(timed, now - timedStart);
+                    }
+                    timed = due ? opcode : -1;
+                    timedStart = now;
+                }
+                if (CANVAS_BARRIER[opcode & (COUNT_SLOTS - 1)] && turtle == main && swarm != null && swarm.hasPending()) {
+                    swarm.flush();
+                }
+                switch (opcode) {
+                    case CompiledScript.FORWARD:
+                    case CompiledScript.BACKWARD: {
+                        int operand = code[pc + 1];
+                        double distance = operand >= 0 ? constants[operand]
+                            : m.measure(script, operand, -1000, 1000, "Distance too large (max 1000 pixels)", instruction, turtle);
+                        if (Double.isNaN(distance)) {
+                            rejected++;
+                        } else if (!move(turtle, opcode == CompiledScript.FORWARD ? distance : -distance)) {
+                            rejected += offScreen(script, instruction, turtle);
+                        }
+                        break;
+                    }
+                    case CompiledScript.LEFT:
+                    case CompiledScript.RIGHT: {
+                        int operand = code[pc + 1];
+                        double angle = operand >= 0 ? constants[operand]
+                            : m.measure(script, operand, -360, 360, "Angle must be between -360 and 360 degrees", instruction, turtle);
+                        if (Double.isNaN(angle)) {
+                            rejected++;
+                        } else if (angle != (int) angle) {
+                            turtle.rotate(opcode == CompiledScript.LEFT ? -angle : angle);
+                        } else if (opcode == CompiledScript.LEFT) {
+                            turtle.left((int) angle);
+                        } else {
+                            turtle.right((int) angle);
+                        }
+                        break;
+                    }
+                    case CompiledScript.PEN_UP:
+                        turtle.setPenState(false);
+                        break;
+                    case CompiledScript.PEN_DOWN:
+                        turtle.setPenState(true);
+                        break;
+                    case CompiledScript.PEN_WIDTH: {
+                        int width = m.argument(script, code[pc + 1], 1, Integer.MAX_VALUE,
+                            "Invalid width - must be integer", instruction, turtle);
+                        if (width == REJECTED) {
+                            rejected++;
+                        } else {
+                            turtle.setStroke(width);
+                        }
+                        break;
+                    }
+                    case CompiledScript.PEN_COLOUR:
+                    case CompiledScript.PEN_RGB: {
+                        int rgb;
+                        if (opcode == CompiledScript.PEN_COLOUR) {
+                            rgb = (int) constants[code[pc + 1]];
+                        } else {
+                            String message = "Need 3 numbers (0-255)";
+                            int r = m.argument(script, code[pc + 1], 0, 255, message, instruction, turtle);
+                            int g = r == REJECTED ? REJECTED : m.argument(script, code[pc + 2], 0, 255, message, instruction, turtle);
+                            int b = g == REJECTED ? REJECTED : m.argument(script, code[pc + 3], 0, 255, message, instruction, turtle);
+                            if (b == REJECTED) {
+                                rejected++;
+                                break;
+                            }
+                            rgb = r << 16 | g << 8 | b;
+                        }
+                        if (colour == null || colour.getRGB() != (0xFF000000 | rgb)) {
+                            colour = new Color(rgb);
+                        }
+                        turtle.setPenColour(colour);
+                        break;
+                    }
+                    case CompiledScript.CLEAR:
+                        turtle.clear();
+                        break;
+                    case CompiledScript.RESET:
+                        turtle.reset();
+                        break;
+                    case CompiledScript.CIRCLE:
+                    case CompiledScript.SQUARE:
+                    case CompiledScript.TRIANGLE: {
+                        int operand = code[pc + 1];
+                        int size = operand >= 0 ? (int) constants[operand]
+                            : m.argument(script, operand, 1, 500, opcode == CompiledScript.CIRCLE
+                                ? "Radius must be between 1 and 500 pixels" : "Size must be between 1 and 500 pixels",
+                                instruction, turtle);
+                        if (size == REJECTED) {
+                            rejected++;
+                        } else if (opcode == CompiledScript.CIRCLE) {
+                            turtle.circle(size);
+                        } else if (opcode == CompiledScript.SQUARE) {
+                            Shapes.square(turtle, size);
+                        } else {
+                            Shapes.equilateralTriangle(turtle, size);
+                        }
+                        break;
+                    }
+                    case CompiledScript.TRIANGLE3: {
+                        String message = "Sides must be between 1 and 500 pixels";
+                        int a = m.argument(script, code[pc + 1], 1, 500, message, instruction, turtle);
+                        int b = a == REJECTED ? REJECTED : m.argument(script, code[pc + 2], 1, 500, message, instruction, turtle);
+                        int c = b == REJECTED ? REJECTED : m.argument(script, code[pc + 3], 1, 500, message, instruction, turtle);
+                        if (c == REJECTED) {
+                            rejected++;
+                        } else if (!Shapes.isValidTriangle(a, b, c)) {
+                            turtle.displayMessage("line " + script.lines[instruction]
+                                + ": Invalid triangle - sum of any two sides must be greater than the third");
+                            rejected++;
+                        } else {
+                            Shapes.triangle(turtle, a, b, c);
+                        }
+                        break;
+                    }
+                    case CompiledScript.SAVE:
+                        turtle.saveDrawing(script.strings[code[pc + 1]]);
+                        break;
+                    case CompiledScript.LOAD:
+                        turtle.loadDrawing(script.strings[code[pc + 1]]);
+                        break;
+                    case CompiledScript.OLYMPICS:
+                        Shapes.olympics(turtle);
+                        break;
+                    case CompiledScript.NAME:
+                        Shapes.name(turtle);
+                        break;
+                    case CompiledScript.SPEED:
+                        turtle.setTurtleSpeed(m.whole(script, code[pc + 1]));
+                        break;
+                    case CompiledScript.SAVE_SVG:
+                        turtle.saveSvg(script.strings[code[pc + 1]]);
+                        break;
+                    case CompiledScript.SAVE_SCALED: {
+                        int scale = m.argument(script, code[pc + 2], 1, TileRasterizer.MAX_SCALE,
+                            "Scale must be between 1 and " + TileRasterizer.MAX_SCALE, instruction, turtle);
+                        if (scale == REJECTED) {
+                            rejected++;
+                        } else {
+                            turtle.saveDrawing(script.strings[code[pc + 1]], scale);
+                        }
+                        break;
+                    }
+
+                    // ========== CONTROL ==========
+
+                    case CompiledScript.REPEAT: {
+                        long count = Math.round(m.value(script, code[pc + 1]));
+                        if (count < 1) {
+                            instruction += code[pc + 3] - 1;
+                            pc += code[pc + 2];
+                            continue;
+                        }
+                        m.pushLoop(count);
+                        break;
+                    }
+                    case CompiledScript.LOOP:
+                        if (m.nextIteration()) {
+                            if (stop != null && (++polls & POLL_MASK) == 0 && stop.getAsBoolean()) {
+                                return rejected;
+                            }
+                            instruction += code[pc + 2] - 1;
+                            pc += code[pc + 1];
+                            continue;
+                        }
+                        break;
+                    case CompiledScript.IF:
+                        if (m.value(script, code[pc + 1]) == 0) {
+                            instruction += code[pc + 3] - 1;
+                            pc += code[pc + 2];
+                            continue;
+                        }
+                        break;
+                    case CompiledScript.MAKE:
+                        m.make(script, code[pc + 1], m.value(script, code[pc + 2]));
+                        break;
+                    case CompiledScript.CALL: {
+                        if (stop != null && (++polls & POLL_MASK) == 0 && stop.getAsBoolean()) {
+                            return rejected;
+                        }
+                        CompiledScript.Procedure procedure = root.procedures[code[pc + 1]];
+                        if (!m.call(script, code, pc, instruction)) {
+                            turtle.displayMessage("line " + script.lines[instruction] + ": Too many nested calls to "
+                                + procedure.name + " (max " + MAX_CALL_DEPTH + ")");
+                            return rejected + 1;
+                        }
+                        script = procedure.body;
+                        code = script.code;
+                        constants = script.constants;
+                        pc = 0;
+                        instruction = -1;
+                        continue;
+                    }
+                    case CompiledScript.RETURN: {
+                        if (m.depth == 0) {
+                            return rejected;
+                        }
+                        m.depth--;
+                        script = m.frameScript[m.depth];
+                        code = script.code;
+                        constants = script.constants;
+                        pc = m.framePc[m.depth];
+                        instruction = m.frameInstruction[m.depth] - 1;
+                        m.ret();
+                        turtle = m.askDepth > 0 ? m.asked[m.askDepth - 1] : main;
+                        continue;
+                    }
+
+                    // ========== NAMED TURTLES ==========
+
+                    case CompiledScript.TURTLE_CREATE:
+                        swarm.create(script.strings[code[pc + 1]], turtle);
+                        break;
+                    case CompiledScript.TURTLE_REMOVE:
+                        if (!swarm.remove(script.strings[code[pc + 1]])) {
+                            turtle.displayMessage("line " + script.lines[instruction] + ": No turtle named "
+                                + script.strings[code[pc + 1]]);
+                            rejected++;
+                        }
+                        break;
+                    case CompiledScript.ASK: {
+                        TurtleOps named = swarm.get(script.strings[code[pc + 1]]);
+                        if (named == null) {
+                            turtle.displayMessage("line " + script.lines[instruction] + ": No turtle named "
+                                + script.strings[code[pc + 1]]);
+                            rejected++;
+                            instruction += code[pc + 3] - 1;
+                            pc += code[pc + 2];
+                            continue;
+                        }
+                        m.pushAsk(named);
+                        turtle = named;
+                        break;
+                    }
+                    case CompiledScript.ASK_END:
+                        m.askDepth--;
+                        turtle = m.askDepth > 0 ? m.asked[m.askDepth - 1] : main;
+                        break;
+                    default:
+                        throw new IllegalStateException("Bad opcode " + opcode + " at " + pc);
+                }
+                pc += 1 + arity[opcode];
+            }
+            return rejected;
+        } finally {
+            if (timed >= 0) {
+                stats.recordOpcode(timed, System.nanoTime() - timedStart);
+            }
+            stats.countOpcodes(counts);
+        }
+    }
+
+    // Move with the same off-screen check as processCommand, false if the move was refused
+    private static boolean move(TurtleOps turtle, double distance) {
+        Pose pose = turtle.getPose();
+        int newX = Pose.pixel(pose.targetX(distance));
+        int newY = Pose.pixel(pose.targetY(distance));
+        if (newX < 0 || newX > turtle.getWidth() || newY < 0 || newY > turtle.getHeight()) {
+            return false;
+        }
+        turtle.advance(distance);
+        return true;
+    }
+
+    private static int offScreen(CompiledScript script, int instruction, TurtleOps turtle) {
+        turtle.displayMessage("line " + script.lines[instruction] + ": Cannot move turtle off screen");
+        return 1;
+    }
+
+    // Result of an expression operator, also used by the compiler to fold constants
+    static double apply(int op, double a, double b) {
+        switch (op) {
+            case CompiledScript.E_NEGATE:        return -a;
+            case CompiledScript.E_ADD:           return a + b;
+            case CompiledScript.E_SUBTRACT:      return a - b;
+            case CompiledScript.E_MULTIPLY:      return a * b;
+            case CompiledScript.E_DIVIDE:        return a / b;
+            case CompiledScript.E_REMAINDER:     return a % b;
+            case CompiledScript.E_LESS:          return a < b ? 1 : 0;
+            case CompiledScript.E_GREATER:       return a > b ? 1 : 0;
+            case CompiledScript.E_LESS_EQUAL:    return a <= b ? 1 : 0;
+            case CompiledScript.E_GREATER_EQUAL: return a >= b ? 1 : 0;
+            case CompiledScript.E_EQUAL:         return a == b ? 1 : 0;
+            case CompiledScript.E_NOT_EQUAL:     return a != b ? 1 : 0;
+            default:
+                throw new IllegalStateException("Bad expression opcode " + op);
+        }
+    }
+
+    // Stacks for expressions, repeat loops and procedure calls.
+    // Only the expression stack exists up front, the rest grows on first use.
+    private static final class Machine {
+        private final double[] stack = new double[ScriptCompiler.MAX_EXPRESSION_DEPTH];
+        private final double[] globals;
+
+        // Parameters of every active call, those of the innermost one start at localBase
+        private double[] locals = new double[0];
+        private int localBase;
+        private int localTop;
+
+        // Active repeats: iteration (from 1) and count. Those of the innermost call start at loopBase.
+        private long[] loopIteration = new long[0];
+        private long[] loopCount = new long[0];
+        private int loopDepth;
+        private int loopBase;
+
+        // Where each active call returns to
+        private CompiledScript[] frameScript = new CompiledScript[0];
+        private int[] framePc = new int[0];
+        private int[] frameInstruction = new int[0];
+        private int[] frameLocalBase = new int[0];
+        private int[] frameLoopBase = new int[0];
+        private int[] frameAskBase = new int[0];
+        private int depth;
+
+        // Named turtles being talked to, innermost last. Those asked by the innermost call start at askBase.
+        private TurtleOps[] asked = new TurtleOps[0];
+        private int askDepth;
+        private int askBase;
+
+        Machine(CompiledScript root) {
+            globals = root.workspace != null ? root.workspace.values(root.globalCount) : null;
+        }
+
+        // Value of an operand: a constant slot or ~start of an expression
+        double value(CompiledScript script, int operand) {
+            if (operand >= 0) return script.constants[operand];
+            int[] exprs = script.exprs;
+            double[] constants = script.constants;
+            double[] stack = this.stack;
+            int top = -1;
+            for (int e = ~operand; ; ) {
+                int op = exprs[e++];
+                switch (op) {
+                    case CompiledScript.E_END:
+                        return stack[0];
+                    case CompiledScript.E_CONSTANT:
+                        stack[++top] = constants[exprs[e++]];
+                        break;
+                    case CompiledScript.E_GLOBAL:
+                        stack[++top] = globals[exprs[e++]];
+                        break;
+                    case CompiledScript.E_LOCAL:
+                        stack[++top] = locals[localBase + exprs[e++]];
+                        break;
+                    case CompiledScript.E_REPCOUNT:
+                        stack[++top] = loopDepth > loopBase ? loopIteration[loopDepth - 1] : 0;
+                        break;
+                    case CompiledScript.E_NEGATE:
+                        stack[top] = -stack[top];
+                        break;
+                    default:
+                        top--;
+                        stack[top] = apply(op, stack[top], stack[top + 1]);
+                }
+            }
+        }
+
+        // A whole number operand without limits
+        int whole(CompiledScript script, int operand) {
+            return operand >= 0 ? (int) script.constants[operand] : (int) Math.round(value(script, operand));
+        }
+
+        // A whole number operand within [min, max], or REJECTED after reporting it
+        int argument(CompiledScript script, int operand, int min, int max, String message,
+                     int instruction, TurtleOps turtle) {
+            if (operand >= 0) return (int) script.constants[operand]; // Checked by the compiler
+            double value = Math.rint(value(script, operand));
+            if (value >= min && value <= max) return (int) value;
+            turtle.displayMessage("line " + script.lines[instruction] + ": " + message);
+            return REJECTED;
+        }
+
+        // A distance or angle operand within [min, max], fractions kept, or NaN after reporting it
+        double measure(CompiledScript script, int operand, double min, double max, String message,
+                       int instruction, TurtleOps turtle) {
+            double value = value(script, operand);
+            if (value >= min && value <= max) return value;
+            turtle.displayMessage("line " + script.lines[instruction] + ": " + message);
+            return Double.NaN;
+        }
+
+        void make(CompiledScript script, int slot, double value) {
+            if (slot >= 0) {
+                globals[slot] = value;
+            } else {
+                locals[localBase + ~slot] = value;
+            }
+        }
+
+        void pushLoop(long count) {
+            if (loopDepth == loopCount.length) {
+                int size = Math.max(16, loopDepth * 2);
+                loopIteration = Arrays.copyOf(loopIteration, size);
+                loopCount = Arrays.copyOf(loopCount, size);
+            }
+            loopIteration[loopDepth] = 1;
+            loopCount[loopDepth++] = count;
+        }
+
+        // Count an iteration of the innermost loop, false (and the loop is gone) once it is done
+        boolean nextIteration() {
+            int top = loopDepth - 1;
+            if (loopIteration[top] < loopCount[top]) {
+                loopIteration[top]++;
+                return true;
+            }
+            loopDepth = top;
+            return false;
+        }
+
+        // Evaluate the arguments of the CALL at pc and enter the procedure, false if too deep
+        boolean call(CompiledScript script, int[] code, int pc, int instruction) {
+            if (depth == MAX_CALL_DEPTH) return false;
+            int count = code[pc + 2];
+            if (localTop + count > locals.length) {
+                locals = Arrays.copyOf(locals, Math.max(64, (localTop + count) * 2));
+            }
+            for (int i = 0; i < count; i++) {
+                locals[localTop + i] = value(script, code[pc + 3 + i]);
+            }
+            if (depth == framePc.length) {
+                int size = Math.max(16, depth * 2);
+                frameScript = Arrays.copyOf(frameScript, size);
+                framePc = Arrays.copyOf(framePc, size);
+                frameInstruction = Arrays.copyOf(frameInstruction, size);
+                frameLocalBase = Arrays.copyOf(frameLocalBase, size);
+                frameLoopBase = Arrays.copyOf(frameLoopBase, size);
+                frameAskBase = Arrays.copyOf(frameAskBase, size);
+            }
+            frameScript[depth] = script;
+            framePc[depth] = pc + 3 + count;
+            frameInstruction[depth] = instruction + 1;
+            frameLocalBase[depth] = localBase;
+            frameLoopBase[depth] = loopBase;
+            frameAskBase[depth] = askBase;
+            depth++;
+            localBase = localTop;
+            localTop += count;
+            loopBase = loopDepth;
+            askBase = askDepth;
+            return true;
+        }
+
+        // Drop the parameters, loops and asked turtles of the call at depth, which is returning
+        void ret() {
+            localTop = localBase;
+            localBase = frameLocalBase[depth];
+            loopDepth = loopBase;
+            loopBase = frameLoopBase[depth];
+            askDepth = askBase;
+            askBase = frameAskBase[depth];
+            frameScript[depth] = null;
+        }
+
+        void pushAsk(TurtleOps turtle) {
+            if (askDepth == asked.length) {
+                asked = Arrays.copyOf(asked, Math.max(8, askDepth * 2));
+            }
+            asked[askDepth++] = turtle;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.turtle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Producer/consumer pipeline for running a script off the event dispatch thread.
+//
+// A reader thread parses the source into CompiledScript chunks and hands them over a bounded
+// queue to a render thread, which executes them against the turtle. Listener callbacks come from
+// the pipeline threads, so UI code has to pass them on to the EDT itself.
+//
+// A file source is streamed through StreamingScriptLoader. The pipeline then remembers the byte
+// offset and line just past the last chunk it executed in full, so a cancelled run can be resumed
+// there.
+// With a RenderCache set, the reader thread first looks the file up there. A hit is put on the
+// turtle by the render thread instead of running the script, a miss is run and then stored.
+//
+// A session recording is played by the render thread alone, CHUNK_COMMANDS commands at a time.
+public class ScriptPipeline {
+    // Commands per chunk, also how often progress is reported and cancellation is checked
+    public static final int CHUNK_COMMANDS = 1024;
+
+    public interface Listener {
+        // Lines rejected by the compiler in the chunk about to run
+        void compileErrors(String[] errors);
+
+        // bytesRead is only known for file sources, 0 otherwise
+        void progress(long linesRead, long bytesRead, long commandsExecuted);
+
+        // error is null unless reading the source failed
+        void finished(boolean cancelled, Exception error, long commandsExecuted);
+    }
+
+    private final Reader source;
+    private final Path sourceFile;
+    private final long startOffset;
+    private final long startLine;
+    private final List<CompiledScript> precompiled;
+    private final ScriptCompiler compiler; // Compiles a file source, kept for resuming it
+    private final TurtleOps turtle;
+    private final Listener listener;
+
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(16);
+    private final Batch endOfScript = new Batch(null, 0, 0); // Marks the end of the queue
+    private final List<CompiledScript> chunks = new ArrayList<>(); // Everything executed, kept for replay
+
+    private Thread readerThread;
+    private Thread renderThread;
+    private volatile boolean cancelled;
+    private volatile boolean running;
+    private volatile long linesRead;
+    private volatile long bytesRead;
+    private volatile long resumeOffset;
+    private volatile long resumeLine;
+    private StreamingScriptLoader loader;
+    private volatile long commandsExecuted;
+    private volatile Exception readError;
+
+    private RenderCache cache; // Null unless setCache was called
+    private UndoHistory.Target cacheTarget;
+    private byte[] cacheStart; // The turtle as the run starts, see RenderCache.startState
+    private volatile String cacheKey; // Where a missed run is stored once it finishes
+    private volatile boolean fromCache;
+    private volatile IOException cacheError;
+
+    private File session; // Null unless playing a session recording
+    private long sessionFirst;
+    private long sessionCount;
+    private UndoHistory.Target sessionTarget;
+
+    // Parse and run a script read from source
+    public ScriptPipeline(Reader source, TurtleOps turtle, Listener listener) {
+        this.source = source;
+        this.sourceFile = null;
+        this.startOffset = 0;
+        this.startLine = 0;
+        this.precompiled = null;
+        this.compiler = null;
+        this.turtle = turtle;
+        this.listener = listener;
+    }
+
+    // Stream a script file from startOffset, the start of line startLine + 1.
+    // Pass 0, 0 to run the whole file.
+    public ScriptPipeline(Path file, long startOffset, long startLine, TurtleOps turtle, Listener listener) {
+        this(file, startOffset, startLine, new ScriptCompiler(), turtle, listener);
+    }
+
+    // Carry on with a cancelled run of a script file, whose procedures and variables are still in
+    // its compiler
+    public ScriptPipeline(ScriptPipeline cancelled, TurtleOps turtle, Listener listener) {
+        this(cancelled.sourceFile, cancelled.resumeOffset, cancelled.resumeLine, cancelled.awaitReader(), turtle, listener);
+    }
+
+    // The compiler, once the reader thread has stopped using it (it stops at the next line when cancelled)
+    private ScriptCompiler awaitReader() {
+        Thread reader;
+        synchronized (this) {
+            reader = readerThread;
+        }
+        if (reader != null) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return compiler;
+    }
+
+    private ScriptPipeline(Path file, long startOffset, long startLine, ScriptCompiler compiler, TurtleOps turtle,
+                           Listener listener) {
+        this.source = null;
+        this.sourceFile = file;
+        this.startOffset = startOffset;
+        this.startLine = startLine;
+        this.precompiled = null;
+        this.compiler = compiler;
+        this.turtle = turtle;
+        this.listener = listener;
+        this.bytesRead = startOffset;
+        this.resumeOffset = startOffset;
+        this.resumeLine = startLine;
+        this.linesRead = startLine;
+    }
+
+    // Run chunks that were already compiled, e.g. a replay
+    public ScriptPipeline(List<CompiledScript> chunks, TurtleOps turtle, Listener listener) {
+        this.source = null;
+        this.sourceFile = null;
+        this.startOffset = 0;
+        this.startLine = 0;
+        this.precompiled = chunks;
+        this.compiler = null;
+        this.turtle = turtle;
+        this.listener = listener;
+    }
+
+    // Play count commands of a session recording from command first, after putting turtle in the
+    // state the recording had there, see SessionReader.seek
+    public ScriptPipeline(File session, long first, long count, UndoHistory.Target turtle, Listener listener) {
+        this((Reader) null, turtle, listener);
+        this.session = session;
+        this.sessionFirst = first;
+        this.sessionCount = count;
+        this.sessionTarget = turtle;
+    }
+
+    // Look a whole file source up in cache before running it, and store the result if it was not
+    // there. target is the turtle the pipeline draws on; call this on the thread that owns it,
+    // before start. Ignored for other sources, a resumed file or a canvas that is not blank.
+    public void setCache(RenderCache cache, UndoHistory.Target target) {
+        if (sourceFile == null || startOffset != 0 || cache == null) return;
+        this.cacheStart = RenderCache.startState(target);
+        this.cache = cacheStart != null ? cache : null;
+        this.cacheTarget = target;
+    }
+
+    public synchronized void start() {
+        if (renderThread != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        running = true;
+        renderThread = new Thread(this::render, "turtle-render");
+        renderThread.setDaemon(true);
+        if (source != null || sourceFile != null) {
+            if (sourceFile != null) {
+                loader = new StreamingScriptLoader(CHUNK_COMMANDS);
+            }
+            readerThread = new Thread(sourceFile != null ? this::stream : this::read, "turtle-script-reader");
+            readerThread.setDaemon(true);
+            readerThread.start();
+        }
+        renderThread.start();
+    }
+
+    // Stop after the chunk being executed, or inside it at the next check of a loop or procedure
+    // call. Everything still queued is dropped.
+    public void cancel() {
+        cancelled = true;
+        if (loader != null) {
+            loader.cancel();
+        }
+        if (readerThread != null) {
+            readerThread.interrupt();
+        }
+        queue.clear();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getCommandsExecuted() {
+        return commandsExecuted;
+    }
+
+    // Bytes per second read from a file source, 0 for other sources
+    public double getThroughput() {
+        return loader != null ? loader.getThroughput() : 0;
+    }
+
+    // Byte offset and line number just past the last chunk of a file source that ran to the end
+    public long getResumeOffset() {
+        return resumeOffset;
+    }
+
+    public long getResumeLine() {
+        return resumeLine;
+    }
+
+    public Path getSourceFile() {
+        return sourceFile;
+    }
+
+    // Whether the drawing came from the render cache instead of running the script
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    // Why a finished run could not be stored in the render cache, null if it was or need not be
+    public IOException getCacheError() {
+        return cacheError;
+    }
+
+    // Chunks executed so far, in order. Complete once the pipeline has finished.
+    public List<CompiledScript> getChunks() {
+        synchronized (chunks) {
+            return new ArrayList<>(chunks);
+        }
+    }
+
+    // Reader thread: parse lines into chunks
+    private void read() {
+        ScriptCompiler compiler = new ScriptCompiler();
+        try (BufferedReader reader = new BufferedReader(source, 1 << 16)) {
+            String line;
+            int lineNumber = 0;
+            long parseStart = System.nanoTime();
+            while (!cancelled && (line = reader.readLine()) != null) {
+                compiler.addLine(line, ++lineNumber);
+                linesRead = lineNumber;
+                if (compiler.pendingCommands() >= CHUNK_COMMANDS) {
+                    queue.put(new Batch(parsed(compiler, parseStart), 0, lineNumber));
+                    parseStart = System.nanoTime();
+                }
+            }
+            if (!cancelled) {
+                compiler.finish();
+                queue.put(new Batch(parsed(compiler, parseStart), 0, lineNumber));
+            }
+        } catch (InterruptedException e) {
+            // Cancelled while waiting for the render thread
+        } catch (IOException e) {
+            readError = e;
+        } finally {
+            endQueue();
+        }
+    }
+
+    // Build a chunk and record the time spent reading and compiling it
+    private static CompiledScript parsed(ScriptCompiler compiler, long parseStart) {
+        CompiledScript chunk = compiler.build();
+        RenderStats.get().recordPhase(RenderStats.PARSE, System.nanoTime() - parseStart);
+        return chunk;
+    }
+
+    // Reader thread for a file source: stream it through the NIO loader
+    private void stream() {
+        try {
+            if (cache != null) {
+                String key = RenderCache.key(sourceFile, cacheStart);
+                RenderCache.Entry entry = cache.get(key);
+                if (entry != null) {
+                    queue.put(new Batch(entry));
+                    return;
+                }
+                cacheKey = key;
+            }
+            loader.load(sourceFile, startOffset, startLine, compiler, (chunk, endOffset, endLine) -> {
+                linesRead = endLine;
+                bytesRead = endOffset;
+                queue.put(new Batch(chunk, endOffset, endLine));
+            });
+        } catch (InterruptedException e) {
+            // Cancelled while waiting for the render thread
+        } catch (IOException e) {
+            readError = e;
+        } finally {
+            endQueue();
+        }
+    }
+
+    private void endQueue() {
+        try {
+            if (cancelled) {
+                queue.offer(endOfScript); // Queue was just cleared, wake the render thread
+            } else {
+                queue.put(endOfScript);
+            }
+        } catch (InterruptedException e) {
+            queue.offer(endOfScript);
+        }
+    }
+
+    // Render thread: execute chunks as they arrive
+    private void render() {
+        try {
+            if (session != null) {
+                play();
+            } else if (precompiled != null) {
+                for (CompiledScript chunk : precompiled) {
+                    if (cancelled) break;
+                    runChunk(chunk);
+                }
+            } else {
+                while (!cancelled) {
+                    Batch batch = queue.take();
+                    if (batch == endOfScript) break;
+                    if (batch.cached != null) {
+                        RenderCache.apply(batch.cached, cacheTarget);
+                        fromCache = true;
+                        continue;
+                    }
+                    if (runChunk(batch.chunk)) {
+                        resumeOffset = batch.endOffset;
+                        resumeLine = batch.endLine;
+                    }
+                }
+                storeInCache();
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+        } finally {
+            running = false;
+            RenderStats.get().runFinished();
+            listener.finished(cancelled, readError, commandsExecuted);
+        }
+    }
+
+    // Render thread for a session source
+    private void play() {
+        try (SessionReader reader = new SessionReader(session)) {
+            reader.seek(sessionTarget, sessionFirst);
+            long left = sessionCount;
+            while (!cancelled && left > 0) {
+                long played = reader.play(sessionTarget, Math.min(left, CHUNK_COMMANDS));
+                if (played == 0) break;
+                left -= played;
+                commandsExecuted += played;
+                listener.progress(0, 0, commandsExecuted);
+            }
+        } catch (IOException e) {
+            readError = e;
+        }
+    }
+
+    // Keep a completed run in the render cache, unless it used files
+    private void storeInCache() {
+        if (cancelled || readError != null || cacheKey == null || !RenderCache.isCacheable(getChunks())) return;
+        try {
+            cache.put(cacheKey, cacheTarget);
+        } catch (IOException e) {
+            cacheError = e;
+        }
+    }
+
+    // Returns false if cancel stopped the chunk part way through a loop or call, so a resumed run
+    // has to start again from the beginning of it
+    private boolean runChunk(CompiledScript chunk) {
+        if (precompiled == null && chunk.errors.length > 0) {
+            listener.compileErrors(chunk.getErrors());
+        }
+        boolean[] stopped = new boolean[1]; // The last check said stop, so the interpreter returned
+        ScriptInterpreter.execute(chunk, turtle, () -> stopped[0] = cancelled);
+        synchronized (chunks) {
+            chunks.add(chunk);
+        }
+        commandsExecuted += chunk.size();
+        listener.progress(linesRead, bytesRead, commandsExecuted);
+        return !stopped[0];
+    }
+
+    // A chunk and where in the source it ends, or a cached result that replaces the whole script
+    private static final class Batch {
+        final CompiledScript chunk;
+        final long endOffset;
+        final long endLine;
+        final RenderCache.Entry cached;
+
+        Batch(CompiledScript chunk, long endOffset, long endLine) {
+            this.chunk = chunk;
+            this.endOffset = endOffset;
+            this.endLine = endLine;
+            this.cached = null;
+        }
+
+        Batch(RenderCache.Entry cached) {
+            this.chunk = null;
+            this.endOffset = 0;
+            this.endLine = 0;
+            this.cached = cached;
+        }
+    }
+}
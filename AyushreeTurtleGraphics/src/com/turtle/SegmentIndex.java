@@ -0,0 +1,212 @@
+package com.turtle;
+
+import java.util.Arrays;
+
+// Uniform grid over display list primitives, used to cull to a viewport and for hit-testing.
+//
+// The grid is sparse: cells are found through an open addressing table keyed on the cell
+// coordinates, so drawings can extend past the canvas. A segment is added to the cells its line
+// passes through, a circle to the cells along its ring, so a query only looks at primitives
+// near the area asked for. Each cell holds a growable int array of primitive ids.
+// Not thread safe, DisplayList guards it.
+public class SegmentIndex {
+    public static final int DEFAULT_CELL_SIZE = 32;
+
+    private final int cellSize;
+
+    // Open addressing table from packed cell coordinates to a cell number
+    private long[] keys = new long[1024];
+    private int[] cellOf = new int[1024];
+    private boolean[] used = new boolean[1024];
+    private int cellCount;
+
+    // Primitive ids in each cell
+    private int[][] items = new int[256][];
+    private int[] itemCounts = new int[256];
+
+    // Query results, and de-duplication: stamp[id] == queryStamp means id was already reported
+    private int[] results = new int[64];
+    private int[] stamps = new int[256];
+    private int queryStamp;
+
+    public SegmentIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public SegmentIndex(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        Arrays.fill(itemCounts, 0, cellCount, 0);
+        cellCount = 0;
+    }
+
+    // ========== INSERTION ==========
+
+    // Add a line segment, walking the grid cells the line crosses (Amanatides-Woo traversal)
+    public void addSegment(int id, float x1, float y1, float x2, float y2) {
+        int cx = cell(x1), cy = cell(y1);
+        int endX = cell(x2), endY = cell(y2);
+        addToCell(cx, cy, id);
+
+        float dx = x2 - x1, dy = y2 - y1;
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+        float tDeltaX = dx == 0 ? Float.MAX_VALUE : cellSize / Math.abs(dx);
+        float tDeltaY = dy == 0 ? Float.MAX_VALUE : cellSize / Math.abs(dy);
+        float tMaxX = dx == 0 ? Float.MAX_VALUE
+            : ((stepX > 0 ? (cx + 1) * (float) cellSize - x1 : x1 - cx * (float) cellSize) / Math.abs(dx));
+        float tMaxY = dy == 0 ? Float.MAX_VALUE
+            : ((stepY > 0 ? (cy + 1) * (float) cellSize - y1 : y1 - cy * (float) cellSize) / Math.abs(dy));
+
+        int guard = Math.abs(endX - cx) + Math.abs(endY - cy);
+        while ((cx != endX || cy != endY) && guard-- > 0) {
+            if (tMaxX < tMaxY) {
+                tMaxX += tDeltaX;
+                cx += stepX;
+            } else {
+                tMaxY += tDeltaY;
+                cy += stepY;
+            }
+            addToCell(cx, cy, id);
+        }
+    }
+
+    // Add a circle to the cells its ring passes through
+    public void addCircle(int id, float centreX, float centreY, float radius) {
+        // Sample the ring at least once per cell so no crossed cell is missed
+        int steps = Math.max(8, (int) Math.ceil(2 * Math.PI * radius / (cellSize * 0.5)));
+        int lastX = Integer.MIN_VALUE, lastY = Integer.MIN_VALUE;
+        for (int i = 0; i <= steps; i++) {
+            double angle = 2 * Math.PI * i / steps;
+            int cx = cell((float) (centreX + radius * Math.cos(angle)));
+            int cy = cell((float) (centreY + radius * Math.sin(angle)));
+            if (cx != lastX || cy != lastY) {
+                addToCell(cx, cy, id);
+                lastX = cx;
+                lastY = cy;
+            }
+        }
+    }
+
+    // ========== QUERIES ==========
+
+    // Find the primitives in the cells overlapping the rectangle, each once, in ascending
+    // (drawing) order. Returns how many were found, the ids are at the start of results().
+    // idLimit must be greater than every id added so far.
+    public int query(float minX, float minY, float maxX, float maxY, int idLimit) {
+        if (stamps.length < idLimit) {
+            stamps = Arrays.copyOf(stamps, Math.max(idLimit, stamps.length * 2));
+        }
+        if (++queryStamp == 0) {
+            Arrays.fill(stamps, 0);
+            queryStamp = 1;
+        }
+        int count = 0;
+        for (int cy = cell(minY); cy <= cell(maxY); cy++) {
+            for (int cx = cell(minX); cx <= cell(maxX); cx++) {
+                int c = find(cx, cy);
+                if (c < 0) continue;
+                int[] list = items[c];
+                for (int k = 0, n = itemCounts[c]; k < n; k++) {
+                    int id = list[k];
+                    if (stamps[id] == queryStamp) continue;
+                    stamps[id] = queryStamp;
+                    if (count == results.length) {
+                        results = Arrays.copyOf(results, count * 2);
+                    }
+                    results[count++] = id;
+                }
+            }
+        }
+        Arrays.sort(results, 0, count);
+        return count;
+    }
+
+    // Ids found by the last query
+    public int[] results() {
+        return results;
+    }
+
+    // ========== CELLS ==========
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & (keys.length - 1);
+    }
+
+    // Cell number for (cx, cy) or -1 if that cell is empty
+    private int find(int cx, int cy) {
+        long key = key(cx, cy);
+        for (int s = slot(key); used[s]; s = (s + 1) & (keys.length - 1)) {
+            if (keys[s] == key) return cellOf[s];
+        }
+        return -1;
+    }
+
+    private void addToCell(int cx, int cy, int id) {
+        long key = key(cx, cy);
+        int s = slot(key);
+        while (used[s] && keys[s] != key) {
+            s = (s + 1) & (keys.length - 1);
+        }
+        int c;
+        if (used[s]) {
+            c = cellOf[s];
+            // A line that turns back over the same cell is only listed once
+            if (itemCounts[c] > 0 && items[c][itemCounts[c] - 1] == id) return;
+        } else {
+            c = newCell();
+            used[s] = true;
+            keys[s] = key;
+            cellOf[s] = c;
+            if (cellCount * 2 > keys.length) {
+                rehash();
+            }
+        }
+        int[] list = items[c];
+        if (list == null) {
+            list = items[c] = new int[4];
+        } else if (itemCounts[c] == list.length) {
+            list = items[c] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[itemCounts[c]++] = id;
+    }
+
+    private int newCell() {
+        if (cellCount == items.length) {
+            items = Arrays.copyOf(items, cellCount * 2);
+            itemCounts = Arrays.copyOf(itemCounts, cellCount * 2);
+        }
+        itemCounts[cellCount] = 0;
+        return cellCount++;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldCells = cellOf;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        cellOf = new int[keys.length];
+        used = new boolean[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) continue;
+            int s = slot(oldKeys[i]);
+            while (used[s]) {
+                s = (s + 1) & (keys.length - 1);
+            }
+            used[s] = true;
+            keys[s] = oldKeys[i];
+            cellOf[s] = oldCells[i];
+        }
+    }
+}
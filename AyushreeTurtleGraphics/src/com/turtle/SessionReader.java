@@ -0,0 +1,377 @@
+package com.turtle;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Reads a session recorded by SessionWriter, from any command.
+//
+// The block index comes from the end of the file, or from walking the blocks if the recording was
+// never closed. seek() decodes only the block holding the command asked for, so jumping to the end
+// of a long recording costs one block. next() then decodes one command at a time into getOpcode()
+// and its operands, and play() runs commands on a turtle. seek(target, command) also puts the
+// turtle in the state the recording had at command, replaying it from the keyframe before.
+public class SessionReader implements Closeable {
+    private final RandomAccessFile file;
+    private long[] blockFirst = new long[64]; // First command of each block
+    private long[] blockOffset = new long[64];
+    private int blocks;
+    private long commands;
+
+    // Block being read
+    private int currentBlock = -1;
+    private byte[] block = new byte[0];
+    private int blockLength;
+    private int position;
+    private long next; // Index of the command next() decodes
+    private final double[] previous = new double[SessionWriter.NUMBER_KINDS];
+    private final Inflater inflater = new Inflater();
+    private boolean skipImages; // Step over canvases without inflating them, while looking for a keyframe
+
+    // Last command decoded
+    private int opcode = -1;
+    private final double[] operands = new double[3];
+    private BufferedImage image;
+
+    public SessionReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            byte[] magic = new byte[SessionWriter.MAGIC.length];
+            file.readFully(magic);
+            if (!Arrays.equals(magic, SessionWriter.MAGIC)) {
+                throw new IOException(path.getName() + " is not a session recording");
+            }
+            int version = file.read();
+            if (version != SessionWriter.VERSION) {
+                throw new IOException(path.getName() + " was recorded in unknown version " + version);
+            }
+            file.read(); // Flags, blocks say themselves whether they are deflated
+            if (!readIndex()) {
+                walkBlocks(SessionWriter.MAGIC.length + 2);
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // Read the index a closed recording ends with. False if there is none.
+    private boolean readIndex() throws IOException {
+        long length = file.length();
+        if (length < SessionWriter.MAGIC.length + 2 + 12) return false;
+        file.seek(length - 4);
+        byte[] magic = new byte[4];
+        file.readFully(magic);
+        if (!Arrays.equals(magic, SessionWriter.INDEX_MAGIC)) return false;
+        file.seek(length - 12);
+        long indexOffset = file.readLong();
+        if (indexOffset < 0 || indexOffset >= length - 12) return false;
+        file.seek(indexOffset);
+        if (file.read() != SessionWriter.INDEX) return false;
+        int count = (int) readVarint();
+        long first = 0;
+        long offset = 0;
+        for (int b = 0; b < count; b++) {
+            first += readVarint();
+            offset += readVarint();
+            addBlock(first, offset);
+        }
+        // The index does not hold the size of the last block, read its header for that
+        if (blocks > 0) {
+            file.seek(blockOffset[blocks - 1] + 1);
+            commands = blockFirst[blocks - 1] + readVarint();
+        }
+        return true;
+    }
+
+    // Find the blocks of a recording without an index, up to the last complete one
+    private void walkBlocks(long offset) throws IOException {
+        long length = file.length();
+        file.seek(offset);
+        while (offset < length) {
+            int kind = file.read();
+            if (kind != SessionWriter.STORED && kind != SessionWriter.DEFLATED) break;
+            long blockCommands;
+            long stored;
+            try {
+                blockCommands = readVarint();
+                stored = readVarint();
+            } catch (EOFException e) {
+                break;
+            }
+            long end = file.getFilePointer() + stored;
+            if (end > length) break; // Cut off while it was written
+            addBlock(commands, offset);
+            commands += blockCommands;
+            offset = end;
+            file.seek(offset);
+        }
+    }
+
+    private void addBlock(long first, long offset) {
+        if (blocks == blockFirst.length) {
+            blockFirst = Arrays.copyOf(blockFirst, blocks * 2);
+            blockOffset = Arrays.copyOf(blockOffset, blocks * 2);
+        }
+        blockFirst[blocks] = first;
+        blockOffset[blocks] = offset;
+        blocks++;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = file.read();
+            if (b < 0) throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt varint");
+    }
+
+    // ========== SEEKING ==========
+
+    // Number of commands in the recording
+    public long getCommandCount() {
+        return commands;
+    }
+
+    // Index of the command next() decodes
+    public long getPosition() {
+        return next;
+    }
+
+    // Make command the next one decoded, 0 for the first
+    public void seek(long command) throws IOException {
+        if (command < 0 || command > commands) {
+            throw new IllegalArgumentException("Command " + command + " is outside 0-" + commands);
+        }
+        if (command == commands) {
+            currentBlock = blocks;
+            next = command;
+            return;
+        }
+        int b = Arrays.binarySearch(blockFirst, 0, blocks, command);
+        if (b < 0) b = -b - 2; // Block before the insertion point
+        if (b != currentBlock || command < next) {
+            loadBlock(b);
+        }
+        while (next < command) {
+            decode();
+        }
+    }
+
+    // Make command the next one played, with target as the recording had it there: playback
+    // starts at the last keyframe (see SessionWriter.keyframe) before command, and runs up to it.
+    // The blocks between are decoded without inflating their canvases.
+    public void seek(UndoHistory.Target target, long command) throws IOException {
+        long keyframe = command > 0 ? keyframeBefore(command) : -1;
+        seek(Math.max(keyframe, 0)); // Recordings start with one, play from the start if not
+        play(target, command - next);
+    }
+
+    // The last CANVAS command before command, -1 if there is none
+    private long keyframeBefore(long command) throws IOException {
+        int b = Arrays.binarySearch(blockFirst, 0, blocks, command - 1);
+        if (b < 0) b = -b - 2;
+        skipImages = true;
+        try {
+            for (; b >= 0; b--) {
+                loadBlock(b);
+                long end = Math.min(command, b + 1 < blocks ? blockFirst[b + 1] : commands);
+                long found = -1;
+                while (next < end) {
+                    decode();
+                    if (opcode == SessionWriter.CANVAS) found = next - 1;
+                }
+                if (found >= 0) return found;
+            }
+            return -1;
+        } finally {
+            skipImages = false;
+        }
+    }
+
+    private void loadBlock(int b) throws IOException {
+        file.seek(blockOffset[b]);
+        int kind = file.read();
+        readVarint(); // Commands, known from the index
+        int stored = (int) readVarint();
+        byte[] bytes = new byte[stored];
+        file.readFully(bytes);
+        if (kind == SessionWriter.DEFLATED) {
+            bytes = inflate(bytes);
+        }
+        block = bytes;
+        blockLength = bytes.length;
+        position = 0;
+        currentBlock = b;
+        next = blockFirst[b];
+        Arrays.fill(previous, 0);
+    }
+
+    private byte[] inflate(byte[] stored) throws IOException {
+        inflater.reset();
+        inflater.setInput(stored);
+        byte[] out = new byte[Math.max(256, stored.length * 4)];
+        int n = 0;
+        try {
+            while (!inflater.finished()) {
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int inflated = inflater.inflate(out, n, out.length - n);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated block");
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block: " + e.getMessage(), e);
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // ========== DECODING ==========
+
+    // Decode the next command. False at the end of the recording.
+    public boolean next() throws IOException {
+        if (next >= commands) return false;
+        decode();
+        return true;
+    }
+
+    private void decode() throws IOException {
+        if (currentBlock < 0 || position >= blockLength) {
+            loadBlock(currentBlock + 1); // The first block, or the one after the block just read
+        }
+        opcode = (int) varint();
+        image = null;
+        switch (opcode) {
+            case SessionWriter.FORWARD:
+                operands[0] = number(SessionWriter.N_DISTANCE);
+                break;
+            case SessionWriter.TURN:
+                operands[0] = number(SessionWriter.N_ANGLE);
+                break;
+            case SessionWriter.CIRCLE:
+                operands[0] = number(SessionWriter.N_RADIUS);
+                break;
+            case SessionWriter.PEN_WIDTH:
+                operands[0] = number(SessionWriter.N_WIDTH);
+                break;
+            case SessionWriter.PEN_COLOUR:
+                operands[0] = varint();
+                break;
+            case SessionWriter.POSE:
+                operands[0] = number(SessionWriter.N_X);
+                operands[1] = number(SessionWriter.N_Y);
+                operands[2] = number(SessionWriter.N_HEADING);
+                break;
+            case SessionWriter.CANVAS: {
+                int width = (int) varint();
+                int height = (int) varint();
+                int length = (int) varint();
+                if (position + length > blockLength) throw new IOException("Corrupt canvas in command " + next);
+                if (!skipImages) {
+                    image = UndoHistory.inflatePixels(Arrays.copyOfRange(block, position, position + length), width, height);
+                }
+                position += length;
+                break;
+            }
+            case SessionWriter.PEN_UP:
+            case SessionWriter.PEN_DOWN:
+            case SessionWriter.CLEAR:
+            case SessionWriter.RESET:
+                break;
+            default:
+                throw new IOException("Unknown opcode " + opcode + " in command " + next);
+        }
+        next++;
+    }
+
+    private double number(int kind) throws IOException {
+        long encoded = varint();
+        double value;
+        if ((encoded & 1) == 0) {
+            long zigzag = encoded >>> 1;
+            value = (long) previous[kind] + ((zigzag >>> 1) ^ -(zigzag & 1));
+        } else {
+            if (position + 8 > blockLength) throw new IOException("Truncated number in command " + next);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = bits << 8 | (block[position++] & 0xFF);
+            }
+            value = Double.longBitsToDouble(bits);
+        }
+        previous[kind] = value;
+        return value;
+    }
+
+    private long varint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= blockLength) throw new IOException("Truncated command " + next);
+            int b = block[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt varint in command " + next);
+    }
+
+    // Opcode of the last command decoded, see SessionWriter
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public double getOperand(int i) {
+        return operands[i];
+    }
+
+    // Pixels of the last CANVAS command
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    // ========== PLAYING ==========
+
+    // Run up to count commands from the current position on target. Returns how many ran.
+    public long play(UndoHistory.Target target, long count) throws IOException {
+        long played = 0;
+        while (played < count && next()) {
+            switch (opcode) {
+                case SessionWriter.FORWARD:    target.advance(operands[0]); break;
+                case SessionWriter.TURN:       target.rotate(operands[0]); break;
+                case SessionWriter.CIRCLE:     target.circle((int) operands[0]); break;
+                case SessionWriter.PEN_UP:     target.setPenState(false); break;
+                case SessionWriter.PEN_DOWN:   target.setPenState(true); break;
+                case SessionWriter.PEN_WIDTH:  target.setStroke((int) operands[0]); break;
+                case SessionWriter.PEN_COLOUR: target.setPenColour(new Color((int) operands[0])); break;
+                case SessionWriter.CLEAR:      target.clear(); break;
+                case SessionWriter.RESET:      target.reset(); break;
+                case SessionWriter.POSE:       target.restoreTurtle(operands[0], operands[1], operands[2]); break;
+                case SessionWriter.CANVAS:
+                    target.restoreCanvas(image);
+                    target.getDisplayList().setBaseImage(target.getBufferedImage());
+                    break;
+                default:
+                    break;
+            }
+            played++;
+        }
+        return played;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+}
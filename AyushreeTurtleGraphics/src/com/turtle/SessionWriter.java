@@ -0,0 +1,359 @@
+package com.turtle;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+// Writes everything a turtle does to a compact binary session file, as it happens.
+//
+// Each primitive the turtle runs is one command: a varint opcode followed by its operands. A number
+// is stored as the zigzag varint of its difference from the previous number of the same kind, so
+// a run of "forward 10" costs two bytes a command. Numbers that are not whole are stored as the
+// 8 bytes of the double instead. Commands are grouped into blocks of at most BLOCK_COMMANDS, each
+// deflated unless that does not make it smaller, and the differences start again in every block,
+// so a block can be decoded without the ones before it. A block is written as soon as it is full
+// or flush() is called. close() appends an index of where each block starts, which SessionReader
+// uses to seek to any command. A recording that was never closed is readable up to its last
+// complete block, the reader then finds the blocks by walking them.
+//
+// The recording starts with a keyframe: the turtle's canvas, pose and pen, so it plays back the same
+// whatever was on the canvas when it began. Canvases replaced later (loaded images, undo) are
+// keyframes too. Their pixels are stored deflated.
+//
+// Layout, integers are unsigned varints unless stated otherwise:
+//   header  "TSES" version(byte) flags(byte, 1 if blocks may be deflated)
+//   block   kind(byte, 0 stored or 1 deflated) commands length bytes[length]
+//   index   kind(byte 0xFF) blocks, then per block: first command and file offset, each as the
+//           difference from the previous block's
+//   footer  offset of the index (8 bytes, big-endian) "TIDX"
+public class SessionWriter implements Closeable {
+    public static final int VERSION = 1;
+    public static final int BLOCK_COMMANDS = 4096;
+    public static final int FLAG_DEFLATE = 1;
+
+    static final byte[] MAGIC = "TSES".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] INDEX_MAGIC = "TIDX".getBytes(StandardCharsets.US_ASCII);
+    static final int STORED = 0;
+    static final int DEFLATED = 1;
+    static final int INDEX = 0xFF;
+
+    // Opcodes
+    public static final int FORWARD = 0;    // distance
+    public static final int TURN = 1;       // degrees clockwise
+    public static final int CIRCLE = 2;     // radius
+    public static final int PEN_UP = 3;
+    public static final int PEN_DOWN = 4;
+    public static final int PEN_WIDTH = 5;  // width
+    public static final int PEN_COLOUR = 6; // 0xRRGGBB
+    public static final int CLEAR = 7;
+    public static final int RESET = 8;
+    public static final int POSE = 9;       // x, y, heading: the turtle put somewhere without drawing
+    public static final int CANVAS = 10;    // width, height, deflated length, pixels deflated as 0xRRGGBB rows
+
+    static final String[] NAMES = {
+        "forward", "turn", "circle", "penup", "pendown", "penwidth", "pencolour", "clear", "reset", "pose", "canvas"
+    };
+
+    // Kinds of number, each difference is taken from the previous number of its kind
+    static final int N_DISTANCE = 0;
+    static final int N_ANGLE = 1;
+    static final int N_RADIUS = 2;
+    static final int N_WIDTH = 3;
+    static final int N_X = 4;
+    static final int N_Y = 5;
+    static final int N_HEADING = 6;
+    static final int NUMBER_KINDS = 7;
+
+    private final File file;
+    private final OutputStream out;
+    private final boolean deflate;
+    private final Deflater deflater = new Deflater();
+    private long offset; // Bytes written to out so far
+
+    // Block being filled
+    private byte[] block = new byte[16 * 1024];
+    private int blockLength;
+    private int blockCommands;
+    private final double[] previous = new double[NUMBER_KINDS];
+    private byte[] deflated = new byte[16 * 1024];
+
+    // Index of the blocks written so far
+    private long[] blockFirst = new long[64];
+    private long[] blockOffset = new long[64];
+    private int blocks;
+    private long commands;
+
+    private IOException error; // First write that failed, nothing is written after it
+    private boolean closed;
+
+    public SessionWriter(File file, boolean deflate) throws IOException {
+        this.file = file;
+        this.deflate = deflate;
+        out = new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(deflate ? FLAG_DEFLATE : 0);
+        offset = MAGIC.length + 2;
+        out.flush();
+    }
+
+    // Start recording target, beginning with its canvas, pose and pen as they are now
+    public static SessionWriter start(File file, UndoHistory.Target target) throws IOException {
+        SessionWriter writer = new SessionWriter(file, true);
+        writer.keyframe(target.getBufferedImage(), target);
+        writer.flush();
+        return writer;
+    }
+
+    // ========== COMMANDS ==========
+
+    public synchronized void forward(double distance) {
+        opcode(FORWARD);
+        number(N_DISTANCE, distance);
+        commandDone();
+    }
+
+    public synchronized void turn(double degrees) {
+        opcode(TURN);
+        number(N_ANGLE, degrees);
+        commandDone();
+    }
+
+    public synchronized void circle(double radius) {
+        opcode(CIRCLE);
+        number(N_RADIUS, radius);
+        commandDone();
+    }
+
+    public synchronized void penState(boolean penDown) {
+        opcode(penDown ? PEN_DOWN : PEN_UP);
+        commandDone();
+    }
+
+    public synchronized void penWidth(int width) {
+        opcode(PEN_WIDTH);
+        number(N_WIDTH, width);
+        commandDone();
+    }
+
+    public synchronized void penColour(int rgb) {
+        opcode(PEN_COLOUR);
+        varint(rgb & 0xFFFFFF);
+        commandDone();
+    }
+
+    public synchronized void clear() {
+        opcode(CLEAR);
+        commandDone();
+    }
+
+    public synchronized void reset() {
+        opcode(RESET);
+        commandDone();
+    }
+
+    public synchronized void pose(double x, double y, double heading) {
+        opcode(POSE);
+        number(N_X, x);
+        number(N_Y, y);
+        number(N_HEADING, heading);
+        commandDone();
+    }
+
+    // The canvas pixels were replaced, e.g. by a loaded image or undo
+    public synchronized void canvas(BufferedImage image) {
+        byte[] pixels = UndoHistory.deflatePixels(image);
+        opcode(CANVAS);
+        varint(image.getWidth());
+        varint(image.getHeight());
+        varint(pixels.length);
+        ensure(pixels.length);
+        System.arraycopy(pixels, 0, block, blockLength, pixels.length);
+        blockLength += pixels.length;
+        commandDone();
+    }
+
+    // The canvas pixels were replaced by image, followed by the pose and pen of target, so playback
+    // can start at this command without the ones before it (see SessionReader.seek)
+    public synchronized void keyframe(BufferedImage image, UndoHistory.Target target) {
+        Pose pose = target.getPose();
+        Color colour = target.getPenColour();
+        canvas(image);
+        pose(pose.getX(), pose.getY(), pose.getHeading());
+        penColour(colour == null ? 0 : colour.getRGB());
+        penWidth(target.getStroke());
+        penState(target.getPenState());
+    }
+
+    // ========== ENCODING ==========
+
+    private void opcode(int opcode) {
+        ensure(10);
+        block[blockLength++] = (byte) opcode; // Every opcode fits the first byte of a varint
+    }
+
+    // Zigzag varint of the difference from the previous number of this kind, shifted left one.
+    // The low bit set means the 8 bytes of the double follow instead.
+    private void number(int kind, double value) {
+        double last = previous[kind];
+        if (value == Math.rint(value) && Math.abs(value) < 1L << 52
+                && last == Math.rint(last) && Math.abs(last) < 1L << 52) {
+            long delta = (long) value - (long) last;
+            varint(((delta << 1) ^ (delta >> 63)) << 1);
+        } else {
+            varint(1);
+            long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                block[blockLength++] = (byte) (bits >>> shift);
+            }
+        }
+        previous[kind] = value;
+    }
+
+    private void varint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            block[blockLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        block[blockLength++] = (byte) value;
+    }
+
+    private void ensure(int bytes) {
+        if (blockLength + bytes > block.length) {
+            block = Arrays.copyOf(block, Math.max(block.length * 2, blockLength + bytes));
+        }
+    }
+
+    private void commandDone() {
+        commands++;
+        if (++blockCommands == BLOCK_COMMANDS) {
+            writeBlock();
+        }
+    }
+
+    // ========== BLOCKS ==========
+
+    // Write the commands so far as a block, e.g. when a typed command or a script has finished
+    public synchronized void flush() {
+        writeBlock();
+        if (error == null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    private void writeBlock() {
+        if (blockCommands == 0) return;
+        long first = commands - blockCommands;
+        int length = blockLength;
+        byte[] bytes = block;
+        int kind = STORED;
+        if (deflate && blockLength > 64) {
+            deflater.reset();
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            if (deflated.length < blockLength) {
+                deflated = new byte[block.length];
+            }
+            int n = deflater.deflate(deflated, 0, blockLength); // Stop at the stored size, no gain past that
+            if (deflater.finished() && n < blockLength) {
+                bytes = deflated;
+                length = n;
+                kind = DEFLATED;
+            }
+        }
+        if (error == null) {
+            try {
+                if (blocks == blockFirst.length) {
+                    blockFirst = Arrays.copyOf(blockFirst, blocks * 2);
+                    blockOffset = Arrays.copyOf(blockOffset, blocks * 2);
+                }
+                blockFirst[blocks] = first;
+                blockOffset[blocks] = offset;
+                blocks++;
+                byte[] header = new byte[21];
+                int h = 0;
+                header[h++] = (byte) kind;
+                h = putVarint(header, h, blockCommands);
+                h = putVarint(header, h, length);
+                out.write(header, 0, h);
+                out.write(bytes, 0, length);
+                offset += h + length;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        blockLength = 0;
+        blockCommands = 0;
+        Arrays.fill(previous, 0);
+    }
+
+    static int putVarint(byte[] bytes, int at, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[at++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[at++] = (byte) value;
+        return at;
+    }
+
+    // ========== END ==========
+
+    public synchronized long getCommands() {
+        return commands;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // Write the last block and the index. Throws the first write that failed, if any did.
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        writeBlock();
+        try {
+            if (error == null) {
+                byte[] index = new byte[11 + blocks * 20];
+                int at = 0;
+                index[at++] = (byte) INDEX;
+                at = putVarint(index, at, blocks);
+                for (int b = 0; b < blocks; b++) {
+                    at = putVarint(index, at, blockFirst[b] - (b == 0 ? 0 : blockFirst[b - 1]));
+                    at = putVarint(index, at, blockOffset[b] - (b == 0 ? 0 : blockOffset[b - 1]));
+                }
+                out.write(index, 0, at);
+                byte[] footer = new byte[8];
+                for (int i = 0; i < 8; i++) {
+                    footer[i] = (byte) (offset >>> (56 - 8 * i));
+                }
+                out.write(footer);
+                out.write(INDEX_MAGIC);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            deflater.end();
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+        }
+        if (error != null) throw error;
+    }
+}
@@ -0,0 +1,313 @@
+package com.turtle;
+
+import java.awt.Color;
+
+// Shape routines built from turtle primitives so the window and headless engine draw identically
+public final class Shapes {
+
+    private Shapes() {
+    }
+
+    // Draw a square with given size
+    public static void square(TurtleOps t, int size) {
+        t.setPenState(true);
+        for (int i = 0; i < 4; i++) {
+            t.forward(size);
+            t.right(90);
+        }
+    }
+
+    // Draw an equilateral triangle
+    public static void equilateralTriangle(TurtleOps t, int size) {
+        t.setPenState(true);
+        for (int i = 0; i < 3; i++) {
+            t.forward(size);
+            t.left(120);
+        }
+    }
+
+    // Check if three sides can form a valid triangle
+    public static boolean isValidTriangle(int a, int b, int c) {
+        return (a + b > c) && (a + c > b) && (b + c > a);
+    }
+
+    // Draw a triangle with specified side lengths, sides must already be valid
+    public static void triangle(TurtleOps t, int side1, int side2, int side3) {
+        t.setPenState(true);
+
+        // Calculate angles using law of cosines
+        double angleA = Math.acos((side2*side2 + side3*side3 - side1*side1) / (2.0 * side2 * side3));
+        double angleB = Math.acos((side1*side1 + side3*side3 - side2*side2) / (2.0 * side1 * side3));
+        double angleC = Math.PI - angleA - angleB;
+
+        // Convert radians to degrees, keeping the fractions so the triangle closes
+        double angleADeg = Math.toDegrees(angleA);
+        double angleBDeg = Math.toDegrees(angleB);
+        double angleCDeg = Math.toDegrees(angleC);
+
+        // Draw the triangle. The corner between two sides has the angle opposite the third.
+        t.forward(side1);
+        t.rotate(-(180 - angleCDeg));
+        t.forward(side2);
+        t.rotate(-(180 - angleADeg));
+        t.forward(side3);
+
+        // Return to original orientation
+        t.rotate(-(180 - angleBDeg));
+    }
+
+    // Draw AYUSHREE'S name
+    public static void name(TurtleOps t) {
+        t.setTurtleSpeed(1);
+        t.reset();
+        t.setPenState(false);
+        t.setPenColour(Color.MAGENTA);
+        t.setStroke(3);
+
+        t.right(90);
+        t.forward(250);
+        t.right(90);
+
+        t.setPenState(true);
+        t.forward(100);
+        t.right(90);
+        t.forward(50);
+        t.right(90);
+        t.forward(100);
+        t.forward(-50);
+        t.right(90);
+        t.forward(50);
+        t.setPenState(false);
+
+        t.setPenColour(Color.GREEN);
+        t.forward(-50);
+        t.left(90);
+        t.forward(50);
+        t.left(90);
+        t.forward(40);
+        t.left(90);
+        t.setPenState(true);
+        t.forward(50);
+        t.left(30);
+        t.forward(55);
+        t.forward(-55);
+        t.right(60);
+        t.forward(55);
+        t.forward(-55);
+
+        t.setPenState(false);
+        t.setPenColour(Color.RED);
+
+        t.right(60);
+        t.forward(40);
+        t.setPenState(true);
+        t.left(90);
+        t.forward(-50);
+        t.forward(100);
+        t.forward(-100);
+        t.right(90);
+        t.forward(50);
+        t.left(90);
+        t.forward(100);
+
+        t.forward(-100);
+        t.setPenState(false);
+        t.right(90);
+        t.forward(30);
+        t.left(90);
+        t.forward(100);
+        t.right(90);
+        t.forward(30);
+        t.left(90);
+        t.left(90);
+        t.setPenState(true);
+        t.setPenColour(Color.BLUE);
+        t.forward(40);
+        t.left(90);
+        t.forward(40);
+        t.right(90);
+        t.right(90);
+        t.right(90);
+        t.forward(40);
+        t.right(90);
+        t.forward(60);
+        t.right(90);
+        t.forward(45);
+
+        t.setPenState(false);
+        t.right(90);
+        t.right(90);
+        t.forward(60);
+
+        t.setPenColour(Color.CYAN);
+        t.left(90);
+        t.setPenState(true);
+        t.forward(100);
+        t.right(90);
+        t.right(90);
+        t.setPenState(false);
+        t.forward(50);
+        t.left(90);
+        t.setPenState(true);
+        t.forward(40);
+        t.left(90);
+        t.forward(50);
+        t.right(90);
+        t.right(90);
+        t.setPenState(false);
+        t.forward(50);
+        t.setPenState(true);
+        t.forward(50);
+
+        t.setPenState(false);
+        t.left(90);
+        t.forward(20);
+        t.left(90);
+
+        t.setPenState(true);
+        t.setPenColour(Color.YELLOW);
+        t.forward(100);
+        t.right(90);
+        t.forward(25);
+        t.right(20);
+        t.forward(10);
+        t.right(20);
+        t.forward(10);
+        t.right(20);
+        t.forward(10);
+        t.right(20);
+        t.forward(10);
+        t.right(20);
+        t.forward(10);
+        t.right(20);
+        t.forward(10);
+        t.right(20);
+        t.forward(10);
+        t.right(20);
+        t.forward(10);
+        t.right(20);
+        t.forward(10);
+        t.left(140);
+        t.forward(70);
+        t.setPenState(false);
+
+        t.left(40);
+        t.forward(45);
+        t.left(90);
+        t.forward(93);
+        t.left(90);
+        t.setPenState(true);
+        t.setPenColour(Color.WHITE);
+        t.forward(47);
+        t.left(90);
+        t.forward(44);
+        t.left(90);
+        t.forward(47);
+
+        t.setPenState(false);
+        t.left(90);
+        t.left(90);
+
+        t.forward(47);
+        t.left(90);
+
+        t.setPenState(true);
+        t.forward(51);
+        t.left(90);
+        t.forward(47);
+
+        t.setPenState(false);
+        t.forward(28);
+        t.left(90);
+        t.forward(93);
+
+        t.right(90);
+        t.forward(47);
+        t.left(90);
+        t.left(90);
+        t.setPenState(true);
+        t.forward(50);
+        t.left(90);
+        t.forward(47);
+        t.left(90);
+        t.forward(50);
+        t.left(90);
+        t.left(90);
+        t.setPenState(false);
+        t.forward(50);
+        t.left(90);
+
+        t.setPenState(true);
+        t.forward(47);
+        t.left(90);
+        t.forward(50);
+    }
+
+    // Draw Olympic logo
+    public static void olympics(TurtleOps t) {
+        t.setTurtleSpeed(1);
+        t.reset();
+        t.setPenState(false);
+        t.setStroke(5);
+
+        t.setPenState(false);
+        t.right(90);
+        t.forward(200);
+        t.right(90);
+
+        t.forward(30);
+
+        t.setPenColour(Color.BLUE);
+        t.setPenState(true);
+        t.circle(90);
+        t.setPenState(false);
+
+        t.right(90);
+
+        t.forward(120);
+        t.left(90);
+        t.left(90);
+        t.forward(-80);
+        t.setPenState(true);
+        t.setPenColour(Color.GRAY);
+        t.circle(90);
+
+        t.setPenState(false);
+        t.right(90);
+        t.right(90);
+
+        t.forward(200);
+        t.left(90);
+        t.left(90);
+        t.setPenState(true);
+        t.setPenColour(Color.RED);
+        t.circle(90);
+
+        t.setPenState(false);
+        t.forward(100);
+        t.left(90);
+        t.forward(90);
+        t.right(90);
+        t.right(90);
+        t.setPenState(true);
+        t.setPenColour(Color.GREEN);
+        t.circle(90);
+
+        t.left(90);
+        t.setPenState(false);
+
+        t.forward(210);
+        t.right(90);
+        t.setPenState(true);
+        t.setPenColour(Color.YELLOW);
+        t.circle(90);
+
+        t.setPenState(false);
+        t.forward(-30);
+
+        t.left(90);
+        t.forward(220);
+
+        t.left(90);
+    }
+}
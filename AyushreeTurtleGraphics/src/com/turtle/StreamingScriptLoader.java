@@ -0,0 +1,179 @@
+package com.turtle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads command scripts of any size straight from a FileChannel into a large byte buffer and
+// compiles the bytes in place, without creating a String per line.
+//
+// The compiler is handed chunks of CompiledScript together with the byte offset just past their
+// last line, so a caller that stops part way through can later resume from that offset.
+// Progress (bytes, lines, throughput) can be read from another thread while loading.
+public class StreamingScriptLoader {
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    // Receives each compiled chunk in order
+    public interface ChunkHandler {
+        // endOffset is the byte offset just after the chunk's last line, endLine that line's number
+        void accept(CompiledScript chunk, long endOffset, long endLine) throws InterruptedException;
+    }
+
+    private final int chunkCommands;
+    private byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteLine line = new ByteLine();
+
+    private volatile boolean cancelled;
+    private volatile long bytesRead; // Offset of the next byte to be tokenized
+    private volatile long lineNumber;
+    private volatile long startNanos;
+    private volatile long startOffset;
+
+    public StreamingScriptLoader(int chunkCommands) {
+        this.chunkCommands = chunkCommands;
+    }
+
+    // Compile the file from startOffset (which must be the start of a line, numbered startLine + 1)
+    // to the end, passing chunks of about chunkCommands commands to handler.
+    // Returns the offset loading stopped at: the file size, or less if cancelled.
+    public long load(Path file, long startOffset, long startLine, ChunkHandler handler)
+            throws IOException, InterruptedException {
+        return load(file, startOffset, startLine, new ScriptCompiler(), handler);
+    }
+
+    // As above, compiling with compiler, e.g. the one a cancelled load used, so the procedures and
+    // variables defined before startOffset are still known. Lines it compiled but never handed
+    // over are dropped first.
+    public long load(Path file, long startOffset, long startLine, ScriptCompiler compiler, ChunkHandler handler)
+            throws IOException, InterruptedException {
+        compiler.discardPending();
+        this.startOffset = startOffset;
+        this.startNanos = System.nanoTime();
+        bytesRead = startOffset;
+        lineNumber = startLine;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(startOffset);
+            long position = startOffset; // File offset of bytes[0]
+            long handedOffset = startOffset; // End of the last chunk passed to the handler
+            int filled = 0;
+            boolean eof = false;
+            long parseStart = System.nanoTime(); // Reading and compiling since the last chunk, for RenderStats
+
+            while (!cancelled) {
+                // Tokenize every complete line in the buffer
+                int start = 0;
+                for (int i = 0; i < filled; i++) {
+                    if (bytes[i] != '\n') continue;
+                    addLine(compiler, start, i);
+                    start = i + 1;
+                    if (compiler.pendingCommands() >= chunkCommands) {
+                        handedOffset = position + start;
+                        bytesRead = handedOffset;
+                        CompiledScript chunk = compiler.build();
+                        RenderStats.get().recordPhase(RenderStats.PARSE, System.nanoTime() - parseStart);
+                        handler.accept(chunk, handedOffset, lineNumber);
+                        if (cancelled) return handedOffset;
+                        parseStart = System.nanoTime();
+                    }
+                }
+                bytesRead = position + start;
+
+                if (eof) {
+                    if (start < filled) {
+                        addLine(compiler, start, filled); // Last line without a newline
+                        bytesRead = position + filled;
+                    }
+                    compiler.finish();
+                    CompiledScript chunk = compiler.build();
+                    RenderStats.get().recordPhase(RenderStats.PARSE, System.nanoTime() - parseStart);
+                    handler.accept(chunk, bytesRead, lineNumber);
+                    return bytesRead;
+                }
+
+                // Keep the partial last line and read more behind it
+                int partial = filled - start;
+                if (partial == bytes.length) {
+                    byte[] bigger = new byte[bytes.length * 2]; // A line longer than the buffer
+                    System.arraycopy(bytes, 0, bigger, 0, partial);
+                    bytes = bigger;
+                } else {
+                    System.arraycopy(bytes, start, bytes, 0, partial);
+                }
+                position += start;
+                filled = partial;
+                int read = channel.read(ByteBuffer.wrap(bytes, filled, bytes.length - filled));
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    filled += read;
+                }
+            }
+            // Cancelled: lines compiled but not handed over are dropped, resume after the last chunk
+            return handedOffset;
+        }
+    }
+
+    private void addLine(ScriptCompiler compiler, int start, int end) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        line.set(start, end);
+        long number = ++lineNumber;
+        compiler.addLine(line, number > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) number);
+    }
+
+    // Stop at the next line, safe to call from any thread
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    // Bytes per second since load started
+    public double getThroughput() {
+        long nanos = System.nanoTime() - startNanos;
+        return nanos <= 0 ? 0 : (bytesRead - startOffset) * 1e9 / nanos;
+    }
+
+    // CharSequence view of one line of the byte buffer. Commands are ASCII, so each byte is
+    // one char; only file names, which the compiler copies out, are decoded as UTF-8.
+    private final class ByteLine implements CharSequence {
+        private int start;
+        private int end;
+
+        void set(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[start + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new String(bytes, start + from, to - from, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+    }
+}
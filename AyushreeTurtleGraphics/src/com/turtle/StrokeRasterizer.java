@@ -0,0 +1,223 @@
+package com.turtle;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.IntBuffer;
+
+// Anti-aliased lines and circles drawn straight into the int pixels of a canvas.
+//
+// Turtle strokes are thin lines and circle outlines in one colour, which Graphics2D draws through
+// its general shape pipeline. Here each primitive visits only the pixels it can touch: a line
+// steps along its major axis and covers the few pixels across it, a circle covers the span of
+// each row that lies within the ring. Coverage is a box filter on the distance from the pixel
+// centre to the stroke, at sub-pixel coordinates: 1 inside, falling to 0 over one pixel at the
+// edge, so a 1 pixel line is split between the two pixels nearest it like a Xiaolin Wu line, and
+// wider pens keep a soft edge. Lines get square caps, as BasicStroke does by default. The colour
+// is blended into each pixel by its coverage.
+//
+// Pixel (i, j) has its centre at (i, j), as Graphics2D draws non-antialiased lines, so lines
+// along whole coordinates stay sharp. TYPE_INT_RGB and TYPE_INT_ARGB canvases held in a
+// DataBufferInt can be drawn on, and OffHeapCanvas images through their IntBuffer, see forImage.
+public class StrokeRasterizer {
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final IntBuffer buffer; // Used instead of pixels for off-heap canvases
+    private final int offset; // Index of pixel (0, 0)
+    private final int stride;
+    // Pixels outside [clipX0, clipX1) x [clipY0, clipY1) are never written
+    private int clipX0;
+    private int clipY0;
+    private int clipX1;
+    private int clipY1;
+
+    public StrokeRasterizer(int[] pixels, int offset, int stride, int width, int height) {
+        this(null, pixels, null, offset, stride, width, height);
+    }
+
+    private StrokeRasterizer(BufferedImage image, int[] pixels, IntBuffer buffer, int offset, int stride,
+                             int width, int height) {
+        this.image = image;
+        this.pixels = pixels;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.stride = stride;
+        clipX1 = width;
+        clipY1 = height;
+    }
+
+    // A rasterizer drawing on image, or null if its pixels are neither a plain int array nor an
+    // off-heap IntBuffer
+    public static StrokeRasterizer forImage(BufferedImage image) {
+        Raster raster = image.getRaster();
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) return null;
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int offset = -raster.getSampleModelTranslateY() * model.getScanlineStride() - raster.getSampleModelTranslateX();
+        IntBuffer buffer = OffHeapCanvas.pixelBuffer(image);
+        if (buffer != null) {
+            return new StrokeRasterizer(image, null, buffer, offset, model.getScanlineStride(),
+                image.getWidth(), image.getHeight());
+        }
+        if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                || image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        DataBufferInt data = (DataBufferInt) raster.getDataBuffer();
+        return new StrokeRasterizer(image, data.getData(), null, data.getOffset() + offset, model.getScanlineStride(),
+            image.getWidth(), image.getHeight());
+    }
+
+    // Whether this draws on image
+    public boolean drawsOn(BufferedImage image) {
+        return this.image == image;
+    }
+
+    // Only draw inside x, y, width, height (within the canvas)
+    public void setClip(int x, int y, int width, int height) {
+        clipX0 = x;
+        clipY0 = y;
+        clipX1 = x + width;
+        clipY1 = y + height;
+    }
+
+    // ========== LINES ==========
+
+    // Line from (x0, y0) to (x1, y1) in colour rgb, width pixels wide
+    public void line(double x0, double y0, double x1, double y1, int rgb, double width) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double length = Math.sqrt(dx * dx + dy * dy);
+        double ux = 1;
+        double uy = 0;
+        if (length > 1e-9) {
+            ux = dx / length;
+            uy = dy / length;
+        }
+        double half = width / 2;
+        double reach = half + 0.5; // A pixel centre further than this from the centre line is not covered
+        double extent = half + reach; // Nor one further than this past an end point, along either axis
+
+        // Step along the major axis. Every covered pixel is within reach of the centre line, so in
+        // each column (or row) it lies within reach / cos of where the line crosses it.
+        if (Math.abs(dx) >= Math.abs(dy)) {
+            double slope = Math.abs(dx) > 1e-9 ? dy / dx : 0;
+            double across = reach / Math.abs(ux);
+            int from = Math.max(clipX0, (int) Math.ceil(Math.min(x0, x1) - extent));
+            int to = Math.min(clipX1 - 1, (int) Math.floor(Math.max(x0, x1) + extent));
+            for (int px = from; px <= to; px++) {
+                double cy = y0 + (px - x0) * slope;
+                int top = Math.max(clipY0, (int) Math.ceil(cy - across));
+                int bottom = Math.min(clipY1 - 1, (int) Math.floor(cy + across));
+                span(px, top, 0, 1, bottom - top + 1, x0, y0, ux, uy, length, half, rgb);
+            }
+        } else {
+            double slope = dx / dy;
+            double across = reach / Math.abs(uy);
+            int from = Math.max(clipY0, (int) Math.ceil(Math.min(y0, y1) - extent));
+            int to = Math.min(clipY1 - 1, (int) Math.floor(Math.max(y0, y1) + extent));
+            for (int py = from; py <= to; py++) {
+                double cx = x0 + (py - y0) * slope;
+                int left = Math.max(clipX0, (int) Math.ceil(cx - across));
+                int right = Math.min(clipX1 - 1, (int) Math.floor(cx + across));
+                span(left, py, 1, 0, right - left + 1, x0, y0, ux, uy, length, half, rgb);
+            }
+        }
+    }
+
+    // Blend count pixels of a line from (px, py), stepping by (stepX, stepY), by how much of each the
+    // stroke covers. The distances to the line are stepped along with the pixels.
+    private void span(int px, int py, int stepX, int stepY, int count, double x0, double y0,
+                      double ux, double uy, double length, double half, int rgb) {
+        if (count <= 0) return;
+        double rx = px - x0;
+        double ry = py - y0;
+        double along = rx * ux + ry * uy;  // From the start, along the line
+        double across = rx * uy - ry * ux; // From the centre line, signed
+        double alongStep = stepX * ux + stepY * uy;
+        double acrossStep = stepX * uy - stepY * ux;
+        double edge = half + 0.5;
+        // Whether every pixel of the span is far enough inside the ends to skip the cap test
+        double alongLast = along + alongStep * (count - 1);
+        boolean inside = Math.min(along, alongLast) >= 0.5 - half && Math.max(along, alongLast) <= length + half - 0.5;
+        int i = offset + py * stride + px;
+        int iStep = stepY * stride + stepX;
+        for (int n = 0; n < count; n++, i += iStep, along += alongStep, across += acrossStep) {
+            double coverage = edge - Math.abs(across);
+            if (coverage <= 0) continue;
+            if (coverage > 1) coverage = 1;
+            if (!inside) {
+                double lengthwise = edge - Math.max(-along, along - length); // Square caps reach half the width past the ends
+                if (lengthwise <= 0) continue;
+                if (lengthwise < 1) coverage *= lengthwise;
+            }
+            blend(i, rgb, coverage);
+        }
+    }
+
+    // ========== CIRCLES ==========
+
+    // Circle outline of radius around (cx, cy) in colour rgb, width pixels wide
+    public void circle(double cx, double cy, double radius, int rgb, double width) {
+        double half = width / 2;
+        double outer = radius + half + 0.5;
+        double inner = Math.max(0, radius - half - 0.5);
+        double outerSquared = outer * outer;
+        double innerSquared = inner * inner;
+        int top = Math.max(clipY0, (int) Math.ceil(cy - outer));
+        int bottom = Math.min(clipY1 - 1, (int) Math.floor(cy + outer));
+        for (int py = top; py <= bottom; py++) {
+            double dy = py - cy;
+            double dySquared = dy * dy;
+            double reach = Math.sqrt(Math.max(0, outerSquared - dySquared));
+            int left = (int) Math.ceil(cx - reach);
+            int right = (int) Math.floor(cx + reach);
+            if (dySquared < innerSquared) {
+                // The row crosses the hole: a span on each side of it
+                double hole = Math.sqrt(innerSquared - dySquared);
+                int leftEnd = (int) Math.floor(cx - hole);
+                ring(py, dySquared, left, leftEnd, cx, radius, half, rgb);
+                ring(py, dySquared, Math.max((int) Math.ceil(cx + hole), leftEnd + 1), right, cx, radius, half, rgb);
+            } else {
+                ring(py, dySquared, left, right, cx, radius, half, rgb);
+            }
+        }
+    }
+
+    // Blend pixels from to to (inclusive) of row py by how much of each the ring covers
+    private void ring(int py, double dySquared, int from, int to, double cx, double radius, double half, int rgb) {
+        from = Math.max(from, clipX0);
+        to = Math.min(to, clipX1 - 1);
+        int row = offset + py * stride;
+        for (int px = from; px <= to; px++) {
+            double dx = px - cx;
+            double coverage = half + 0.5 - Math.abs(Math.sqrt(dx * dx + dySquared) - radius);
+            if (coverage > 0) {
+                blend(row + px, rgb, Math.min(coverage, 1));
+            }
+        }
+    }
+
+    // ========== BLENDING ==========
+
+    // Mix rgb into pixel i by coverage (0-1), keeping the pixel's alpha byte
+    private void blend(int i, int rgb, double coverage) {
+        int alpha = (int) (coverage * 256 + 0.5);
+        if (alpha <= 0) return;
+        int old = buffer != null ? buffer.get(i) : pixels[i];
+        int mixed;
+        if (alpha >= 256) {
+            mixed = (old & 0xFF000000) | (rgb & 0xFFFFFF);
+        } else {
+            int keep = 256 - alpha;
+            int redBlue = (((rgb & 0xFF00FF) * alpha + (old & 0xFF00FF) * keep) >>> 8) & 0xFF00FF;
+            int green = (((rgb & 0xFF00) * alpha + (old & 0xFF00) * keep) >>> 8) & 0xFF00;
+            mixed = (old & 0xFF000000) | redBlue | green;
+        }
+        if (buffer != null) {
+            buffer.put(i, mixed);
+        } else {
+            pixels[i] = mixed;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.turtle;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Renders a snapshot of a display list into a large image in parallel.
+//
+// The output is split into square tiles. Each primitive is binned into the tiles its scaled
+// bounding box (plus half the pen width) overlaps, then the tiles are rasterized on a ForkJoinPool.
+// Every tile draws through its own Graphics2D on a sub-image of the output, so the tiles write
+// disjoint pixels of one shared raster and no stitching copy is needed.
+// Only the arrays handed to the constructor are read, so drawing can carry on during an export.
+public class TileRasterizer {
+    public static final int DEFAULT_TILE_SIZE = 256;
+    public static final int MAX_SCALE = 32; // Largest scale the save command accepts
+
+    private static final double SQRT_HALF = Math.sqrt(0.5);
+
+    private final int[] kinds;
+    private final float[] coords;
+    private final int[] styles;
+    private final int[] styleRgb;
+    private final float[] styleWidth;
+    private final int size;
+    private final BufferedImage baseImage;
+
+    private final int tileSize;
+    private int tilesX;
+    private int tilesY;
+
+    // Primitive ids per tile, in drawing order: tile t owns binned[tileStart[t]] .. binned[tileStart[t + 1] - 1]
+    private int[] tileStart;
+    private int[] binned;
+
+    // Arrays are a private copy of the display list, see DisplayList.renderTiled
+    TileRasterizer(int[] kinds, float[] coords, int[] styles, int[] styleRgb, float[] styleWidth,
+                   int size, BufferedImage baseImage, int tileSize) {
+        this.kinds = kinds;
+        this.coords = coords;
+        this.styles = styles;
+        this.styleRgb = styleRgb;
+        this.styleWidth = styleWidth;
+        this.size = size;
+        this.baseImage = baseImage;
+        this.tileSize = tileSize;
+    }
+
+    // Render the drawing scaled by scale into a width x height image using pool
+    public BufferedImage render(int width, int height, double scale, Color background, ForkJoinPool pool) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+        bin(scale);
+        pool.invoke(new TileTask(image, scale, background, 0, tilesX * tilesY));
+        return image;
+    }
+
+    // ========== BINNING ==========
+
+    // Two passes over the primitives: count per tile, then fill a packed id array
+    private void bin(double scale) {
+        int tileCount = tilesX * tilesY;
+        int[] counts = new int[tileCount + 1];
+        int[] range = new int[4];
+        for (int i = 0; i < size; i++) {
+            if (tileRange(i, scale, range)) {
+                for (int ty = range[1]; ty <= range[3]; ty++) {
+                    for (int tx = range[0]; tx <= range[2]; tx++) {
+                        counts[ty * tilesX + tx + 1]++;
+                    }
+                }
+            }
+        }
+        for (int t = 0; t < tileCount; t++) {
+            counts[t + 1] += counts[t];
+        }
+        tileStart = counts.clone();
+        binned = new int[counts[tileCount]];
+        for (int i = 0; i < size; i++) {
+            if (tileRange(i, scale, range)) {
+                for (int ty = range[1]; ty <= range[3]; ty++) {
+                    for (int tx = range[0]; tx <= range[2]; tx++) {
+                        binned[counts[ty * tilesX + tx]++] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    // Tiles overlapped by primitive i as (minX, minY, maxX, maxY), false if it is off the image
+    private boolean tileRange(int i, double scale, int[] range) {
+        int c4 = i * 4;
+        float minX, minY, maxX, maxY;
+        if (kinds[i] == DisplayList.SEGMENT) {
+            minX = Math.min(coords[c4], coords[c4 + 2]);
+            maxX = Math.max(coords[c4], coords[c4 + 2]);
+            minY = Math.min(coords[c4 + 1], coords[c4 + 3]);
+            maxY = Math.max(coords[c4 + 1], coords[c4 + 3]);
+        } else {
+            float r = coords[c4 + 2];
+            minX = coords[c4] - r;
+            maxX = coords[c4] + r;
+            minY = coords[c4 + 1] - r;
+            maxY = coords[c4 + 1] + r;
+        }
+        // Square caps reach half the stroke width diagonally past the ends, plus a pixel for antialiasing
+        double reach = styleWidth[styles[i]] * scale * SQRT_HALF + 1;
+        int x0 = (int) Math.floor((minX * scale - reach) / tileSize);
+        int y0 = (int) Math.floor((minY * scale - reach) / tileSize);
+        int x1 = (int) Math.floor((maxX * scale + reach) / tileSize);
+        int y1 = (int) Math.floor((maxY * scale + reach) / tileSize);
+        if (x1 < 0 || y1 < 0 || x0 >= tilesX || y0 >= tilesY) {
+            return false;
+        }
+        range[0] = Math.max(x0, 0);
+        range[1] = Math.max(y0, 0);
+        range[2] = Math.min(x1, tilesX - 1);
+        range[3] = Math.min(y1, tilesY - 1);
+        return true;
+    }
+
+    // ========== RASTERIZING ==========
+
+    private void renderTile(BufferedImage image, int tile, double scale, Color background) {
+        int x = (tile % tilesX) * tileSize;
+        int y = (tile / tilesX) * tileSize;
+        int w = Math.min(tileSize, image.getWidth() - x);
+        int h = Math.min(tileSize, image.getHeight() - y);
+        // The sub-image shares the output raster and clips drawing to the tile
+        Graphics2D g = image.getSubimage(x, y, w, h).createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, w, h);
+        g.translate(-x, -y);
+        if (baseImage != null) {
+            g.drawImage(baseImage, 0, 0, (int) (baseImage.getWidth() * scale),
+                (int) (baseImage.getHeight() * scale), null);
+        }
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        Path2D.Float path = new Path2D.Float();
+        int style = -1;
+        float s = (float) scale;
+        for (int k = tileStart[tile], end = tileStart[tile + 1]; k < end; k++) {
+            int i = binned[k];
+            if (styles[i] != style) {
+                style = styles[i];
+                g.setColor(new Color(styleRgb[style]));
+                g.setStroke(new BasicStroke(styleWidth[style] * s));
+            }
+            DisplayList.drawPrimitive(g, path, kinds[i], coords, i * 4, s);
+        }
+        g.dispose();
+    }
+
+    // Splits a range of tiles in half until it is small enough to render directly
+    private final class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage image;
+        private final double scale;
+        private final Color background;
+        private final int from;
+        private final int to;
+
+        TileTask(BufferedImage image, double scale, Color background, int from, int to) {
+            this.image = image;
+            this.scale = scale;
+            this.background = background;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 2) {
+                for (int tile = from; tile < to; tile++) {
+                    renderTile(image, tile, scale, background);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(image, scale, background, from, middle),
+                new TileTask(image, scale, background, middle, to));
+        }
+    }
+}
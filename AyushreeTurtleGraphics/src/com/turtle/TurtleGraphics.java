@@ -1,1159 +1,1985 @@
-package com.turtle;
-
-// Import required libraries
-import javax.swing.*;
-import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
-import java.io.*;
-import uk.ac.leedsbeckett.oop.LBUGraphics;
-
-public class TurtleGraphics extends LBUGraphics {
-    private JFrame mainFrame; // Main application window
-    private JTextArea commandHistoryArea;// Text area to display command history and output
-    private boolean imageSaved = true;// Flag to track whether the current drawing has been saved
-    
-   
-  //Constructor - initializes the turtle graphics application
-    public TurtleGraphics() {
-        
-        mainFrame = new JFrame("Turtle Graphics Application");
-       
-        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        
-        // Create and configure menu bar
-        createMenuBar();
-        
-        // Set up main panel with BorderLayout
-        JPanel mainPanel = new JPanel(new BorderLayout());
-        // Add turtle graphics canvas to center
-        mainPanel.add(this, BorderLayout.CENTER);
-        
-        // Initialize command history text area
-        commandHistoryArea = new JTextArea(5, 30);
-        commandHistoryArea.setEditable(false); // Make it read-only
-        
-        // Add scrolling capability to command history
-        JScrollPane scrollPane = new JScrollPane(commandHistoryArea);
-        mainPanel.add(scrollPane, BorderLayout.SOUTH);
-        
-        // Add main panel to frame and display
-        mainFrame.add(mainPanel);
-        mainFrame.pack(); // Size frame to components
-        mainFrame.setVisible(true);
-        
-        // Initialize turtle state
-        reset(); 
-        setPenColour(Color.red); 
-        setStroke(2); 
-        setPenState(true); 
-        
-        // Display welcome messages
-        displayMessage("Welcome to Turtle Graphics! Type 'help' for commands.");
-        appendToCommandHistory("Application started. Type 'help' for commands.");
-    }
-    
-    // Call parent's about method
-    public void superAbout() {
-        super.about();
-    }
-    
-    //Check if a position is within canvas bounds 
-    private boolean isPositionValid(int x, int y) {
-        return x >= 0 && x <= getWidth() && y >= 0 && y <= getHeight();
-    }
-    //Check if a movement distance is reasonable
-     private boolean isDistanceValid(int distance) {
-        return Math.abs(distance) <= 1000;
-    }
-    //Check if an angle is valid
-     private boolean isAngleValid(int angle) {
-        return angle >= -360 && angle <= 360;
-    }
-    
-    // Check if a shape size/radius is valid
-    private boolean isSizeValid(int size) {
-        return size > 0 && size <= 500;
-    }
-
-    // ========== UTILITY METHODS ==========
-    
-    //Append text to the command history area
-    private void appendToCommandHistory(String command) {
-        commandHistoryArea.append(command + "\n");
-    }
-
-    // Create and configure the menu bar with all menu items
-    private void createMenuBar() {
-        JMenuBar menuBar = new JMenuBar();
-        
-        // ===== File Menu =====
-        JMenu fileMenu = new JMenu("File");
-        
-        // --- Save Submenu ---
-        JMenu saveMenu = new JMenu("Save");
-        JMenuItem saveImageItem = new JMenuItem("Save as Image");
-        JMenuItem saveTextItem = new JMenuItem("Save Commands as Text");
-        
-        // Save image action
-        saveImageItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                saveImageFile();
-            }
-        });
-        
-        // Save text action
-        saveTextItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                saveTextFile();
-            }
-        });
-        
-        saveMenu.add(saveImageItem);
-        saveMenu.add(saveTextItem);
-        
-        // --- Load Submenu ---
-        JMenu loadMenu = new JMenu("Load");
-        JMenuItem loadImageItem = new JMenuItem("Load Image");
-        JMenuItem loadTextItem = new JMenuItem("Load Commands from Text");
-        
-        // Load image action
-        loadImageItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                loadImageFile();
-            }
-        });
-        
-        // Load text action
-        loadTextItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                loadTextFile();
-            }
-        });
-        
-        loadMenu.add(loadImageItem);
-        loadMenu.add(loadTextItem);
-        
-        // --- Exit Item ---
-        JMenuItem exitItem = new JMenuItem("Exit");
-        exitItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                System.exit(0); // Terminate application
-            }
-        });
-        
-        // Add all items to File menu
-        fileMenu.add(saveMenu);
-        fileMenu.add(loadMenu);
-        fileMenu.addSeparator();
-        fileMenu.add(exitItem);
-        
-        // ===== Help Menu =====
-        JMenu helpMenu = new JMenu("Help");
-        JMenuItem helpItem = new JMenuItem("Commands Help");
-       
-        // Help action
-        helpItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                showHelp();
-            }
-        });
-        
-        helpMenu.add(helpItem);
-        
-        // ===== Canvas Menu =====
-        JMenu CanvasMenu = new JMenu("Canvas");
-        JMenuItem clearCanvasItem = new JMenuItem("Clear Canvas");
-        JMenuItem ResetCanvasItem = new JMenuItem("Reset Canvas");
-        
-        // Clear canvas action
-        clearCanvasItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                // Warn if unsaved changes exist
-                if (!imageSaved) {
-                    int option = JOptionPane.showConfirmDialog(mainFrame, 
-                        "Current image is not saved. Clear anyway?", 
-                        "Warning", 
-                        JOptionPane.YES_NO_OPTION);
-                    if (option != JOptionPane.YES_OPTION) {
-                        appendToCommandHistory("Clear operation cancelled via menu");
-                        return;
-                    }
-                }
-                clear(); // Clear canvas
-                displayMessage("Canvas cleared");
-                appendToCommandHistory("Canvas cleared via menu");
-                imageSaved = false;
-            }
-        });
-        
-        // Reset canvas action
-        ResetCanvasItem.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                // Warn if unsaved changes exist
-                if (!imageSaved) {
-                    int option = JOptionPane.showConfirmDialog(mainFrame, 
-                        "Current image is not saved. Reset anyway?", 
-                        "Warning", 
-                        JOptionPane.YES_NO_OPTION);
-                    if (option != JOptionPane.YES_OPTION) {
-                        appendToCommandHistory("Reset operation cancelled via menu");
-                        return;
-                    }
-                }
-                reset(); // Reset turtle
-                displayMessage("Canvas Reset");
-                appendToCommandHistory("Canvas Reset via menu");
-                imageSaved = false;
-            }
-        });
-        
-        CanvasMenu.add(clearCanvasItem);
-        CanvasMenu.add(ResetCanvasItem);
-         
-        // ===== Add All Menus to Menu Bar =====
-        menuBar.add(fileMenu);
-        menuBar.add(CanvasMenu);
-        menuBar.add(helpMenu);
-        
-        // Set menu bar on main frame
-        mainFrame.setJMenuBar(menuBar);
-    }
-    
-    // ========== FILE OPERATIONS ==========
-    
-    // Save current drawing as an image file
-    private void saveImageFile() {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Save Image As");
-        fileChooser.setSelectedFile(new File("turtle_drawing.png")); // Default filename
-        
-        // Show save dialog
-        int userSelection = fileChooser.showSaveDialog(mainFrame);
-        if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File fileToSave = fileChooser.getSelectedFile();
-            try {
-                // Get current drawing as image
-                BufferedImage image = getBufferedImage();
-                // Write PNG file
-                ImageIO.write(image, "PNG", fileToSave);
-                displayMessage("Drawing saved as " + fileToSave.getName());
-                appendToCommandHistory("Saved image to: " + fileToSave.getName());
-                imageSaved = true; // Update saved state
-            } catch (Exception e) {
-                // Handle save errors
-                displayMessage("Error saving image: " + e.getMessage());
-                appendToCommandHistory("Error saving image: " + e.getMessage());
-            }
-        }
-    }
-  
-    //Load image file and display as drawing
-    private void loadImageFile() {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Load Image");
-        
-        // Show open dialog
-        int userSelection = fileChooser.showOpenDialog(mainFrame);
-        if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File fileToLoad = fileChooser.getSelectedFile();
-            try {
-                // Read image file
-                BufferedImage image = ImageIO.read(fileToLoad);
-                // Set as current drawing
-                setBufferedImage(image);
-                displayMessage("Drawing loaded from " + fileToLoad.getName());
-                appendToCommandHistory("Loaded image from: " + fileToLoad.getName());
-                imageSaved = true; // Update saved state
-            } catch (Exception e) {
-                // Handle load errors
-                displayMessage("Error loading image: " + e.getMessage());
-                appendToCommandHistory("Error loading image: " + e.getMessage());
-            }
-        }
-    }
-    
-    // Save command history as text file
-    private void saveTextFile() {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Save Commands As");
-        fileChooser.setSelectedFile(new File("turtle_commands.txt")); // Default filename
-        
-        // Show save dialog
-        int userSelection = fileChooser.showSaveDialog(mainFrame);
-        if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File fileToSave = fileChooser.getSelectedFile();
-            try (PrintWriter writer = new PrintWriter(fileToSave)) {
-                // Write command history to file
-                writer.println(commandHistoryArea.getText());
-                displayMessage("Command history saved as " + fileToSave.getName());
-                appendToCommandHistory("Saved command history to: " + fileToSave.getName());
-            } catch (Exception e) {
-                // Handle save errors
-                displayMessage("Error saving text file: " + e.getMessage());
-                appendToCommandHistory("Error saving command history: " + e.getMessage());
-            }
-        }
-    }
-    
- 
-     // Load commands from text file and execute them
-    private void loadTextFile() {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Load Commands");
-        
-        // Show open dialog
-        int userSelection = fileChooser.showOpenDialog(mainFrame);
-        if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File fileToLoad = fileChooser.getSelectedFile();
-            try (BufferedReader reader = new BufferedReader(new FileReader(fileToLoad))) {
-                String line;
-                // Read file line by line
-                while ((line = reader.readLine()) != null) {
-                    // Skip empty lines and comments
-                    if (!line.trim().isEmpty() && !line.trim().startsWith("//")) {
-                        processCommand(line); // Execute each command
-                    }
-                }
-                displayMessage("Commands loaded from " + fileToLoad.getName());
-                appendToCommandHistory("Loaded commands from: " + fileToLoad.getName());
-                imageSaved = false; // Mark as unsaved since we modified drawing
-            } catch (Exception e) {
-                // Handle load errors
-                displayMessage("Error loading text file: " + e.getMessage());
-                appendToCommandHistory("Error loading commands: " + e.getMessage());
-            }
-        }
-    }
-
-    // ========== TURTLE COMMANDS PROCESSING ==========
-    
-
-     //Process a turtle graphics command
-    public void processCommand(String command) {
-        // Add command to history
-        appendToCommandHistory("> " + command);
-        System.out.println("Processing command: " + command);
-        
-        try {
-            // Split command into parts
-            String[] parts = command.trim().split("\\s+");
-            if (parts.length == 0 || parts[0].isEmpty()) return;
-            
-            // Get base command (lowercase for case-insensitive comparison)
-            String cmd = parts[0].toLowerCase();
-            
-            // Process different commands
-            switch(cmd) {
-                case "forward":
-                case "move":
-                    if (parts.length == 2) {
-                        try {
-                            int distance = Integer.parseInt(parts[1]);
-                            if (!isDistanceValid(distance)) {
-                                displayMessage("Distance too large (max 1000 pixels)");
-                                appendToCommandHistory("Error: Distance exceeds maximum allowed");
-                                break;
-                            }
-                            
-                            // Calculate new position
-                            int newX = getxPos() + (int)(distance * Math.sin(Math.toRadians(getDirection())));
-                            int newY = getyPos() - (int)(distance * Math.cos(Math.toRadians(getDirection())));
-                            
-                            if (!isPositionValid(newX, newY)) {
-                                displayMessage("Cannot move turtle off screen");
-                                appendToCommandHistory("Error: Movement would take turtle off screen");
-                                break;
-                            }
-                            
-                            forward(distance);
-                            appendToCommandHistory("Moved forward by " + distance + " pixels");
-                            imageSaved = false;
-                        } catch (NumberFormatException e) {
-                            displayMessage("Enter a valid Numeric Parameter!");
-                            appendToCommandHistory("Error: Invalid Parameter");
-                        }
-                    } else {
-                        displayMessage(" Missing Paramenter!");
-                        appendToCommandHistory("Error: Missing Parameter");
-                    }
-                    break;
-                    
-                case "name":
-                    about();
-                    appendToCommandHistory("Name Drawn");
-                    imageSaved = false;
-                    break;
-            
-                case "about":
-                    superAbout();
-                    break;
-                    
-                case "backward":
-                case "reverse":
-                    if (parts.length == 2) {
-                        try {
-                            int distance = Integer.parseInt(parts[1]);
-                            if (!isDistanceValid(distance)) {
-                                displayMessage("Distance too large (max 1000 pixels)");
-                                appendToCommandHistory("Error: Distance exceeds maximum allowed");
-                                break;
-                            }
-                            
-                            // Calculate new position for backward movement
-                            int newX = getxPos() - (int)(distance * Math.sin(Math.toRadians(getDirection())));
-                            int newY = getyPos() + (int)(distance * Math.cos(Math.toRadians(getDirection())));
-                            
-                            if (!isPositionValid(newX, newY)) {
-                                displayMessage("Cannot move turtle off screen");
-                                appendToCommandHistory("Error: Movement would take turtle off screen");
-                                break;
-                            }
-                            
-                            forward(-distance); // Move backward
-                            appendToCommandHistory("Moved backward by " + distance + " pixels");
-                            imageSaved = false;
-                        } catch (NumberFormatException e) {
-                            displayMessage("Invalid distance - must be integer");
-                            appendToCommandHistory("Error: Invalid distance format");
-                        }
-                    } else {
-                        displayMessage("Syntax: backward <distance>");
-                        appendToCommandHistory("Error: Syntax: backward <distance>");
-                    }
-                    break;
-                    
-                case "right":
-                    if (parts.length == 2) {
-                        try {
-                            int angle = Integer.parseInt(parts[1]);
-                            if (!isAngleValid(angle)) {
-                                displayMessage("Angle must be between -360 and 360 degrees");
-                                appendToCommandHistory("Error: Invalid angle specified");
-                                break;
-                            }
-                            right(angle);
-                            appendToCommandHistory("Turned right by " + angle + " degrees");
-                        } catch (NumberFormatException e) {
-                            displayMessage("Invalid angle - must be integer");
-                            appendToCommandHistory("Error: Invalid angle format");
-                        }
-                    } else {
-                        right(90); // Default 90 degree turn
-                        appendToCommandHistory("Turned right by 90 degrees");
-                    }
-                    break;
-                    
-                case "left":
-                    if (parts.length == 2) {
-                        try {
-                            int angle = Integer.parseInt(parts[1]);
-                            if (!isAngleValid(angle)) {
-                                displayMessage("Angle must be between -360 and 360 degrees");
-                                appendToCommandHistory("Error: Invalid angle specified");
-                                break;
-                            }
-                            left(angle);
-                            appendToCommandHistory("Turned left by " + angle + " degrees");
-                        } catch (NumberFormatException e) {
-                            displayMessage("Invalid angle - must be integer");
-                            appendToCommandHistory("Error: Invalid angle format");
-                        }
-                    } else {
-                        left(90); // Default 90 degree turn
-                        appendToCommandHistory("Turned left by 90 degrees");
-                    }
-                    break;
-                    
-                case "penwidth":
-                    if (parts.length == 2) {
-                        try {
-                            setStroke(Integer.parseInt(parts[1]));
-                            displayMessage("Pen width set to " + parts[1]);
-                            appendToCommandHistory("Set pen width to " + parts[1]);
-                        } catch (NumberFormatException e) {
-                            displayMessage("Invalid width - must be integer");
-                            appendToCommandHistory("Error: Invalid width - must be integer");
-                        }
-                    } else {
-                        displayMessage("Syntax: penwidth <size>");
-                        appendToCommandHistory("Error: Syntax: penwidth <size>");
-                    }
-                    break;
-                    
-                case "penup":
-                case "pu":
-                    setPenState(false);
-                    displayMessage("Pen lifted");
-                    appendToCommandHistory("Pen lifted");
-                    break;
-                    
-                case "pendown":
-                case "pd":
-                    setPenState(true);
-                    displayMessage("Pen lowered");
-                    appendToCommandHistory("Pen lowered");
-                    break;
-
-                case "pencolour":
-                    if (parts.length == 2) {
-                        // Handle color name
-                        String colorName = parts[1].toLowerCase();
-                        setPenColour(colorName); // Uses the named color method
-                    } else if (parts.length == 4) {
-                        // Handle RGB values
-                        try {
-                            setpencolour(
-                                Integer.parseInt(parts[1]),
-                                Integer.parseInt(parts[2]),
-                                Integer.parseInt(parts[3])
-                            );
-                            displayMessage("Pen color set to RGB(" + parts[1] + "," + parts[2] + "," + parts[3] + ")");
-                            appendToCommandHistory("Set pen color to RGB(" + parts[1] + "," + parts[2] + "," + parts[3] + ")");
-                        } catch (Exception e) {
-                            displayMessage("Need 3 numbers (0-255)");
-                            appendToCommandHistory("Error: Need 3 numbers (0-255) for RGB");
-                        }
-                    } else {
-                        displayMessage("Syntax: pencolour <colorName> OR pencolour <r> <g> <b>");
-                        appendToCommandHistory("Error: Syntax: pencolour <colorName> OR pencolour <r> <g> <b>");
-                    }
-                    break;
-                    
-                case "clear":
-                    // Warn if unsaved changes exist
-                    if (!imageSaved) {
-                        int option = JOptionPane.showConfirmDialog(mainFrame, 
-                            "Current image is not saved. Clear anyway?", 
-                            "Warning", 
-                            JOptionPane.YES_NO_OPTION);
-                        if (option != JOptionPane.YES_OPTION) {
-                            appendToCommandHistory("Clear operation cancelled");
-                            break;
-                        }
-                    }
-                    clear();
-                    displayMessage("Canvas cleared");
-                    appendToCommandHistory("Canvas cleared");
-                    imageSaved = false;
-                    break;
-                    
-                case "reset":
-                    // Warn if unsaved changes exist
-                    if (!imageSaved) {
-                        int option = JOptionPane.showConfirmDialog(mainFrame, 
-                            "Current image is not saved. Reset anyway?", 
-                            "Warning", 
-                            JOptionPane.YES_NO_OPTION);
-                        if (option != JOptionPane.YES_OPTION) {
-                            appendToCommandHistory("Reset operation cancelled");
-                            break;
-                        }
-                    }
-                    reset();
-                    displayMessage("Turtle reset");
-                    appendToCommandHistory("Turtle reset");
-                    imageSaved = false;
-                    break;
-                    
-                case "circle":
-                    if (parts.length == 2) {
-                        try {
-                            int radius = Integer.parseInt(parts[1]);
-                            if (!isSizeValid(radius)) {
-                                displayMessage("Radius must be between 1 and 500 pixels");
-                                appendToCommandHistory("Error: Invalid radius size");
-                                break;
-                            }
-                            circle(radius);
-                            appendToCommandHistory("Drawn circle with radius " + radius);
-                            imageSaved = false;
-                        } catch (NumberFormatException e) {
-                            displayMessage("Invalid radius - must be integer");
-                            appendToCommandHistory("Error: Invalid radius format");
-                        }
-                    } else {
-                        displayMessage("Syntax: circle <radius>");
-                        appendToCommandHistory("Error: Syntax: circle <radius>");
-                    }
-                    break;
-                    
-                case "square":
-                    if (parts.length == 2) {
-                        try {
-                            int size = Integer.parseInt(parts[1]);
-                            if (!isSizeValid(size)) {
-                                displayMessage("Size must be between 1 and 500 pixels");
-                                appendToCommandHistory("Error: Invalid square size");
-                                break;
-                            }
-                            drawSquare(size);
-                            appendToCommandHistory("Drawn square with size " + size);
-                            imageSaved = false;
-                        } catch (NumberFormatException e) {
-                            displayMessage("Invalid size - must be integer");
-                            appendToCommandHistory("Error: Invalid size format");
-                        }
-                    } else {
-                        displayMessage("Syntax: square <size>");
-                        appendToCommandHistory("Error: Syntax: square <size>");
-                    }
-                    break;
-                    
-                case "triangle": 
-                    if (parts.length < 2) {
-                        // No parameters provided
-                        displayMessage("Syntax: triangle <size> OR triangle <side1> <side2> <side3>");
-                        appendToCommandHistory("Error: Missing parameters for triangle");
-                    } else {
-                        try {
-                            // Case 1: Single parameter (equilateral triangle)
-                            if (parts.length == 2) {
-                                int size = Integer.parseInt(parts[1]);
-                                if (!isSizeValid(size)) {
-                                    displayMessage("Size must be between 1 and 500 pixels");
-                                    appendToCommandHistory("Error: Invalid triangle size");
-                                    break;
-                                }
-                                equilateralTriangle(size);
-                            }
-                            // Case 2: Three parameters (scalene triangle)
-                            else if (parts.length == 4) {
-                                int a = Integer.parseInt(parts[1]);
-                                int b = Integer.parseInt(parts[2]);
-                                int c = Integer.parseInt(parts[3]);
-                                
-                                if (!isSizeValid(a) || !isSizeValid(b) || !isSizeValid(c)) {
-                                    displayMessage("Sides must be between 1 and 500 pixels");
-                                    appendToCommandHistory("Error: Invalid triangle side length");
-                                    break;
-                                } else if (!isValidTriangle(a, b, c)) {
-                                    displayMessage("Invalid triangle - sum of any two sides must be greater than the third");
-                                    appendToCommandHistory("Error: Invalid triangle sides provided");
-                                    break;
-                                } else {
-                                    drawTriangle(a, b, c);
-                                }
-                            }
-                            else {
-                                displayMessage("Syntax: triangle <size> OR triangle <side1> <side2> <side3>");
-                                appendToCommandHistory("Error: Invalid triangle command syntax");
-                            }
-                        } catch (NumberFormatException e) {
-                            displayMessage("Invalid size - must be integer");
-                            appendToCommandHistory("Error: Invalid size format");
-                        }
-                    }
-                    break;
-                    
-                case "save":
-                    if (parts.length == 2) {
-                        saveDrawing(parts[1]);
-                        appendToCommandHistory("Saved drawing as " + parts[1]);
-                    } else {
-                        displayMessage("Syntax: save <filename>");
-                        appendToCommandHistory("Error: Syntax: save <filename>");
-                    }
-                    break;
-                    
-                case "load":
-                    if (parts.length == 2) {
-                        loadDrawing(parts[1]);
-                        appendToCommandHistory("Loaded drawing from " + parts[1]);
-                    } else {
-                        displayMessage("Syntax: load <filename>");
-                        appendToCommandHistory("Error: Syntax: load <filename>");
-                    }
-                    break;
-                    
-                case "olympics":
-                    drawOlympicsLogo();
-                    appendToCommandHistory("Olympics logo Drawn");
-                    imageSaved = false;
-                    break;
-                    
-                case "setspeed":
-                    if (parts.length == 2) {
-                        setTurtleSpeed(Integer.parseInt(parts[1]));
-                        displayMessage("Speed set to " + parts[1]);
-                        appendToCommandHistory("Set speed to " + parts[1]);
-                    } else {
-                        displayMessage("Syntax: setspeed <1-10>");
-                        appendToCommandHistory("Error: Syntax: setspeed <1-10>");
-                    }
-                    break;
-                    
-                case "help":
-                    showHelp();
-                    appendToCommandHistory("Displayed help");
-                    break;
-                    
-                default:
-                    // Unknown command handling
-                    displayMessage("Invalid Command: " + cmd);
-                    appendToCommandHistory("Error: Invalid Command: " + cmd);
-            }
-        } catch (NumberFormatException e) {
-            displayMessage("Please enter a valid number");
-            appendToCommandHistory("Error: Please enter a valid number");
-        } catch (ArrayIndexOutOfBoundsException e) {
-            displayMessage("Missing parameter for command");
-            appendToCommandHistory("Error: Missing parameter for command");
-        } catch (Exception e) {
-            displayMessage("Error: " + e.getMessage());
-            appendToCommandHistory("Error: " + e.getMessage());
-        }
-    }
-    
-    // ========== DRAWING METHODS ==========
-    
-     // Set pen color using color name
-    private void setPenColour(String colorName) {
-        switch(colorName.toLowerCase()) {
-            case "red":     setPenColour(Color.RED); break;
-            case "green":   setPenColour(Color.GREEN); break;
-            case "blue":    setPenColour(Color.BLUE); break;
-            case "black":   setPenColour(Color.BLACK); break;
-            case "yellow":  setPenColour(Color.YELLOW); break;
-            case "cyan":    setPenColour(Color.CYAN); break;
-            case "magenta": setPenColour(Color.MAGENTA); break;
-            case "white":   setPenColour(Color.WHITE); break;
-            case "gray":    setPenColour(Color.GRAY); break;
-            default: 
-                displayMessage("Available colors: red, green, blue, black, yellow, cyan, magenta, white, gray");
-                return;
-        }
-        displayMessage("Pen color: " + colorName);
-    }
-    
-     //Set pen color using RGB values
-    private void setpencolour(int red, int green, int blue) {
-        setPenColour(new Color(red, green, blue));
-    }
-
-     // Draw a square with given size
-    private void drawSquare(int size) {
-        setPenState(true);
-        for (int i = 0; i < 4; i++) {
-            forward(size);
-            right(90);
-        }
-    }
-
-     // Check if three sides can form a valid triangle
-    private boolean isValidTriangle(int a, int b, int c) {
-        return (a + b > c) && (a + c > b) && (b + c > a);
-    }
-   
-     //Draw an equilateral triangle
-    private void equilateralTriangle(int size) {
-        setPenState(true);
-        for (int i = 0; i < 3; i++) {
-            forward(size);
-            left(120);
-        }
-    }
-
-  
-     // Draw a triangle with specified side lengths
-     private void drawTriangle(int side1, int side2, int side3) {
-     // First validate if the sides can form a triangle
-        if (side1 + side2 <= side3 || side1 + side3 <= side2 || side2 + side3 <= side1) {
-            displayMessage("Invalid triangle - sum of any two sides must be greater than the third");
-            appendToCommandHistory("Error: Invalid triangle sides provided");
-            return;
-        }
-        
-        setPenState(true);
-        
-        // Calculate angles using law of cosines
-        double angleA = Math.acos((side2*side2 + side3*side3 - side1*side1) / (2.0 * side2 * side3));
-        double angleB = Math.acos((side1*side1 + side3*side3 - side2*side2) / (2.0 * side1 * side3));
-        double angleC = Math.PI - angleA - angleB;
-        
-        // Convert radians to degrees
-        int angleADeg = (int) Math.toDegrees(angleA);
-        int angleBDeg = (int) Math.toDegrees(angleB);
-        int angleCDeg = (int) Math.toDegrees(angleC);
-        
-        // Draw the triangle
-        forward(side1);
-        left(180 - angleBDeg);
-        forward(side2);
-        left(180 - angleCDeg);
-        forward(side3);
-        
-        // Return to original orientation
-        left(180 - angleADeg);
-    }
-   
-  
-    //Save current drawing to file
-    private void saveDrawing(String filename) {
-        try {
-            BufferedImage image = getBufferedImage();
-            ImageIO.write(image, "PNG", new File(filename + ".png"));
-            displayMessage("Drawing saved as " + filename + ".png");
-            appendToCommandHistory("Drawing saved as " + filename + ".png");
-            imageSaved = true;
-        } catch (Exception e) {
-            displayMessage("Error saving: " + e.getMessage());
-            appendToCommandHistory("Error saving: " + e.getMessage());
-        }
-    }
-
-
-     //Load drawing from file
-     private void loadDrawing(String filename) {
-        try {
-            BufferedImage image = ImageIO.read(new File(filename));
-            setBufferedImage(image);
-            displayMessage("Drawing loaded from " + filename);
-            appendToCommandHistory("Drawing loaded from " + filename);
-            imageSaved = true;
-        } catch (Exception e) {
-            displayMessage("Error loading: " + e.getMessage());
-            appendToCommandHistory("Error loading: " + e.getMessage());
-        }
-    }
-       
-    @Override
-    //Custom about method that draws the AYUSHREE'S nsme
-    public void about() {
-        setTurtleSpeed(1);
-        reset();
-        setPenState(false);
-        setPenColour(Color.MAGENTA);
-        setStroke(3);
-        
-        right(90); 
-        forward(250);
-        right(90);
-        
-        setPenState(true);
-        forward(100);
-        right(90);
-        forward(50);
-        right(90);
-        forward(100);
-        forward(-50);
-        right(90);
-        forward(50);
-        setPenState(false);
-        
-        setPenColour(Color.GREEN);
-        forward(-50);
-        left();
-        forward(50);
-        left();
-        forward(40);
-        left();
-        setPenState(true);
-        forward(50);
-        left(30);
-        forward(55);
-        forward(-55);
-        right(60);
-        forward(55);
-        forward(-55);
-        
-        setPenState(false);
-        setPenColour(Color.RED);
-        
-        right(60);
-        forward(40);
-        setPenState(true);
-        left(90);
-        forward(-50);
-        forward(100);
-        forward(-100);
-        right();
-        forward(50);
-        left();
-        forward(100);
-        
-        forward(-100);
-        setPenState(false);
-        right();
-        forward(30);
-        left();
-        forward(100);
-        right();
-        forward(30);
-        left();
-        left();
-        setPenState(true);
-        setPenColour(Color.BLUE);
-        forward(40);
-        left();
-        forward(40);
-        right();
-        right();
-        right();
-        forward(40);
-        right();
-        forward(60);
-        right();
-        forward(45);
-        
-        setPenState(false);
-        right();
-        right();
-        forward(60);
-        
-        setPenColour(Color.CYAN);
-        left();
-        setPenState(true);
-        forward(100);
-        right();
-        right();
-        setPenState(false);
-        forward(50);
-        left();
-        setPenState(true);
-        forward(40);
-        left();
-        forward(50);
-        right();
-        right();
-        setPenState(false);
-        forward(50);
-        setPenState(true);
-        forward(50);
-        
-        setPenState(false);
-        left();
-        forward(20);
-        left();
-        
-        setPenState(true);
-        setPenColour(Color.YELLOW);
-        forward(100);
-        right(90);
-        forward(25);
-        right(20);
-        forward(10);
-        right(20);
-        forward(10);
-        right(20);
-        forward(10);
-        right(20);
-        forward(10);
-        right(20);
-        forward(10);
-        right(20);
-        forward(10);
-        right(20);
-        forward(10);
-        right(20);
-        forward(10);
-        right(20);
-        forward(10);
-        left(140);
-        forward(70);
-        setPenState(false);
-
-        left(40);
-        forward(45);
-        left();
-        forward(93);
-        left();
-        setPenState(true);    
-        setPenColour(Color.WHITE);
-        forward(47);
-        left();
-        forward(44);
-        left();
-        forward(47);
-        
-        setPenState(false);    
-        left();
-        left();
-  
-        forward(47);
-        left();
-      
-        setPenState(true);
-        forward(51);
-        left();
-        forward(47);
-      
-        setPenState(false);
-        forward(28);
-        left();
-        forward(93);
-      
-        right();
-        forward(47);
-        left();
-        left();
-        setPenState(true);
-        forward(50);
-        left();
-        forward(47);
-        left();
-        forward(50);
-        left();
-        left();
-        setPenState(false);
-        forward(50);
-        left();
-      
-        setPenState(true);
-        forward(47);
-        left();
-        forward(50);
-    }
-     
- // Draw Olympic logo
-     public void drawOlympicsLogo() {
-        setTurtleSpeed(1);
-        reset();
-        setPenState(false);
-        setStroke(5);
-        
-        setPenState(false);
-        right();
-        forward(200);
-        right();
-        
-        forward(30);
-        
-        setPenColour(Color.BLUE);
-        setPenState(true);
-        circle(90);
-        setPenState(false);
-        
-        right();
-        
-        forward(120);
-        left();
-        left();
-        forward(-80);
-        setPenState(true);
-        setPenColour(Color.GRAY);
-        circle(90);
-        
-        setPenState(false);
-        right();
-        right();
-        
-        forward(200);
-        left();
-        left();
-        setPenState(true);
-        setPenColour(Color.RED);
-        circle(90);
-        
-        setPenState(false);
-        forward(100);
-        left();
-        forward(90);
-        right();
-        right();
-        setPenState(true);
-        setPenColour(Color.GREEN);
-        circle(90);
-       
-        left();
-        setPenState(false); 
-        
-        forward(210);
-        right();
-        setPenState(true); 
-        setPenColour(Color.YELLOW);
-        circle(90);
-        
-        setPenState(false); 
-        forward(-30);
-        
-        left();
-        forward(220);
-        
-        left();
-    }
-    
-    // Display help information in a dialog box
-    private void showHelp() {
-        StringBuilder helpText = new StringBuilder();
-        helpText.append("=== Turtle Graphics Commands ===\n\n");
-        
-            helpText.append("Movement:\n");
-            helpText.append("  forward <n> or move <n> - Move forward n pixels\n");
-            helpText.append("  backward <n> or reverse <n> - Move backward n pixels\n");
-            helpText.append("  left <degrees> - Turn left by specified degrees (default 90)\n");
-            helpText.append("  right <degrees> or rt <degrees> - Turn right by specified degrees (default 90)\n");
-            helpText.append("  setspeed <1-10> - Set animation speed (1=slowest, 10=fastest)\n\n");
-            
-            helpText.append("Pen Control:\n");
-            helpText.append("  penup or pu - Lift pen (stop drawing)\n");
-            helpText.append("  pendown or pd - Lower pen (start drawing)\n");
-            helpText.append("  penwidth <size> - Set pen thickness in pixels\n");
-            helpText.append("  red/green/blue/black - Set pen color to specified color\n");
-            helpText.append("  pen <r> <g> <b> - Set custom RGB color (0-255 for each)\n\n");
-            
-            helpText.append("Shapes:\n");
-            helpText.append("  circle <radius> - Draw circle with given radius\n");
-            helpText.append("  square <size> - Draw square with given side length\n");
-            helpText.append("  triangle <size> - Draw equilateral triangle\n");
-            helpText.append("  triangle <side1> <side2> <side3> - Draw custom triangle\n");
-            helpText.append("  olympics - Draw Olympic rings logo\n");
-            helpText.append("  name - Draw your name\n\n");
-            
-            helpText.append("Canvas Control:\n");
-            helpText.append("  clear - Clear the canvas (with warning if unsaved)\n");
-            helpText.append("  reset - Reset turtle to center position\n");
-            helpText.append("  about - Show program information and animation\n\n");
-            
-            helpText.append("File Operations:\n");
-            helpText.append("  save <filename> - Save drawing as PNG image\n");
-            helpText.append("  load <filename> - Load image file\n");
-            helpText.append("  (Menu options also available for saving/loading)\n\n");
-            
-            helpText.append("Special Features:\n");
-            helpText.append("  help - Show this help message\n");
-            helpText.append("  Menu options for advanced file operations\n");
-            helpText.append("  Command history tracking\n");
-            helpText.append("  Unsaved changes warnings\n\n");
-            
-            helpText.append("Bounds and Limits:\n");
-            helpText.append("  - Movement distance limited to 1000 pixels\n");
-            helpText.append("  - Angles limited to -360 to 360 degrees\n");
-            helpText.append("  - Shape sizes limited to 500 pixels\n");
-            helpText.append("  - Turtle cannot move off screen\n\n");
-            
-            helpText.append("Examples:\n");
-            helpText.append("  move 100 - Move forward 100 pixels\n");
-            helpText.append("  right 45 - Turn right 45 degrees\n");
-            helpText.append("  pen 255 0 0 - Set pen to red (RGB)\n");
-            helpText.append("  square 50 - Draw square with 50px sides\n");
-            helpText.append("  triangle 60 80 100 - Draw custom triangle\n");
-
-        
-        JTextArea textArea = new JTextArea(helpText.toString());
-        textArea.setEditable(false);
-        textArea.setLineWrap(true);
-        textArea.setWrapStyleWord(true);
-        
-        JScrollPane scrollPane = new JScrollPane(textArea);
-        scrollPane.setPreferredSize(new Dimension(500, 500));
-        
-        JOptionPane.showMessageDialog(
-            mainFrame,
-            scrollPane,
-            "Turtle Graphics Help - Complete Command Reference",
-            JOptionPane.INFORMATION_MESSAGE
-        ); 
-        appendToCommandHistory("Displayed complete help dialog");
-    }
+package com.turtle;
+
+// Import required libraries
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import uk.ac.leedsbeckett.oop.LBUGraphics;
+
+public class TurtleGraphics extends LBUGraphics implements TurtleSwarm.Host {
+    private static final long serialVersionUID = 1L;
+
+    private JFrame mainFrame; // Main application window
+    private CommandHistory commandHistory; // Bounded store of command history and output
+    private JList<String> commandHistoryList; // Shows the visible window of commandHistory
+    private boolean imageSaved = true;// Flag to track whether the current drawing has been saved
+    private PngEncoder pngEncoder = new PngEncoder(); // Compression settings for PNG saves, see pngoptions
+    private java.util.List<CompiledScript> lastScript; // Last script loaded from a text file, kept for replay
+    private ScriptPipeline runningScript; // Script being executed by the render thread, if any
+    private ScriptPipeline cancelledScript; // Last cancelled script file, kept so it can be resumed
+    private final RenderCache renderCache = RenderCache.fromProperties(); // Finished script files, null unless turtle.cache.dir is set
+    private SessionWriter recorder; // Every primitive is written here while recording, see startRecording
+    private UndoHistory undoHistory; // Undo and redo of commands, menu actions and scripts
+    private final ScriptCompiler program = new ScriptCompiler(); // Procedures and variables typed so far
+    private int programLines;
+    private final TurtleSwarm swarm = new TurtleSwarm(this); // Named turtles drawing on the canvas
+    private Timer frameTimer; // Repaints the canvas at the frame rate while a script runs
+    // Every repaint of the canvas goes through this, so a burst of steps costs one paint per frame.
+    // The frame rate can be set with -Dturtle.fps=N or the fps command.
+    private final RepaintScheduler repaintScheduler = new RepaintScheduler(new RepaintScheduler.Target() {
+        @Override
+        public void repaintNow(int x, int y, int width, int height) {
+            TurtleGraphics.super.repaint(0, x, y, width, height);
+        }
+    }, Math.max(0, Math.min(RepaintScheduler.MAX_FPS,
+            Integer.getInteger("turtle.fps", RepaintScheduler.DEFAULT_FPS))));
+    
+    // Turbo mode draws straight into the canvas image with no animation or per-step repaint
+    private boolean turbo;
+    private JCheckBoxMenuItem turboItem;
+    private Graphics2D turboGraphics; // Graphics of turboImage, recreated if the image is replaced
+    private BufferedImage turboImage;
+    // Turbo drawing can go through StrokeRasterizer instead, anti-aliased at the exact pose.
+    // Set with -Dturtle.antialias=true, the antialias command or the Canvas menu.
+    private boolean antialias = Boolean.getBoolean("turtle.antialias");
+    private JCheckBoxMenuItem antialiasItem;
+    private StrokeRasterizer turboRasterizer; // Draws on turboImage, null if it has no int pixels
+    // Pen state mirrored from the LBUGraphics setters, used when drawing in turbo mode
+    private Color penColour = Color.red;
+    private BasicStroke penStroke = new BasicStroke(1);
+    private boolean penDown = true;
+    
+    // Vector record of the drawing, also tracks the area to repaint in turbo mode
+    private final DisplayList displayList = new DisplayList();
+    // Exact turtle position and heading. LBUGraphics keeps ints, which are kept equal to these rounded.
+    private final Pose pose = new Pose();
+    private static final int TURTLE_EXTENT = 40; // Half size of the area the turtle sprite covers
+    private static final int PICK_TOLERANCE = 3; // How far from a stroke pick still hits it, in pixels
+    
+   
+  //Constructor - initializes the turtle graphics application
+    public TurtleGraphics() {
+        
+        mainFrame = new JFrame("Turtle Graphics Application");
+       
+        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        
+        // Create and configure menu bar
+        createMenuBar();
+        
+        // Set up main panel with BorderLayout
+        JPanel mainPanel = new JPanel(new BorderLayout());
+        // Add turtle graphics canvas to center
+        mainPanel.add(this, BorderLayout.CENTER);
+        
+        // Initialize command history, capacity and spill file can be set with
+        // -Dturtle.history.capacity=N and -Dturtle.history.spill=path
+        int historyCapacity = Integer.getInteger("turtle.history.capacity", CommandHistory.DEFAULT_CAPACITY);
+        String spillPath = System.getProperty("turtle.history.spill");
+        commandHistory = new CommandHistory(historyCapacity, spillPath == null ? null : new File(spillPath));
+        
+        // JList only renders the rows that are on screen, however long the history gets
+        HistoryListModel historyModel = new HistoryListModel();
+        commandHistoryList = new JList<>(historyModel);
+        commandHistoryList.setVisibleRowCount(5);
+        commandHistoryList.setPrototypeCellValue("Set pen color to RGB(255,255,255)   ");
+        historyModel.start();
+        
+        // Add scrolling capability to command history
+        JScrollPane scrollPane = new JScrollPane(commandHistoryList);
+        mainPanel.add(scrollPane, BorderLayout.SOUTH);
+        
+        // Add main panel to frame and display
+        mainFrame.add(mainPanel);
+        mainFrame.pack(); // Size frame to components
+        mainFrame.setVisible(true);
+        
+        // Initialize turtle state
+        reset(); 
+        setPenColour(Color.red); 
+        setStroke(2); 
+        setPenState(true); 
+        
+        // Undo starts from the initial state. Steps between checkpoints and the checkpoint memory
+        // can be set with -Dturtle.undo.interval=N and -Dturtle.undo.budget=bytes
+        undoHistory = new UndoHistory(this, Integer.getInteger("turtle.undo.interval", UndoHistory.DEFAULT_INTERVAL),
+                Long.getLong("turtle.undo.budget", UndoHistory.DEFAULT_BUDGET));
+        
+        // Display welcome messages
+        displayMessage("Welcome to Turtle Graphics! Type 'help' for commands.");
+        appendToCommandHistory("Application started. Type 'help' for commands.");
+    }
+    
+    // Call parent's about method
+    public void superAbout() {
+        super.about();
+    }
+    
+    //Check if a position is within canvas bounds 
+    private boolean isPositionValid(int x, int y) {
+        return x >= 0 && x <= getWidth() && y >= 0 && y <= getHeight();
+    }
+    //Check if a movement distance is reasonable
+     private boolean isDistanceValid(int distance) {
+        return Math.abs(distance) <= 1000;
+    }
+    //Check if an angle is valid
+     private boolean isAngleValid(int angle) {
+        return angle >= -360 && angle <= 360;
+    }
+    
+    // Check if a shape size/radius is valid
+    private boolean isSizeValid(int size) {
+        return size > 0 && size <= 500;
+    }
+
+    // ========== UTILITY METHODS ==========
+    
+    //Append text to the command history, safe to call from any thread
+    private void appendToCommandHistory(String command) {
+        long start = System.nanoTime();
+        commandHistory.append(command);
+        RenderStats.get().recordPhase(RenderStats.HISTORY, System.nanoTime() - start);
+    }
+    
+    // List model over commandHistory. Polls the store on a Swing timer so a burst of
+    // appends costs one list update instead of one per entry.
+    private class HistoryListModel extends AbstractListModel<String> {
+        private static final long serialVersionUID = 1L;
+
+        private int shownSize;
+        private long shownTotal;
+        
+        void start() {
+            new Timer(100, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    refresh();
+                }
+            }).start();
+        }
+        
+        private void refresh() {
+            long total = commandHistory.getTotal();
+            if (total == shownTotal) {
+                return;
+            }
+            int size = commandHistory.size();
+            int oldSize = shownSize;
+            boolean wrapped = total - shownTotal != size - oldSize;
+            shownSize = size;
+            shownTotal = total;
+            if (wrapped) {
+                fireContentsChanged(this, 0, size - 1); // Oldest entries were dropped
+            } else {
+                fireIntervalAdded(this, oldSize, size - 1);
+            }
+            commandHistoryList.ensureIndexIsVisible(size - 1);
+        }
+        
+        @Override
+        public int getSize() {
+            return shownSize;
+        }
+        
+        @Override
+        public String getElementAt(int index) {
+            return commandHistory.get(index);
+        }
+    }
+
+    // Create and configure the menu bar with all menu items
+    private void createMenuBar() {
+        JMenuBar menuBar = new JMenuBar();
+        
+        // ===== File Menu =====
+        JMenu fileMenu = new JMenu("File");
+        
+        // --- Save Submenu ---
+        JMenu saveMenu = new JMenu("Save");
+        JMenuItem saveImageItem = new JMenuItem("Save as Image");
+        JMenuItem saveTextItem = new JMenuItem("Save Commands as Text");
+        
+        // Save image action
+        saveImageItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveImageFile();
+            }
+        });
+        
+        // Save text action
+        saveTextItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveTextFile();
+            }
+        });
+        
+        // Save SVG action
+        JMenuItem saveSvgItem = new JMenuItem("Save as SVG");
+        saveSvgItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveSvgFile();
+            }
+        });
+        
+        saveMenu.add(saveImageItem);
+        saveMenu.add(saveSvgItem);
+        saveMenu.add(saveTextItem);
+        
+        // --- Load Submenu ---
+        JMenu loadMenu = new JMenu("Load");
+        JMenuItem loadImageItem = new JMenuItem("Load Image");
+        JMenuItem loadTextItem = new JMenuItem("Load Commands from Text");
+        
+        // Load image action
+        loadImageItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                loadImageFile();
+            }
+        });
+        
+        // Load text action
+        loadTextItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                loadTextFile();
+            }
+        });
+        
+        // Replay last script action
+        JMenuItem replayItem = new JMenuItem("Replay Last Script");
+        replayItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                replayLastScript();
+            }
+        });
+        
+        // Cancel running script action
+        JMenuItem cancelScriptItem = new JMenuItem("Cancel Running Script");
+        cancelScriptItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelScript();
+            }
+        });
+        
+        loadMenu.add(loadImageItem);
+        loadMenu.add(loadTextItem);
+        loadMenu.add(replayItem);
+        loadMenu.add(cancelScriptItem);
+        
+        // Resume cancelled script action
+        JMenuItem resumeScriptItem = new JMenuItem("Resume Cancelled Script");
+        resumeScriptItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                resumeScript();
+            }
+        });
+        loadMenu.add(resumeScriptItem);
+        
+        // --- Exit Item ---
+        JMenuItem exitItem = new JMenuItem("Exit");
+        exitItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                System.exit(0); // Terminate application
+            }
+        });
+        
+        // Add all items to File menu
+        fileMenu.add(saveMenu);
+        fileMenu.add(loadMenu);
+        fileMenu.addSeparator();
+        fileMenu.add(exitItem);
+        
+        // ===== Help Menu =====
+        JMenu helpMenu = new JMenu("Help");
+        JMenuItem helpItem = new JMenuItem("Commands Help");
+       
+        // Help action
+        helpItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showHelp();
+            }
+        });
+        
+        helpMenu.add(helpItem);
+        
+        // ===== Edit Menu =====
+        JMenu editMenu = new JMenu("Edit");
+        JMenuItem undoItem = new JMenuItem("Undo");
+        JMenuItem redoItem = new JMenuItem("Redo");
+        undoItem.setAccelerator(KeyStroke.getKeyStroke("control Z"));
+        redoItem.setAccelerator(KeyStroke.getKeyStroke("control Y"));
+        
+        // Undo and redo go through processCommand, which refuses them while a script runs
+        undoItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                processCommand("undo");
+            }
+        });
+        redoItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                processCommand("redo");
+            }
+        });
+        
+        editMenu.add(undoItem);
+        editMenu.add(redoItem);
+        
+        // ===== Canvas Menu =====
+        JMenu CanvasMenu = new JMenu("Canvas");
+        JMenuItem clearCanvasItem = new JMenuItem("Clear Canvas");
+        JMenuItem ResetCanvasItem = new JMenuItem("Reset Canvas");
+        
+        // Clear canvas action
+        clearCanvasItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // The render thread owns the canvas while a script runs
+                if (isScriptRunning()) return;
+                // Warn if unsaved changes exist
+                if (!imageSaved) {
+                    int option = JOptionPane.showConfirmDialog(mainFrame, 
+                        "Current image is not saved. Clear anyway?", 
+                        "Warning", 
+                        JOptionPane.YES_NO_OPTION);
+                    if (option != JOptionPane.YES_OPTION) {
+                        appendToCommandHistory("Clear operation cancelled via menu");
+                        return;
+                    }
+                }
+                undoHistory.begin("clear");
+                clear(); // Clear canvas
+                undoHistory.commit();
+                displayMessage("Canvas cleared");
+                appendToCommandHistory("Canvas cleared via menu");
+                imageSaved = false;
+            }
+        });
+        
+        // Reset canvas action
+        ResetCanvasItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // The render thread owns the canvas while a script runs
+                if (isScriptRunning()) return;
+                // Warn if unsaved changes exist
+                if (!imageSaved) {
+                    int option = JOptionPane.showConfirmDialog(mainFrame, 
+                        "Current image is not saved. Reset anyway?", 
+                        "Warning", 
+                        JOptionPane.YES_NO_OPTION);
+                    if (option != JOptionPane.YES_OPTION) {
+                        appendToCommandHistory("Reset operation cancelled via menu");
+                        return;
+                    }
+                }
+                undoHistory.begin("reset");
+                reset(); // Reset turtle
+                undoHistory.commit();
+                displayMessage("Canvas Reset");
+                appendToCommandHistory("Canvas Reset via menu");
+                imageSaved = false;
+            }
+        });
+        
+        // Turbo mode toggle
+        turboItem = new JCheckBoxMenuItem("Turbo Mode (no animation)");
+        turboItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setTurbo(turboItem.isSelected());
+                appendToCommandHistory("Turbo mode " + (turbo ? "on" : "off") + " via menu");
+            }
+        });
+        
+        // Anti-aliasing toggle, for what turbo mode draws
+        antialiasItem = new JCheckBoxMenuItem("Anti-aliased Lines (turbo mode)", antialias);
+        antialiasItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setAntialias(antialiasItem.isSelected());
+                appendToCommandHistory("Anti-aliasing " + (antialias ? "on" : "off") + " via menu");
+            }
+        });
+        
+        CanvasMenu.add(clearCanvasItem);
+        CanvasMenu.add(ResetCanvasItem);
+        CanvasMenu.addSeparator();
+        CanvasMenu.add(turboItem);
+        CanvasMenu.add(antialiasItem);
+         
+        // ===== Add All Menus to Menu Bar =====
+        menuBar.add(fileMenu);
+        menuBar.add(editMenu);
+        menuBar.add(CanvasMenu);
+        menuBar.add(helpMenu);
+        
+        // Set menu bar on main frame
+        mainFrame.setJMenuBar(menuBar);
+    }
+    
+    // ========== FILE OPERATIONS ==========
+    
+    // Save current drawing as an image file
+    private void saveImageFile() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Image As");
+        fileChooser.setSelectedFile(new File("turtle_drawing.png")); // Default filename
+        
+        // Show save dialog
+        int userSelection = fileChooser.showSaveDialog(mainFrame);
+        if (userSelection == JFileChooser.APPROVE_OPTION) {
+            File fileToSave = fileChooser.getSelectedFile();
+            // Encode a copy of the drawing off the EDT
+            exportPng(pngEncoder.writeAsync(snapshotCanvas(), fileToSave));
+        }
+    }
+  
+    // Save the recorded drawing as an SVG file chosen by the user
+    private void saveSvgFile() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save SVG As");
+        fileChooser.setSelectedFile(new File("turtle_drawing.svg")); // Default filename
+        
+        int userSelection = fileChooser.showSaveDialog(mainFrame);
+        if (userSelection == JFileChooser.APPROVE_OPTION) {
+            String path = fileChooser.getSelectedFile().getPath();
+            saveSvg(path.endsWith(".svg") ? path.substring(0, path.length() - 4) : path);
+        }
+    }
+  
+    //Load image file and display as drawing
+    private void loadImageFile() {
+        if (isScriptRunning()) return;
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Load Image");
+        
+        // Show open dialog
+        int userSelection = fileChooser.showOpenDialog(mainFrame);
+        if (userSelection == JFileChooser.APPROVE_OPTION) {
+            File fileToLoad = fileChooser.getSelectedFile();
+            try {
+                // Read image file, converted to the canvas layout so drawing on it stays fast
+                BufferedImage image = ImageLoader.read(fileToLoad);
+                if (image == null) throw new IOException("unsupported image " + fileToLoad.getName());
+                // Set as current drawing, undo goes back to the drawing before it
+                undoHistory.beginOpaque("load " + fileToLoad.getName());
+                setBufferedImage(image);
+                undoHistory.commit();
+                displayMessage("Drawing loaded from " + fileToLoad.getName());
+                appendToCommandHistory("Loaded image from: " + fileToLoad.getName());
+                imageSaved = true; // Update saved state
+            } catch (Exception e) {
+                // Handle load errors
+                displayMessage("Error loading image: " + e.getMessage());
+                appendToCommandHistory("Error loading image: " + e.getMessage());
+            }
+        }
+    }
+    
+    // Save command history as text file
+    private void saveTextFile() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Commands As");
+        fileChooser.setSelectedFile(new File("turtle_commands.txt")); // Default filename
+        
+        // Show save dialog
+        int userSelection = fileChooser.showSaveDialog(mainFrame);
+        if (userSelection == JFileChooser.APPROVE_OPTION) {
+            File fileToSave = fileChooser.getSelectedFile();
+            try (Writer writer = new BufferedWriter(new FileWriter(fileToSave))) {
+                // Stream command history to file
+                commandHistory.writeTo(writer);
+                displayMessage("Command history saved as " + fileToSave.getName());
+                appendToCommandHistory("Saved command history to: " + fileToSave.getName());
+            } catch (Exception e) {
+                // Handle save errors
+                displayMessage("Error saving text file: " + e.getMessage());
+                appendToCommandHistory("Error saving command history: " + e.getMessage());
+            }
+        }
+    }
+    
+ 
+     // Load commands from text file and execute them on the render thread
+    private void loadTextFile() {
+        if (isScriptRunning()) return;
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Load Commands");
+        
+        // Show open dialog
+        int userSelection = fileChooser.showOpenDialog(mainFrame);
+        if (userSelection == JFileChooser.APPROVE_OPTION) {
+            File fileToLoad = fileChooser.getSelectedFile();
+            if (!fileToLoad.isFile()) {
+                displayMessage("Error loading text file: " + fileToLoad.getName() + " not found");
+                appendToCommandHistory("Error loading commands: " + fileToLoad.getName() + " not found");
+                return;
+            }
+            appendToCommandHistory("Loading commands from: " + fileToLoad.getName());
+            String label = "load commands " + fileToLoad.getName();
+            ScriptPipeline pipeline = new ScriptPipeline(fileToLoad.toPath(), 0, 0, this,
+                    new ScriptListener(fileToLoad.getName()));
+            pipeline.setCache(renderCache, this); // Looked up by the reader thread, off the EDT
+            runScript(label, pipeline);
+        }
+    }
+    
+    // Carry on with the last cancelled script file from the line after its last executed chunk
+    private void resumeScript() {
+        if (isScriptRunning()) return;
+        if (cancelledScript == null) {
+            displayMessage("No cancelled script to resume");
+            return;
+        }
+        ScriptPipeline previous = cancelledScript;
+        cancelledScript = null;
+        String name = previous.getSourceFile().getFileName().toString();
+        appendToCommandHistory("Resuming " + name + " at line " + (previous.getResumeLine() + 1));
+        runScript("resume " + name, new ScriptPipeline(previous, this, new ScriptListener(name)));
+    }
+
+    // Run the last loaded script again without re-reading or re-parsing it
+    private void replayLastScript() {
+        if (isScriptRunning()) return;
+        if (lastScript == null) {
+            displayMessage("No script loaded yet");
+            return;
+        }
+        appendToCommandHistory("Replaying last script");
+        runScript("replay last script", new ScriptPipeline(lastScript, this, new ScriptListener("last script")));
+    }
+    
+    // Stop the script being executed by the render thread
+    private void cancelScript() {
+        if (runningScript == null) {
+            displayMessage("No script is running");
+            return;
+        }
+        runningScript.cancel();
+    }
+    
+    // Warn and return true if a script is still being executed
+    private boolean isScriptRunning() {
+        if (runningScript != null) {
+            displayMessage("A script is still running - cancel it first");
+            appendToCommandHistory("Error: A script is still running");
+            return true;
+        }
+        return false;
+    }
+    
+    // Start a pipeline and repaint at a fixed frame rate until it finishes.
+    // The whole run, even a cancelled one, is one undo step.
+    private void runScript(String label, ScriptPipeline pipeline) {
+        undoHistory.beginOpaque(label);
+        runningScript = pipeline;
+        imageSaved = false; // Mark as unsaved since we modify the drawing
+        frameTimer = new Timer(repaintScheduler.getFrameMillis(), new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                repaintDirty();
+            }
+        });
+        frameTimer.start();
+        pipeline.start();
+    }
+    
+    // Receives pipeline events on the pipeline threads and passes them to the EDT
+    private class ScriptListener implements ScriptPipeline.Listener {
+        private final String scriptName;
+        private final boolean typed; // A typed line of the language or play, rather than a script file
+        
+        ScriptListener(String scriptName) {
+            this(scriptName, false);
+        }
+        
+        ScriptListener(String scriptName, boolean typed) {
+            this.scriptName = scriptName;
+            this.typed = typed;
+        }
+        
+        @Override
+        public void compileErrors(String[] errors) {
+            for (String error : errors) {
+                appendToCommandHistory("Error: " + error);
+            }
+        }
+        
+        @Override
+        public void progress(long linesRead, long bytesRead, long commandsExecuted) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    String read = linesRead + " lines read";
+                    if (bytesRead > 0 && runningScript != null) {
+                        read += String.format(", %.1f MB/s", runningScript.getThroughput() / 1e6);
+                    }
+                    displayMessage("Running " + scriptName + ": " + commandsExecuted + " commands (" + read + ")");
+                }
+            });
+        }
+        
+        @Override
+        public void finished(boolean cancelled, Exception error, long commandsExecuted) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    frameTimer.stop();
+                    undoHistory.commit();
+                    repaint();
+                    repaintScheduler.flush();
+                    if (recorder != null) {
+                        recorder.flush();
+                    }
+                    if (error != null && typed) {
+                        displayMessage("Error running " + scriptName + ": " + error.getMessage());
+                        appendToCommandHistory("Error running " + scriptName + ": " + error.getMessage());
+                    } else if (error != null) {
+                        displayMessage("Error loading text file: " + error.getMessage());
+                        appendToCommandHistory("Error loading commands: " + error.getMessage());
+                    } else if (cancelled) {
+                        displayMessage("Script cancelled after " + commandsExecuted + " commands");
+                        appendToCommandHistory("Cancelled " + scriptName + " after " + commandsExecuted + " commands");
+                        if (runningScript.getSourceFile() != null) {
+                            cancelledScript = runningScript;
+                            appendToCommandHistory("Can resume from line " + (runningScript.getResumeLine() + 1)
+                                    + " (byte " + runningScript.getResumeOffset() + ")");
+                        }
+                    } else if (typed) {
+                        displayMessage("Ran " + scriptName + " (" + commandsExecuted + " commands)");
+                    } else if (runningScript.isFromCache()) {
+                        // Rendered from a blank canvas like this before, nothing was compiled for replay
+                        lastScript = null;
+                        displayMessage("Commands loaded from " + scriptName + " (cached)");
+                        appendToCommandHistory("Loaded commands from: " + scriptName + " (cached render)");
+                    } else {
+                        lastScript = runningScript.getChunks();
+                        displayMessage("Commands loaded from " + scriptName);
+                        appendToCommandHistory("Loaded commands from: " + scriptName + " (" + commandsExecuted + " commands)");
+                        if (runningScript.getCacheError() != null) {
+                            appendToCommandHistory("Could not cache " + scriptName + ": "
+                                    + runningScript.getCacheError().getMessage());
+                        }
+                    }
+                    runningScript = null;
+                }
+            });
+        }
+    }
+
+    // ========== TURTLE COMMANDS PROCESSING ==========
+    
+
+     //Process a turtle graphics command
+    public void processCommand(String command) {
+        long start = System.nanoTime();
+        // Add command to history
+        appendToCommandHistory("> " + command);
+        String word = command.trim().split("\\s+")[0].toLowerCase();
+        // stats only reads counters, so it also works while a script runs
+        if (word.equals("stats")) {
+            showStats(command.trim().split("\\s+"));
+            return;
+        }
+        // The render thread owns the turtle while a script runs
+        if (isScriptRunning()) return;
+        
+        // repeat, procedures and variables are compiled and run like a script
+        if (program.isProgramLine(command)) {
+            runProgram(command, start);
+            return;
+        }
+        
+        // Every command that changes the turtle or the drawing is an undo step, apart from undo and redo
+        boolean undoStep = !word.equals("undo") && !word.equals("redo") && !word.equals("record")
+                && !word.equals("antialias");
+        if (undoStep) {
+            undoHistory.begin(command);
+        }
+        
+        RenderStats stats = RenderStats.get();
+        String timedCommand = null; // Known command being timed
+        long parsed = 0;
+        try {
+            // Split command into parts
+            String[] parts = command.trim().split("\\s+");
+            if (parts.length == 0 || parts[0].isEmpty()) return;
+            
+            // Get base command (lowercase for case-insensitive comparison)
+            String cmd = parts[0].toLowerCase();
+            timedCommand = cmd;
+            parsed = System.nanoTime();
+            stats.recordPhase(RenderStats.PARSE, parsed - start);
+            
+            // Process different commands
+            switch(cmd) {
+                case "forward":
+                case "move":
+                    if (parts.length == 2) {
+                        try {
+                            int distance = Integer.parseInt(parts[1]);
+                            if (!isDistanceValid(distance)) {
+                                displayMessage("Distance too large (max 1000 pixels)");
+                                appendToCommandHistory("Error: Distance exceeds maximum allowed");
+                                break;
+                            }
+                            
+                            // Calculate new position
+                            int newX = Pose.pixel(getPose().targetX(distance));
+                            int newY = Pose.pixel(getPose().targetY(distance));
+                            
+                            if (!isPositionValid(newX, newY)) {
+                                displayMessage("Cannot move turtle off screen");
+                                appendToCommandHistory("Error: Movement would take turtle off screen");
+                                break;
+                            }
+                            
+                            forward(distance);
+                            appendToCommandHistory("Moved forward by " + distance + " pixels");
+                            imageSaved = false;
+                        } catch (NumberFormatException e) {
+                            displayMessage("Enter a valid Numeric Parameter!");
+                            appendToCommandHistory("Error: Invalid Parameter");
+                        }
+                    } else {
+                        displayMessage(" Missing Paramenter!");
+                        appendToCommandHistory("Error: Missing Parameter");
+                    }
+                    break;
+                    
+                case "name":
+                    about();
+                    appendToCommandHistory("Name Drawn");
+                    imageSaved = false;
+                    break;
+            
+                case "about":
+                    superAbout();
+                    break;
+                    
+                case "backward":
+                case "reverse":
+                    if (parts.length == 2) {
+                        try {
+                            int distance = Integer.parseInt(parts[1]);
+                            if (!isDistanceValid(distance)) {
+                                displayMessage("Distance too large (max 1000 pixels)");
+                                appendToCommandHistory("Error: Distance exceeds maximum allowed");
+                                break;
+                            }
+                            
+                            // Calculate new position for backward movement
+                            int newX = Pose.pixel(getPose().targetX(-distance));
+                            int newY = Pose.pixel(getPose().targetY(-distance));
+                            
+                            if (!isPositionValid(newX, newY)) {
+                                displayMessage("Cannot move turtle off screen");
+                                appendToCommandHistory("Error: Movement would take turtle off screen");
+                                break;
+                            }
+                            
+                            forward(-distance); // Move backward
+                            appendToCommandHistory("Moved backward by " + distance + " pixels");
+                            imageSaved = false;
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid distance - must be integer");
+                            appendToCommandHistory("Error: Invalid distance format");
+                        }
+                    } else {
+                        displayMessage("Syntax: backward <distance>");
+                        appendToCommandHistory("Error: Syntax: backward <distance>");
+                    }
+                    break;
+                    
+                case "right":
+                    if (parts.length == 2) {
+                        try {
+                            int angle = Integer.parseInt(parts[1]);
+                            if (!isAngleValid(angle)) {
+                                displayMessage("Angle must be between -360 and 360 degrees");
+                                appendToCommandHistory("Error: Invalid angle specified");
+                                break;
+                            }
+                            right(angle);
+                            appendToCommandHistory("Turned right by " + angle + " degrees");
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid angle - must be integer");
+                            appendToCommandHistory("Error: Invalid angle format");
+                        }
+                    } else {
+                        right(90); // Default 90 degree turn
+                        appendToCommandHistory("Turned right by 90 degrees");
+                    }
+                    break;
+                    
+                case "left":
+                    if (parts.length == 2) {
+                        try {
+                            int angle = Integer.parseInt(parts[1]);
+                            if (!isAngleValid(angle)) {
+                                displayMessage("Angle must be between -360 and 360 degrees");
+                                appendToCommandHistory("Error: Invalid angle specified");
+                                break;
+                            }
+                            left(angle);
+                            appendToCommandHistory("Turned left by " + angle + " degrees");
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid angle - must be integer");
+                            appendToCommandHistory("Error: Invalid angle format");
+                        }
+                    } else {
+                        left(90); // Default 90 degree turn
+                        appendToCommandHistory("Turned left by 90 degrees");
+                    }
+                    break;
+                    
+                case "penwidth":
+                    if (parts.length == 2) {
+                        try {
+                            int width = Integer.parseInt(parts[1]);
+                            if (width < 1) {
+                                displayMessage("Invalid width - must be integer");
+                                appendToCommandHistory("Error: Invalid width - must be integer");
+                                break;
+                            }
+                            setStroke(width);
+                            displayMessage("Pen width set to " + parts[1]);
+                            appendToCommandHistory("Set pen width to " + parts[1]);
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid width - must be integer");
+                            appendToCommandHistory("Error: Invalid width - must be integer");
+                        }
+                    } else {
+                        displayMessage("Syntax: penwidth <size>");
+                        appendToCommandHistory("Error: Syntax: penwidth <size>");
+                    }
+                    break;
+                    
+                case "penup":
+                case "pu":
+                    setPenState(false);
+                    displayMessage("Pen lifted");
+                    appendToCommandHistory("Pen lifted");
+                    break;
+                    
+                case "pendown":
+                case "pd":
+                    setPenState(true);
+                    displayMessage("Pen lowered");
+                    appendToCommandHistory("Pen lowered");
+                    break;
+
+                case "pencolour":
+                    if (parts.length == 2) {
+                        // Handle color name
+                        String colorName = parts[1].toLowerCase();
+                        setPenColour(colorName); // Uses the named color method
+                    } else if (parts.length == 4) {
+                        // Handle RGB values
+                        try {
+                            setpencolour(
+                                Integer.parseInt(parts[1]),
+                                Integer.parseInt(parts[2]),
+                                Integer.parseInt(parts[3])
+                            );
+                            displayMessage("Pen color set to RGB(" + parts[1] + "," + parts[2] + "," + parts[3] + ")");
+                            appendToCommandHistory("Set pen color to RGB(" + parts[1] + "," + parts[2] + "," + parts[3] + ")");
+                        } catch (Exception e) {
+                            displayMessage("Need 3 numbers (0-255)");
+                            appendToCommandHistory("Error: Need 3 numbers (0-255) for RGB");
+                        }
+                    } else {
+                        displayMessage("Syntax: pencolour <colorName> OR pencolour <r> <g> <b>");
+                        appendToCommandHistory("Error: Syntax: pencolour <colorName> OR pencolour <r> <g> <b>");
+                    }
+                    break;
+                    
+                case "clear":
+                    // Warn if unsaved changes exist
+                    if (!imageSaved) {
+                        int option = JOptionPane.showConfirmDialog(mainFrame, 
+                            "Current image is not saved. Clear anyway?", 
+                            "Warning", 
+                            JOptionPane.YES_NO_OPTION);
+                        if (option != JOptionPane.YES_OPTION) {
+                            appendToCommandHistory("Clear operation cancelled");
+                            break;
+                        }
+                    }
+                    clear();
+                    displayMessage("Canvas cleared");
+                    appendToCommandHistory("Canvas cleared");
+                    imageSaved = false;
+                    break;
+                    
+                case "reset":
+                    // Warn if unsaved changes exist
+                    if (!imageSaved) {
+                        int option = JOptionPane.showConfirmDialog(mainFrame, 
+                            "Current image is not saved. Reset anyway?", 
+                            "Warning", 
+                            JOptionPane.YES_NO_OPTION);
+                        if (option != JOptionPane.YES_OPTION) {
+                            appendToCommandHistory("Reset operation cancelled");
+                            break;
+                        }
+                    }
+                    reset();
+                    displayMessage("Turtle reset");
+                    appendToCommandHistory("Turtle reset");
+                    imageSaved = false;
+                    break;
+                    
+                case "circle":
+                    if (parts.length == 2) {
+                        try {
+                            int radius = Integer.parseInt(parts[1]);
+                            if (!isSizeValid(radius)) {
+                                displayMessage("Radius must be between 1 and 500 pixels");
+                                appendToCommandHistory("Error: Invalid radius size");
+                                break;
+                            }
+                            circle(radius);
+                            appendToCommandHistory("Drawn circle with radius " + radius);
+                            imageSaved = false;
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid radius - must be integer");
+                            appendToCommandHistory("Error: Invalid radius format");
+                        }
+                    } else {
+                        displayMessage("Syntax: circle <radius>");
+                        appendToCommandHistory("Error: Syntax: circle <radius>");
+                    }
+                    break;
+                    
+                case "square":
+                    if (parts.length == 2) {
+                        try {
+                            int size = Integer.parseInt(parts[1]);
+                            if (!isSizeValid(size)) {
+                                displayMessage("Size must be between 1 and 500 pixels");
+                                appendToCommandHistory("Error: Invalid square size");
+                                break;
+                            }
+                            drawSquare(size);
+                            appendToCommandHistory("Drawn square with size " + size);
+                            imageSaved = false;
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid size - must be integer");
+                            appendToCommandHistory("Error: Invalid size format");
+                        }
+                    } else {
+                        displayMessage("Syntax: square <size>");
+                        appendToCommandHistory("Error: Syntax: square <size>");
+                    }
+                    break;
+                    
+                case "triangle": 
+                    if (parts.length < 2) {
+                        // No parameters provided
+                        displayMessage("Syntax: triangle <size> OR triangle <side1> <side2> <side3>");
+                        appendToCommandHistory("Error: Missing parameters for triangle");
+                    } else {
+                        try {
+                            // Case 1: Single parameter (equilateral triangle)
+                            if (parts.length == 2) {
+                                int size = Integer.parseInt(parts[1]);
+                                if (!isSizeValid(size)) {
+                                    displayMessage("Size must be between 1 and 500 pixels");
+                                    appendToCommandHistory("Error: Invalid triangle size");
+                                    break;
+                                }
+                                equilateralTriangle(size);
+                            }
+                            // Case 2: Three parameters (scalene triangle)
+                            else if (parts.length == 4) {
+                                int a = Integer.parseInt(parts[1]);
+                                int b = Integer.parseInt(parts[2]);
+                                int c = Integer.parseInt(parts[3]);
+                                
+                                if (!isSizeValid(a) || !isSizeValid(b) || !isSizeValid(c)) {
+                                    displayMessage("Sides must be between 1 and 500 pixels");
+                                    appendToCommandHistory("Error: Invalid triangle side length");
+                                    break;
+                                } else if (!isValidTriangle(a, b, c)) {
+                                    displayMessage("Invalid triangle - sum of any two sides must be greater than the third");
+                                    appendToCommandHistory("Error: Invalid triangle sides provided");
+                                    break;
+                                } else {
+                                    drawTriangle(a, b, c);
+                                }
+                            }
+                            else {
+                                displayMessage("Syntax: triangle <size> OR triangle <side1> <side2> <side3>");
+                                appendToCommandHistory("Error: Invalid triangle command syntax");
+                            }
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid size - must be integer");
+                            appendToCommandHistory("Error: Invalid size format");
+                        }
+                    }
+                    break;
+                    
+                case "save":
+                    if (parts.length == 2) {
+                        saveDrawing(parts[1]);
+                        appendToCommandHistory("Saved drawing as " + parts[1]);
+                    } else if (parts.length == 3) {
+                        try {
+                            int scale = Integer.parseInt(parts[2]);
+                            if (scale >= 1 && scale <= TileRasterizer.MAX_SCALE) {
+                                saveDrawing(parts[1], scale);
+                            } else {
+                                displayMessage("Scale must be between 1 and " + TileRasterizer.MAX_SCALE);
+                                appendToCommandHistory("Error: Invalid scale");
+                            }
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid scale - must be integer");
+                            appendToCommandHistory("Error: Invalid scale format");
+                        }
+                    } else {
+                        displayMessage("Syntax: save <filename> [scale]");
+                        appendToCommandHistory("Error: Syntax: save <filename> [scale]");
+                    }
+                    break;
+                    
+                case "load":
+                    if (parts.length == 2) {
+                        loadDrawing(parts[1]);
+                        appendToCommandHistory("Loaded drawing from " + parts[1]);
+                    } else {
+                        displayMessage("Syntax: load <filename>");
+                        appendToCommandHistory("Error: Syntax: load <filename>");
+                    }
+                    break;
+                    
+                case "pick":
+                    if (parts.length == 3) {
+                        try {
+                            int x = Integer.parseInt(parts[1]);
+                            int y = Integer.parseInt(parts[2]);
+                            int hit = displayList.pick(x, y, PICK_TOLERANCE);
+                            String result = hit < 0 ? "Nothing drawn at (" + x + ", " + y + ")" : displayList.describe(hit);
+                            displayMessage(result);
+                            appendToCommandHistory(result);
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid position - must be integers");
+                            appendToCommandHistory("Error: Invalid position format");
+                        }
+                    } else {
+                        displayMessage("Syntax: pick <x> <y>");
+                        appendToCommandHistory("Error: Syntax: pick <x> <y>");
+                    }
+                    break;
+                    
+                case "zoom":
+                    if (parts.length == 4) {
+                        try {
+                            int factor = Integer.parseInt(parts[1]);
+                            int x = Integer.parseInt(parts[2]);
+                            int y = Integer.parseInt(parts[3]);
+                            if (factor < 1 || factor > 16) {
+                                displayMessage("Zoom must be between 1 and 16");
+                                appendToCommandHistory("Error: Invalid zoom factor");
+                                break;
+                            }
+                            showZoom(factor, x, y);
+                            appendToCommandHistory("Zoomed " + factor + "x at (" + x + ", " + y + ")");
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid zoom - must be integers");
+                            appendToCommandHistory("Error: Invalid zoom format");
+                        }
+                    } else {
+                        displayMessage("Syntax: zoom <factor> <x> <y>");
+                        appendToCommandHistory("Error: Syntax: zoom <factor> <x> <y>");
+                    }
+                    break;
+                    
+                case "pngoptions":
+                    if (parts.length == 2 || parts.length == 3) {
+                        setPngOptions(parts);
+                    } else {
+                        displayMessage("Syntax: pngoptions <0-9> [none|sub|up|average|paeth|adaptive]");
+                        appendToCommandHistory("Error: Syntax: pngoptions <level> [filter]");
+                    }
+                    break;
+                    
+                case "svg":
+                    if (parts.length == 2) {
+                        saveSvg(parts[1]);
+                    } else {
+                        displayMessage("Syntax: svg <filename>");
+                        appendToCommandHistory("Error: Syntax: svg <filename>");
+                    }
+                    break;
+                    
+                case "olympics":
+                    drawOlympicsLogo();
+                    appendToCommandHistory("Olympics logo Drawn");
+                    imageSaved = false;
+                    break;
+                    
+                case "setspeed":
+                    if (parts.length == 2) {
+                        int speed = Integer.parseInt(parts[1]);
+                        if (speed != 0) {
+                            setTurbo(false); // Typing a real speed leaves turbo mode
+                        }
+                        setTurtleSpeed(speed);
+                        displayMessage(speed == 0 ? "Turbo mode on" : "Speed set to " + parts[1]);
+                        appendToCommandHistory("Set speed to " + parts[1]);
+                    } else {
+                        displayMessage("Syntax: setspeed <0-10>");
+                        appendToCommandHistory("Error: Syntax: setspeed <0-10>");
+                    }
+                    break;
+                    
+                case "fps":
+                    if (parts.length == 1) {
+                        String rate = repaintScheduler.getFps() == 0 ? "every step" : repaintScheduler.getFps() + " fps";
+                        String message = "Repainting at " + rate + ", " + repaintScheduler.getRequests()
+                                + " repaint requests painted in " + repaintScheduler.getPaints();
+                        displayMessage(message);
+                        appendToCommandHistory(message);
+                    } else if (parts.length == 2) {
+                        int fps = Integer.parseInt(parts[1]);
+                        if (fps < 0 || fps > RepaintScheduler.MAX_FPS) {
+                            displayMessage("Frame rate must be 0 to " + RepaintScheduler.MAX_FPS);
+                            appendToCommandHistory("Error: Frame rate must be 0 to " + RepaintScheduler.MAX_FPS);
+                            break;
+                        }
+                        repaintScheduler.setFps(fps);
+                        displayMessage(fps == 0 ? "Repainting every step" : "Repainting at most " + fps + " times a second");
+                        appendToCommandHistory("Set frame rate to " + fps);
+                    } else {
+                        displayMessage("Syntax: fps [0-" + RepaintScheduler.MAX_FPS + "]");
+                        appendToCommandHistory("Error: Syntax: fps [0-" + RepaintScheduler.MAX_FPS + "]");
+                    }
+                    break;
+                    
+                case "antialias":
+                    if (parts.length == 1) {
+                        displayMessage("Anti-aliasing is " + (antialias ? "on" : "off"));
+                        appendToCommandHistory("Anti-aliasing is " + (antialias ? "on" : "off"));
+                    } else if (parts.length == 2 && (parts[1].equalsIgnoreCase("on") || parts[1].equalsIgnoreCase("off"))) {
+                        setAntialias(parts[1].equalsIgnoreCase("on"));
+                        displayMessage("Anti-aliasing " + parts[1].toLowerCase());
+                        appendToCommandHistory("Anti-aliasing " + parts[1].toLowerCase());
+                    } else {
+                        displayMessage("Syntax: antialias [on|off]");
+                        appendToCommandHistory("Error: Syntax: antialias [on|off]");
+                    }
+                    break;
+                    
+                case "record":
+                    if (parts.length == 2) {
+                        record(parts[1]);
+                    } else {
+                        displayMessage("Syntax: record <file>|off");
+                        appendToCommandHistory("Error: Syntax: record <file>|off");
+                    }
+                    break;
+                    
+                case "play":
+                    if (parts.length >= 2 && parts.length <= 4) {
+                        try {
+                            play(parts[1], parts.length > 2 ? Long.parseLong(parts[2]) : 0,
+                                    parts.length > 3 ? Long.parseLong(parts[3]) : Long.MAX_VALUE);
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid parameter: first and count must be whole numbers");
+                            appendToCommandHistory("Error: Invalid parameter for play command");
+                        }
+                    } else {
+                        displayMessage("Syntax: play <file> [first] [count]");
+                        appendToCommandHistory("Error: Syntax: play <file> [first] [count]");
+                    }
+                    break;
+                    
+                case "help":
+                    showHelp();
+                    appendToCommandHistory("Displayed help");
+                    break;
+                    
+                case "undo":
+                case "redo":
+                    if (parts.length <= 2) {
+                        try {
+                            int count = parts.length == 2 ? Integer.parseInt(parts[1]) : 1;
+                            undoOrRedo(cmd.equals("undo"), count);
+                        } catch (NumberFormatException e) {
+                            displayMessage("Invalid count - must be integer");
+                            appendToCommandHistory("Error: Invalid " + cmd + " count");
+                        }
+                    } else {
+                        displayMessage("Syntax: " + cmd + " [count]");
+                        appendToCommandHistory("Error: Syntax: " + cmd + " [count]");
+                    }
+                    break;
+                    
+                default:
+                    // Unknown command handling
+                    timedCommand = null;
+                    displayMessage("Invalid Command: " + cmd);
+                    appendToCommandHistory("Error: Invalid Command: " + cmd);
+            }
+        } catch (NumberFormatException e) {
+            displayMessage("Please enter a valid number");
+            appendToCommandHistory("Error: Please enter a valid number");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            displayMessage("Missing parameter for command");
+            appendToCommandHistory("Error: Missing parameter for command");
+        } catch (Exception e) {
+            displayMessage("Error: " + e.getMessage());
+            appendToCommandHistory("Error: " + e.getMessage());
+        }
+        if (parsed != 0) {
+            long nanos = System.nanoTime() - parsed;
+            stats.recordPhase(RenderStats.DRAW, nanos);
+            if (timedCommand != null) {
+                stats.recordCommand(timedCommand, nanos);
+            }
+        }
+        if (undoStep) {
+            undoHistory.commit();
+        }
+        // Nothing repaints while drawing in turbo mode, so repaint what changed once at the end
+        if (turbo) {
+            repaintDirty();
+        }
+        repaintScheduler.flush(); // Show the result now rather than at the next frame
+        if (recorder != null) {
+            recorder.flush(); // The command's primitives are on disk as soon as it has run
+        }
+    }
+    
+    // Compile a typed line of the language. Whatever it runs goes to the render thread, so a
+    // fractal of millions of segments neither freezes the window nor escapes Cancel Script.
+    private void runProgram(String command, long start) {
+        program.addLine(command, ++programLines);
+        CompiledScript script = program.build();
+        RenderStats.get().recordPhase(RenderStats.PARSE, System.nanoTime() - start);
+        for (String error : script.getErrors()) {
+            String message = error.substring(error.indexOf(": ") + 2); // Line numbers mean nothing here
+            displayMessage(message);
+            appendToCommandHistory("Error: " + message);
+        }
+        if (script.size() > 0) {
+            java.util.List<CompiledScript> chunks = java.util.Collections.singletonList(script);
+            runScript(command.trim(), new ScriptPipeline(chunks, this, new ScriptListener(command.trim(), true)));
+        }
+    }
+    
+    // ========== SESSION RECORDING ==========
+    
+    // Write every primitive from now on to a session file, see SessionWriter. Stops any recording first.
+    public void startRecording(File file) throws IOException {
+        stopRecording();
+        recorder = SessionWriter.start(file, this);
+    }
+    
+    // Finish the recording. Returns the commands recorded, -1 if there was no recording.
+    public long stopRecording() throws IOException {
+        if (recorder == null) return -1;
+        SessionWriter writer = recorder;
+        recorder = null;
+        writer.close();
+        return writer.getCommands();
+    }
+    
+    // record <file> starts a recording, record off finishes it
+    private void record(String target) {
+        try {
+            if (target.equalsIgnoreCase("off")) {
+                File file = recorder == null ? null : recorder.getFile();
+                long commands = stopRecording();
+                String message = commands < 0 ? "Not recording" : "Recorded " + commands + " commands to " + file.getName();
+                displayMessage(message);
+                appendToCommandHistory(message);
+                return;
+            }
+            startRecording(new File(target));
+            displayMessage("Recording to " + target);
+            appendToCommandHistory("Recording to " + target);
+        } catch (IOException e) {
+            displayMessage("Error recording: " + e.getMessage());
+            appendToCommandHistory("Error recording: " + e.getMessage());
+        }
+    }
+    
+    // Run count commands of a recording from command first on the render thread, as a script runs
+    private void play(String filename, long first, long count) {
+        File file = new File(filename);
+        try (SessionReader reader = new SessionReader(file)) {
+            if (first < 0 || first > reader.getCommandCount() || count < 0) {
+                displayMessage("The recording has commands 0 to " + (reader.getCommandCount() - 1));
+                appendToCommandHistory("Error: The recording has commands 0 to " + (reader.getCommandCount() - 1));
+                return;
+            }
+        } catch (IOException e) {
+            displayMessage("Error playing: " + e.getMessage());
+            appendToCommandHistory("Error playing: " + e.getMessage());
+            return;
+        }
+        String label = "play " + file.getName();
+        runScript(label, new ScriptPipeline(file, first, count, this, new ScriptListener(label, true)));
+    }
+    
+    // ========== UNDO ==========
+    
+    // Move count steps back or forward through the undo history
+    private void undoOrRedo(boolean undo, int count) {
+        String label = undo ? undoHistory.undoLabel() : undoHistory.redoLabel();
+        int moved = count < 1 ? 0 : undo ? undoHistory.undo(count) : undoHistory.redo(count);
+        if (moved == 0) {
+            displayMessage(undo ? "Nothing to undo" : "Nothing to redo");
+            appendToCommandHistory(undo ? "Nothing to undo" : "Nothing to redo");
+            return;
+        }
+        String message = (undo ? "Undid " : "Redid ") + (moved == 1 ? label : moved + " steps");
+        displayMessage(message);
+        appendToCommandHistory(message);
+        imageSaved = false;
+        repaint();
+    }
+    
+    @Override
+    public void restoreCanvas(BufferedImage image) {
+        BufferedImage canvas = getBufferedImage();
+        if (canvas.getWidth() != image.getWidth() || canvas.getHeight() != image.getHeight()) {
+            setBufferedImage(image);
+            return;
+        }
+        if (recorder != null) {
+            recorder.keyframe(image, this);
+        }
+        Graphics2D g = canvas.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+    }
+    
+    @Override
+    public void restoreTurtle(double x, double y, double heading) {
+        if (recorder != null) {
+            recorder.pose(x, y, heading);
+        }
+        markTurtleDirty(getxPos(), getyPos());
+        pose.set(x, y, heading);
+        setxPos(pose.pixelX());
+        setyPos(pose.pixelY());
+        direction = pose.direction();
+        markTurtleDirty(getxPos(), getyPos());
+    }
+    
+    // Replay a recorded step in turbo mode, so undo never waits for the animation
+    @Override
+    public void replay(CompiledScript step) {
+        boolean wasTurbo = turbo;
+        turbo = true;
+        try {
+            ScriptInterpreter.execute(step, this);
+        } finally {
+            turbo = wasTurbo;
+        }
+    }
+    
+    // ========== NAMED TURTLES ==========
+    
+    @Override
+    public TurtleSwarm getSwarm() {
+        return swarm;
+    }
+    
+    // Named turtles draw straight into the canvas image, as turbo mode does
+    @Override
+    public BufferedImage canvasForSwarm() {
+        return getBufferedImage();
+    }
+    
+    @Override
+    public void swarmDrew(int x0, int y0, int x1, int y1) {
+        repaint(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+    }
+    
+    @Override
+    public SessionWriter getRecorder() {
+        return recorder;
+    }
+    
+    // ========== DRAWING METHODS ==========
+    
+    // Switch turbo mode on or off
+    public void setTurbo(boolean turbo) {
+        this.turbo = turbo;
+        if (turboItem != null) {
+            turboItem.setSelected(turbo);
+        }
+        repaint();
+    }
+    
+    public boolean isTurbo() {
+        return turbo;
+    }
+    
+    // Speed 0 turns turbo mode on. Other speeds are ignored in turbo mode, so the
+    // setTurtleSpeed(1) in name and olympics does not slow it down.
+    @Override
+    public void setTurtleSpeed(int speed) {
+        if (speed == 0) {
+            setTurbo(true);
+        } else if (!turbo) {
+            super.setTurtleSpeed(speed);
+        }
+    }
+    
+    @Override
+    public void forward(int distance) {
+        advance(distance);
+    }
+    
+    @Override
+    public void advance(double distance) {
+        if (recorder != null) {
+            recorder.forward(distance);
+        }
+        Pose from = getPose();
+        double x = from.getX();
+        double y = from.getY();
+        int fromX = getxPos();
+        int fromY = getyPos();
+        if (turbo) {
+            pose.forward(distance);
+            if (penDown) {
+                StrokeRasterizer stroker = antialias ? turboRasterizer() : null;
+                if (stroker != null) {
+                    stroker.line(x, y, pose.getX(), pose.getY(), penColour.getRGB(), penStroke.getLineWidth());
+                } else {
+                    turboGraphics().drawLine(fromX, fromY, pose.pixelX(), pose.pixelY());
+                }
+            }
+        } else {
+            super.forward((int) Math.round(distance)); // Animates, then the exact end point is put back below
+            pose.forward(distance);
+        }
+        setxPos(pose.pixelX());
+        setyPos(pose.pixelY());
+        if (penDown) {
+            displayList.addSegment((float) x, (float) y, (float) pose.getX(), (float) pose.getY());
+        }
+        markTurtleDirty(fromX, fromY);
+        markTurtleDirty(getxPos(), getyPos());
+    }
+    
+    @Override
+    public void circle(int radius) {
+        if (recorder != null) {
+            recorder.circle(radius);
+        }
+        if (!turbo) {
+            super.circle(radius);
+        } else if (penDown) {
+            StrokeRasterizer stroker = antialias ? turboRasterizer() : null;
+            if (stroker != null) {
+                stroker.circle(getPose().getX(), getPose().getY(), radius, penColour.getRGB(), penStroke.getLineWidth());
+            } else {
+                turboGraphics().drawOval(getxPos() - radius, getyPos() - radius, radius * 2, radius * 2);
+            }
+        }
+        if (penDown) {
+            displayList.addCircle((float) getPose().getX(), (float) getPose().getY(), radius);
+        }
+    }
+    
+    @Override
+    public void left(int angle) {
+        if (recorder != null) {
+            recorder.turn(-angle);
+        }
+        getPose();
+        super.left(angle);
+        pose.rotate(-angle);
+        direction = pose.direction();
+        markTurtleDirty(getxPos(), getyPos());
+    }
+    
+    @Override
+    public void right(int angle) {
+        if (recorder != null) {
+            recorder.turn(angle);
+        }
+        getPose();
+        super.right(angle);
+        pose.rotate(angle);
+        direction = pose.direction();
+        markTurtleDirty(getxPos(), getyPos());
+    }
+    
+    @Override
+    public void rotate(double degrees) {
+        if (recorder != null) {
+            recorder.turn(degrees);
+        }
+        getPose().rotate(degrees);
+        direction = pose.direction();
+        markTurtleDirty(getxPos(), getyPos());
+        if (!turbo) {
+            repaint();
+        }
+    }
+    
+    // The exact pose, taken from the LBUGraphics ints again if something there moved the turtle (e.g. reset)
+    @Override
+    public Pose getPose() {
+        if (pose.pixelX() != xPos || pose.pixelY() != yPos || pose.direction() != Math.floorMod(direction, 360)) {
+            pose.set(xPos, yPos, direction);
+        }
+        return pose;
+    }
+    
+    @Override
+    public void reset() {
+        if (recorder != null) {
+            recorder.reset();
+        }
+        super.reset();
+    }
+    
+    @Override
+    public void clear() {
+        if (recorder != null) {
+            recorder.clear();
+        }
+        super.clear();
+        BufferedImage image = getBufferedImage();
+        displayList.clear(image.getWidth(), image.getHeight());
+    }
+    
+    @Override
+    public void setBufferedImage(BufferedImage image) {
+        if (recorder != null) {
+            recorder.keyframe(image, this);
+        }
+        super.setBufferedImage(image);
+        displayList.setBaseImage(image);
+    }
+    
+    @Override
+    public void setPenColour(Color colour) {
+        if (recorder != null) {
+            recorder.penColour(colour.getRGB());
+        }
+        super.setPenColour(colour);
+        penColour = colour;
+        displayList.setPen(colour.getRGB(), penStroke.getLineWidth());
+    }
+    
+    @Override
+    public void setStroke(int width) {
+        if (recorder != null) {
+            recorder.penWidth(width);
+        }
+        super.setStroke(width);
+        penStroke = new BasicStroke(width);
+        displayList.setPen(penColour.getRGB(), width);
+    }
+    
+    public DisplayList getDisplayList() {
+        return displayList;
+    }
+    
+    public int getStroke() {
+        return (int) penStroke.getLineWidth();
+    }
+    
+    // The turtle sprite is drawn at its position, so moving or turning it dirties that area
+    private void markTurtleDirty(int x, int y) {
+        displayList.markDirty(x - TURTLE_EXTENT, y - TURTLE_EXTENT, x + TURTLE_EXTENT, y + TURTLE_EXTENT);
+    }
+    
+    // Painting the canvas and turtle counts as the repaint phase of RenderStats
+    @Override
+    public void paint(Graphics g) {
+        long start = System.nanoTime();
+        super.paint(g);
+        RenderStats.get().recordPhase(RenderStats.REPAINT, System.nanoTime() - start);
+    }
+    
+    // Every repaint, LBUGraphics' own per-step ones included, is coalesced by the scheduler
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (repaintScheduler == null) {
+            super.repaint(tm, x, y, width, height); // Called from the LBUGraphics constructor
+            return;
+        }
+        repaintScheduler.repaint(x, y, width, height);
+    }
+    
+    // Repaint only the area drawn on since the last repaint
+    private void repaintDirty() {
+        Rectangle dirty = displayList.takeDirty();
+        if (dirty != null) {
+            repaint(dirty);
+        }
+    }
+    
+    // Show the area around (x, y) magnified. Only primitives inside the viewport are drawn.
+    private void showZoom(int factor, int x, int y) {
+        BufferedImage image = getBufferedImage();
+        int width = image.getWidth() / factor;
+        int height = image.getHeight() / factor;
+        Rectangle viewport = new Rectangle(x - width / 2, y - height / 2, width, height);
+        BufferedImage zoomed = displayList.renderViewport(viewport, factor, Color.BLACK);
+        JOptionPane.showMessageDialog(mainFrame, new JLabel(new ImageIcon(zoomed)),
+            "Zoom " + factor + "x at (" + x + ", " + y + ")", JOptionPane.PLAIN_MESSAGE);
+    }
+    
+    //Save the recorded drawing as an SVG file
+    public void saveSvg(String filename) {
+        BufferedImage image = getBufferedImage();
+        try (Writer writer = new BufferedWriter(new FileWriter(filename + ".svg"))) {
+            displayList.writeSvg(writer, image.getWidth(), image.getHeight(), Color.BLACK);
+            displayMessage("Drawing saved as " + filename + ".svg");
+            appendToCommandHistory("Drawing saved as " + filename + ".svg");
+        } catch (Exception e) {
+            displayMessage("Error saving SVG: " + e.getMessage());
+            appendToCommandHistory("Error saving SVG: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void setPenState(boolean penDown) {
+        if (recorder != null) {
+            recorder.penState(penDown);
+        }
+        super.setPenState(penDown);
+        this.penDown = penDown;
+    }
+    
+    // Graphics for drawing directly on the canvas image with the current pen
+    private StrokeRasterizer turboRasterizer() {
+        BufferedImage image = getBufferedImage();
+        if (turboRasterizer == null || !turboRasterizer.drawsOn(image)) {
+            turboRasterizer = StrokeRasterizer.forImage(image);
+        }
+        return turboRasterizer;
+    }
+    
+    // Draw turbo mode lines and circles anti-aliased, or at whole pixels as LBUGraphics does
+    @Override
+    public void setAntialias(boolean antialias) {
+        this.antialias = antialias;
+        if (antialiasItem != null) {
+            antialiasItem.setSelected(antialias);
+        }
+    }
+    
+    @Override
+    public boolean isAntialiased() {
+        return antialias;
+    }
+    
+    private Graphics2D turboGraphics() {
+        BufferedImage image = getBufferedImage();
+        if (image != turboImage) {
+            if (turboGraphics != null) {
+                turboGraphics.dispose();
+            }
+            turboImage = image;
+            turboGraphics = image.createGraphics();
+        }
+        turboGraphics.setColor(penColour);
+        turboGraphics.setStroke(penStroke);
+        return turboGraphics;
+    }
+    
+     // Set pen color using color name
+    private void setPenColour(String colorName) {
+        switch(colorName.toLowerCase()) {
+            case "red":     setPenColour(Color.RED); break;
+            case "green":   setPenColour(Color.GREEN); break;
+            case "blue":    setPenColour(Color.BLUE); break;
+            case "black":   setPenColour(Color.BLACK); break;
+            case "yellow":  setPenColour(Color.YELLOW); break;
+            case "cyan":    setPenColour(Color.CYAN); break;
+            case "magenta": setPenColour(Color.MAGENTA); break;
+            case "white":   setPenColour(Color.WHITE); break;
+            case "gray":    setPenColour(Color.GRAY); break;
+            default: 
+                displayMessage("Available colors: red, green, blue, black, yellow, cyan, magenta, white, gray");
+                return;
+        }
+        displayMessage("Pen color: " + colorName);
+    }
+    
+     //Set pen color using RGB values
+    private void setpencolour(int red, int green, int blue) {
+        setPenColour(new Color(red, green, blue));
+    }
+
+     // Draw a square with given size
+    private void drawSquare(int size) {
+        Shapes.square(this, size);
+    }
+
+     // Check if three sides can form a valid triangle
+    private boolean isValidTriangle(int a, int b, int c) {
+        return Shapes.isValidTriangle(a, b, c);
+    }
+   
+     //Draw an equilateral triangle
+    private void equilateralTriangle(int size) {
+        Shapes.equilateralTriangle(this, size);
+    }
+
+  
+     // Draw a triangle with specified side lengths
+     private void drawTriangle(int side1, int side2, int side3) {
+     // First validate if the sides can form a triangle
+        if (side1 + side2 <= side3 || side1 + side3 <= side2 || side2 + side3 <= side1) {
+            displayMessage("Invalid triangle - sum of any two sides must be greater than the third");
+            appendToCommandHistory("Error: Invalid triangle sides provided");
+            return;
+        }
+        
+        Shapes.triangle(this, side1, side2, side3);
+    }
+   
+  
+    //Save current drawing to file, encoded in the background
+    public void saveDrawing(String filename) {
+        exportPng(pngEncoder.writeAsync(snapshotCanvas(), new File(filename + ".png")));
+    }
+
+
+    //Save the drawing re-rendered at scale times the canvas size, tiles are rasterized in parallel
+    public void saveDrawing(String filename, double scale) {
+        BufferedImage image = getBufferedImage();
+        int width = (int) Math.ceil(image.getWidth() * scale);
+        int height = (int) Math.ceil(image.getHeight() * scale);
+        File file = new File(filename + ".png");
+        // renderTiled copies the display list first, so both steps can run off this thread
+        exportPng(CompletableFuture
+            .supplyAsync(() -> displayList.renderTiled(width, height, scale, Color.BLACK, ForkJoinPool.commonPool()))
+            .thenCompose(poster -> pngEncoder.writeAsync(poster, file)));
+    }
+
+    // Copy of the canvas that the export thread can encode while drawing goes on
+    private BufferedImage snapshotCanvas() {
+        BufferedImage image = getBufferedImage();
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    // Report a background PNG export when it finishes. The drawing counts as saved from now on
+    // since the snapshot was taken, unless the export fails.
+    private void exportPng(CompletableFuture<PngEncoder.Result> export) {
+        imageSaved = true;
+        export.whenComplete((result, error) -> SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    imageSaved = false;
+                    displayMessage("Error saving: " + cause.getMessage());
+                    appendToCommandHistory("Error saving: " + cause.getMessage());
+                } else {
+                    displayMessage("Drawing saved as " + result.file.getName());
+                    appendToCommandHistory("Drawing saved as " + result.file.getName() + " (" + result.bytes
+                        + " bytes in " + result.millis + " ms)");
+                }
+            }
+        }));
+    }
+
+    // pngoptions <level> [filter]: compression used by later PNG saves
+    private void setPngOptions(String[] parts) {
+        int filter = pngEncoder.getFilter();
+        if (parts.length == 3) {
+            filter = PngEncoder.filterNamed(parts[2]);
+            if (filter < 0) {
+                displayMessage("Filter must be one of " + String.join(", ", PngEncoder.FILTER_NAMES));
+                appendToCommandHistory("Error: Invalid PNG filter");
+                return;
+            }
+        }
+        try {
+            int level = Integer.parseInt(parts[1]);
+            if (level < 0 || level > 9) {
+                displayMessage("Compression level must be between 0 and 9");
+                appendToCommandHistory("Error: Invalid compression level");
+                return;
+            }
+            pngEncoder = new PngEncoder(level, filter);
+            displayMessage("PNG compression " + level + ", filter " + PngEncoder.FILTER_NAMES[filter]);
+            appendToCommandHistory("PNG compression " + level + ", filter " + PngEncoder.FILTER_NAMES[filter]);
+        } catch (NumberFormatException e) {
+            displayMessage("Invalid compression level - must be integer");
+            appendToCommandHistory("Error: Invalid compression level format");
+        }
+    }
+
+
+     //Load drawing from file
+     public void loadDrawing(String filename) {
+        try {
+            BufferedImage image = ImageLoader.read(new File(filename));
+            if (image == null) throw new IOException("unsupported image " + filename);
+            setBufferedImage(image);
+            displayMessage("Drawing loaded from " + filename);
+            appendToCommandHistory("Drawing loaded from " + filename);
+            imageSaved = true;
+        } catch (Exception e) {
+            displayMessage("Error loading: " + e.getMessage());
+            appendToCommandHistory("Error loading: " + e.getMessage());
+        }
+    }
+       
+    @Override
+    //Custom about method that draws the AYUSHREE'S nsme
+    public void about() {
+        Shapes.name(this);
+    }
+     
+ // Draw Olympic logo
+     public void drawOlympicsLogo() {
+        Shapes.olympics(this);
+    }
+    
+    // stats shows the report in a dialog, the other forms are handled by RenderStats
+    private void showStats(String[] parts) {
+        String result;
+        try {
+            result = RenderStats.get().command(parts);
+        } catch (IOException e) {
+            displayMessage("Could not write stats: " + e.getMessage());
+            appendToCommandHistory("Error: Could not write stats: " + e.getMessage());
+            return;
+        }
+        if (result == null) {
+            displayMessage(RenderStats.SYNTAX);
+            appendToCommandHistory("Error: " + RenderStats.SYNTAX);
+        } else if (parts.length > 1) {
+            displayMessage(result);
+            appendToCommandHistory(result);
+        } else {
+            JTextArea textArea = new JTextArea(result);
+            textArea.setEditable(false);
+            textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JOptionPane.showMessageDialog(mainFrame, new JScrollPane(textArea), "Render Statistics",
+                JOptionPane.INFORMATION_MESSAGE);
+            appendToCommandHistory("Displayed stats");
+        }
+    }
+    
+    // Display help information in a dialog box
+    private void showHelp() {
+        StringBuilder helpText = new StringBuilder();
+        helpText.append("=== Turtle Graphics Commands ===\n\n");
+        
+            helpText.append("Movement:\n");
+            helpText.append("  forward <n> or move <n> - Move forward n pixels\n");
+            helpText.append("  backward <n> or reverse <n> - Move backward n pixels\n");
+            helpText.append("  left <degrees> - Turn left by specified degrees (default 90)\n");
+            helpText.append("  right <degrees> or rt <degrees> - Turn right by specified degrees (default 90)\n");
+            helpText.append("  setspeed <0-10> - Set animation speed (1=slowest, 10=fastest, 0=turbo, no animation)\n");
+            helpText.append("  fps [0-240] - Repaint at most this often while drawing (0=every step)\n");
+            helpText.append("  record <file>|off - Record everything the turtle does to a session file\n");
+            helpText.append("  play <file> [first] [count] - Run a recorded session, from any command\n\n");
+            
+            helpText.append("Pen Control:\n");
+            helpText.append("  penup or pu - Lift pen (stop drawing)\n");
+            helpText.append("  pendown or pd - Lower pen (start drawing)\n");
+            helpText.append("  penwidth <size> - Set pen thickness in pixels\n");
+            helpText.append("  antialias [on|off] - Smooth lines and circles drawn in turbo mode\n");
+            helpText.append("  red/green/blue/black - Set pen color to specified color\n");
+            helpText.append("  pen <r> <g> <b> - Set custom RGB color (0-255 for each)\n\n");
+            
+            helpText.append("Shapes:\n");
+            helpText.append("  circle <radius> - Draw circle with given radius\n");
+            helpText.append("  square <size> - Draw square with given side length\n");
+            helpText.append("  triangle <size> - Draw equilateral triangle\n");
+            helpText.append("  triangle <side1> <side2> <side3> - Draw custom triangle\n");
+            helpText.append("  olympics - Draw Olympic rings logo\n");
+            helpText.append("  name - Draw your name\n\n");
+            
+            helpText.append("Canvas Control:\n");
+            helpText.append("  clear - Clear the canvas (with warning if unsaved)\n");
+            helpText.append("  reset - Reset turtle to center position\n");
+            helpText.append("  about - Show program information and animation\n");
+            helpText.append("  pick <x> <y> - Describe the line or circle drawn at a point\n");
+            helpText.append("  zoom <factor> <x> <y> - Show the drawing magnified around a point\n");
+            helpText.append("  undo [count] - Take back the last command(s), also Ctrl+Z\n");
+            helpText.append("  redo [count] - Run undone command(s) again, also Ctrl+Y\n");
+            helpText.append("  stats [reset | profile on|off | save <file> | dump <file>|off] - Where the time goes\n\n");
+            
+            helpText.append("File Operations:\n");
+            helpText.append("  save <filename> - Save drawing as PNG image\n");
+            helpText.append("  save <filename> <scale> - Save drawing re-rendered at 1-32x size\n");
+            helpText.append("  load <filename> - Load image file\n");
+            helpText.append("  svg <filename> - Save drawing as SVG vector image\n");
+            helpText.append("  pngoptions <0-9> [filter] - PNG compression level and row filter\n");
+            helpText.append("  (Menu options also available for saving/loading)\n\n");
+            
+            helpText.append("Loops and Procedures:\n");
+            helpText.append("  repeat <n> [ commands ] - Run commands n times, repcount is the iteration\n");
+            helpText.append("  to <name> :a :b ... end - Define a procedure, then call it as <name> 10 20\n");
+            helpText.append("  make \"x <value> - Set variable x, use it as :x\n");
+            helpText.append("  if <condition> [ commands ] - e.g. if :depth > 0 [ ... ], stop leaves a procedure\n");
+            helpText.append("  Values can be expressions: forward :size * 0.7 + 5\n");
+            helpText.append("  turtle create <name> - Another turtle, then e.g. <name> forward 50 or <name> repeat 4 [ ... ]\n");
+            helpText.append("  turtle remove <name> - Forget a named turtle\n\n");
+            
+            helpText.append("Special Features:\n");
+            helpText.append("  help - Show this help message\n");
+            helpText.append("  Menu options for advanced file operations\n");
+            helpText.append("  Command history tracking\n");
+            helpText.append("  Unsaved changes warnings\n\n");
+            
+            helpText.append("Bounds and Limits:\n");
+            helpText.append("  - Movement distance limited to 1000 pixels\n");
+            helpText.append("  - Angles limited to -360 to 360 degrees\n");
+            helpText.append("  - Shape sizes limited to 500 pixels\n");
+            helpText.append("  - Turtle cannot move off screen\n\n");
+            
+            helpText.append("Examples:\n");
+            helpText.append("  move 100 - Move forward 100 pixels\n");
+            helpText.append("  right 45 - Turn right 45 degrees\n");
+            helpText.append("  pen 255 0 0 - Set pen to red (RGB)\n");
+            helpText.append("  square 50 - Draw square with 50px sides\n");
+            helpText.append("  triangle 60 80 100 - Draw custom triangle\n");
+
+        
+        JTextArea textArea = new JTextArea(helpText.toString());
+        textArea.setEditable(false);
+        textArea.setLineWrap(true);
+        textArea.setWrapStyleWord(true);
+        
+        JScrollPane scrollPane = new JScrollPane(textArea);
+        scrollPane.setPreferredSize(new Dimension(500, 500));
+        
+        JOptionPane.showMessageDialog(
+            mainFrame,
+            scrollPane,
+            "Turtle Graphics Help - Complete Command Reference",
+            JOptionPane.INFORMATION_MESSAGE
+        ); 
+        appendToCommandHistory("Displayed complete help dialog");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.turtle;
+
+import java.awt.Color;
+
+// Turtle primitives shared by the windowed application and the headless engine.
+// TurtleGraphics gets these from LBUGraphics, HeadlessTurtle implements them itself.
+public interface TurtleOps {
+
+    // Move forward by distance pixels, drawing if the pen is down
+    void forward(int distance);
+
+    // Turn left (anticlockwise) by angle degrees
+    void left(int angle);
+
+    // Turn right (clockwise) by angle degrees
+    void right(int angle);
+
+    // Move by a fractional distance, drawing if the pen is down. The exact position is kept.
+    void advance(double distance);
+
+    // Turn clockwise by a fractional number of degrees, anticlockwise if negative
+    void rotate(double degrees);
+
+    // Exact position and heading, getxPos/getyPos/getDirection are these rounded. Do not modify.
+    Pose getPose();
+
+    // Draw a circle of the given radius centred on the turtle
+    void circle(int radius);
+
+    void setPenState(boolean penDown);
+
+    void setPenColour(Color colour);
+
+    void setStroke(int width);
+
+    // Animation speed, ignored by engines that do not animate
+    void setTurtleSpeed(int speed);
+
+    // Move the turtle back to its start position and heading
+    void reset();
+
+    // Wipe the canvas
+    void clear();
+
+    int getxPos();
+
+    int getyPos();
+
+    int getDirection();
+
+    // Size of the drawing area
+    int getWidth();
+
+    int getHeight();
+
+    // Show a status or error message to the user
+    void displayMessage(String message);
+
+    // Save the canvas as filename.png
+    void saveDrawing(String filename);
+
+    // Re-render the drawing at scale times the canvas size and save it as filename.png
+    void saveDrawing(String filename, double scale);
+
+    // Replace the canvas with an image file
+    void loadDrawing(String filename);
+
+    // Save the recorded drawing as filename.svg
+    void saveSvg(String filename);
+
+    // Named turtles drawing on the same canvas, see TurtleSwarm
+    TurtleSwarm getSwarm();
+}
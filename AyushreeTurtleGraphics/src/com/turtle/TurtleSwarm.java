@@ -0,0 +1,550 @@
+package com.turtle;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Named turtles sharing the canvas of an engine's own turtle: "turtle create t2", then "t2 forward 50".
+//
+// Each named turtle has its own pose and pen and runs the commands addressed to it, but instead of
+// drawing on the canvas it adds each line or circle to a buffer of its own, with its pen and a
+// sequence number. The buffers are merged into the canvas when a script run ends, when they hold
+// FLUSH_STROKES strokes between them, and before anything else draws on or reads the canvas (the
+// engine's own turtle drawing, clear, save, load).
+//
+// A merge puts turtles whose buffered strokes overlap (by bounding box, padded for the pen) into
+// one group. A group of one turtle draws its buffer in order, a larger group draws its buffers
+// interleaved by sequence number, so the canvas ends up exactly as if every stroke had been drawn
+// as it was made. Groups touch disjoint pixels, so they are drawn in parallel on the common
+// ForkJoinPool: through a Graphics2D of their own on a sub-image of the canvas, or through a
+// StrokeRasterizer clipped to the group when anti-aliasing. Swarms of turtles working on their own
+// parts of the canvas are drawn on every core.
+//
+// While the engine records a session, each merge also writes its strokes there in the order they
+// were made, as the moves of the engine's own turtle (pose, pen, forward or circle), and then puts
+// back the engine's pose and pen, so playback draws them without a swarm.
+public final class TurtleSwarm {
+    public static final int FLUSH_STROKES = 1 << 14; // Buffered strokes, all turtles together, that force a merge
+    private static final int PARALLEL_STROKES = 256; // Merges of fewer strokes are drawn on the calling thread
+
+    private static final byte LINE = 0;
+    private static final byte CIRCLE = 1;
+
+    // What the swarm needs from the engine it draws for, besides what undo needs
+    public interface Host extends UndoHistory.Target {
+        // The canvas, ready to be drawn on (copied first if a snapshot still refers to it)
+        BufferedImage canvasForSwarm();
+
+        // The swarm drew within (x0, y0) - (x1, y1), inclusive and inside the canvas
+        void swarmDrew(int x0, int y0, int x1, int y1);
+
+        // The session being recorded, null if none
+        SessionWriter getRecorder();
+    }
+
+    private final Host host;
+    private final Map<String, NamedTurtle> turtles = new LinkedHashMap<>();
+    private long sequence; // Order in which strokes were made, across every turtle
+    private int pending;   // Strokes buffered, all turtles together
+
+    public TurtleSwarm(Host host) {
+        this.host = host;
+    }
+
+    // ========== TURTLES ==========
+
+    // A turtle called name at the pose and with the pen of parent. An existing one is moved there.
+    public TurtleOps create(String name, TurtleOps parent) {
+        NamedTurtle turtle = turtles.get(name);
+        if (turtle == null) {
+            turtle = new NamedTurtle(name);
+            turtles.put(name, turtle);
+        }
+        Pose from = parent.getPose();
+        turtle.pose.set(from.getX(), from.getY(), from.getHeading());
+        if (parent instanceof NamedTurtle) {
+            NamedTurtle named = (NamedTurtle) parent;
+            turtle.penDown = named.penDown;
+            turtle.rgb = named.rgb;
+            turtle.width = named.width;
+        } else {
+            Color colour = host.getPenColour();
+            turtle.penDown = host.getPenState();
+            turtle.rgb = colour == null ? Color.RED.getRGB() : colour.getRGB();
+            turtle.width = host.getStroke();
+        }
+        return turtle;
+    }
+
+    // Forget the turtle called name after drawing what it has buffered. False if there is none.
+    public boolean remove(String name) {
+        if (!turtles.containsKey(name)) return false;
+        flush();
+        turtles.remove(name);
+        return true;
+    }
+
+    // Forget every turtle and anything still buffered, e.g. before the next script of a batch
+    public void removeAll() {
+        turtles.clear();
+        pending = 0;
+    }
+
+    // The turtle called name, or null
+    public TurtleOps get(String name) {
+        return turtles.get(name);
+    }
+
+    // Names of the turtles, in the order they were created
+    public List<String> names() {
+        return new ArrayList<>(turtles.keySet());
+    }
+
+    // Whether any strokes are waiting to be drawn
+    public boolean hasPending() {
+        return pending > 0;
+    }
+
+    // ========== MERGING ==========
+
+    // Draw every buffered stroke on the canvas and record it in the display list
+    public void flush() {
+        if (pending == 0) return;
+        List<NamedTurtle> drawing = new ArrayList<>();
+        for (NamedTurtle turtle : turtles.values()) {
+            if (turtle.count > 0) {
+                drawing.add(turtle);
+            }
+        }
+        BufferedImage canvas = host.canvasForSwarm();
+        List<Group> groups = group(drawing, canvas.getWidth(), canvas.getHeight());
+        boolean antialias = host.isAntialiased();
+        if (groups.size() > 1 && pending >= PARALLEL_STROKES) {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (Group group : groups) {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        group.draw(canvas, antialias);
+                    }
+                });
+            }
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (Group group : groups) {
+                group.draw(canvas, antialias);
+            }
+        }
+        record(drawing);
+
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+        for (Group group : groups) {
+            if (group.x0 <= group.x1 && group.y0 <= group.y1) {
+                x0 = Math.min(x0, group.x0);
+                y0 = Math.min(y0, group.y0);
+                x1 = Math.max(x1, group.x1);
+                y1 = Math.max(y1, group.y1);
+            }
+        }
+        for (NamedTurtle turtle : drawing) {
+            turtle.clearBuffer();
+        }
+        pending = 0;
+        if (x0 <= x1) {
+            host.swarmDrew(x0, y0, x1, y1);
+        }
+    }
+
+    // Turtles whose bounds overlap, directly or through others, in groups, with each group's
+    // bounds cut to the canvas
+    private static List<Group> group(List<NamedTurtle> drawing, int width, int height) {
+        int n = drawing.size();
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            NamedTurtle a = drawing.get(i);
+            for (int j = i + 1; j < n; j++) {
+                NamedTurtle b = drawing.get(j);
+                if (a.minX <= b.maxX && b.minX <= a.maxX && a.minY <= b.maxY && b.minY <= a.maxY) {
+                    parent[root(parent, i)] = root(parent, j);
+                }
+            }
+        }
+        Map<Integer, Group> groups = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            groups.computeIfAbsent(root(parent, i), key -> new Group()).add(drawing.get(i));
+        }
+        for (Group group : groups.values()) {
+            group.x0 = Math.max(group.x0, 0);
+            group.y0 = Math.max(group.y0, 0);
+            group.x1 = Math.min(group.x1, width - 1);
+            group.y1 = Math.min(group.y1, height - 1);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // Add the strokes to the display list, and any session being recorded, in the order they were
+    // made, then give both back the pen of the engine's own turtle
+    private void record(List<NamedTurtle> drawing) {
+        DisplayList displayList = host.getDisplayList();
+        SessionWriter recorder = host.getRecorder();
+        int recordedRgb = 0;
+        int recordedWidth = -1;
+        int[] next = new int[drawing.size()];
+        NamedTurtle[] turtles = drawing.toArray(new NamedTurtle[0]);
+        int t;
+        while ((t = earliest(turtles, next)) >= 0) {
+            NamedTurtle turtle = turtles[t];
+            int i = next[t]++;
+            double[] c = turtle.coords;
+            displayList.setPen(turtle.colours[i], turtle.widths[i]);
+            if (turtle.kinds[i] == LINE) {
+                displayList.addSegment((float) c[i * 4], (float) c[i * 4 + 1], (float) c[i * 4 + 2], (float) c[i * 4 + 3]);
+            } else {
+                displayList.addCircle((float) c[i * 4], (float) c[i * 4 + 1], (float) c[i * 4 + 2]);
+            }
+            if (recorder == null) continue;
+            if (recordedWidth < 0) {
+                recorder.penState(true);
+            }
+            if (turtle.colours[i] != recordedRgb || recordedWidth < 0) {
+                recordedRgb = turtle.colours[i];
+                recorder.penColour(recordedRgb);
+            }
+            if (turtle.widths[i] != recordedWidth) {
+                recordedWidth = turtle.widths[i];
+                recorder.penWidth(recordedWidth);
+            }
+            // From the same pose and heading the playback moves exactly as the named turtle did
+            recorder.pose(c[i * 4], c[i * 4 + 1], turtle.headings[i]);
+            if (turtle.kinds[i] == LINE) {
+                recorder.forward(turtle.distances[i]);
+            } else {
+                recorder.circle(c[i * 4 + 2]);
+            }
+        }
+        Color colour = host.getPenColour();
+        if (colour != null) {
+            displayList.setPen(colour.getRGB(), host.getStroke());
+        }
+        if (recorder != null) {
+            Pose pose = host.getPose();
+            recorder.pose(pose.getX(), pose.getY(), pose.getHeading());
+            recorder.penColour(colour == null ? 0 : colour.getRGB());
+            recorder.penWidth(host.getStroke());
+            recorder.penState(host.getPenState());
+        }
+    }
+
+    // Index of the turtle whose next stroke was made first, -1 once every buffer is used up
+    private static int earliest(NamedTurtle[] turtles, int[] next) {
+        int best = -1;
+        long bestOrder = Long.MAX_VALUE;
+        for (int t = 0; t < turtles.length; t++) {
+            if (next[t] < turtles[t].count && turtles[t].order[next[t]] < bestOrder) {
+                bestOrder = turtles[t].order[next[t]];
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    // Turtles drawn together, and the canvas area they can touch
+    private static final class Group {
+        final List<NamedTurtle> turtles = new ArrayList<>();
+        int x0 = Integer.MAX_VALUE;
+        int y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE;
+        int y1 = Integer.MIN_VALUE;
+
+        void add(NamedTurtle turtle) {
+            turtles.add(turtle);
+            x0 = Math.min(x0, turtle.minX);
+            y0 = Math.min(y0, turtle.minY);
+            x1 = Math.max(x1, turtle.maxX);
+            y1 = Math.max(y1, turtle.maxY);
+        }
+
+        // Draw the group's strokes in the order they were made, writing only inside its area
+        void draw(BufferedImage canvas, boolean antialias) {
+            if (x0 > x1 || y0 > y1) return; // Entirely off the canvas
+            // Canvases StrokeRasterizer cannot draw on fall back to Graphics2D, as the engines do
+            StrokeRasterizer stroker = antialias ? StrokeRasterizer.forImage(canvas) : null;
+            Graphics2D g = null;
+            if (stroker != null) {
+                stroker.setClip(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+            } else {
+                g = canvas.getSubimage(x0, y0, x1 - x0 + 1, y1 - y0 + 1).createGraphics();
+                g.translate(-x0, -y0);
+            }
+            NamedTurtle[] members = turtles.toArray(new NamedTurtle[0]);
+            int[] next = new int[members.length];
+            int rgb = 0;
+            int width = -1;
+            int t;
+            while ((t = earliest(members, next)) >= 0) {
+                NamedTurtle turtle = members[t];
+                int i = next[t]++;
+                double[] c = turtle.coords;
+                int c4 = i * 4;
+                if (stroker != null) {
+                    if (turtle.kinds[i] == LINE) {
+                        stroker.line(c[c4], c[c4 + 1], c[c4 + 2], c[c4 + 3], turtle.colours[i], turtle.widths[i]);
+                    } else {
+                        stroker.circle(c[c4], c[c4 + 1], c[c4 + 2], turtle.colours[i], turtle.widths[i]);
+                    }
+                    continue;
+                }
+                if (turtle.colours[i] != rgb || width < 0) {
+                    rgb = turtle.colours[i];
+                    g.setColor(new Color(rgb, true));
+                }
+                if (turtle.widths[i] != width) {
+                    width = turtle.widths[i];
+                    g.setStroke(new BasicStroke(width));
+                }
+                // The same whole pixel coordinates the engines draw with
+                if (turtle.kinds[i] == LINE) {
+                    g.drawLine(Pose.pixel(c[c4]), Pose.pixel(c[c4 + 1]), Pose.pixel(c[c4 + 2]), Pose.pixel(c[c4 + 3]));
+                } else {
+                    int radius = (int) c[c4 + 2];
+                    g.drawOval(Pose.pixel(c[c4]) - radius, Pose.pixel(c[c4 + 1]) - radius, radius * 2, radius * 2);
+                }
+            }
+            if (g != null) {
+                g.dispose();
+            }
+        }
+    }
+
+    // ========== NAMED TURTLES ==========
+
+    // A turtle of its own whose strokes go to its buffer. Canvas-wide commands draw the buffers
+    // first and then go to the engine.
+    private final class NamedTurtle implements TurtleOps {
+        final String name;
+        final Pose pose = new Pose();
+        boolean penDown = true;
+        int rgb = Color.RED.getRGB();
+        int width = 2;
+
+        // Buffered strokes: a kind, four coordinates (x0, y0, x1, y1 or cx, cy, r, 0), the heading and
+        // distance moved (for recording), the pen and the order made
+        int count;
+        byte[] kinds = new byte[64];
+        double[] coords = new double[64 * 4];
+        double[] headings = new double[64];
+        double[] distances = new double[64];
+        int[] colours = new int[64];
+        int[] widths = new int[64];
+        long[] order = new long[64];
+        // Pixels the buffered strokes can touch
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        NamedTurtle(String name) {
+            this.name = name;
+        }
+
+        private void buffer(byte kind, double a, double b, double c, double d, double distance, double left,
+                            double top, double right, double bottom) {
+            if (count == kinds.length) {
+                int size = count * 2;
+                kinds = Arrays.copyOf(kinds, size);
+                coords = Arrays.copyOf(coords, size * 4);
+                headings = Arrays.copyOf(headings, size);
+                distances = Arrays.copyOf(distances, size);
+                colours = Arrays.copyOf(colours, size);
+                widths = Arrays.copyOf(widths, size);
+                order = Arrays.copyOf(order, size);
+            }
+            kinds[count] = kind;
+            coords[count * 4] = a;
+            coords[count * 4 + 1] = b;
+            coords[count * 4 + 2] = c;
+            coords[count * 4 + 3] = d;
+            headings[count] = pose.getHeading();
+            distances[count] = distance;
+            colours[count] = rgb;
+            widths[count] = width;
+            order[count] = sequence++;
+            count++;
+            // Square caps reach width / sqrt 2 past the ends, anti-aliasing a pixel more, rounding one more
+            int reach = width + 2;
+            minX = Math.min(minX, (int) Math.floor(left) - reach);
+            minY = Math.min(minY, (int) Math.floor(top) - reach);
+            maxX = Math.max(maxX, (int) Math.ceil(right) + reach);
+            maxY = Math.max(maxY, (int) Math.ceil(bottom) + reach);
+            if (++pending >= FLUSH_STROKES) {
+                flush();
+            }
+        }
+
+        void clearBuffer() {
+            count = 0;
+            minX = minY = Integer.MAX_VALUE;
+            maxX = maxY = Integer.MIN_VALUE;
+        }
+
+        @Override
+        public void forward(int distance) {
+            advance(distance);
+        }
+
+        @Override
+        public void advance(double distance) {
+            double x = pose.getX();
+            double y = pose.getY();
+            pose.forward(distance);
+            if (penDown) {
+                double toX = pose.getX();
+                double toY = pose.getY();
+                buffer(LINE, x, y, toX, toY, distance, Math.min(x, toX), Math.min(y, toY), Math.max(x, toX), Math.max(y, toY));
+            }
+        }
+
+        @Override
+        public void left(int angle) {
+            pose.rotate(-angle);
+        }
+
+        @Override
+        public void right(int angle) {
+            pose.rotate(angle);
+        }
+
+        @Override
+        public void rotate(double degrees) {
+            pose.rotate(degrees);
+        }
+
+        @Override
+        public Pose getPose() {
+            return pose;
+        }
+
+        @Override
+        public void circle(int radius) {
+            if (penDown) {
+                double x = pose.getX();
+                double y = pose.getY();
+                buffer(CIRCLE, x, y, radius, 0, 0, x - radius, y - radius, x + radius, y + radius);
+            }
+        }
+
+        @Override
+        public void setPenState(boolean penDown) {
+            this.penDown = penDown;
+        }
+
+        @Override
+        public void setPenColour(Color colour) {
+            rgb = colour.getRGB();
+        }
+
+        @Override
+        public void setStroke(int width) {
+            this.width = width;
+        }
+
+        @Override
+        public void setTurtleSpeed(int speed) {
+            // Named turtles are never animated
+        }
+
+        @Override
+        public void reset() {
+            pose.set(host.getWidth() / 2, host.getHeight() / 2, 180); // Where the engine's turtle starts
+        }
+
+        @Override
+        public void clear() {
+            flush();
+            host.clear();
+        }
+
+        @Override
+        public int getxPos() {
+            return pose.pixelX();
+        }
+
+        @Override
+        public int getyPos() {
+            return pose.pixelY();
+        }
+
+        @Override
+        public int getDirection() {
+            return pose.direction();
+        }
+
+        @Override
+        public int getWidth() {
+            return host.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return host.getHeight();
+        }
+
+        @Override
+        public void displayMessage(String message) {
+            host.displayMessage(message);
+        }
+
+        @Override
+        public void saveDrawing(String filename) {
+            flush();
+            host.saveDrawing(filename);
+        }
+
+        @Override
+        public void saveDrawing(String filename, double scale) {
+            flush();
+            host.saveDrawing(filename, scale);
+        }
+
+        @Override
+        public void loadDrawing(String filename) {
+            flush();
+            host.loadDrawing(filename);
+        }
+
+        @Override
+        public void saveSvg(String filename) {
+            flush();
+            host.saveSvg(filename);
+        }
+
+        @Override
+        public TurtleSwarm getSwarm() {
+            return TurtleSwarm.this;
+        }
+
+        @Override
+        public String toString() {
+            return "turtle " + name;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.turtle;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Undo and redo for commands typed or picked from the menus.
+//
+// Every command that changes the turtle or the drawing becomes a step, kept compiled. Every few
+// steps the whole state is checkpointed: the canvas pixels deflated, the turtle and pen, and a
+// copy of the display list. Moving to another step restores the nearest checkpoint at or before
+// it and replays the compiled steps from there, so undo and redo cost one restore plus a bounded
+// replay however long the session has been going.
+// Steps that are not replayed (loads, scripts, anything else not compiled from one command line)
+// get a checkpoint on both sides instead.
+// Checkpoints are kept within a byte budget. Past it the oldest checkpoint goes, and with it the
+// steps that could only be reached from it.
+public class UndoHistory {
+    public static final int DEFAULT_INTERVAL = 16; // Steps between checkpoints
+    public static final long DEFAULT_BUDGET = 32L * 1024 * 1024; // Bytes of checkpoints kept
+    public static final long MAX_REPLAY_NANOS = 50_000_000; // Checkpoint early rather than replay for longer
+
+    // What undo needs from a turtle besides TurtleOps
+    public interface Target extends TurtleOps {
+        BufferedImage getBufferedImage();
+
+        DisplayList getDisplayList();
+
+        boolean getPenState();
+
+        Color getPenColour();
+
+        int getStroke();
+
+        // Whether lines and circles are drawn anti-aliased, see StrokeRasterizer
+        boolean isAntialiased();
+
+        void setAntialias(boolean antialias);
+
+        // Replace the canvas pixels with those of image (a TYPE_INT_RGB copy, or TYPE_INT_ARGB if
+        // the canvas it was taken from had alpha)
+        void restoreCanvas(BufferedImage image);
+
+        // Put the turtle at (x, y) facing heading without drawing
+        void restoreTurtle(double x, double y, double heading);
+
+        // Run a recorded step again, without animation
+        void replay(CompiledScript step);
+    }
+
+    private final Target target;
+    private final int interval;
+    private final long budget;
+
+    // steps.get(i) leads from state first + i to state first + i + 1
+    private final ArrayList<Step> steps = new ArrayList<>();
+    private final TreeMap<Integer, Checkpoint> checkpoints = new TreeMap<>();
+    private int first;    // Oldest state that can still be reached
+    private int position; // Current state
+    private long checkpointBytes;
+
+    // Step being run between begin and commit
+    private boolean pending;
+    private String pendingLabel;
+    private CompiledScript pendingScript;
+    private long pendingFingerprint;
+    private long pendingStart;
+
+    public UndoHistory(Target target) {
+        this(target, DEFAULT_INTERVAL, DEFAULT_BUDGET);
+    }
+
+    public UndoHistory(Target target, int interval, long budget) {
+        if (interval < 1 || budget < 0) {
+            throw new IllegalArgumentException("Undo interval must be positive and budget not negative");
+        }
+        this.target = target;
+        this.interval = interval;
+        this.budget = budget;
+        checkpoint();
+    }
+
+    // ========== RECORDING ==========
+
+    // Call before running a command line. Plain drawing commands are kept for replay.
+    public void begin(String command) {
+        CompiledScript script = ScriptCompiler.compile(command);
+        boolean replayable = script.size() > 0 && script.getErrors().length == 0 && !script.usesFiles()
+            && !script.usesTurtles();
+        begin(command.trim(), replayable ? script : null);
+    }
+
+    // Call before anything else that may change the drawing, e.g. a script or a loaded image
+    public void beginOpaque(String label) {
+        begin(label, null);
+    }
+
+    // Steps do not nest, the open one has to be committed first
+    private void begin(String label, CompiledScript script) {
+        if (pending) {
+            throw new IllegalStateException("Undo step \"" + pendingLabel + "\" is still open");
+        }
+        pending = true;
+        pendingLabel = label;
+        pendingScript = script;
+        pendingFingerprint = fingerprint();
+        pendingStart = System.nanoTime();
+        if (script == null && !checkpoints.containsKey(position)) {
+            checkpoint(); // The state before it has to be restorable without replaying it
+        }
+    }
+
+    // Call after the command has run. Returns true if it changed something and became a step.
+    public boolean commit() {
+        if (!pending) return false;
+        pending = false;
+        if (fingerprint() == pendingFingerprint) {
+            return false; // Rejected or only showed something
+        }
+        long nanos = System.nanoTime() - pendingStart;
+        dropRedo();
+        steps.add(new Step(pendingLabel, pendingScript, nanos));
+        position++;
+        int last = checkpoints.lastKey();
+        if (pendingScript == null || position - last >= interval || replayNanos(last, position) > MAX_REPLAY_NANOS) {
+            checkpoint();
+        }
+        return true;
+    }
+
+    // A new step replaces whatever could have been redone
+    private void dropRedo() {
+        int end = first + steps.size();
+        if (position < end) {
+            steps.subList(position - first, steps.size()).clear();
+            while (checkpoints.lastKey() > position) {
+                checkpointBytes -= checkpoints.pollLastEntry().getValue().bytes;
+            }
+        }
+    }
+
+    // ========== UNDO AND REDO ==========
+
+    // Go back count steps, fewer if the history does not go that far. Returns the steps undone.
+    public int undo(int count) {
+        return moveTo(Math.max(position - Math.max(count, 0), first));
+    }
+
+    // Go forward count undone steps. Returns the steps redone.
+    public int redo(int count) {
+        return moveTo(Math.min(position + Math.max(count, 0), first + steps.size()));
+    }
+
+    public boolean canUndo() {
+        return position > first;
+    }
+
+    public boolean canRedo() {
+        return position < first + steps.size();
+    }
+
+    // Label of the step undo would take back, or null
+    public String undoLabel() {
+        return canUndo() ? steps.get(position - 1 - first).label : null;
+    }
+
+    // Label of the step redo would run again, or null
+    public String redoLabel() {
+        return canRedo() ? steps.get(position - first).label : null;
+    }
+
+    private int moveTo(int state) {
+        int moved = Math.abs(state - position);
+        if (moved == 0) return 0;
+        Map.Entry<Integer, Checkpoint> base = checkpoints.floorEntry(state);
+        int from;
+        if (state > position && base.getKey() <= position) {
+            from = position; // Redo carries on from the current state, which is exact
+        } else {
+            restore(base.getValue());
+            from = base.getKey();
+        }
+        for (int s = from; s < state; s++) {
+            Step step = steps.get(s - first);
+            if (step.script == null) {
+                restore(checkpoints.get(s + 1));
+            } else {
+                target.replay(step.script);
+            }
+        }
+        position = state;
+        return moved;
+    }
+
+    // How long replaying the steps between two states took when they first ran
+    private long replayNanos(int from, int to) {
+        long nanos = 0;
+        for (int s = from; s < to; s++) {
+            nanos += steps.get(s - first).nanos;
+        }
+        return nanos;
+    }
+
+    // ========== CHECKPOINTS ==========
+
+    public int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    public long getCheckpointBytes() {
+        return checkpointBytes;
+    }
+
+    // Number of steps that can be undone
+    public int getUndoDepth() {
+        return position - first;
+    }
+
+    private void checkpoint() {
+        Checkpoint checkpoint = new Checkpoint(target);
+        Checkpoint replaced = checkpoints.put(position, checkpoint);
+        if (replaced != null) {
+            checkpointBytes -= replaced.bytes;
+        }
+        checkpointBytes += checkpoint.bytes;
+        // Forget the oldest checkpoints, but always keep one at or before the current state
+        while (checkpointBytes > budget && checkpoints.size() > 1) {
+            int next = checkpoints.higherKey(checkpoints.firstKey());
+            if (next > position) break;
+            checkpointBytes -= checkpoints.pollFirstEntry().getValue().bytes;
+            steps.subList(0, next - first).clear();
+            first = next;
+        }
+    }
+
+    private void restore(Checkpoint checkpoint) {
+        target.restoreCanvas(checkpoint.pixels());
+        target.restoreTurtle(checkpoint.x, checkpoint.y, checkpoint.heading);
+        target.setPenState(checkpoint.penDown);
+        target.setPenColour(checkpoint.colour);
+        target.setStroke(checkpoint.stroke);
+        target.setAntialias(checkpoint.antialias);
+        target.getDisplayList().restore(checkpoint.displayList,
+            checkpoint.displayList.hasBaseImage ? target.getBufferedImage() : null, checkpoint.width, checkpoint.height);
+    }
+
+    // Cheap summary of the turtle and drawing, equal before and after a command that changed nothing
+    private long fingerprint() {
+        Color colour = target.getPenColour();
+        Pose pose = target.getPose();
+        long hash = Double.doubleToLongBits(pose.getX());
+        hash = hash * 31 + Double.doubleToLongBits(pose.getY());
+        hash = hash * 31 + Double.doubleToLongBits(pose.getHeading());
+        hash = hash * 31 + (target.getPenState() ? 1 : 0);
+        hash = hash * 31 + (colour == null ? 0 : colour.getRGB());
+        hash = hash * 31 + target.getStroke();
+        return hash * 31 + target.getDisplayList().getChanges();
+    }
+
+    // Deflate the pixels of canvas row by row as 0xRRGGBB, blank canvases shrink to almost nothing.
+    // Also used for the canvases in session recordings.
+    static byte[] deflatePixels(BufferedImage canvas) {
+        return deflatePixels(canvas, false);
+    }
+
+    // As above, as 0xAARRGGBB if alpha is set
+    static byte[] deflatePixels(BufferedImage canvas, boolean alpha) {
+        int w = canvas.getWidth();
+        int bytes = alpha ? 4 : 3;
+        int[] row = new int[w];
+        byte[] packed = new byte[w * bytes];
+        byte[] buffer = new byte[16 * 1024];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            for (int y = 0; y < canvas.getHeight(); y++) {
+                canvas.getRGB(0, y, w, 1, row, 0, w);
+                for (int x = 0, i = 0; x < w; x++) {
+                    if (alpha) {
+                        packed[i++] = (byte) (row[x] >> 24);
+                    }
+                    packed[i++] = (byte) (row[x] >> 16);
+                    packed[i++] = (byte) (row[x] >> 8);
+                    packed[i++] = (byte) row[x];
+                }
+                deflater.setInput(packed);
+                while (!deflater.needsInput()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    // Pixels deflated by deflatePixels as a new TYPE_INT_RGB image
+    static BufferedImage inflatePixels(byte[] deflated, int width, int height) {
+        return inflatePixels(deflated, width, height, false);
+    }
+
+    // As above, a TYPE_INT_ARGB image if the pixels were deflated with alpha
+    static BufferedImage inflatePixels(byte[] deflated, int width, int height, boolean alpha) {
+        BufferedImage image = new BufferedImage(width, height,
+            alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int bytes = alpha ? 4 : 3;
+        byte[] packed = new byte[width * height * bytes];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            int n = 0;
+            while (n < packed.length && !inflater.finished() && !inflater.needsInput()) {
+                n += inflater.inflate(packed, n, packed.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt deflated pixels", e);
+        } finally {
+            inflater.end();
+        }
+        for (int p = 0, i = 0; p < data.length; p++, i += 3) {
+            int a = alpha ? (packed[i++] & 0xFF) << 24 : 0;
+            data[p] = a | (packed[i] & 0xFF) << 16 | (packed[i + 1] & 0xFF) << 8 | (packed[i + 2] & 0xFF);
+        }
+        return image;
+    }
+
+    private static final class Step {
+        final String label;
+        final CompiledScript script; // null if the step is not replayed
+        final long nanos;            // How long it took to run
+
+        Step(String label, CompiledScript script, long nanos) {
+            this.label = label;
+            this.script = script;
+            this.nanos = nanos;
+        }
+    }
+
+    // Full state at one step, with the canvas deflated as 0xRRGGBB rows, or 0xAARRGGBB if it has alpha
+    private static final class Checkpoint {
+        final int width;
+        final int height;
+        final byte[] deflated;
+        final boolean alpha;
+        final double x;
+        final double y;
+        final double heading;
+        final boolean penDown;
+        final Color colour;
+        final int stroke;
+        final boolean antialias;
+        final DisplayList.Snapshot displayList;
+        final long bytes;
+
+        Checkpoint(Target target) {
+            BufferedImage canvas = target.getBufferedImage();
+            width = canvas.getWidth();
+            height = canvas.getHeight();
+            alpha = canvas.getColorModel().hasAlpha();
+            deflated = deflatePixels(canvas, alpha);
+            Pose pose = target.getPose();
+            x = pose.getX();
+            y = pose.getY();
+            heading = pose.getHeading();
+            penDown = target.getPenState();
+            colour = target.getPenColour();
+            stroke = target.getStroke();
+            antialias = target.isAntialiased();
+            displayList = target.getDisplayList().snapshot();
+            bytes = deflated.length + displayList.bytes() + 64;
+        }
+
+        // The canvas as a new TYPE_INT_RGB image, TYPE_INT_ARGB if it had alpha
+        BufferedImage pixels() {
+            return inflatePixels(deflated, width, height, alpha);
+        }
+    }
+}
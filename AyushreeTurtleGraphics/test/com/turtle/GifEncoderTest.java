@@ -0,0 +1,127 @@
+package com.turtle;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// GIFs written by GifEncoder and AnimationExporter must hold the frames they claim, readable by ImageIO
+class GifEncoderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void everyFrameWrittenIsRead() throws IOException {
+        int width = 64;
+        int height = 48;
+        int[] lines = new int[width * height];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = i % width == i / width ? 0xFFFF00 : 0x000000;
+        }
+        int[] update = new int[10 * 10];
+        Arrays.fill(update, GifEncoder.TRANSPARENT);
+        update[55] = 0x00FF00;
+        int[] photo = new int[width * height]; // Over 255 colours, mapped onto the colour cube
+        Random random = new Random(5);
+        for (int i = 0; i < photo.length; i++) {
+            photo[i] = random.nextInt(0x1000000);
+        }
+
+        File file = dir.resolve("frames.gif").toFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            GifEncoder.writeHeader(out, width, height, 0);
+            GifEncoder.writeFrame(out, GifEncoder.encodeFrame(lines, 0, 0, width, height), 4);
+            GifEncoder.writeFrame(out, GifEncoder.encodeFrame(update, 20, 10, 10, 10), 4);
+            GifEncoder.writeFrame(out, GifEncoder.encodeFrame(photo, 0, 0, width, height), 4);
+            GifEncoder.writeTrailer(out);
+        }
+
+        ImageReader reader = gifReader(file);
+        try {
+            assertEquals(3, reader.getNumImages(true));
+            // A frame with few colours has an exact colour table
+            BufferedImage first = reader.read(0);
+            assertArrayEquals(lines, rgb(first));
+            assertEquals(10, reader.getWidth(1));
+            assertEquals(10, reader.getHeight(1));
+        } finally {
+            close(reader);
+        }
+    }
+
+    @Test
+    void exporterFrameCountMatchesTheFile() throws IOException {
+        // Each forward changes the drawing, the turns do not and only hold the frame before them
+        int sides = 24;
+        File file = dir.resolve("turns.gif").toFile();
+        AnimationExporter.Result result = export(file, "repeat " + sides + " [ forward 15 right 15 ]", 1, false);
+        assertEquals(sides + 1, result.frames);
+        assertEquals(result.frames, frameCount(file));
+        assertEquals(file.length(), result.bytes);
+    }
+
+    @Test
+    void exporterCountsSegmentsWhenAsked() throws IOException {
+        File file = dir.resolve("segments.gif").toFile();
+        AnimationExporter.Result result = export(file,
+            "repeat 20 [ forward 10 right 5 penup forward 3 pendown ]", 5, true);
+        // The first frame, then one every five drawn segments; pen-up moves are not counted
+        assertEquals(1 + 20 / 5, result.frames);
+        assertEquals(result.frames, frameCount(file));
+    }
+
+    private static AnimationExporter.Result export(File file, String script, int every, boolean segments)
+            throws IOException {
+        HeadlessTurtle turtle = new HeadlessTurtle(400, 300); // Big enough that every segment lands on it
+        AnimationExporter exporter = new AnimationExporter(file, AnimationExporter.GIF, turtle, every, segments,
+            AnimationExporter.DEFAULT_DELAY_MILLIS, turtle.getPngEncoder());
+        turtle.setAnimation(exporter);
+        try {
+            ScriptInterpreter.execute(ScriptCompiler.compile(script), turtle);
+        } finally {
+            turtle.setAnimation(null);
+        }
+        return exporter.finish();
+    }
+
+    private static int frameCount(File file) throws IOException {
+        ImageReader reader = gifReader(file);
+        try {
+            return reader.getNumImages(true);
+        } finally {
+            close(reader);
+        }
+    }
+
+    private static ImageReader gifReader(File file) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        reader.setInput(in);
+        return reader;
+    }
+
+    private static void close(ImageReader reader) throws IOException {
+        ((ImageInputStream) reader.getInput()).close();
+        reader.dispose();
+    }
+
+    private static int[] rgb(BufferedImage image) {
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xFFFFFF;
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,103 @@
+package com.turtle;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Whatever the filter, level or band split, ImageIO must decode exactly the pixels encoded
+class PngEncoderTest {
+    @Test
+    void everyFilterDecodesToTheSamePixels() throws IOException {
+        BufferedImage drawing = drawing();
+        for (int filter = PngEncoder.FILTER_NONE; filter <= PngEncoder.FILTER_ADAPTIVE; filter++) {
+            for (int level : new int[] { 0, 1, 6, 9 }) {
+                assertRoundTrip(drawing, new PngEncoder(level, filter), PngEncoder.FILTER_NAMES[filter] + " " + level);
+            }
+        }
+    }
+
+    @Test
+    void noisyImageDecodesToTheSamePixels() throws IOException {
+        // Random pixels do not compress, so deflate falls back to stored blocks
+        BufferedImage noise = new BufferedImage(333, 97, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+        for (int y = 0; y < noise.getHeight(); y++) {
+            for (int x = 0; x < noise.getWidth(); x++) {
+                noise.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        assertRoundTrip(noise, new PngEncoder(6, PngEncoder.FILTER_PAETH), "paeth");
+    }
+
+    @Test
+    void bandsEncodedInParallelJoinUp() throws IOException, InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertRoundTrip(drawing(), new PngEncoder(6, PngEncoder.FILTER_ADAPTIVE, pool), "4 threads");
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void otherImageTypesKeepTheirColours() throws IOException {
+        BufferedImage drawing = drawing();
+        for (int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR }) {
+            BufferedImage copy = new BufferedImage(drawing.getWidth(), drawing.getHeight(), type);
+            copy.getGraphics().drawImage(drawing, 0, 0, null);
+            assertRoundTrip(copy, new PngEncoder(), "type " + type);
+        }
+    }
+
+    @Test
+    void textChunkReadsBack(@TempDir Path dir) throws IOException {
+        File file = dir.resolve("state.png").toFile();
+        PngEncoder.Result result = new PngEncoder().write(drawing(), file, "turtle-state", "1.5 2.0 90.0 true 255 3");
+        assertEquals(file.length(), result.bytes);
+        assertEquals("1.5 2.0 90.0 true 255 3", PngEncoder.readText(file, "turtle-state"));
+        assertNull(PngEncoder.readText(file, "other"));
+        assertArrayEquals(rgb(drawing()), rgb(ImageIO.read(file)));
+    }
+
+    // A turtle drawing tall enough to be split into several bands
+    private static BufferedImage drawing() {
+        HeadlessTurtle turtle = new HeadlessTurtle(300, 200);
+        ScriptInterpreter.execute(ScriptCompiler.compile(
+            "penwidth 4\npencolour yellow\nrepeat 12 [ forward 80 right 150 ]\npencolour 20 120 250\ncircle 60"), turtle);
+        return turtle.getBufferedImage();
+    }
+
+    private static void assertRoundTrip(BufferedImage image, PngEncoder encoder, String message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bytes = encoder.encode(image, out);
+        assertEquals(out.size(), bytes, message);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(decoded, message);
+        assertEquals(image.getWidth(), decoded.getWidth(), message);
+        assertEquals(image.getHeight(), decoded.getHeight(), message);
+        assertArrayEquals(rgb(image), rgb(decoded), message);
+    }
+
+    private static int[] rgb(BufferedImage image) {
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xFFFFFF;
+        }
+        return pixels;
+    }
+}
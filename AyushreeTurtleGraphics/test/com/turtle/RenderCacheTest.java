@@ -0,0 +1,46 @@
+package com.turtle;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Scripts whose output is more than the canvas must never come from the render cache
+class RenderCacheTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void saveInsideAProcedureIsNotCached() throws IOException {
+        File side = dir.resolve("side.png").toFile();
+        Path script = dir.resolve("p.txt");
+        Files.write(script, String.join("\n",
+            "to drawandsave",
+            "  circle 40",
+            "  save " + dir.resolve("side"), // save adds .png
+            "end",
+            "forward 20",
+            "drawandsave").getBytes(StandardCharsets.UTF_8));
+        assertTrue(ScriptCompiler.compile(new String(Files.readAllBytes(script), StandardCharsets.UTF_8)).usesFiles());
+
+        BatchRenderer renderer = BatchRenderer.fromArgs(new String[] {
+            "--cache", dir.resolve("cache").toString(), "--out", dir.toString() }, new ArrayList<>());
+        assertTrue(renderer.render(script.toFile()));
+        assertTrue(side.delete());
+        assertTrue(renderer.render(script.toFile()));
+        assertTrue(side.exists(), "the save ran again");
+    }
+
+    @Test
+    void scriptsWithoutFilesAreCacheable() {
+        CompiledScript script = ScriptCompiler.compile("to square2 :s\n  repeat 4 [ forward :s right 90 ]\nend\nsquare2 30");
+        assertFalse(script.usesFiles());
+    }
+}
@@ -0,0 +1,229 @@
+package com.turtle;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Compiled scripts must draw exactly what the same lines do when run one command at a time, and
+// splitting a script into chunks must not change what it draws.
+class ScriptCompilerTest {
+    private static final String COMMANDS = String.join("\n",
+        "penwidth 3",
+        "pencolour green",
+        "forward 120",
+        "right 90",
+        "circle 40",
+        "penup",
+        "backward 60",
+        "pendown",
+        "left 45",
+        "pencolour 10 200 30",
+        "square 50",
+        "triangle 30 40 50");
+
+    // A procedure and blocks that each span several lines, so chunk boundaries fall around them
+    private static final String PROGRAM = String.join("\n",
+        "make \"side 30",
+        "to spiral :size :depth",
+        "  if :depth > 0 [",
+        "    forward :size",
+        "    right 91",
+        "    spiral :size + 2 :depth - 1",
+        "  ]",
+        "end",
+        "repeat 6 [",
+        "  forward :side",
+        "  right 60",
+        "  repeat 3 [ circle repcount * 5 ]",
+        "]",
+        "penwidth 2",
+        "spiral 5 40",
+        "make \"side :side * 2",
+        "repeat 4 [ forward :side left 90 ]");
+
+    @Test
+    void compiledCommandsDrawLikeTypedOnes() {
+        HeadlessTurtle typed = new HeadlessTurtle();
+        for (String line : COMMANDS.split("\n")) {
+            assertTrue(typed.processCommand(line), line);
+        }
+        HeadlessTurtle compiled = new HeadlessTurtle();
+        CompiledScript script = ScriptCompiler.compile(COMMANDS);
+        assertEquals(0, script.getErrors().length);
+        ScriptInterpreter.execute(script, compiled);
+
+        assertSameDrawing(typed, compiled);
+    }
+
+    @Test
+    void compiledScriptRunsAgainTheSame() {
+        CompiledScript script = ScriptCompiler.compile(PROGRAM);
+        HeadlessTurtle first = new HeadlessTurtle();
+        ScriptInterpreter.execute(script, first);
+        HeadlessTurtle second = new HeadlessTurtle();
+        ScriptInterpreter.execute(script, second);
+
+        assertSameDrawing(first, second);
+        assertTrue(first.getDisplayList().size() > 40);
+    }
+
+    @Test
+    void rejectedLinesAreLeftOut() {
+        CompiledScript script = ScriptCompiler.compile("forward 10\npenwidth 0\njump 5\nright 90");
+        assertEquals(2, script.getErrors().length);
+        assertEquals(2, script.size());
+    }
+
+    @Test
+    void chunksDrawLikeTheWholeScript() {
+        HeadlessTurtle whole = new HeadlessTurtle();
+        ScriptInterpreter.execute(ScriptCompiler.compile(PROGRAM), whole);
+
+        // Build a chunk whenever a command is pending, as ScriptPipeline does with a larger size
+        ScriptCompiler compiler = new ScriptCompiler();
+        List<CompiledScript> chunks = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : PROGRAM.split("\n")) {
+            compiler.addLine(line, ++lineNumber);
+            if (compiler.pendingCommands() >= 1) {
+                chunks.add(compiler.build());
+            }
+        }
+        compiler.finish();
+        chunks.add(compiler.build());
+        assertTrue(chunks.size() > 3);
+
+        HeadlessTurtle chunked = new HeadlessTurtle();
+        for (CompiledScript chunk : chunks) {
+            assertEquals(0, chunk.getErrors().length);
+            ScriptInterpreter.execute(chunk, chunked);
+        }
+        assertSameDrawing(whole, chunked);
+    }
+
+    @Test
+    void streamedFileDrawsLikeTheWholeScript(@TempDir Path dir) throws IOException, InterruptedException {
+        Path file = dir.resolve("program.txt");
+        Files.write(file, PROGRAM.getBytes(StandardCharsets.US_ASCII));
+        HeadlessTurtle whole = new HeadlessTurtle();
+        ScriptInterpreter.execute(ScriptCompiler.compile(PROGRAM), whole);
+
+        HeadlessTurtle streamed = new HeadlessTurtle();
+        int[] chunks = new int[1];
+        long end = new StreamingScriptLoader(1).load(file, 0, 0, (chunk, endOffset, endLine) -> {
+            chunks[0]++;
+            ScriptInterpreter.execute(chunk, streamed);
+        });
+        assertEquals(Files.size(file), end);
+        assertTrue(chunks[0] > 3);
+        assertSameDrawing(whole, streamed);
+    }
+
+    @Test
+    void namedTurtlesInsideProceduresAreFound() {
+        // Only reached through two calls
+        CompiledScript script = ScriptCompiler.compile(String.join("\n",
+            "to inner",
+            "  turtle create t2",
+            "  t2 forward 30",
+            "end",
+            "to outer",
+            "  inner",
+            "end",
+            "forward 5",
+            "outer"));
+        assertEquals(0, script.getErrors().length);
+        assertTrue(script.usesTurtles());
+        assertFalse(script.usesFiles());
+        assertFalse(ScriptCompiler.compile(PROGRAM).usesTurtles());
+    }
+
+    @Test
+    void cancelInsideALoopResumesFromTheStartOfItsChunk(@TempDir Path dir) throws IOException, InterruptedException {
+        // The loop turns 280 degrees in all, so resuming past it would draw the lines the wrong way
+        String script = "repeat 100000 [ right 1 ]\nforward 50\nforward 50\n";
+        Path file = dir.resolve("loop.txt");
+        Files.write(file, script.getBytes(StandardCharsets.US_ASCII));
+        HeadlessTurtle whole = new HeadlessTurtle();
+        ScriptInterpreter.execute(ScriptCompiler.compile(script), whole);
+
+        ScriptPipeline[] first = new ScriptPipeline[1];
+        HeadlessTurtle cancelling = new HeadlessTurtle() {
+            @Override
+            public void right(int angle) {
+                super.right(angle);
+                first[0].cancel();
+            }
+        };
+        Finished firstDone = new Finished();
+        first[0] = new ScriptPipeline(file, 0, 0, cancelling, firstDone);
+        first[0].start();
+        assertTrue(firstDone.await());
+        assertTrue(firstDone.cancelled);
+        assertEquals(0, first[0].getResumeOffset());
+        assertEquals(0, first[0].getResumeLine());
+        assertEquals(0, cancelling.getDisplayList().size());
+
+        HeadlessTurtle resumed = new HeadlessTurtle();
+        Finished resumedDone = new Finished();
+        ScriptPipeline second = new ScriptPipeline(first[0], resumed, resumedDone);
+        second.start();
+        assertTrue(resumedDone.await());
+        assertFalse(resumedDone.cancelled);
+        assertEquals(Files.size(file), second.getResumeOffset());
+        assertEquals(3, second.getResumeLine());
+        assertSameDrawing(whole, resumed);
+    }
+
+    // Waits for a pipeline to finish
+    private static final class Finished implements ScriptPipeline.Listener {
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean cancelled;
+
+        @Override
+        public void compileErrors(String[] errors) {
+        }
+
+        @Override
+        public void progress(long linesRead, long bytesRead, long commandsExecuted) {
+        }
+
+        @Override
+        public void finished(boolean cancelled, Exception error, long commandsExecuted) {
+            this.cancelled = cancelled;
+            done.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(30, TimeUnit.SECONDS);
+        }
+    }
+
+    static void assertSameDrawing(HeadlessTurtle expected, HeadlessTurtle actual) {
+        assertEquals(expected.getPose().getX(), actual.getPose().getX(), 1e-9);
+        assertEquals(expected.getPose().getY(), actual.getPose().getY(), 1e-9);
+        assertEquals(expected.getPose().getHeading(), actual.getPose().getHeading(), 1e-9);
+        assertEquals(expected.getPenState(), actual.getPenState());
+        assertEquals(expected.getPenColour(), actual.getPenColour());
+        assertEquals(expected.getStroke(), actual.getStroke());
+        assertEquals(expected.getDisplayList().size(), actual.getDisplayList().size());
+        assertArrayEquals(pixels(expected.getBufferedImage()), pixels(actual.getBufferedImage()));
+    }
+
+    static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,267 @@
+package com.turtle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// SessionWriter to SessionReader round trips, reading in order and seeking across blocks
+class SessionRecordingTest {
+    // More commands than fit in two blocks
+    private static final int COMMANDS = SessionWriter.BLOCK_COMMANDS * 2 + 1234;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void commandsReadBackInOrder() throws IOException {
+        for (boolean deflate : new boolean[] { false, true }) {
+            File file = dir.resolve("order-" + deflate + ".tses").toFile();
+            List<double[]> written = writeCommands(file, deflate, true);
+            try (SessionReader reader = new SessionReader(file)) {
+                assertEquals(written.size(), reader.getCommandCount());
+                for (double[] command : written) {
+                    assertTrue(reader.next());
+                    assertCommand(command, reader);
+                }
+                assertFalse(reader.next());
+            }
+        }
+    }
+
+    @Test
+    void seekDecodesAnyCommand() throws IOException {
+        File file = dir.resolve("seek.tses").toFile();
+        List<double[]> written = writeCommands(file, true, true);
+        Random random = new Random(3);
+        try (SessionReader reader = new SessionReader(file)) {
+            // Backwards and forwards, within a block and across blocks
+            for (int i = 0; i < 200; i++) {
+                int command = random.nextInt(written.size());
+                reader.seek(command);
+                assertEquals(command, reader.getPosition());
+                assertTrue(reader.next());
+                assertCommand(written.get(command), reader);
+            }
+            reader.seek(written.size());
+            assertFalse(reader.next());
+            reader.seek(0);
+            assertTrue(reader.next());
+            assertCommand(written.get(0), reader);
+        }
+    }
+
+    @Test
+    void unclosedRecordingReadsUpToItsLastBlock() throws IOException {
+        File file = dir.resolve("unclosed.tses").toFile();
+        List<double[]> written = writeCommands(file, true, false);
+        try (SessionReader reader = new SessionReader(file)) {
+            assertEquals(written.size(), reader.getCommandCount());
+            reader.seek(written.size() - 1);
+            assertTrue(reader.next());
+            assertCommand(written.get(written.size() - 1), reader);
+        }
+    }
+
+    @Test
+    void playbackDrawsTheRecordedDrawing() throws IOException {
+        File file = dir.resolve("play.tses").toFile();
+        HeadlessTurtle recorded = new HeadlessTurtle();
+        recorded.processCommand("pencolour blue");
+        recorded.processCommand("forward 30");
+        recorded.startRecording(file); // Starts from the canvas and pen as they are now
+        ScriptInterpreter.execute(ScriptCompiler.compile(
+            "penwidth 3\nrepeat 500 [ forward repcount % 40 right 37 ]\npenup\nforward 10\npendown\n"
+                + "pencolour 200 100 50\ncircle 25"), recorded);
+        long commands = recorded.stopRecording();
+        assertTrue(commands > 1000);
+
+        HeadlessTurtle played = new HeadlessTurtle();
+        try (SessionReader reader = new SessionReader(file)) {
+            assertEquals(commands, reader.getCommandCount());
+            assertEquals(commands, reader.play(played, Long.MAX_VALUE));
+        }
+        assertEquals(recorded.getPose().getX(), played.getPose().getX(), 1e-9);
+        assertEquals(recorded.getPose().getY(), played.getPose().getY(), 1e-9);
+        assertEquals(recorded.getPose().getHeading(), played.getPose().getHeading(), 1e-9);
+        assertEquals(recorded.getPenColour(), played.getPenColour());
+        assertEquals(recorded.getStroke(), played.getStroke());
+        assertEquals(pixelsOf(recorded), pixelsOf(played));
+    }
+
+    @Test
+    void playbackFromAnyCommandStartsFromThatState() throws IOException {
+        File file = dir.resolve("middle.tses").toFile();
+        HeadlessTurtle recorded = new HeadlessTurtle(300, 200);
+        recorded.startRecording(file);
+        ScriptInterpreter.execute(ScriptCompiler.compile(
+            "repeat 3000 [ forward repcount % 30 right 61 ]\npencolour green\npenwidth 4"), recorded);
+        BufferedImage replaced = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        replaced.setRGB(10, 10, 0x00FF00);
+        recorded.restoreCanvas(replaced); // A keyframe in the middle, as undo or load writes
+        ScriptInterpreter.execute(ScriptCompiler.compile(
+            "penup\nforward 20\npendown\nrepeat 2000 [ forward repcount % 25 left 43 ]"), recorded);
+        long commands = recorded.stopRecording();
+
+        HeadlessTurtle full = new HeadlessTurtle(300, 200);
+        try (SessionReader reader = new SessionReader(file)) {
+            reader.play(full, Long.MAX_VALUE);
+        }
+        for (long first : new long[] { 1, 4000, commands / 2, commands - 10 }) {
+            HeadlessTurtle seeked = new HeadlessTurtle(300, 200);
+            seeked.processCommand("circle 50"); // Whatever was drawn before is replaced
+            try (SessionReader reader = new SessionReader(file)) {
+                reader.seek(seeked, first);
+                assertEquals(first, reader.getPosition());
+                assertEquals(commands - first, reader.play(seeked, Long.MAX_VALUE));
+            }
+            assertEquals(recorded.getPose().getX(), seeked.getPose().getX(), 1e-9);
+            assertEquals(recorded.getPose().getHeading(), seeked.getPose().getHeading(), 1e-9);
+            assertEquals(recorded.getPenColour(), seeked.getPenColour());
+            assertEquals(recorded.getStroke(), seeked.getStroke());
+            assertEquals(pixelsOf(full), pixelsOf(seeked), "from command " + first);
+        }
+    }
+
+    @Test
+    void namedTurtlesAreRecordedAsMoves() throws IOException {
+        File file = dir.resolve("swarm.tses").toFile();
+        HeadlessTurtle recorded = new HeadlessTurtle(300, 200);
+        recorded.startRecording(file);
+        ScriptInterpreter.execute(ScriptCompiler.compile(String.join("\n",
+            "turtle create t2",
+            "t2 pencolour blue",
+            "t2 right 90",
+            "repeat 300 [ forward 2 right 7 t2 forward repcount % 9 t2 left 13 ]",
+            "t2 circle 30",
+            "penup",
+            "pencolour green",
+            "t2 repeat 4 [ forward 50 right 90 ]",
+            "turtle remove t2",
+            "forward 10")), recorded);
+        recorded.stopRecording();
+
+        HeadlessTurtle played = new HeadlessTurtle(300, 200);
+        try (SessionReader reader = new SessionReader(file)) {
+            int canvases = 0;
+            while (reader.next()) {
+                if (reader.getOpcode() == SessionWriter.CANVAS) canvases++;
+            }
+            assertEquals(1, canvases); // Only the one the recording starts with
+            reader.seek(0);
+            reader.play(played, Long.MAX_VALUE);
+        }
+        assertEquals(recorded.getPose().getX(), played.getPose().getX(), 1e-9);
+        assertEquals(recorded.getPose().getY(), played.getPose().getY(), 1e-9);
+        assertEquals(recorded.getPenState(), played.getPenState());
+        assertEquals(recorded.getPenColour(), played.getPenColour());
+        assertEquals(pixelsOf(recorded), pixelsOf(played));
+    }
+
+    // Write a mix of every opcode, returning {opcode, operands...} for each command
+    private static List<double[]> writeCommands(File file, boolean deflate, boolean close) throws IOException {
+        List<double[]> written = new ArrayList<>();
+        Random random = new Random(11);
+        SessionWriter writer = new SessionWriter(file, deflate);
+        BufferedImage canvas = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        canvas.setRGB(5, 7, 0x123456);
+        writer.canvas(canvas);
+        written.add(new double[] { SessionWriter.CANVAS, 40, 30 });
+        for (int i = 1; i < COMMANDS; i++) {
+            switch (random.nextInt(8)) {
+                case 0: {
+                    double distance = random.nextInt(400) - 200;
+                    writer.forward(distance);
+                    written.add(new double[] { SessionWriter.FORWARD, distance });
+                    break;
+                }
+                case 1: {
+                    double degrees = random.nextDouble() * 720 - 360; // Not whole, stored as 8 bytes
+                    writer.turn(degrees);
+                    written.add(new double[] { SessionWriter.TURN, degrees });
+                    break;
+                }
+                case 2: {
+                    double radius = random.nextInt(100);
+                    writer.circle(radius);
+                    written.add(new double[] { SessionWriter.CIRCLE, radius });
+                    break;
+                }
+                case 3: {
+                    boolean down = random.nextBoolean();
+                    writer.penState(down);
+                    written.add(new double[] { down ? SessionWriter.PEN_DOWN : SessionWriter.PEN_UP });
+                    break;
+                }
+                case 4: {
+                    int width = 1 + random.nextInt(20);
+                    writer.penWidth(width);
+                    written.add(new double[] { SessionWriter.PEN_WIDTH, width });
+                    break;
+                }
+                case 5: {
+                    int rgb = random.nextInt(0x1000000);
+                    writer.penColour(rgb);
+                    written.add(new double[] { SessionWriter.PEN_COLOUR, rgb });
+                    break;
+                }
+                case 6: {
+                    double x = random.nextInt(800);
+                    double y = random.nextDouble() * 400;
+                    double heading = random.nextInt(360);
+                    writer.pose(x, y, heading);
+                    written.add(new double[] { SessionWriter.POSE, x, y, heading });
+                    break;
+                }
+                default:
+                    if (random.nextBoolean()) {
+                        writer.clear();
+                        written.add(new double[] { SessionWriter.CLEAR });
+                    } else {
+                        writer.reset();
+                        written.add(new double[] { SessionWriter.RESET });
+                    }
+                    break;
+            }
+        }
+        if (close) {
+            writer.close();
+        } else {
+            writer.flush(); // Every block written, but no index
+        }
+        return written;
+    }
+
+    private static void assertCommand(double[] expected, SessionReader reader) {
+        long at = reader.getPosition() - 1;
+        assertEquals((int) expected[0], reader.getOpcode(), "opcode of command " + at);
+        for (int i = 1; i < expected.length; i++) {
+            if (expected[0] == SessionWriter.CANVAS) {
+                BufferedImage image = reader.getImage();
+                assertEquals(expected[1], image.getWidth());
+                assertEquals(expected[2], image.getHeight());
+                assertEquals(0x123456, image.getRGB(5, 7) & 0xFFFFFF);
+                return;
+            }
+            assertEquals(expected[i], reader.getOperand(i - 1), "operand " + i + " of command " + at);
+        }
+    }
+
+    private static List<Integer> pixelsOf(HeadlessTurtle turtle) {
+        BufferedImage image = turtle.getBufferedImage();
+        List<Integer> pixels = new ArrayList<>();
+        for (int p : image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth())) {
+            pixels.add(p & 0xFFFFFF);
+        }
+        return pixels;
+    }
+}
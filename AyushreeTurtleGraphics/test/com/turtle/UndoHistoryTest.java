@@ -0,0 +1,188 @@
+package com.turtle;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Undo and redo must give back exactly the drawing each step left, also once old checkpoints have
+// been evicted to stay in budget
+class UndoHistoryTest {
+    private static final int STEPS = 60;
+
+    @Test
+    void undoAndRedoGiveBackEveryState() {
+        HeadlessTurtle turtle = new HeadlessTurtle(200, 150);
+        turtle.enableUndo(4, Long.MAX_VALUE);
+        List<State> states = run(turtle, STEPS);
+        UndoHistory history = turtle.getUndoHistory();
+        assertEquals(STEPS, history.getUndoDepth());
+
+        for (int i = STEPS - 1; i >= 0; i--) {
+            assertEquals(1, history.undo(1));
+            states.get(i).assertSame(turtle, "undo to " + i);
+        }
+        assertFalse(history.canUndo());
+        assertEquals(STEPS, history.redo(STEPS));
+        states.get(STEPS).assertSame(turtle, "redo all");
+        assertEquals(STEPS / 2, history.undo(STEPS / 2));
+        states.get(STEPS / 2).assertSame(turtle, "undo half");
+    }
+
+    @Test
+    void evictedCheckpointsOnlyShortenTheHistory() {
+        // Room for about four of the fifteen checkpoints the steps make
+        HeadlessTurtle measured = new HeadlessTurtle(200, 150);
+        measured.enableUndo(4, Long.MAX_VALUE);
+        run(measured, STEPS);
+        UndoHistory unlimited = measured.getUndoHistory();
+        long budget = unlimited.getCheckpointBytes() / unlimited.getCheckpointCount() * 4;
+
+        HeadlessTurtle turtle = new HeadlessTurtle(200, 150);
+        turtle.enableUndo(4, budget);
+        List<State> states = run(turtle, STEPS);
+        UndoHistory history = turtle.getUndoHistory();
+        int depth = history.getUndoDepth();
+        assertTrue(depth >= 4 && depth < STEPS, "depth " + depth);
+        assertTrue(history.getCheckpointBytes() <= budget);
+
+        assertEquals(depth, history.undo(STEPS));
+        states.get(STEPS - depth).assertSame(turtle, "oldest state kept");
+        assertFalse(history.canUndo());
+        assertEquals(depth, history.redo(STEPS));
+        states.get(STEPS).assertSame(turtle, "redo all");
+    }
+
+    @Test
+    void stepsThatAreNotReplayedComeBackFromCheckpoints(@TempDir Path dir) throws IOException {
+        File image = dir.resolve("loaded.png").toFile();
+        HeadlessTurtle painter = new HeadlessTurtle(200, 150);
+        painter.processCommand("pencolour yellow");
+        painter.processCommand("circle 40");
+        painter.writePng(image);
+
+        HeadlessTurtle turtle = new HeadlessTurtle(200, 150);
+        turtle.enableUndo(8, Long.MAX_VALUE);
+        List<State> states = new ArrayList<>();
+        states.add(new State(turtle));
+        for (String command : new String[] { "forward 30", "load " + image.getPath(), "right 90", "forward 40" }) {
+            assertTrue(turtle.processCommand(command), command);
+            states.add(new State(turtle));
+        }
+        UndoHistory history = turtle.getUndoHistory();
+        assertEquals(4, history.undo(4));
+        states.get(0).assertSame(turtle, "before load");
+        assertEquals(2, history.redo(2));
+        states.get(2).assertSame(turtle, "after load");
+        assertEquals(2, history.redo(2));
+        states.get(4).assertSame(turtle, "end");
+    }
+
+    @Test
+    void checkpointsKeepAlphaAndAntialiasing() {
+        HeadlessTurtle turtle = new HeadlessTurtle(new BufferedImage(200, 150, BufferedImage.TYPE_INT_ARGB));
+        BufferedImage canvas = turtle.getBufferedImage();
+        for (int x = 0; x < 100; x++) {
+            canvas.setRGB(x, 10, 0x00000000);
+            canvas.setRGB(x, 11, 0x80FF0000);
+        }
+        turtle.enableUndo(1, Long.MAX_VALUE); // A checkpoint after every step
+        assertTrue(turtle.processCommand("forward 30"));
+        State drawn = new State(turtle);
+        turtle.setAntialias(true);
+        assertTrue(turtle.processCommand("circle 20"));
+
+        UndoHistory history = turtle.getUndoHistory();
+        assertEquals(1, history.undo(1));
+        drawn.assertSame(turtle, "undo with alpha");
+        assertEquals(0x80FF0000, turtle.getBufferedImage().getRGB(50, 11));
+        assertFalse(turtle.isAntialiased());
+        assertEquals(1, history.redo(1));
+        assertTrue(turtle.isAntialiased());
+    }
+
+    @Test
+    void beginWhileAStepIsOpenIsRefused() {
+        HeadlessTurtle turtle = new HeadlessTurtle(200, 150);
+        turtle.enableUndo(8, Long.MAX_VALUE);
+        State before = new State(turtle);
+        UndoHistory history = turtle.getUndoHistory();
+        history.beginOpaque("script");
+        ScriptInterpreter.execute(ScriptCompiler.compile("forward 30\nright 45"), turtle);
+        assertThrows(IllegalStateException.class, () -> history.begin("circle 20"));
+        assertThrows(IllegalStateException.class, () -> history.beginOpaque("load drawing.png"));
+
+        // The open step is unaffected
+        assertTrue(history.commit());
+        assertEquals(1, history.getUndoDepth());
+        assertEquals("script", history.undoLabel());
+        assertEquals(1, history.undo(1));
+        before.assertSame(turtle, "undo script");
+        assertTrue(turtle.processCommand("circle 20"));
+        assertEquals(1, history.getUndoDepth());
+    }
+
+    // Run steps drawing commands, each changing something, returning the state before the first
+    // and after each
+    private static List<State> run(HeadlessTurtle turtle, int steps) {
+        String[] colours = { "red", "green", "blue", "white", "yellow" };
+        List<State> states = new ArrayList<>();
+        states.add(new State(turtle));
+        for (int i = 0; i < steps; i++) {
+            String command;
+            switch (i % 5) {
+                case 0:  command = "forward " + (10 + i); break;
+                case 1:  command = "right " + (20 + i * 7 % 90); break;
+                case 2:  command = "pencolour " + colours[(i / 5 + 1) % colours.length]; break;
+                case 3:  command = "penwidth " + (3 + i / 5 % 6); break;
+                default: command = "circle " + (5 + i % 20); break;
+            }
+            assertTrue(turtle.processCommand(command), command);
+            states.add(new State(turtle));
+        }
+        return states;
+    }
+
+    // What the turtle and canvas looked like after a step
+    private static final class State {
+        final double x;
+        final double y;
+        final double heading;
+        final int colour;
+        final int stroke;
+        final int primitives;
+        final int[] pixels;
+
+        State(HeadlessTurtle turtle) {
+            x = turtle.getPose().getX();
+            y = turtle.getPose().getY();
+            heading = turtle.getPose().getHeading();
+            colour = turtle.getPenColour().getRGB();
+            stroke = turtle.getStroke();
+            primitives = turtle.getDisplayList().size();
+            BufferedImage image = turtle.getBufferedImage();
+            pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        }
+
+        void assertSame(HeadlessTurtle turtle, String message) {
+            State actual = new State(turtle);
+            assertEquals(x, actual.x, 1e-9, message);
+            assertEquals(y, actual.y, 1e-9, message);
+            assertEquals(heading, actual.heading, 1e-9, message);
+            assertEquals(colour, actual.colour, message);
+            assertEquals(stroke, actual.stroke, message);
+            assertEquals(primitives, actual.primitives, message);
+            assertArrayEquals(pixels, actual.pixels, message);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.turtle.bench;
+
+import com.turtle.CompiledScript;
+import com.turtle.HeadlessTurtle;
+import com.turtle.ScriptCompiler;
+import com.turtle.ScriptInterpreter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Command throughput: the line by line processCommand path, compiling, and running compiled scripts,
+// flat or as the same commands in a procedure called from a repeat loop.
+// The pen is up so the numbers measure command handling rather than rasterising.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+    static final int LINES = 10_000;
+
+    private String[] lines;
+    private String script;
+    private CompiledScript compiled;
+    private CompiledScript looped;
+    private HeadlessTurtle turtle;
+
+    @Setup
+    public void setUp() {
+        // A walk round a square with the usual mix of commands, so the turtle stays on the canvas
+        String[] pattern = {
+            "forward 50", "right 90", "move 50", "RIGHT", "pencolour red", "backward 50",
+            "left 90", "reverse 50", "left", "penwidth 2", "pencolour 10 20 30", "circle 20"
+        };
+        lines = new String[LINES];
+        StringBuilder text = new StringBuilder("penup\n");
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = pattern[i % pattern.length];
+            text.append(lines[i]).append('\n');
+        }
+        script = text.toString();
+        compiled = ScriptCompiler.compile(script);
+
+        // The pattern once, with the distance as a parameter, run about LINES commands' worth of times
+        StringBuilder procedure = new StringBuilder("penup\nto walk :d\n");
+        for (String line : pattern) {
+            procedure.append(line.replace("50", ":d")).append('\n');
+        }
+        procedure.append("end\nrepeat ").append(LINES / pattern.length).append(" [ walk 50 ]\n");
+        looped = ScriptCompiler.compile(procedure.toString());
+        turtle = new HeadlessTurtle();
+        turtle.setPenState(false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void processCommand(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(turtle.processCommand(line));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public CompiledScript compile() {
+        return ScriptCompiler.compile(script);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int executeCompiled() {
+        return ScriptInterpreter.execute(compiled, turtle);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int executeLoop() {
+        return ScriptInterpreter.execute(looped, turtle);
+    }
+}
@@ -0,0 +1,57 @@
+package com.turtle.bench;
+
+import com.turtle.CommandHistory;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of recording one history entry, with the buffer full so every append evicts
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    private CommandHistory dropping;
+    private CommandHistory spilling;
+    private File spillFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        spillFile = File.createTempFile("history", ".txt");
+        dropping = new CommandHistory(CommandHistory.DEFAULT_CAPACITY);
+        spilling = new CommandHistory(CommandHistory.DEFAULT_CAPACITY, spillFile);
+        for (int i = 0; i < CommandHistory.DEFAULT_CAPACITY; i++) {
+            dropping.append("> forward 10");
+            spilling.append("> forward 10");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        spilling.close();
+        spillFile.delete();
+    }
+
+    @Benchmark
+    public void append() {
+        dropping.append("> forward 10");
+    }
+
+    @Benchmark
+    public void appendWithSpill() {
+        spilling.append("> forward 10");
+    }
+}
@@ -0,0 +1,96 @@
+package com.turtle.bench;
+
+import com.turtle.ImageLoader;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Loading an 800x400 PNG with ImageIO.read against ImageLoader, and drawing 2 pixel lines on what
+// each hands back against drawing on a fresh canvas
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadedImageBenchmark {
+    private File png;
+    private Graphics2D decoded;
+    private Graphics2D loaded;
+    private Graphics2D fresh;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        BufferedImage image = new BufferedImage(800, 400, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.ORANGE, 800, 400, Color.BLUE));
+        g.fillRect(0, 0, 800, 400);
+        g.dispose();
+        png = File.createTempFile("turtle-bench", ".png");
+        ImageIO.write(image, "png", png);
+        decoded = pen(ImageIO.read(png));
+        loaded = pen(ImageLoader.read(png));
+        fresh = pen(new BufferedImage(800, 400, BufferedImage.TYPE_INT_RGB));
+    }
+
+    private static Graphics2D pen(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.RED);
+        g.setStroke(new BasicStroke(2));
+        return g;
+    }
+
+    @TearDown
+    public void tearDown() {
+        png.delete();
+    }
+
+    private void line(Graphics2D g) {
+        next = (next + 7) % 360;
+        double angle = Math.toRadians(next);
+        g.drawLine(400, 200, 400 + (int) (150 * Math.cos(angle)), 200 + (int) (150 * Math.sin(angle)));
+    }
+
+    @Benchmark
+    public BufferedImage loadImageIO() throws IOException {
+        return ImageIO.read(png);
+    }
+
+    @Benchmark
+    public BufferedImage loadImageLoader() throws IOException {
+        return ImageLoader.read(png);
+    }
+
+    @Benchmark
+    public void drawOnDecoded() {
+        line(decoded);
+    }
+
+    @Benchmark
+    public void drawOnLoaded() {
+        line(loaded);
+    }
+
+    @Benchmark
+    public void drawOnFresh() {
+        line(fresh);
+    }
+}
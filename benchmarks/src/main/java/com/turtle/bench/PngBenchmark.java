@@ -0,0 +1,60 @@
+package com.turtle.bench;
+
+import com.turtle.HeadlessTurtle;
+import com.turtle.Shapes;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// PNG encode and decode of a drawn canvas through saveDrawing and loadDrawing
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PngBenchmark {
+    private HeadlessTurtle turtle;
+    private File base; // saveDrawing appends .png to this
+    private String pngPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        turtle = new HeadlessTurtle();
+        Shapes.olympics(turtle);
+        Shapes.name(turtle);
+        File temp = File.createTempFile("turtle-bench", "");
+        temp.delete();
+        base = temp;
+        pngPath = base.getPath() + ".png";
+        turtle.saveDrawing(base.getPath());
+        turtle.awaitExports();
+    }
+
+    @TearDown
+    public void tearDown() {
+        new File(pngPath).delete();
+    }
+
+    @Benchmark
+    public void saveDrawing() {
+        turtle.saveDrawing(base.getPath());
+        turtle.awaitExports(); // Saves are encoded in the background
+    }
+
+    @Benchmark
+    public void loadDrawing() {
+        turtle.loadDrawing(pngPath);
+    }
+}
@@ -0,0 +1,60 @@
+package com.turtle.bench;
+
+import com.turtle.HeadlessTurtle;
+import com.turtle.PngEncoder;
+import com.turtle.Shapes;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Encoding a poster sized drawing: the banded PngEncoder at several settings against ImageIO
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PngEncodeBenchmark {
+    @Param({"none", "paeth", "adaptive"})
+    public String filter;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private BufferedImage image;
+    private PngEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        HeadlessTurtle turtle = new HeadlessTurtle();
+        Shapes.olympics(turtle);
+        Shapes.name(turtle);
+        image = turtle.getDisplayList().renderTiled(3200, 1600, 4, Color.BLACK, ForkJoinPool.commonPool());
+        encoder = new PngEncoder(level, PngEncoder.filterNamed(filter));
+    }
+
+    @Benchmark
+    public long encoder() throws IOException {
+        return encoder.encode(image, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public boolean imageIO() throws IOException {
+        return ImageIO.write(image, "PNG", OutputStream.nullOutputStream());
+    }
+}
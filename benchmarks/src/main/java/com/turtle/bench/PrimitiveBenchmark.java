@@ -0,0 +1,96 @@
+package com.turtle.bench;
+
+import com.turtle.HeadlessTurtle;
+import com.turtle.Shapes;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Headless drawing throughput of each shape primitive (the code behind drawSquare,
+// equilateralTriangle, drawTriangle, circle and drawOlympicsLogo).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveBenchmark {
+    // Clear the canvas every so often so the display list does not grow without bound
+    private static final int CLEAR_EVERY = 4096;
+
+    private HeadlessTurtle turtle;
+    private int drawn;
+
+    @Setup
+    public void setUp() {
+        turtle = new HeadlessTurtle();
+    }
+
+    private void recycle() {
+        if (++drawn % CLEAR_EVERY == 0) {
+            turtle.clear();
+            turtle.reset();
+        }
+    }
+
+    @Benchmark
+    public void forward() {
+        turtle.forward(100);
+        turtle.right(180);
+        recycle();
+    }
+
+    // Whole degree turns use the sine table, fractional ones compute sin and cos once per turn
+    @Benchmark
+    public void forwardTurn() {
+        turtle.forward(1);
+        turtle.right(1);
+        recycle();
+    }
+
+    @Benchmark
+    public void forwardFractionalTurn() {
+        turtle.advance(1.5);
+        turtle.rotate(360 / 7.0);
+        recycle();
+    }
+
+    @Benchmark
+    public void square() {
+        Shapes.square(turtle, 100);
+        recycle();
+    }
+
+    @Benchmark
+    public void equilateralTriangle() {
+        Shapes.equilateralTriangle(turtle, 100);
+        recycle();
+    }
+
+    @Benchmark
+    public void triangle() {
+        turtle.reset();
+        Shapes.triangle(turtle, 60, 80, 100);
+        recycle();
+    }
+
+    @Benchmark
+    public void circle() {
+        turtle.circle(90);
+        recycle();
+    }
+
+    @Benchmark
+    public void olympics() {
+        Shapes.olympics(turtle);
+        recycle();
+    }
+}
@@ -0,0 +1,100 @@
+package com.turtle.bench;
+
+import com.turtle.StrokeRasterizer;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Drawing turtle strokes: StrokeRasterizer writing into the canvas ints against Graphics2D, with
+// and without anti-aliasing. Lines are 100 pixels long at angles all round; circles have radius 90.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeBenchmark {
+    private static final int ANGLES = 360;
+
+    @Param({"1", "2", "4"})
+    public int width;
+
+    private BufferedImage canvas;
+    private Graphics2D plain;
+    private Graphics2D smooth;
+    private StrokeRasterizer rasterizer;
+    private final double[] endX = new double[ANGLES];
+    private final double[] endY = new double[ANGLES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        canvas = new BufferedImage(800, 400, BufferedImage.TYPE_INT_RGB);
+        plain = canvas.createGraphics();
+        plain.setColor(Color.RED);
+        plain.setStroke(new BasicStroke(width));
+        smooth = canvas.createGraphics();
+        smooth.setColor(Color.RED);
+        smooth.setStroke(new BasicStroke(width));
+        smooth.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        rasterizer = StrokeRasterizer.forImage(canvas);
+        for (int i = 0; i < ANGLES; i++) {
+            endX[i] = 400.3 + 100 * Math.cos(Math.toRadians(i + 0.5));
+            endY[i] = 200.6 + 100 * Math.sin(Math.toRadians(i + 0.5));
+        }
+    }
+
+    private int angle() {
+        next = (next + 1) % ANGLES;
+        return next;
+    }
+
+    @Benchmark
+    public void lineGraphics() {
+        int i = angle();
+        plain.drawLine(400, 201, (int) Math.round(endX[i]), (int) Math.round(endY[i]));
+    }
+
+    @Benchmark
+    public void lineGraphicsAntialiased() {
+        int i = angle();
+        smooth.draw(new Line2D.Double(400.3, 200.6, endX[i], endY[i]));
+    }
+
+    @Benchmark
+    public void lineRasterizer() {
+        int i = angle();
+        rasterizer.line(400.3, 200.6, endX[i], endY[i], 0xFF0000, width);
+    }
+
+    @Benchmark
+    public void circleGraphics() {
+        plain.drawOval(310, 111, 180, 180);
+    }
+
+    @Benchmark
+    public void circleGraphicsAntialiased() {
+        smooth.draw(new Ellipse2D.Double(310.3, 110.6, 180, 180));
+    }
+
+    @Benchmark
+    public void circleRasterizer() {
+        rasterizer.circle(400.3, 200.6, 90, 0xFF0000, width);
+    }
+}
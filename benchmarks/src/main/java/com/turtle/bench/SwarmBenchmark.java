@@ -0,0 +1,78 @@
+package com.turtle.bench;
+
+import com.turtle.CompiledScript;
+import com.turtle.HeadlessTurtle;
+import com.turtle.ScriptCompiler;
+import com.turtle.ScriptInterpreter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Eight polygons in separate parts of the canvas, 360 wide pen strokes each: drawn by eight named
+// turtles taking turns, whose strokes are merged in parallel, against the engine's own turtle
+// drawing them one polygon after another. Each run starts on a cleared canvas, so the display
+// list does not grow without bound; the polygons close, so the named turtles end where they began.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwarmBenchmark {
+    private static final int TURTLES = 8;
+
+    @Param({"false", "true"})
+    public boolean antialias;
+
+    private HeadlessTurtle swarm;
+    private CompiledScript swarmScript;
+    private HeadlessTurtle single;
+    private CompiledScript singleScript;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        swarm = new HeadlessTurtle();
+        swarm.setAntialias(antialias);
+        ScriptCompiler compiler = new ScriptCompiler();
+        StringBuilder loop = new StringBuilder("repeat 360 [");
+        StringBuilder sequence = new StringBuilder();
+        int line = 0;
+        for (int t = 0; t < TURTLES; t++) {
+            String move = "penup right 90 forward " + (t % 4 * 180 - 270) + " right 90 forward " + (t / 4 * 180 - 90)
+                + " left 180 pendown penwidth 6";
+            compiler.addLine("turtle create t" + t, ++line);
+            compiler.addLine("t" + t + " repeat 1 [ " + move + " ]", ++line);
+            loop.append(" t").append(t).append(" forward 6 t").append(t).append(" right 10");
+            sequence.append("reset ").append(move).append(" repeat 360 [ forward 6 right 10 ]\n");
+        }
+        ScriptInterpreter.execute(compiler.build(), swarm);
+        compiler.addLine(loop.append(" ]").toString(), ++line);
+        swarmScript = compiler.build();
+
+        single = new HeadlessTurtle();
+        single.setAntialias(antialias);
+        singleScript = ScriptCompiler.compile(sequence.toString());
+    }
+
+    @Benchmark
+    public int namedTurtles() {
+        swarm.clear();
+        return ScriptInterpreter.execute(swarmScript, swarm);
+    }
+
+    @Benchmark
+    public int oneTurtle() {
+        single.clear();
+        return ScriptInterpreter.execute(singleScript, single);
+    }
+}